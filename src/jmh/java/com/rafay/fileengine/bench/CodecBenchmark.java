@@ -0,0 +1,82 @@
+// src/jmh/java/com/rafay/fileengine/bench/CodecBenchmark.java
+package com.rafay.fileengine.bench;
+
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the ZeroMQ wire formats: the original JSON protocol ({@code MessageUtils} shapes, via Gson)
+ * against protobuf binary frames, for a 150-term index request and a 100-hit ranked search reply.
+ * Run with {@code -prof gc} to compare the garbage each format produces per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"JSON", "BINARY"})
+    ZmqCodec.Format format;
+
+    private FileEngineProto.ZmqMessage indexRequest;
+    private FileEngineProto.ZmqMessage searchReply;
+    private byte[] indexRequestFrame;
+    private byte[] searchReplyFrame;
+
+    @Setup(Level.Trial)
+    public void messages() {
+        Random random = new Random(42);
+        indexRequest = FileEngineProto.ZmqMessage.newBuilder()
+                .setIndexRequest(FileEngineProto.IndexRequest.newBuilder()
+                        .setClientId("bench")
+                        .setFilePath(ZipfCorpus.path(1))
+                        .putAllWordFrequencies(new ZipfCorpus(200_000, 1.0).document(random, 150)))
+                .build();
+        FileEngineProto.SearchReply.Builder reply = FileEngineProto.SearchReply.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            reply.addResults(FileEngineProto.SearchResult.newBuilder()
+                    .setDocumentPath(ZipfCorpus.path(random.nextInt(1_000_000)))
+                    .setTotalFrequency(1 + random.nextInt(20))
+                    .setScore(20 * random.nextDouble()));
+        }
+        searchReply = FileEngineProto.ZmqMessage.newBuilder().setSearchReply(reply).build();
+        indexRequestFrame = ZmqCodec.encode(indexRequest, format);
+        searchReplyFrame = ZmqCodec.encode(searchReply, format);
+    }
+
+    @Benchmark
+    public byte[] encodeIndexRequest() {
+        return ZmqCodec.encode(indexRequest, format);
+    }
+
+    @Benchmark
+    public FileEngineProto.ZmqMessage decodeIndexRequest() {
+        return ZmqCodec.decode(indexRequestFrame);
+    }
+
+    @Benchmark
+    public byte[] encodeSearchReply() {
+        return ZmqCodec.encode(searchReply, format);
+    }
+
+    @Benchmark
+    public FileEngineProto.ZmqMessage decodeSearchReply() {
+        return ZmqCodec.decode(searchReplyFrame);
+    }
+}
@@ -0,0 +1,82 @@
+// src/jmh/java/com/rafay/fileengine/bench/IndexingBenchmark.java
+package com.rafay.fileengine.bench;
+
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Documents indexed per second into an in-memory index, one ComputeIndex-style call per document
+ * versus one IndexStream-style batch of {@value #BATCH}. Every iteration starts from an empty index
+ * and each document gets a new path, so the index grows (and merges) as it would under real ingest.
+ * Document contents cycle through a pre-generated Zipfian pool, so generating them isn't measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IndexingBenchmark {
+    private static final int BATCH = 256;
+    private static final int POOL = 4096;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    IndexStorage storage;
+
+    @Param({"150"})
+    int termsPerDocument;
+
+    private Map<String, Integer>[] pool;
+    private InvertedIndex index;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void generate() {
+        ZipfCorpus corpus = new ZipfCorpus(200_000, 1.0);
+        Random random = new Random(42);
+        pool = new Map[POOL];
+        for (int i = 0; i < POOL; i++) {
+            pool[i] = corpus.document(random, termsPerDocument);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyIndex() {
+        index = new InvertedIndex(storage);
+        next = 0;
+    }
+
+    @Benchmark
+    public void indexDocument() {
+        index.indexDocument(ZipfCorpus.path(next), pool[next++ % POOL]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void indexBatch() {
+        Map<String, Map<String, Integer>> batch = new LinkedHashMap<>();
+        for (int i = 0; i < BATCH; i++) {
+            batch.put(ZipfCorpus.path(next), pool[next++ % POOL]);
+        }
+        index.indexDocuments(batch);
+    }
+}
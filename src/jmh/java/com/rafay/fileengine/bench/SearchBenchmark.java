@@ -0,0 +1,103 @@
+// src/jmh/java/com/rafay/fileengine/bench/SearchBenchmark.java
+package com.rafay.fileengine.bench;
+
+import com.rafay.fileengine.index.BooleanQuery;
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.index.ScoredDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency distribution (JMH sample mode, so percentiles are reported) against a Zipfian corpus,
+ * across corpus sizes and how many documents the query terms occur in:
+ * <ul>
+ *   <li>{@code COMMON}: term ranks 0-9, in most documents;</li>
+ *   <li>{@code MEDIUM}: ranks 100-199, in a few percent of documents;</li>
+ *   <li>{@code RARE}: ranks 10000-10099, in a handful of documents.</li>
+ * </ul>
+ * Each query is two terms from the band, cycling through a fixed, seeded list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+    private static final int QUERIES = 64;
+
+    public enum Selectivity {
+        COMMON(0, 10), MEDIUM(100, 100), RARE(10_000, 100);
+
+        final int firstRank;
+        final int ranks;
+
+        Selectivity(int firstRank, int ranks) {
+            this.firstRank = firstRank;
+            this.ranks = ranks;
+        }
+    }
+
+    @Param({"10000", "100000"})
+    int corpusSize;
+
+    @Param({"COMMON", "MEDIUM", "RARE"})
+    Selectivity selectivity;
+
+    @Param({"HEAP"})
+    IndexStorage storage;
+
+    private InvertedIndex index;
+    private BooleanQuery[] anyOf;
+    private BooleanQuery[] allOf;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void buildIndex() throws InterruptedException {
+        index = new InvertedIndex(storage);
+        new ZipfCorpus(200_000, 1.0).fill(index, corpusSize, 150, new Random(42));
+        Random random = new Random(7);
+        anyOf = new BooleanQuery[QUERIES];
+        allOf = new BooleanQuery[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            String a = ZipfCorpus.term(selectivity.firstRank + random.nextInt(selectivity.ranks));
+            String b = ZipfCorpus.term(selectivity.firstRank + random.nextInt(selectivity.ranks));
+            anyOf[q] = BooleanQuery.anyOf(List.of(a, b));
+            allOf[q] = BooleanQuery.and(BooleanQuery.term(a), BooleanQuery.term(b));
+        }
+    }
+
+    // BM25 top 10 of "a OR b" (WAND)
+    @Benchmark
+    public List<ScoredDocument> topK() {
+        return index.topK(anyOf[next++ % QUERIES], 10);
+    }
+
+    // Every match of "a OR b", unranked
+    @Benchmark
+    public Map<String, Integer> unranked() {
+        return index.search(anyOf[next++ % QUERIES]);
+    }
+
+    // BM25 top 10 of "a AND b"
+    @Benchmark
+    public List<ScoredDocument> conjunction() {
+        return index.topK(allOf[next++ % QUERIES], 10);
+    }
+}
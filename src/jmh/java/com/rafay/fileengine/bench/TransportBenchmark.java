@@ -0,0 +1,114 @@
+// src/jmh/java/com/rafay/fileengine/bench/TransportBenchmark.java
+package com.rafay.fileengine.bench;
+
+import com.rafay.fileengine.client.FileClient;
+import com.rafay.fileengine.client.ZeroMQFileClient;
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.server.FileServer;
+import com.rafay.fileengine.server.ZeroMQFileServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback round trips through the real servers and clients, one request at a time: FileServer and
+ * FileClient over gRPC, ZeroMQFileServer and ZeroMQFileClient over ZeroMQ (binary or JSON frames).
+ * Both servers share one index pre-filled with a 10,000-document Zipfian corpus, so the
+ * difference between transports is the protocol stack rather than the search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransportBenchmark {
+    public enum Transport { GRPC, ZMQ_BINARY, ZMQ_JSON }
+
+    @Param({"GRPC", "ZMQ_BINARY", "ZMQ_JSON"})
+    Transport transport;
+
+    private FileServer grpcServer;
+    private ZeroMQFileServer zmqServer;
+    private FileClient grpcClient;
+    private ZeroMQFileClient zmqClient;
+    private Map<String, Integer> document;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException, InterruptedException {
+        InvertedIndex index = new InvertedIndex();
+        ZipfCorpus corpus = new ZipfCorpus(200_000, 1.0);
+        Random random = new Random(42);
+        corpus.fill(index, 10_000, 150, random);
+        document = corpus.document(random, 150);
+        int port = freePort();
+        if (transport == Transport.GRPC) {
+            // No result cache, so every search reaches the index as it does over ZeroMQ
+            grpcServer = new FileServer(index, 0);
+            grpcServer.start(port);
+            grpcClient = new FileClient("localhost", port);
+            grpcClient.registerWithServer("bench");
+        } else {
+            zmqServer = new ZeroMQFileServer(index, 1);
+            zmqServer.start(port);
+            zmqClient = new ZeroMQFileClient("bench", transport == Transport.ZMQ_JSON ? ZmqCodec.Format.JSON : ZmqCodec.Format.BINARY);
+            zmqClient.connect("localhost", port);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        if (grpcClient != null) {
+            grpcClient.shutdown();
+            grpcServer.stop();
+        }
+        if (zmqClient != null) {
+            zmqClient.close();
+            zmqServer.stop();
+        }
+    }
+
+    // BM25 top 10 for two mid-frequency terms
+    @Benchmark
+    public FileEngineProto.SearchReply search() {
+        FileEngineProto.SearchRequest.Builder request = FileEngineProto.SearchRequest.newBuilder()
+                .addQueryTerms(ZipfCorpus.term(100 + next % 50))
+                .addQueryTerms(ZipfCorpus.term(150 + next++ % 50))
+                .setLimit(10);
+        return transport == Transport.GRPC ? grpcClient.search(request) : zmqClient.search(request);
+    }
+
+    // Re-index one 150-term document (a new version each time, so the index stays the same size)
+    @Benchmark
+    public FileEngineProto.IndexReply index() {
+        FileEngineProto.IndexRequest.Builder request = FileEngineProto.IndexRequest.newBuilder()
+                .setFilePath(ZipfCorpus.path(next++ % 1000))
+                .putAllWordFrequencies(document);
+        return transport == Transport.GRPC ? grpcClient.index(request) : zmqClient.index(request);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
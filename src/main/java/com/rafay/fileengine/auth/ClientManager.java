@@ -2,23 +2,113 @@
 package com.rafay.fileengine.auth;
 
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Credentials of registered clients: a long-lived API key per client, and short-lived session tokens
+ * opened with it.
+ * <p>
+ * Both are kept in {@link ConcurrentHashMap}s, so gRPC handler threads check them concurrently without
+ * locking, and secrets are compared in constant time (every character, like
+ * {@link java.security.MessageDigest#isEqual}) so response times don't reveal how much of a guess was right.
+ * A session token is {@code <id>.<secret>}: checking one is a single lookup by id plus the comparison of
+ * the secret. Clients send the token instead of their API key,
+ * so the key itself only crosses the wire to open a session.
+ * <p>
+ * A client id belongs to whoever registered it first. Registering it again takes its current API key, and
+ * then replaces the key and revokes every session opened with the old one; without the key it is refused, so
+ * nobody can take over an id (and, with tenant partitions, its documents) by registering it.
+ */
 public class ClientManager {
+    public static final Duration DEFAULT_SESSION_TTL = Duration.ofMinutes(15);
     private static final SecureRandom secureRandom = new SecureRandom();
-    private final Map<String, String> clientApiKeyMap = new HashMap<>();
+    // Expired sessions are swept once per this many sessions opened
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final ConcurrentHashMap<String, Credential> credentials = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final long sessionTtlNanos;
+
+    // A client's current API key; revoked once the client registers again
+    private static final class Credential {
+        final String apiKey;
+        volatile boolean revoked;
+
+        Credential(String apiKey) {
+            this.apiKey = apiKey;
+        }
+    }
+
+    private record Session(String clientId, String secret, long expiresAtNanos, Credential credential) {
+    }
+
+    /**
+     * A session token and when it stops being accepted.
+     * @param expiresAtMillis Expiry as epoch milliseconds.
+     */
+    public record SessionToken(String token, long expiresAtMillis) {
+    }
+
+    public ClientManager() {
+        this(DEFAULT_SESSION_TTL);
+    }
+
+    /**
+     * @param sessionTtl How long a session token is accepted after it is opened.
+     */
+    public ClientManager(Duration sessionTtl) {
+        if (sessionTtl.isNegative() || sessionTtl.isZero()) {
+            throw new IllegalArgumentException("Session TTL must be positive");
+        }
+        this.sessionTtlNanos = sessionTtl.toNanos();
+    }
+
+    // Sessions last SESSION_TTL_SECONDS (default 900)
+    public static ClientManager fromEnv() {
+        return new ClientManager(Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("SESSION_TTL_SECONDS",
+                String.valueOf(DEFAULT_SESSION_TTL.toSeconds())).trim())));
+    }
 
     /**
      * Register a new client and generate a unique API key.
      * @param clientId The client's unique identifier.
-     * @return The generated API key.
+     * @return The generated API key, or null if the id is already registered.
      */
     public String registerClient(String clientId) {
-        String apiKey = generateApiKey();
-        clientApiKeyMap.put(clientId, apiKey);
-        return apiKey;
+        return registerClient(clientId, null);
+    }
+
+    /**
+     * Register a client, or give one that is already registered a new key if {@code currentApiKey} is its key.
+     * The old key and every session opened with it stop working.
+     * @param clientId The client's unique identifier.
+     * @param currentApiKey The id's current API key; null (or anything) for an id nobody has registered.
+     * @return The generated API key, or null if the id is registered and {@code currentApiKey} is not its key.
+     */
+    public String registerClient(String clientId, String currentApiKey) {
+        Credential fresh = new Credential(generateSecret());
+        Credential[] replaced = new Credential[1];
+        Credential current = credentials.compute(clientId, (id, existing) -> {
+            if (existing == null) {
+                return fresh;
+            }
+            if (currentApiKey != null && constantTimeEquals(existing.apiKey, currentApiKey, 0)) {
+                replaced[0] = existing;
+                return fresh;
+            }
+            return existing;
+        });
+        if (current != fresh) {
+            return null;
+        }
+        if (replaced[0] != null) {
+            replaced[0].revoked = true;
+        }
+        return fresh.apiKey;
     }
 
     /**
@@ -28,17 +118,97 @@ public class ClientManager {
      * @return true if the API key is valid, false otherwise.
      */
     public boolean validateApiKey(String clientId, String apiKey) {
-        String expectedKey = clientApiKeyMap.get(clientId);
-        return expectedKey != null && expectedKey.equals(apiKey);
+        return credential(clientId, apiKey) != null;
+    }
+
+    /**
+     * Open a session for a client, to be used in place of its API key until it expires.
+     * @return The session, or null if the API key is not valid.
+     */
+    public SessionToken openSession(String clientId, String apiKey) {
+        Credential credential = credential(clientId, apiKey);
+        if (credential == null) {
+            return null;
+        }
+        if (opened.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            long now = System.nanoTime();
+            sessions.values().removeIf(session -> now - session.expiresAtNanos >= 0 || session.credential.revoked);
+        }
+        String id = generateId();
+        String secret = generateSecret();
+        long ttlMillis = sessionTtlNanos / 1_000_000;
+        sessions.put(id, new Session(clientId, secret, System.nanoTime() + sessionTtlNanos, credential));
+        return new SessionToken(id + "." + secret, System.currentTimeMillis() + ttlMillis);
+    }
+
+    /**
+     * Validate a session token opened by {@link #openSession} for this client.
+     * @return true if the token belongs to the client and has neither expired nor been revoked.
+     */
+    public boolean validateSession(String clientId, String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        String id = token.substring(0, dot);
+        Session session = sessions.get(id);
+        if (session == null || !session.clientId.equals(clientId)) {
+            return false;
+        }
+        if (System.nanoTime() - session.expiresAtNanos >= 0 || session.credential.revoked) {
+            sessions.remove(id, session);
+            return false;
+        }
+        return constantTimeEquals(session.secret, token, dot + 1);
+    }
+
+    /**
+     * Validate whichever credential a request carries: its session token if it has one, else its API key.
+     */
+    public boolean authenticate(String clientId, String apiKey, String sessionToken) {
+        return sessionToken.isEmpty() ? validateApiKey(clientId, apiKey) : validateSession(clientId, sessionToken);
+    }
+
+    // Sessions not yet swept, including expired ones
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    private Credential credential(String clientId, String apiKey) {
+        Credential credential = credentials.get(clientId);
+        if (credential == null || apiKey == null) {
+            return null;
+        }
+        return constantTimeEquals(credential.apiKey, apiKey, 0) ? credential : null;
+    }
+
+    // Whether provided.substring(from) equals expected, taking the same time wherever they differ.
+    // Only the length can show early, and every secret here has the same length.
+    private static boolean constantTimeEquals(String expected, String provided, int from) {
+        if (provided.length() - from != expected.length()) {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            difference |= expected.charAt(i) ^ provided.charAt(from + i);
+        }
+        return difference == 0;
     }
 
     /**
      * Generate a cryptographically secure API key.
      * @return A Base64-encoded 256-bit random key.
      */
-    private String generateApiKey() {
+    private static String generateSecret() {
         byte[] keyBytes = new byte[32]; // 256 bits
         secureRandom.nextBytes(keyBytes);
         return Base64.getEncoder().encodeToString(keyBytes);
     }
-}
\ No newline at end of file
+
+    // A session's public id; Base64url, so it never contains the '.' that separates it from the secret
+    private static String generateId() {
+        byte[] idBytes = new byte[16];
+        secureRandom.nextBytes(idBytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(idBytes);
+    }
+}
@@ -0,0 +1,182 @@
+// src/main/java/com/rafay/fileengine/client/AsyncFileClient.java
+package com.rafay.fileengine.client;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking gRPC client: every call returns a {@link CompletableFuture} at once, so one thread can
+ * keep thousands of requests in flight.
+ * <p>
+ * Calls are spread round-robin over a pool of channels, each its own HTTP/2 connection, so they are
+ * not all multiplexed through one socket and one Netty event loop. At most {@code maxInFlight}
+ * calls are outstanding; a call beyond that blocks its caller until one completes, which keeps a
+ * fast producer from queuing unbounded work on a slow server.
+ * <p>
+ * Futures complete on a gRPC event loop thread. Dependent stages that block or take long should
+ * use the {@code ...Async} variants so they don't stall other calls' replies.
+ */
+public class AsyncFileClient implements AutoCloseable {
+    private final ManagedChannel[] channels;
+    private final IndexServiceGrpc.IndexServiceStub[] stubs;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private String apiKey;
+    private String clientId;
+    // Sent instead of the API key; renewing it blocks the call that finds it due
+    private SessionCredentials session;
+
+    /**
+     * @param channels Connections to open to the server.
+     * @param maxInFlight Most calls outstanding at once, across all channels.
+     */
+    public AsyncFileClient(String host, int port, int channels, int maxInFlight) {
+        if (channels < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("channels and maxInFlight must be at least 1");
+        }
+        this.channels = new ManagedChannel[channels];
+        this.stubs = new IndexServiceGrpc.IndexServiceStub[channels];
+        for (int i = 0; i < channels; i++) {
+            // Replies are only handed to a future, so there is no need to hop to another thread for them
+            this.channels[i] = ManagedChannelBuilder.forAddress(host, port)
+                    .usePlaintext()
+                    .directExecutor()
+                    .build();
+            this.stubs[i] = IndexServiceGrpc.newStub(this.channels[i]);
+        }
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    // Constructor that uses environment variables for host, port, CLIENT_CHANNELS and CLIENT_MAX_IN_FLIGHT
+    public AsyncFileClient() {
+        this(System.getenv().getOrDefault("SERVER_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("SERVER_PORT", "8080").trim()),
+                Integer.parseInt(System.getenv().getOrDefault("CLIENT_CHANNELS", "4").trim()),
+                Integer.parseInt(System.getenv().getOrDefault("CLIENT_MAX_IN_FLIGHT", "1024").trim()));
+    }
+
+    // Register with the server and keep the API key; blocks until the server replies
+    public void registerWithServer(String clientId) {
+        registerWithServer(clientId, "");
+    }
+
+    /**
+     * Register an id this client may already hold.
+     * @param currentApiKey The id's current API key, which the server then replaces; "" for a new id.
+     */
+    public void registerWithServer(String clientId, String currentApiKey) {
+        this.clientId = clientId;
+        FileEngineProto.RegisterReply reply = IndexServiceGrpc.newBlockingStub(channels[0])
+                .registerClient(FileEngineProto.RegisterRequest.newBuilder().setClientId(clientId).setApiKey(currentApiKey).build());
+        if (!"SUCCESS".equals(reply.getStatus())) {
+            System.out.println("ERROR: client registration failed - " + reply.getMessage());
+            throw new RuntimeException("Failed to register: " + reply.getMessage());
+        }
+        this.apiKey = reply.getApiKey();
+        this.session = new SessionCredentials(clientId, reply, IndexServiceGrpc.newBlockingStub(channels[0]));
+        System.out.println("Client registered. API Key: " + this.apiKey);
+    }
+
+    /**
+     * Send one ComputeIndex with this client's credentials.
+     * @return The reply; completes exceptionally with a {@link io.grpc.StatusRuntimeException} if the call fails.
+     */
+    public CompletableFuture<FileEngineProto.IndexReply> index(FileEngineProto.IndexRequest.Builder request)
+            throws InterruptedException {
+        FileEngineProto.IndexRequest built = request.setClientId(this.clientId).setSessionToken(session.token()).build();
+        inFlight.acquire();
+        Reply<FileEngineProto.IndexReply> reply = new Reply<>();
+        stub().computeIndex(built, reply);
+        return reply.future;
+    }
+
+    /**
+     * Send one ComputeSearch with this client's credentials.
+     * @return The reply; completes exceptionally with a {@link io.grpc.StatusRuntimeException} if the call fails.
+     */
+    public CompletableFuture<FileEngineProto.SearchReply> search(FileEngineProto.SearchRequest.Builder request)
+            throws InterruptedException {
+        FileEngineProto.SearchRequest built = request.setClientId(this.clientId).setSessionToken(session.token()).build();
+        inFlight.acquire();
+        Reply<FileEngineProto.SearchReply> reply = new Reply<>();
+        stub().computeSearch(built, reply);
+        return reply.future;
+    }
+
+    /**
+     * Send one ComputeIndexDelta with this client's credentials.
+     * @return The reply, with status STALE if the server needs the whole document instead.
+     */
+    public CompletableFuture<FileEngineProto.IndexReply> indexDelta(FileEngineProto.IndexDeltaRequest.Builder request)
+            throws InterruptedException {
+        FileEngineProto.IndexDeltaRequest built = request.setClientId(this.clientId).setSessionToken(session.token()).build();
+        inFlight.acquire();
+        Reply<FileEngineProto.IndexReply> reply = new Reply<>();
+        stub().computeIndexDelta(built, reply);
+        return reply.future;
+    }
+
+    // Calls sent that have not completed yet
+    public int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public void shutdown() throws InterruptedException {
+        for (ManagedChannel channel : channels) {
+            channel.shutdown();
+        }
+        for (ManagedChannel channel : channels) {
+            channel.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    // Like shutdown(), but if interrupted it drops calls still running and keeps the interrupt flag
+    @Override
+    public void close() {
+        try {
+            shutdown();
+        } catch (InterruptedException e) {
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private IndexServiceGrpc.IndexServiceStub stub() {
+        return stubs[Math.floorMod(next.getAndIncrement(), stubs.length)];
+    }
+
+    // Completes a future with a unary call's reply and frees its in-flight slot
+    private final class Reply<T> implements StreamObserver<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        private T value;
+
+        @Override
+        public void onNext(T value) {
+            this.value = value;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            inFlight.release();
+            future.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            inFlight.release();
+            future.complete(value);
+        }
+    }
+}
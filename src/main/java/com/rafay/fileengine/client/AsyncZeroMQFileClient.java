@@ -0,0 +1,231 @@
+// src/main/java/com/rafay/fileengine/client/AsyncZeroMQFileClient.java
+package com.rafay.fileengine.client;
+
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Pipelined ZeroMQ client: requests are sent without waiting for earlier replies, and each call returns
+ * a {@link CompletableFuture} completed when its reply arrives.
+ * <p>
+ * A background I/O thread owns the DEALER socket, since ZeroMQ sockets are not thread-safe. Callers encode
+ * their request on their own thread and pass the frame to it over an inproc pipe, so any number of
+ * threads can share one client. Every request carries a {@code request_id}, which the server echoes, and
+ * replies are matched to futures by it: the server's workers answer in whatever order they finish.
+ * <p>
+ * At most {@code maxInFlight} requests are outstanding (the send window); a call beyond that blocks its
+ * caller until a reply or timeout frees a slot. A request without a reply after {@code timeoutMillis}
+ * fails with a {@link TimeoutException}, and a late reply to it is dropped. Requests are always sent in
+ * the binary format, the only one with request ids.
+ * <p>
+ * Futures complete on the I/O thread. Dependent stages that block or take long should use the
+ * {@code ...Async} variants so they don't hold up other replies.
+ */
+@SuppressWarnings("deprecation") // Suppresses warnings for ZMQ class usage
+public class AsyncZeroMQFileClient implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(AsyncZeroMQFileClient.class.getName());
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+    // How often the I/O thread wakes up to check for close
+    private static final int POLL_INTERVAL_MS = 100;
+
+    private final ZMQ.Context context = ZMQ.context(1);
+    private final String clientId;
+    private final String outboxEndpoint = "inproc://zmq-client-outbox-" + INSTANCES.incrementAndGet();
+    private final long timeoutMillis;
+    private final Semaphore window;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final ConcurrentHashMap<Long, CompletableFuture<FileEngineProto.ZmqMessage>> pending = new ConcurrentHashMap<>();
+    // Callers' end of the pipe to the I/O thread, used under its own lock
+    private ZMQ.Socket outbox;
+    private Thread ioThread;
+    private volatile boolean running;
+
+    /**
+     * @param clientId The client's identity.
+     * @param maxInFlight Most requests awaiting a reply at once.
+     * @param timeoutMillis How long to wait for each reply.
+     */
+    public AsyncZeroMQFileClient(String clientId, int maxInFlight, long timeoutMillis) {
+        if (maxInFlight < 1 || timeoutMillis < 1) {
+            throw new IllegalArgumentException("maxInFlight and timeoutMillis must be at least 1");
+        }
+        this.clientId = clientId;
+        this.window = new Semaphore(maxInFlight);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Connect to the ZeroMQ server and start the I/O thread.
+     * @param serverAddress The server's IP or hostname (e.g., "localhost").
+     * @param port The port the server is listening on (e.g., 9090).
+     */
+    public void connect(String serverAddress, int port) {
+        ZMQ.Socket dealer = context.socket(ZMQ.DEALER);
+        dealer.setIdentity(clientId.getBytes());
+        dealer.setLinger(0);
+        // The window bounds what is queued, so the sockets need no limit of their own
+        dealer.setSndHWM(0);
+        dealer.setRcvHWM(0);
+        dealer.connect("tcp://" + serverAddress + ":" + port);
+        ZMQ.Socket inbox = context.socket(ZMQ.PULL);
+        inbox.setRcvHWM(0);
+        inbox.bind(outboxEndpoint);
+        outbox = context.socket(ZMQ.PUSH);
+        outbox.setSndHWM(0);
+        outbox.setLinger(0);
+        outbox.connect(outboxEndpoint);
+
+        running = true;
+        ioThread = new Thread(() -> runIo(dealer, inbox), "zmq-client-io-" + clientId);
+        ioThread.setDaemon(true);
+        ioThread.start();
+        System.out.println("Connected to server at " + serverAddress + ":" + port);
+    }
+
+    /**
+     * Send one index request as this client. An error frame from the server comes back as an ERROR reply.
+     */
+    public CompletableFuture<FileEngineProto.IndexReply> index(FileEngineProto.IndexRequest.Builder request)
+            throws InterruptedException {
+        return send(FileEngineProto.ZmqMessage.newBuilder().setIndexRequest(request.setClientId(clientId)))
+                .thenApply(reply -> reply.hasIndexReply() ? reply.getIndexReply()
+                        : FileEngineProto.IndexReply.newBuilder().setStatus("ERROR").setMessage(reply.getError()).build());
+    }
+
+    /**
+     * Send one search request as this client. An error frame from the server comes back as a reply with its
+     * error_message set.
+     */
+    public CompletableFuture<FileEngineProto.SearchReply> search(FileEngineProto.SearchRequest.Builder request)
+            throws InterruptedException {
+        return send(FileEngineProto.ZmqMessage.newBuilder().setSearchRequest(request.setClientId(clientId)))
+                .thenApply(reply -> reply.hasSearchReply() ? reply.getSearchReply()
+                        : FileEngineProto.SearchReply.newBuilder().setErrorMessage(reply.getError()).build());
+    }
+
+    // Requests sent whose replies have not arrived or timed out yet
+    public int inFlight() {
+        return pending.size();
+    }
+
+    // Take a window slot, register the future under a fresh id, and hand the frame to the I/O thread
+    private CompletableFuture<FileEngineProto.ZmqMessage> send(FileEngineProto.ZmqMessage.Builder message)
+            throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("Client is not connected");
+        }
+        long id = nextRequestId.incrementAndGet();
+        byte[] frame = ZmqCodec.encode(message.setRequestId(id).build(), ZmqCodec.Format.BINARY);
+        window.acquire();
+        CompletableFuture<FileEngineProto.ZmqMessage> reply = new CompletableFuture<>();
+        pending.put(id, reply);
+        // Whichever of reply, timeout or close comes first frees the slot, before the caller sees the result
+        CompletableFuture<FileEngineProto.ZmqMessage> released = reply.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((value, e) -> {
+                    if (pending.remove(id, reply)) {
+                        window.release();
+                    }
+                });
+        synchronized (outbox) {
+            // A caller that waited for a slot may find the client closed meanwhile
+            if (!running) {
+                reply.completeExceptionally(new IllegalStateException("Client closed"));
+                return released;
+            }
+            outbox.send(frame, 0);
+        }
+        return released;
+    }
+
+    // Forward queued frames to the server and complete futures with the server's replies
+    private void runIo(ZMQ.Socket dealer, ZMQ.Socket inbox) {
+        ZMQ.Poller poller = context.poller(2);
+        poller.register(inbox, ZMQ.Poller.POLLIN);
+        poller.register(dealer, ZMQ.Poller.POLLIN);
+        while (running) {
+            try {
+                if (poller.poll(POLL_INTERVAL_MS) <= 0) {
+                    continue;
+                }
+                if (poller.pollin(0)) {
+                    byte[] frame;
+                    while ((frame = inbox.recv(ZMQ.DONTWAIT)) != null) {
+                        dealer.send(frame, 0);
+                    }
+                }
+                if (poller.pollin(1)) {
+                    byte[] frame;
+                    while ((frame = dealer.recv(ZMQ.DONTWAIT)) != null) {
+                        complete(frame);
+                    }
+                }
+            } catch (ZMQException e) {
+                if (running) {
+                    logger.severe("Error in client I/O loop: " + e.getMessage());
+                }
+            }
+        }
+        poller.close();
+        inbox.close();
+        dealer.close();
+    }
+
+    private void complete(byte[] frame) {
+        FileEngineProto.ZmqMessage reply;
+        try {
+            reply = ZmqCodec.decode(frame);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Dropped malformed reply: " + e.getMessage());
+            return;
+        }
+        CompletableFuture<FileEngineProto.ZmqMessage> future = pending.get(reply.getRequestId());
+        if (future != null) {
+            future.complete(reply);
+        }
+    }
+
+    /**
+     * Stop the I/O thread, fail every request still awaiting a reply, and close the connection.
+     * An interrupt doesn't cut this short, since ZeroMQ can't shut down half-way; it is kept for the caller.
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        if (running) {
+            synchronized (outbox) {
+                running = false;
+            }
+            while (ioThread.isAlive()) {
+                try {
+                    ioThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            synchronized (outbox) {
+                outbox.close();
+            }
+        }
+        IllegalStateException closed = new IllegalStateException("Client closed");
+        for (CompletableFuture<FileEngineProto.ZmqMessage> future : pending.values()) {
+            future.completeExceptionally(closed);
+        }
+        // term() fails if the flag is set, so it is restored only once closing is done
+        interrupted |= Thread.interrupted();
+        context.term();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
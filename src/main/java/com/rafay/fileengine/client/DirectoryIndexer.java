@@ -0,0 +1,332 @@
+// src/main/java/com/rafay/fileengine/client/DirectoryIndexer.java
+package com.rafay.fileengine.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.logging.Logger;
+
+/**
+ * Client-side indexing pipeline: walks a directory tree and counts the words of every regular
+ * file in parallel, yielding a {@link ScannedFile} (word frequencies and content hash) as each file finishes.
+ * <p>
+ * One thread walks the tree and hands files to a pool of tokenizer threads. Small files are
+ * read into a per-thread direct buffer, larger ones are memory-mapped, and words are counted
+ * in a {@link TermCounter} without allocating per occurrence. At most {@code maxInFlight} files
+ * are being read or waiting to be consumed at any time, so a slow consumer (e.g. a flow-controlled
+ * {@code IndexStream}) throttles the disk and CPU work instead of letting results pile up.
+ * <p>
+ * Words are maximal runs of ASCII letters and digits and non-ASCII characters, lowercased
+ * (ASCII only; the server normalizes the rest). Words longer than {@value #MAX_WORD_LENGTH}
+ * bytes are skipped as they are almost always encoded data rather than text.
+ * Results arrive in completion order, not walk order.
+ */
+public final class DirectoryIndexer implements Iterator<ScannedFile>, Closeable {
+    private static final Logger logger = Logger.getLogger(DirectoryIndexer.class.getName());
+    static final int MAX_WORD_LENGTH = 64;
+    // Files up to this size are read into the thread's direct buffer; larger ones are mapped
+    private static final int DIRECT_READ_LIMIT = 1 << 20;
+    private static final long MAP_WINDOW = 1L << 28;
+    private static final ScannedFile END = new ScannedFile("", 0, 0, "", Map.of());
+    // Byte -> lowercased byte, or 0 for separators
+    private static final byte[] FOLD = new byte[256];
+    private static final ThreadLocal<Tokenizer> TOKENIZERS = ThreadLocal.withInitial(Tokenizer::new);
+
+    static {
+        for (int b = '0'; b <= '9'; b++) {
+            FOLD[b] = (byte) b;
+        }
+        for (int b = 'a'; b <= 'z'; b++) {
+            FOLD[b] = (byte) b;
+            FOLD[b - 'a' + 'A'] = (byte) b;
+        }
+        // UTF-8 lead and continuation bytes, so multi-byte characters stay inside words
+        for (int b = 0x80; b < 256; b++) {
+            FOLD[b] = (byte) b;
+        }
+    }
+
+    private final Path root;
+    private final ExecutorService tokenizers;
+    private final Semaphore inFlight;
+    private final BlockingQueue<ScannedFile> results = new LinkedBlockingQueue<>();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final Thread walker;
+    private final BiPredicate<Path, BasicFileAttributes> skip;
+    private ScannedFile next;
+    private volatile boolean closed;
+    // A path under the root could not be visited, so the walk missed whatever it holds
+    private volatile boolean unreadablePaths;
+    private volatile boolean complete;
+
+    private DirectoryIndexer(Path root, int threads, int maxInFlight, BiPredicate<Path, BasicFileAttributes> skip) {
+        this.root = root;
+        this.skip = skip;
+        this.inFlight = new Semaphore(maxInFlight);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.tokenizers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "tokenizer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.walker = new Thread(this::walk, "directory-walker");
+        this.walker.setDaemon(true);
+    }
+
+    /**
+     * Start crawling {@code root} with one tokenizer thread per core.
+     */
+    public static DirectoryIndexer crawl(Path root) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return crawl(root, cores, Math.max(64, cores * 16), (file, attrs) -> false);
+    }
+
+    /**
+     * Start crawling {@code root} with one tokenizer thread per core, leaving out files for which
+     * {@code skip} returns true before they are read (e.g. files unchanged since the last crawl).
+     * {@code skip} is called on the walker thread for every regular file.
+     */
+    public static DirectoryIndexer crawl(Path root, BiPredicate<Path, BasicFileAttributes> skip) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return crawl(root, cores, Math.max(64, cores * 16), skip);
+    }
+
+    /**
+     * Start crawling {@code root}.
+     * @param threads Number of tokenizer threads.
+     * @param maxInFlight Maximum number of files being read or waiting to be consumed.
+     * @param skip Files to leave out without reading them.
+     */
+    public static DirectoryIndexer crawl(Path root, int threads, int maxInFlight, BiPredicate<Path, BasicFileAttributes> skip) {
+        DirectoryIndexer indexer = new DirectoryIndexer(root, threads, maxInFlight, skip);
+        indexer.walker.start();
+        return indexer;
+    }
+
+    /**
+     * Count the words of a single file, with the same tokenization the crawler uses.
+     */
+    public static Map<String, Integer> countWords(Path file) throws IOException {
+        return scan(file).wordFrequencies();
+    }
+
+    /**
+     * Count the words of a single file and hash its content, in one pass over the bytes.
+     */
+    public static ScannedFile scan(Path file) throws IOException {
+        return TOKENIZERS.get().scan(file);
+    }
+
+    /**
+     * Blocks until the next file has been tokenized or the crawl is complete.
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = results.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                next = END;
+            }
+        }
+        return next != END;
+    }
+
+    @Override
+    public ScannedFile next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ScannedFile document = next;
+        next = null;
+        inFlight.release();
+        return document;
+    }
+
+    /**
+     * Number of files that could not be read (they are logged and skipped).
+     */
+    public int failedFiles() {
+        return failedFiles.get();
+    }
+
+    /**
+     * Whether the walk reached every path under the root: it ran to the end, was not closed early, and no
+     * path was unreadable. Files that failed to tokenize were still reached. Only meaningful once
+     * {@link #hasNext()} has returned false; until then it is false.
+     */
+    public boolean complete() {
+        return complete;
+    }
+
+    /**
+     * Stop crawling, e.g. when the consumer gives up before the end of the tree.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        walker.interrupt();
+        tokenizers.shutdownNow();
+    }
+
+    private void walk() {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (closed) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (!attrs.isRegularFile() || skip.test(file, attrs)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        inFlight.acquire();
+                    } catch (InterruptedException e) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    try {
+                        tokenizers.execute(() -> tokenize(file));
+                    } catch (RejectedExecutionException e) {
+                        // Closed while we were waiting for a permit
+                        return FileVisitResult.TERMINATE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    logger.warning("Skipping unreadable path " + file + ": " + e.getMessage());
+                    failedFiles.incrementAndGet();
+                    unreadablePaths = true;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            complete = !closed && !unreadablePaths;
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Directory walk of " + root + " failed: " + e.getMessage());
+        } finally {
+            tokenizers.shutdown();
+            try {
+                tokenizers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            results.add(END);
+        }
+    }
+
+    private void tokenize(Path file) {
+        try {
+            results.add(scan(file));
+        } catch (IOException | UncheckedIOException e) {
+            logger.warning("Skipping unreadable file " + file + ": " + e.getMessage());
+            failedFiles.incrementAndGet();
+            inFlight.release();
+        }
+    }
+
+    // Per-thread scanning state, reused across files
+    private static final class Tokenizer {
+        private final TermCounter counter = new TermCounter();
+        private final MessageDigest digest = newDigest();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(DIRECT_READ_LIMIT);
+        private final byte[] word = new byte[MAX_WORD_LENGTH];
+        private int length;
+        private int hash;
+        private boolean overlong;
+
+        ScannedFile scan(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // Taken before reading, so a concurrent write shows up as a change on the next crawl
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                long size = channel.size();
+                if (size <= DIRECT_READ_LIMIT) {
+                    buffer.clear();
+                    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                        // Fill until EOF or the buffer is full (the file may have grown)
+                    }
+                    buffer.flip();
+                    size = buffer.limit();
+                    consume(buffer);
+                } else {
+                    // Words spanning two windows are carried over in 'word'
+                    for (long position = 0; position < size; position += MAP_WINDOW) {
+                        consume(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+                    }
+                }
+                endWord();
+                return new ScannedFile(file.toString(), size, modified, HexFormat.of().formatHex(digest.digest()), counter.toMap());
+            } finally {
+                counter.clear();
+                digest.reset();
+                length = 0;
+                hash = 0;
+                overlong = false;
+            }
+        }
+
+        private void consume(ByteBuffer bytes) {
+            digest.update(bytes.duplicate());
+            scanWords(bytes);
+        }
+
+        private void scanWords(ByteBuffer bytes) {
+            for (int i = bytes.position(), end = bytes.limit(); i < end; i++) {
+                byte b = FOLD[bytes.get(i) & 0xff];
+                if (b != 0) {
+                    if (length < MAX_WORD_LENGTH) {
+                        word[length++] = b;
+                        hash = 31 * hash + b;
+                    } else {
+                        overlong = true;
+                    }
+                } else if (length > 0) {
+                    endWord();
+                }
+            }
+        }
+
+        private void endWord() {
+            if (length > 0 && !overlong) {
+                counter.add(word, length, hash);
+            }
+            length = 0;
+            hash = 0;
+            overlong = false;
+        }
+
+        private static MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+}
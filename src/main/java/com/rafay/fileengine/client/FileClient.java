@@ -1,48 +1,89 @@
 // src/main/java/com/rafay/fileengine/client/FileClient.java
 package com.rafay.fileengine.client;
 
+import com.rafay.fileengine.common.TermDictionary;
 import com.rafay.fileengine.proto.FileEngineProto;
 import com.rafay.fileengine.proto.IndexServiceGrpc;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap; // You need this import
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 public class FileClient {
+    // IndexStream messages at least this large are gzip-compressed when compression is on
+    static final int COMPRESS_MIN_BYTES = 4096;
+
     private final ManagedChannel channel;
     private final IndexServiceGrpc.IndexServiceBlockingStub blockingStub;
+    private final IndexServiceGrpc.IndexServiceStub asyncStub;
+    // Send IndexStream documents as term ids against the stream's dictionary rather than as term -> count maps
+    private final boolean dictionaryEncoding;
+    private final boolean compression;
     private String apiKey; // Store the API key
+    // Sent instead of the API key, which only opens sessions
+    private SessionCredentials session;
     private String clientId; // Store the client ID
 
     public FileClient(String host, int port) {
+        this(host, port, true, false);
+    }
+
+    /**
+     * @param dictionaryEncoding Whether IndexStream sends each term's text only once per stream (see {@link TermDictionary}).
+     * @param compression Whether large IndexStream messages are gzip-compressed, trading client and server CPU for bandwidth.
+     */
+    public FileClient(String host, int port, boolean dictionaryEncoding, boolean compression) {
         this.channel = ManagedChannelBuilder.forAddress(host, port)
                 .usePlaintext()
                 .build();
         this.blockingStub = IndexServiceGrpc.newBlockingStub(channel);
+        this.asyncStub = IndexServiceGrpc.newStub(channel);
+        this.dictionaryEncoding = dictionaryEncoding;
+        this.compression = compression;
     }
 
-    // Constructor that uses environment variables for host and port
+    // Constructor that uses environment variables for host, port, CLIENT_INDEX_ENCODING (dictionary or map)
+    // and CLIENT_COMPRESSION (none or gzip)
     public FileClient() {
-        String host = System.getenv().getOrDefault("SERVER_HOST", "localhost");
-        int port = Integer.parseInt(System.getenv().getOrDefault("SERVER_PORT", "8080").trim());
-        this.channel = ManagedChannelBuilder.forAddress(host, port)
-                .usePlaintext()
-                .build();
-        this.blockingStub = IndexServiceGrpc.newBlockingStub(channel);
+        this(System.getenv().getOrDefault("SERVER_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("SERVER_PORT", "8080").trim()),
+                !"map".equalsIgnoreCase(System.getenv().getOrDefault("CLIENT_INDEX_ENCODING", "dictionary").trim()),
+                "gzip".equalsIgnoreCase(System.getenv().getOrDefault("CLIENT_COMPRESSION", "none").trim()));
     }
 
     // Method to register with the server and get an API key
     public void registerWithServer(String clientId) {
+        registerWithServer(clientId, "");
+    }
+
+    /**
+     * Register an id this client may already hold, e.g. one registered by an earlier run.
+     * @param currentApiKey The id's current API key, which the server then replaces; "" for a new id.
+     */
+    public void registerWithServer(String clientId, String currentApiKey) {
         this.clientId = clientId;
         FileEngineProto.RegisterRequest request = FileEngineProto.RegisterRequest.newBuilder()
                 .setClientId(clientId)
+                .setApiKey(currentApiKey)
                 .build();
 
         FileEngineProto.RegisterReply reply = blockingStub.registerClient(request);
 
         if ("SUCCESS".equals(reply.getStatus())) {
             this.apiKey = reply.getApiKey();
+            this.session = new SessionCredentials(clientId, reply, blockingStub);
             System.out.println("Client registered. API Key: " + this.apiKey);
         } else {
             System.out.println("ERROR: client registration failed - " + reply.getMessage());
@@ -50,11 +91,25 @@ public class FileClient {
         }
     }
 
+    /**
+     * Send one ComputeIndex with this client's credentials and return the reply, printing nothing.
+     */
+    public FileEngineProto.IndexReply index(FileEngineProto.IndexRequest.Builder request) {
+        return blockingStub.computeIndex(request.setClientId(this.clientId).setSessionToken(session.token()).build());
+    }
+
+    /**
+     * Send one ComputeSearch with this client's credentials and return the reply, printing nothing.
+     */
+    public FileEngineProto.SearchReply search(FileEngineProto.SearchRequest.Builder request) {
+        return blockingStub.computeSearch(request.setClientId(this.clientId).setSessionToken(session.token()).build());
+    }
+
     // Corrected method: Takes a file path and a word frequency map
     public void sendIndexRequest(String filePath, Map<String, Integer> wordFreqs) {
         FileEngineProto.IndexRequest request = FileEngineProto.IndexRequest.newBuilder()
                 .setClientId(this.clientId)
-                .setApiKey(this.apiKey) // Use the stored key
+                .setSessionToken(session.token())
                 .setFilePath(filePath) // Use 'filePath' parameter
                 .putAllWordFrequencies(wordFreqs) // Use 'wordFreqs' parameter
                 .build();
@@ -66,11 +121,252 @@ public class FileClient {
         System.out.println("Index Reply: " + reply.getStatus() + " - " + reply.getMessage());
     }
 
+    /**
+     * Bulk-index documents over a single client-streaming IndexStream call.
+     * Credentials are sent only with the first document, and sending pauses whenever
+     * gRPC flow control reports the stream is not ready, so memory stays bounded.
+     * @param documents Document path -> word frequencies; consumed lazily, may be unbounded.
+     * @return The server's summary, including any per-document failures.
+     */
+    public FileEngineProto.IndexStreamReply sendIndexStream(Iterator<Map.Entry<String, Map<String, Integer>>> documents)
+            throws InterruptedException {
+        return streamIndexRequests(new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return documents.hasNext();
+            }
+
+            @Override
+            public FileEngineProto.IndexRequest.Builder next() {
+                Map.Entry<String, Map<String, Integer>> doc = documents.next();
+                return FileEngineProto.IndexRequest.newBuilder()
+                        .setFilePath(doc.getKey())
+                        .putAllWordFrequencies(doc.getValue());
+            }
+        });
+    }
+
+    // IndexStream over partially built requests; credentials are filled in on the first one
+    private FileEngineProto.IndexStreamReply streamIndexRequests(Iterator<FileEngineProto.IndexRequest.Builder> requests)
+            throws InterruptedException {
+        CompletableFuture<FileEngineProto.IndexStreamReply> summary = new CompletableFuture<>();
+        Object readyLock = new Object();
+
+        ClientResponseObserver<FileEngineProto.IndexRequest, FileEngineProto.IndexStreamReply> responseObserver =
+                new ClientResponseObserver<>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<FileEngineProto.IndexRequest> requestStream) {
+                        requestStream.setOnReadyHandler(() -> {
+                            synchronized (readyLock) {
+                                readyLock.notifyAll();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNext(FileEngineProto.IndexStreamReply reply) {
+                        summary.complete(reply);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        summary.completeExceptionally(t);
+                        synchronized (readyLock) {
+                            readyLock.notifyAll();
+                        }
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        summary.completeExceptionally(new IllegalStateException("IndexStream closed without a summary"));
+                    }
+                };
+
+        ClientCallStreamObserver<FileEngineProto.IndexRequest> requestStream =
+                (ClientCallStreamObserver<FileEngineProto.IndexRequest>) (compression
+                        ? asyncStub.withCompression("gzip") : asyncStub).indexStream(responseObserver);
+        TermDictionary.Encoder terms = dictionaryEncoding ? new TermDictionary.Encoder() : null;
+        boolean first = true;
+        // Stop early if the server already answered (e.g. it rejected our credentials)
+        while (requests.hasNext() && !summary.isDone()) {
+            synchronized (readyLock) {
+                while (!requestStream.isReady() && !summary.isDone()) {
+                    readyLock.wait(100);
+                }
+            }
+            FileEngineProto.IndexRequest.Builder request = requests.next();
+            if (first) {
+                request.setClientId(this.clientId).setSessionToken(session.token());
+                first = false;
+            }
+            if (terms != null) {
+                terms.encode(request);
+            }
+            FileEngineProto.IndexRequest message = request.build();
+            if (compression) {
+                // Small messages barely shrink, so they aren't worth the CPU
+                requestStream.setMessageCompression(message.getSerializedSize() >= COMPRESS_MIN_BYTES);
+            }
+            requestStream.onNext(message);
+        }
+        requestStream.onCompleted();
+
+        try {
+            FileEngineProto.IndexStreamReply reply = summary.get();
+            System.out.println("Index Stream Reply: " + reply.getStatus() + " - " + reply.getMessage());
+            return reply;
+        } catch (ExecutionException e) {
+            System.out.println("ERROR: index stream failed - " + e.getCause().getMessage());
+            throw new RuntimeException("Index stream failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Convenience overload for an in-memory batch of documents
+    public FileEngineProto.IndexStreamReply sendIndexStream(Map<String, Map<String, Integer>> documents)
+            throws InterruptedException {
+        return sendIndexStream(documents.entrySet().iterator());
+    }
+
+    /**
+     * Index every regular file under {@code root}: words are counted locally by a
+     * {@link DirectoryIndexer} and the results streamed to the server over IndexStream.
+     * Documents are indexed under their path as seen from this client.
+     */
+    public FileEngineProto.IndexStreamReply indexDirectory(Path root) throws InterruptedException {
+        try (DirectoryIndexer files = DirectoryIndexer.crawl(root)) {
+            FileEngineProto.IndexStreamReply reply = streamIndexRequests(new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return files.hasNext();
+                }
+
+                @Override
+                public FileEngineProto.IndexRequest.Builder next() {
+                    return wholeDocument(files.next());
+                }
+            });
+            if (files.failedFiles() > 0) {
+                System.out.println("WARNING: " + files.failedFiles() + " files could not be read");
+            }
+            return reply;
+        }
+    }
+
+    /**
+     * Re-index {@code root}, sending only what changed since the last call with the same manifest.
+     * <ul>
+     *   <li>Files whose size and modification time match the manifest are not read at all.</li>
+     *   <li>Files whose content hash is unchanged are not sent.</li>
+     *   <li>Changed files are sent as term-count deltas via ComputeIndexDelta. If the server's
+     *       copy is not the version the deltas were computed from, they are sent whole instead.</li>
+     *   <li>New files are sent whole over IndexStream.</li>
+     * </ul>
+     * The manifest is updated with what the server accepted and saved, even if the call fails part way.
+     * Files that have been deleted are dropped from the manifest but stay in the server's index. That is only done
+     * when the whole tree was crawled and sent without error, so files the crawl missed keep their entries.
+     * @param root The directory tree to index.
+     * @param manifestFile Where the manifest is kept between runs.
+     */
+    public FileEngineProto.IndexStreamReply indexDirectoryIncremental(Path root, Path manifestFile)
+            throws InterruptedException, IOException {
+        IndexManifest manifest = IndexManifest.load(manifestFile);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Map<String, IndexManifest.Entry> sentWhole = new HashMap<>();
+        int[] deltas = new int[1];
+        int[] scanned = new int[1];
+        FileEngineProto.IndexStreamReply reply = null;
+        boolean crawled = false;
+        try (DirectoryIndexer files = DirectoryIndexer.crawl(root, (file, attrs) -> {
+            seen.add(file.toString());
+            return manifest.isUnchanged(file, attrs);
+        })) {
+            reply = streamIndexRequests(new Iterator<>() {
+                private FileEngineProto.IndexRequest.Builder pending;
+
+                @Override
+                public boolean hasNext() {
+                    // Unchanged and delta-updated files are consumed here; only whole documents reach the stream
+                    while (pending == null && files.hasNext()) {
+                        ScannedFile file = files.next();
+                        scanned[0]++;
+                        IndexManifest.Entry current = new IndexManifest.Entry(file.size(), file.modifiedMillis(),
+                                file.contentHash(), file.wordFrequencies());
+                        IndexManifest.Entry previous = manifest.get(file.path());
+                        if (previous != null && previous.contentHash().equals(file.contentHash())) {
+                            manifest.put(file.path(), current);
+                        } else if (previous != null && sendIndexDelta(file, previous)) {
+                            manifest.put(file.path(), current);
+                            deltas[0]++;
+                        } else {
+                            sentWhole.put(file.path(), current);
+                            pending = wholeDocument(file);
+                        }
+                    }
+                    return pending != null;
+                }
+
+                @Override
+                public FileEngineProto.IndexRequest.Builder next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    FileEngineProto.IndexRequest.Builder request = pending;
+                    pending = null;
+                    return request;
+                }
+            });
+            // Every path under root went through the skip predicate, so 'seen' holds every file that still exists
+            crawled = files.complete();
+        } finally {
+            if (reply != null && !"ERROR".equals(reply.getStatus())) {
+                // Only record whole documents the server is known to have accepted
+                if (reply.getFailuresCount() == reply.getFailedCount()) {
+                    for (FileEngineProto.IndexFailure failure : reply.getFailuresList()) {
+                        sentWhole.remove(failure.getFilePath());
+                    }
+                    sentWhole.forEach(manifest::put);
+                }
+            }
+            if (crawled) {
+                manifest.retainAll(seen);
+            }
+            manifest.save();
+        }
+        System.out.println("Incremental index: " + (seen.size() - scanned[0]) + " files skipped unread, "
+                + (scanned[0] - deltas[0] - sentWhole.size()) + " unchanged, " + deltas[0] + " sent as deltas, "
+                + sentWhole.size() + " sent whole");
+        return reply;
+    }
+
+    // Send a changed file as term deltas; false if the server needs the whole document instead
+    private boolean sendIndexDelta(ScannedFile file, IndexManifest.Entry previous) {
+        FileEngineProto.IndexDeltaRequest request = FileEngineProto.IndexDeltaRequest.newBuilder()
+                .setClientId(this.clientId)
+                .setSessionToken(session.token())
+                .setFilePath(file.path())
+                .setBaseHash(previous.contentHash())
+                .setContentHash(file.contentHash())
+                .putAllTermDeltas(IndexManifest.delta(previous.wordFrequencies(), file.wordFrequencies()))
+                .build();
+        FileEngineProto.IndexReply reply = blockingStub.computeIndexDelta(request);
+        if ("ERROR".equals(reply.getStatus())) {
+            System.out.println("ERROR: index delta failed - " + reply.getMessage());
+        }
+        return "SUCCESS".equals(reply.getStatus());
+    }
+
+    private static FileEngineProto.IndexRequest.Builder wholeDocument(ScannedFile file) {
+        return FileEngineProto.IndexRequest.newBuilder()
+                .setFilePath(file.path())
+                .setContentHash(file.contentHash())
+                .putAllWordFrequencies(file.wordFrequencies());
+    }
+
     // Corrected method: Takes search terms
     public void sendSearchRequest(String... terms) {
         FileEngineProto.SearchRequest request = FileEngineProto.SearchRequest.newBuilder()
                 .setClientId(this.clientId)
-                .setApiKey(this.apiKey) // Use the stored key
+                .setSessionToken(session.token())
                 .addAllQueryTerms(java.util.Arrays.asList(terms))
                 .build();
 
@@ -81,17 +377,138 @@ public class FileClient {
         System.out.println("Search Results: " + reply.getResultsList());
     }
 
+    // Top-k search: the server ranks matches by BM25 and returns at most 'limit' of them
+    public void sendSearchRequest(int limit, String... terms) {
+        FileEngineProto.SearchRequest request = FileEngineProto.SearchRequest.newBuilder()
+                .setClientId(this.clientId)
+                .setSessionToken(session.token())
+                .addAllQueryTerms(java.util.Arrays.asList(terms))
+                .setLimit(limit)
+                .build();
+
+        FileEngineProto.SearchReply reply = blockingStub.computeSearch(request);
+        if (reply.getErrorMessage() != null && !reply.getErrorMessage().isEmpty()) {
+            System.out.println("ERROR: search request failed - " + reply.getErrorMessage());
+        }
+        System.out.println("Top " + limit + " Results: " + reply.getResultsList());
+    }
+
+    /**
+     * Boolean search, e.g. {@code AND(term "grpc", NOT(term "zeromq"))}; ranked by BM25 when {@code limit > 0}.
+     * @return The results, or an empty list if the server rejected the query.
+     */
+    public List<FileEngineProto.SearchResult> sendQueryRequest(int limit, FileEngineProto.Query query) {
+        FileEngineProto.SearchRequest request = FileEngineProto.SearchRequest.newBuilder()
+                .setClientId(this.clientId)
+                .setSessionToken(session.token())
+                .setQuery(query)
+                .setLimit(limit)
+                .build();
+
+        FileEngineProto.SearchReply reply = blockingStub.computeSearch(request);
+        if (!reply.getErrorMessage().isEmpty()) {
+            System.out.println("ERROR: search request failed - " + reply.getErrorMessage());
+        }
+        System.out.println("Query Results: " + reply.getResultsList());
+        return reply.getResultsList();
+    }
+
+    /**
+     * Page through every match of an unranked search, one ComputeSearch call per page.
+     * @param pageSize Results per page.
+     * @param terms The search terms.
+     * @return The total number of results received.
+     */
+    public int sendPagedSearchRequest(int pageSize, String... terms) {
+        int total = 0;
+        String pageToken = "";
+        do {
+            FileEngineProto.SearchRequest request = FileEngineProto.SearchRequest.newBuilder()
+                    .setClientId(this.clientId)
+                    .setSessionToken(session.token())
+                    .addAllQueryTerms(java.util.Arrays.asList(terms))
+                    .setPageSize(pageSize)
+                    .setPageToken(pageToken)
+                    .build();
+
+            FileEngineProto.SearchReply reply = blockingStub.computeSearch(request);
+            if (!reply.getErrorMessage().isEmpty()) {
+                System.out.println("ERROR: search request failed - " + reply.getErrorMessage());
+                break;
+            }
+            total += reply.getResultsCount();
+            pageToken = reply.getNextPageToken();
+        } while (!pageToken.isEmpty());
+        System.out.println("Paged Search Results: " + total);
+        return total;
+    }
+
+    /**
+     * Search over SearchStream, consuming result chunks as the server produces them.
+     * @param limit Top-k limit (0 streams every match unranked).
+     * @param terms The search terms.
+     * @return The total number of results received.
+     */
+    public int sendSearchStreamRequest(int limit, String... terms) {
+        FileEngineProto.SearchRequest request = FileEngineProto.SearchRequest.newBuilder()
+                .setClientId(this.clientId)
+                .setSessionToken(session.token())
+                .addAllQueryTerms(java.util.Arrays.asList(terms))
+                .setLimit(limit)
+                .build();
+
+        int total = 0;
+        Iterator<FileEngineProto.SearchReply> chunks = blockingStub.searchStream(request);
+        while (chunks.hasNext()) {
+            FileEngineProto.SearchReply chunk = chunks.next();
+            if (!chunk.getErrorMessage().isEmpty()) {
+                System.out.println("ERROR: search request failed - " + chunk.getErrorMessage());
+                break;
+            }
+            total += chunk.getResultsCount();
+        }
+        System.out.println("Streamed Search Results: " + total);
+        return total;
+    }
+
+    /**
+     * Fetch the server's request counters, latency percentiles and index statistics.
+     */
+    public FileEngineProto.StatsReply getStats() {
+        FileEngineProto.StatsReply reply = blockingStub.getStats(FileEngineProto.StatsRequest.newBuilder()
+                .setClientId(this.clientId)
+                .setSessionToken(session.token())
+                .build());
+        if (!reply.getErrorMessage().isEmpty()) {
+            System.out.println("ERROR: stats request failed - " + reply.getErrorMessage());
+        }
+        return reply;
+    }
+
     public void shutdown() throws InterruptedException {
         channel.shutdown().awaitTermination(5, java.util.concurrent.TimeUnit.SECONDS);
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
         FileClient client = new FileClient();
         try {
             // Get client ID from environment variable, default to "C1"
             String clientId = System.getenv().getOrDefault("CLIENT_ID", "C1");
-            // Register first to get the API key
-            client.registerWithServer(clientId);
+            // Register first to get the API key; CLIENT_API_KEY proves an id that is already registered is ours
+            client.registerWithServer(clientId, System.getenv().getOrDefault("CLIENT_API_KEY", "").trim());
+
+            // Index a real directory tree if one is given
+            String indexDir = System.getenv("INDEX_DIR");
+            if (indexDir != null) {
+                // With a manifest, only files changed since the previous run are sent
+                String manifest = System.getenv("INDEX_MANIFEST");
+                if (manifest != null) {
+                    client.indexDirectoryIncremental(Path.of(indexDir), Path.of(manifest));
+                } else {
+                    client.indexDirectory(Path.of(indexDir));
+                }
+                return;
+            }
 
             // Create a word frequency map for a document
             Map<String, Integer> wordFreqs = new HashMap<>();
@@ -0,0 +1,147 @@
+// src/main/java/com/rafay/fileengine/client/IndexManifest.java
+package com.rafay.fileengine.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The client's record of what it last indexed: for every file, its size, modification time,
+ * content hash and word counts.
+ * <p>
+ * A re-crawl skips files whose size and modification time are unchanged without reading them,
+ * and for changed files the stored counts give the term deltas to send instead of the whole
+ * document. The content hash doubles as the version the server checks the deltas against.
+ * Saved as one binary file, replaced atomically.
+ */
+public final class IndexManifest {
+    private static final int MAGIC = 0x44464D31; // "DFM1"
+
+    /**
+     * What was indexed for one file.
+     */
+    public record Entry(long size, long modifiedMillis, String contentHash, Map<String, Integer> wordFrequencies) {
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+
+    private IndexManifest(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * Load the manifest stored in {@code file}, or start an empty one if it doesn't exist yet.
+     */
+    public static IndexManifest load(Path file) throws IOException {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an index manifest: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                String contentHash = in.readUTF();
+                int terms = in.readInt();
+                Map<String, Integer> wordFreqs = new HashMap<>(terms * 2);
+                for (int t = 0; t < terms; t++) {
+                    wordFreqs.put(in.readUTF(), in.readInt());
+                }
+                entries.put(path, new Entry(size, modified, contentHash, wordFreqs));
+            }
+        } catch (NoSuchFileException e) {
+            // First crawl
+        }
+        return new IndexManifest(file, entries);
+    }
+
+    /**
+     * @return true if the file has the size and modification time recorded for it, so it can be skipped unread.
+     */
+    public boolean isUnchanged(Path path, BasicFileAttributes attrs) {
+        Entry entry = entries.get(path.toString());
+        return entry != null && entry.size() == attrs.size() && entry.modifiedMillis() == attrs.lastModifiedTime().toMillis();
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    /**
+     * Forget every file not in {@code paths}, e.g. those no longer found by a crawl.
+     */
+    public void retainAll(Set<String> paths) {
+        entries.keySet().retainAll(paths);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Write the manifest to a temporary file and rename it over the old one.
+     */
+    public void save() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream raw = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(raw, 1 << 16))) {
+            Map<String, Entry> copy = Map.copyOf(entries);
+            out.writeInt(MAGIC);
+            out.writeInt(copy.size());
+            for (Map.Entry<String, Entry> e : copy.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size());
+                out.writeLong(entry.modifiedMillis());
+                out.writeUTF(entry.contentHash());
+                out.writeInt(entry.wordFrequencies().size());
+                for (Map.Entry<String, Integer> term : entry.wordFrequencies().entrySet()) {
+                    out.writeUTF(term.getKey());
+                    out.writeInt(term.getValue());
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Per-term count changes from {@code before} to {@code after}, leaving out unchanged terms.
+     */
+    public static Map<String, Integer> delta(Map<String, Integer> before, Map<String, Integer> after) {
+        Map<String, Integer> deltas = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : after.entrySet()) {
+            int change = entry.getValue() - before.getOrDefault(entry.getKey(), 0);
+            if (change != 0) {
+                deltas.put(entry.getKey(), change);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : before.entrySet()) {
+            if (!after.containsKey(entry.getKey())) {
+                deltas.put(entry.getKey(), -entry.getValue());
+            }
+        }
+        return deltas;
+    }
+}
@@ -0,0 +1,16 @@
+// src/main/java/com/rafay/fileengine/client/ScannedFile.java
+package com.rafay.fileengine.client;
+
+import java.util.Map;
+
+/**
+ * One file as read by a {@link DirectoryIndexer}.
+ * @param path The file's path, which is also the path it is indexed under.
+ * @param size The number of bytes read.
+ * @param modifiedMillis The file's last-modified time when it was read.
+ * @param contentHash Hex SHA-256 of the bytes read.
+ * @param wordFrequencies Word -> number of occurrences.
+ */
+public record ScannedFile(String path, long size, long modifiedMillis, String contentHash,
+                          Map<String, Integer> wordFrequencies) {
+}
@@ -0,0 +1,51 @@
+// src/main/java/com/rafay/fileengine/client/SessionCredentials.java
+package com.rafay.fileengine.client;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+
+/**
+ * A registered client's session token, sent with requests in place of its API key. Once half the
+ * session's lifetime has passed, the next request first opens a new session with the API key,
+ * so the token in use never expires in flight.
+ */
+final class SessionCredentials {
+    private final String clientId;
+    private final String apiKey;
+    private final IndexServiceGrpc.IndexServiceBlockingStub stub;
+    private String token;
+    private long renewAtMillis;
+
+    /**
+     * @param registration The server's reply to RegisterClient, with the first session.
+     * @param stub Where to open later sessions.
+     */
+    SessionCredentials(String clientId, FileEngineProto.RegisterReply registration, IndexServiceGrpc.IndexServiceBlockingStub stub) {
+        this.clientId = clientId;
+        this.apiKey = registration.getApiKey();
+        this.stub = stub;
+        update(registration.getSessionToken(), registration.getSessionExpiresMillis());
+    }
+
+    // The current token, renewing the session first if it is past the halfway point; blocks while renewing
+    synchronized String token() {
+        if (System.currentTimeMillis() >= renewAtMillis) {
+            FileEngineProto.SessionReply reply = stub.openSession(FileEngineProto.SessionRequest.newBuilder()
+                    .setClientId(clientId)
+                    .setApiKey(apiKey)
+                    .build());
+            if (!"SUCCESS".equals(reply.getStatus())) {
+                System.out.println("ERROR: opening a session failed - " + reply.getMessage());
+                throw new RuntimeException("Failed to open a session: " + reply.getMessage());
+            }
+            update(reply.getSessionToken(), reply.getSessionExpiresMillis());
+        }
+        return token;
+    }
+
+    private void update(String token, long expiresMillis) {
+        long now = System.currentTimeMillis();
+        this.token = token;
+        this.renewAtMillis = now + (expiresMillis - now) / 2;
+    }
+}
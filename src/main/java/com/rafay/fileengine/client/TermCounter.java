@@ -0,0 +1,119 @@
+// src/main/java/com/rafay/fileengine/client/TermCounter.java
+package com.rafay.fileengine.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Word counts for one document, keyed by the word's UTF-8 bytes.
+ * <p>
+ * An open-addressing table of int slots over parallel int arrays, with the word bytes packed
+ * into one arena, so counting never boxes an Integer or builds a String per occurrence.
+ * Strings are only created once per distinct word, by {@link #toMap()}. Not thread-safe;
+ * each tokenizer thread reuses its own instance via {@link #clear()}.
+ */
+final class TermCounter {
+    // Above this many slots the table is reallocated on clear() rather than wiped
+    private static final int RETAINED_CAPACITY = 1 << 14;
+
+    private int[] slots;            // entry index + 1, 0 = empty
+    private int[] hashes = new int[16];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] counts = new int[16];
+    private byte[] arena = new byte[1024];
+    private int arenaSize;
+    private int size;
+
+    TermCounter() {
+        slots = new int[64];
+    }
+
+    /**
+     * Count one occurrence of {@code word[0, length)}.
+     * @param hash Hash of those bytes, computed by the caller while scanning them.
+     */
+    void add(byte[] word, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                break;
+            }
+            if (hashes[entry] == hash && lengths[entry] == length
+                    && Arrays.equals(arena, offsets[entry], offsets[entry] + length, word, 0, length)) {
+                counts[entry]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        System.arraycopy(word, 0, arena, arenaSize, length);
+        hashes[size] = hash;
+        offsets[size] = arenaSize;
+        lengths[size] = length;
+        counts[size] = 1;
+        arenaSize += length;
+        slots[slot] = ++size;
+        // Keep the load factor at or below 1/2 so probe chains stay short
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Map<String, Integer> toMap() {
+        Map<String, Integer> words = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            words.put(new String(arena, offsets[i], lengths[i], StandardCharsets.UTF_8), counts[i]);
+        }
+        return words;
+    }
+
+    void clear() {
+        if (slots.length > RETAINED_CAPACITY) {
+            slots = new int[64];
+        } else {
+            Arrays.fill(slots, 0);
+        }
+        size = 0;
+        arenaSize = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = mix(hashes[entry]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry + 1;
+        }
+        slots = table;
+    }
+
+    // Spread the caller's hash so the low bits used for the slot depend on every input byte
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
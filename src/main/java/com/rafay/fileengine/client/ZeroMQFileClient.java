@@ -1,9 +1,11 @@
 // src/main/java/com/rafay/fileengine/client/ZeroMQFileClient.java
 package com.rafay.fileengine.client;
 
-import com.rafay.fileengine.common.MessageUtils;
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.proto.FileEngineProto;
 import org.zeromq.ZMQ;
 
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,9 +14,20 @@ public class ZeroMQFileClient {
     private final ZMQ.Context context = ZMQ.context(1);
     private ZMQ.Socket dealerSocket;
     private final String clientId;
+    // Wire format for requests; the server answers in the same one
+    private final ZmqCodec.Format format;
 
     public ZeroMQFileClient(String clientId) {
+        this(clientId, ZmqCodec.Format.BINARY);
+    }
+
+    /**
+     * @param clientId The client's identity.
+     * @param format BINARY (protobuf) or JSON, for talking to servers that only speak the original protocol.
+     */
+    public ZeroMQFileClient(String clientId, ZmqCodec.Format format) {
         this.clientId = clientId;
+        this.format = format;
         this.dealerSocket = context.socket(ZMQ.DEALER);
         // Set the client identity so the server can route replies back
         dealerSocket.setIdentity(clientId.getBytes());
@@ -36,12 +49,42 @@ public class ZeroMQFileClient {
      * @param wordFreqs A map of word frequencies from the document.
      */
     public void sendIndexRequest(String filePath, Map<String, Integer> wordFreqs) {
-        String request = MessageUtils.createIndexRequest(clientId, filePath, wordFreqs);
-        dealerSocket.send(request, 0);
+        FileEngineProto.IndexReply reply = index(FileEngineProto.IndexRequest.newBuilder()
+                .setFilePath(filePath)
+                .putAllWordFrequencies(wordFreqs));
+        if ("ERROR".equals(reply.getStatus())) {
+            System.out.println("ERROR: index request failed - " + reply.getMessage());
+        } else {
+            System.out.println("Index Reply: " + reply.getStatus() + " - " + reply.getMessage());
+        }
+    }
 
-        // Receive the reply from the server
-        String reply = dealerSocket.recvStr(0);
-        System.out.println("Index Reply: " + reply);
+    /**
+     * Send one index request as this client and return the reply, printing nothing.
+     * An error frame from the server comes back as an ERROR reply.
+     */
+    public FileEngineProto.IndexReply index(FileEngineProto.IndexRequest.Builder request) {
+        FileEngineProto.ZmqMessage reply = exchange(FileEngineProto.ZmqMessage.newBuilder()
+                .setIndexRequest(request.setClientId(clientId))
+                .build());
+        if (reply.hasIndexReply()) {
+            return reply.getIndexReply();
+        }
+        return FileEngineProto.IndexReply.newBuilder().setStatus("ERROR").setMessage(reply.getError()).build();
+    }
+
+    /**
+     * Send one search request as this client and return the reply, printing nothing.
+     * An error frame from the server comes back as a reply with its error_message set.
+     */
+    public FileEngineProto.SearchReply search(FileEngineProto.SearchRequest.Builder request) {
+        FileEngineProto.ZmqMessage reply = exchange(FileEngineProto.ZmqMessage.newBuilder()
+                .setSearchRequest(request.setClientId(clientId))
+                .build());
+        if (reply.hasSearchReply()) {
+            return reply.getSearchReply();
+        }
+        return FileEngineProto.SearchReply.newBuilder().setErrorMessage(reply.getError()).build();
     }
 
     /**
@@ -49,12 +92,49 @@ public class ZeroMQFileClient {
      * @param terms The search terms.
      */
     public void sendSearchRequest(String... terms) {
-        String request = MessageUtils.createSearchRequest(terms);
-        dealerSocket.send(request, 0);
+        sendSearchRequest(0, terms);
+    }
+
+    /**
+     * Send a top-k search request; the server ranks matches by BM25.
+     * @param limit The maximum number of results.
+     * @param terms The search terms.
+     */
+    public void sendSearchRequest(int limit, String... terms) {
+        FileEngineProto.SearchReply reply = search(FileEngineProto.SearchRequest.newBuilder()
+                .addAllQueryTerms(java.util.Arrays.asList(terms))
+                .setLimit(limit));
+        if (reply.getErrorMessage().isEmpty()) {
+            System.out.println("Search Reply:");
+            for (FileEngineProto.SearchResult result : reply.getResultsList()) {
+                System.out.println(result.getDocumentPath() + ": " + result.getTotalFrequency()
+                        + (result.getScore() != 0 ? " (score " + result.getScore() + ")" : ""));
+            }
+        } else {
+            System.out.println("ERROR: search request failed - " + reply.getErrorMessage());
+        }
+    }
+
+    /**
+     * Index every regular file under {@code root}, counting words locally with a {@link DirectoryIndexer}.
+     * @return The number of documents sent.
+     */
+    public int indexDirectory(Path root) {
+        int sent = 0;
+        try (DirectoryIndexer documents = DirectoryIndexer.crawl(root)) {
+            while (documents.hasNext()) {
+                ScannedFile document = documents.next();
+                sendIndexRequest(document.path(), document.wordFrequencies());
+                sent++;
+            }
+        }
+        return sent;
+    }
 
-        // Receive the reply from the server
-        String reply = dealerSocket.recvStr(0);
-        System.out.println("Search Reply: " + reply);
+    // Send one request and block for its reply
+    private FileEngineProto.ZmqMessage exchange(FileEngineProto.ZmqMessage request) {
+        dealerSocket.send(ZmqCodec.encode(request, format), 0);
+        return ZmqCodec.decode(dealerSocket.recv(0));
     }
 
     /**
@@ -0,0 +1,774 @@
+// src/main/java/com/rafay/fileengine/cluster/CoordinatorServer.java
+package com.rafay.fileengine.cluster;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.rafay.fileengine.auth.ClientManager;
+import com.rafay.fileengine.common.TermDictionary;
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+import com.rafay.fileengine.server.ClientIPInterceptor;
+import com.rafay.fileengine.server.FileServer;
+import com.rafay.fileengine.server.ServerMetrics;
+import com.rafay.fileengine.server.ServerThreading;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Front door for a sharded deployment. Shards are ordinary FileServers; the coordinator
+ * owns no index itself.
+ * <ul>
+ *   <li>ComputeIndex and ComputeIndexDelta are routed to the shard owning the document path on a consistent-hash ring.</li>
+ *   <li>IndexStream routes each document the same way, over one IndexStream per shard that the caller's stream
+ *       has documents for. The shards' summaries are merged into the caller's.</li>
+ *   <li>ComputeSearch is sent to every shard in parallel, each with its own deadline, and the
+ *       partial results are merged. Ranked searches keep the best {@code limit} by score. A shard
+ *       that fails or misses its deadline is left out and counted in {@code failed_shards}
+ *       instead of stalling the query.</li>
+ *   <li>SearchStream opens a SearchStream on every shard. Unranked results are relayed chunk by chunk as they
+ *       arrive; ranked ones are merged as for ComputeSearch and then sent in chunks.</li>
+ * </ul>
+ * Streams are paced by the slowest side: the coordinator takes the caller's next document only once its shard
+ * stream is ready, and asks a shard for its next chunk only once the caller is ready, so it never buffers a
+ * stream's worth of data. Shard streams have no deadline of their own, since a large stream can rightly take
+ * a long time; the caller's deadline, which gRPC propagates, bounds them.
+ * Shards are started with a cluster key shared with the coordinator: they then serve only the
+ * coordinator, which authenticates callers itself and forwards their requests under that key with
+ * the caller's client id as the tenant.
+ * <p>
+ * BM25 statistics are per shard, which is the usual approximation for document-partitioned indexes.
+ * Documents are not moved when shards are added, so a resized cluster should be re-ingested.
+ */
+public class CoordinatorServer extends IndexServiceGrpc.IndexServiceImplBase {
+    private static final Logger logger = Logger.getLogger(CoordinatorServer.class.getName());
+    // Per-document failures listed in an IndexStreamReply; the rest are only counted
+    private static final int MAX_REPORTED_FAILURES = 1000;
+    // Results per SearchReply when sending a merged ranked result on SearchStream
+    private static final int SEARCH_STREAM_CHUNK_SIZE = 500;
+
+    private final ClientManager clientManager = ClientManager.fromEnv();
+    private final HashRing<ShardClient> ring;
+    private final long shardTimeoutMillis;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private Server server;
+
+    /**
+     * @param shardAddresses The shards as "host:port".
+     * @param shardTimeoutMillis Per-shard deadline for forwarded calls.
+     * @param clusterKey The key the shards were started with (see {@link FileServer#setClusterKey}).
+     */
+    public CoordinatorServer(List<String> shardAddresses, long shardTimeoutMillis, String clusterKey) {
+        if (clusterKey == null || clusterKey.isBlank()) {
+            throw new IllegalArgumentException("A cluster key is required");
+        }
+        Map<String, ShardClient> shards = new LinkedHashMap<>();
+        for (String address : shardAddresses) {
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Shard address must be host:port, got " + address);
+            }
+            String host = address.substring(0, colon).trim();
+            int port = Integer.parseInt(address.substring(colon + 1).trim());
+            ShardClient shard = new ShardClient(host, port, clusterKey.trim());
+            shards.put(shard.address(), shard);
+        }
+        this.ring = new HashRing<>(shards);
+        this.shardTimeoutMillis = shardTimeoutMillis;
+    }
+
+    public void start(int port) throws IOException {
+        start(port, ServerThreading.DEFAULT);
+    }
+
+    /**
+     * @param threading The handler executor and Netty event loops to run on.
+     */
+    public void start(int port, ServerThreading threading) throws IOException {
+        server = threading.start(port, ServerInterceptors.intercept(this, new ClientIPInterceptor(),
+                metrics.interceptor(IndexServiceGrpc.getServiceDescriptor())));
+        logger.info("Coordinator started on " + port + " with " + ring.nodes().size() + " shards");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Shutting down coordinator since JVM is shutting down");
+            CoordinatorServer.this.stop();
+        }));
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.shutdown();
+        }
+        for (ShardClient shard : ring.nodes()) {
+            try {
+                shard.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void blockUntilShutdown() throws InterruptedException {
+        if (server != null) {
+            server.awaitTermination();
+        }
+    }
+
+    @Override
+    public void registerClient(FileEngineProto.RegisterRequest request, StreamObserver<FileEngineProto.RegisterReply> responseObserver) {
+        responseObserver.onNext(FileServer.registerClient(clientManager, request));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void openSession(FileEngineProto.SessionRequest request, StreamObserver<FileEngineProto.SessionReply> responseObserver) {
+        responseObserver.onNext(FileServer.openSession(clientManager, request));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void computeIndex(FileEngineProto.IndexRequest request, StreamObserver<FileEngineProto.IndexReply> responseObserver) {
+        if (!authenticate(request.getClientId(), request.getApiKey(), request.getSessionToken())) {
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ShardClient shard = ring.nodeFor(request.getFilePath());
+        FileEngineProto.IndexReply reply;
+        try {
+            reply = shard.blocking(shardTimeoutMillis).computeIndex(shard.withCredentials(request));
+        } catch (StatusRuntimeException e) {
+            logger.warning("Shard " + shard.address() + " failed to index " + request.getFilePath() + ": " + e.getStatus());
+            reply = FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Shard " + shard.address() + " unavailable: " + e.getStatus().getCode())
+                    .build();
+        }
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void computeIndexDelta(FileEngineProto.IndexDeltaRequest request, StreamObserver<FileEngineProto.IndexReply> responseObserver) {
+        if (!authenticate(request.getClientId(), request.getApiKey(), request.getSessionToken())) {
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ShardClient shard = ring.nodeFor(request.getFilePath());
+        FileEngineProto.IndexReply reply;
+        try {
+            reply = shard.blocking(shardTimeoutMillis).computeIndexDelta(shard.withCredentials(request));
+        } catch (StatusRuntimeException e) {
+            logger.warning("Shard " + shard.address() + " failed to update " + request.getFilePath() + ": " + e.getStatus());
+            reply = FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Shard " + shard.address() + " unavailable: " + e.getStatus().getCode())
+                    .build();
+        }
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void computeSearch(FileEngineProto.SearchRequest request, StreamObserver<FileEngineProto.SearchReply> responseObserver) {
+        if (!authenticate(request.getClientId(), request.getApiKey(), request.getSessionToken())) {
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        if (request.getPageSize() > 0) {
+            // Page tokens are shard-local doc ids, so they can't be merged across shards
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage("Paged search is not supported through the coordinator; use limit or SearchStream")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        responseObserver.onNext(scatterSearch(request));
+        responseObserver.onCompleted();
+    }
+
+    // Run a search on every shard and merge the replies, leaving out (and counting) shards that fail
+    private FileEngineProto.SearchReply scatterSearch(FileEngineProto.SearchRequest request) {
+        // Scatter: all shards at once, each bounded by its own deadline (and the caller's, which gRPC propagates)
+        List<ListenableFuture<FileEngineProto.SearchReply>> pending = new ArrayList<>();
+        List<ShardClient> shards = new ArrayList<>(ring.nodes());
+        for (ShardClient shard : shards) {
+            pending.add(shard.future(shardTimeoutMillis).computeSearch(shard.withCredentials(request)));
+        }
+
+        // Gather
+        List<FileEngineProto.SearchResult> merged = new ArrayList<>();
+        int failedShards = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                FileEngineProto.SearchReply partial = pending.get(i).get();
+                if (!partial.getErrorMessage().isEmpty()) {
+                    logger.warning("Shard " + shards.get(i).address() + " search error: " + partial.getErrorMessage());
+                    failedShards++;
+                    continue;
+                }
+                merged.addAll(partial.getResultsList());
+            } catch (ExecutionException e) {
+                logger.warning("Shard " + shards.get(i).address() + " search failed: " + e.getCause().getMessage());
+                failedShards++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failedShards++;
+            }
+        }
+
+        if (request.getLimit() > 0) {
+            // Each shard returned its own top 'limit'; the global top 'limit' is among them
+            merged.sort(Comparator.comparingDouble(FileEngineProto.SearchResult::getScore).reversed());
+            if (merged.size() > request.getLimit()) {
+                merged = merged.subList(0, request.getLimit());
+            }
+        }
+        return FileEngineProto.SearchReply.newBuilder()
+                .addAllResults(merged)
+                .setFailedShards(failedShards)
+                .build();
+    }
+
+    @Override
+    public StreamObserver<FileEngineProto.IndexRequest> indexStream(StreamObserver<FileEngineProto.IndexStreamReply> responseObserver) {
+        ServerCallStreamObserver<FileEngineProto.IndexStreamReply> caller =
+                (ServerCallStreamObserver<FileEngineProto.IndexStreamReply>) responseObserver;
+        // One document at a time, requested once the shard stream it went to can take more
+        caller.disableAutoRequest();
+        caller.request(1);
+        return new IndexStreamRelay(caller);
+    }
+
+    /**
+     * The last message carries {@code failed_shards}. A shard that fails part way through has already
+     * contributed some results.
+     */
+    @Override
+    public void searchStream(FileEngineProto.SearchRequest request, StreamObserver<FileEngineProto.SearchReply> responseObserver) {
+        if (!authenticate(request.getClientId(), request.getApiKey(), request.getSessionToken())) {
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        ServerCallStreamObserver<FileEngineProto.SearchReply> caller =
+                (ServerCallStreamObserver<FileEngineProto.SearchReply>) responseObserver;
+        if (request.getLimit() > 0) {
+            // The global order is only known once every shard's top 'limit' is in, and that is bounded anyway
+            RankedChunks chunks = new RankedChunks(caller, scatterSearch(request));
+            caller.setOnCancelHandler(chunks::cancel);
+            caller.setOnReadyHandler(chunks);
+            chunks.run();
+            return;
+        }
+        new SearchStreamRelay(caller).start(request);
+    }
+
+    // The coordinator's own calls; each shard reports its index through its own GetStats
+    @Override
+    public void getStats(FileEngineProto.StatsRequest request, StreamObserver<FileEngineProto.StatsReply> responseObserver) {
+        if (!authenticate(request.getClientId(), request.getApiKey(), request.getSessionToken())) {
+            responseObserver.onNext(FileEngineProto.StatsReply.newBuilder()
+                    .setErrorMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        responseObserver.onNext(metrics.toStats().build());
+        responseObserver.onCompleted();
+    }
+
+    // Sends a merged ranked result in chunks, only while the caller is ready for more
+    private static final class RankedChunks implements Runnable {
+        private final ServerCallStreamObserver<FileEngineProto.SearchReply> caller;
+        private final FileEngineProto.SearchReply merged;
+        private int offset;
+        private boolean done;
+
+        RankedChunks(ServerCallStreamObserver<FileEngineProto.SearchReply> caller, FileEngineProto.SearchReply merged) {
+            this.caller = caller;
+            this.merged = merged;
+        }
+
+        @Override
+        public synchronized void run() {
+            while (!done && caller.isReady()) {
+                int end = Math.min(offset + SEARCH_STREAM_CHUNK_SIZE, merged.getResultsCount());
+                FileEngineProto.SearchReply.Builder chunk = FileEngineProto.SearchReply.newBuilder()
+                        .addAllResults(merged.getResultsList().subList(offset, end));
+                offset = end;
+                done = end == merged.getResultsCount();
+                if (done) {
+                    chunk.setFailedShards(merged.getFailedShards());
+                }
+                caller.onNext(chunk.build());
+                if (done) {
+                    caller.onCompleted();
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            done = true;
+        }
+    }
+
+    /**
+     * Relays an unranked SearchStream from every shard to the caller, in whatever order the shards' chunks arrive.
+     * Each shard has one chunk requested at a time, and its next is requested only once the caller is ready for
+     * more, so a slow caller slows the shards down rather than piling their results up here.
+     */
+    private final class SearchStreamRelay {
+        private final ServerCallStreamObserver<FileEngineProto.SearchReply> caller;
+        private final List<ClientCallStreamObserver<FileEngineProto.SearchRequest>> calls = new ArrayList<>();
+        // Shard calls whose last chunk was passed on while the caller wasn't ready, so their next isn't requested yet
+        private final ArrayDeque<ClientCallStreamObserver<FileEngineProto.SearchRequest>> waiting = new ArrayDeque<>();
+        private int open;
+        private int failedShards;
+        private boolean done;
+
+        SearchStreamRelay(ServerCallStreamObserver<FileEngineProto.SearchReply> caller) {
+            this.caller = caller;
+        }
+
+        void start(FileEngineProto.SearchRequest request) {
+            caller.setOnCancelHandler(this::cancel);
+            caller.setOnReadyHandler(this::drain);
+            List<ShardClient> shards = new ArrayList<>(ring.nodes());
+            synchronized (this) {
+                open = shards.size();
+                for (ShardClient shard : shards) {
+                    shard.async().searchStream(shard.withCredentials(request), new ShardSearch(shard));
+                }
+            }
+        }
+
+        private synchronized void drain() {
+            while (!done && caller.isReady() && !waiting.isEmpty()) {
+                waiting.poll().request(1);
+            }
+        }
+
+        private synchronized void cancel() {
+            done = true;
+            for (ClientCallStreamObserver<FileEngineProto.SearchRequest> call : calls) {
+                call.cancel("Caller cancelled the search", null);
+            }
+        }
+
+        // Caller holds the lock
+        private void shardFinished() {
+            if (--open > 0 || done) {
+                return;
+            }
+            done = true;
+            if (failedShards > 0) {
+                caller.onNext(FileEngineProto.SearchReply.newBuilder().setFailedShards(failedShards).build());
+            }
+            caller.onCompleted();
+        }
+
+        private final class ShardSearch implements ClientResponseObserver<FileEngineProto.SearchRequest, FileEngineProto.SearchReply> {
+            private final ShardClient shard;
+            private ClientCallStreamObserver<FileEngineProto.SearchRequest> call;
+            private boolean failed;
+
+            ShardSearch(ShardClient shard) {
+                this.shard = shard;
+            }
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<FileEngineProto.SearchRequest> call) {
+                this.call = call;
+                call.disableAutoRequestWithInitial(1);
+                calls.add(call);
+            }
+
+            @Override
+            public void onNext(FileEngineProto.SearchReply chunk) {
+                synchronized (SearchStreamRelay.this) {
+                    if (done || failed) {
+                        return;
+                    }
+                    if (!chunk.getErrorMessage().isEmpty()) {
+                        // The shard ends its stream after an error
+                        logger.warning("Shard " + shard.address() + " search error: " + chunk.getErrorMessage());
+                        failed = true;
+                        failedShards++;
+                        return;
+                    }
+                    if (chunk.getResultsCount() > 0) {
+                        caller.onNext(chunk);
+                    }
+                    if (caller.isReady()) {
+                        call.request(1);
+                    } else {
+                        waiting.add(call);
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                synchronized (SearchStreamRelay.this) {
+                    if (!done && !failed) {
+                        logger.warning("Shard " + shard.address() + " search stream failed: " + Status.fromThrowable(t));
+                        failed = true;
+                        failedShards++;
+                    }
+                    shardFinished();
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                synchronized (SearchStreamRelay.this) {
+                    shardFinished();
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives one IndexStream from a caller and forwards each document to the shard owning its path, over an
+     * IndexStream of the coordinator's own opened on the shard's first document. The caller's next document is
+     * requested only once the shard stream the last one went to is ready for more.
+     * <p>
+     * Documents are decoded with the caller's term dictionary and re-encoded with one per shard stream, since each
+     * shard only sees its share of the terms. A shard stream that fails counts every document sent on it that the
+     * shard didn't report as failed, and documents for it after that fail here.
+     */
+    private final class IndexStreamRelay implements StreamObserver<FileEngineProto.IndexRequest> {
+        private final ServerCallStreamObserver<FileEngineProto.IndexStreamReply> caller;
+        private final String callerIp = ClientIPInterceptor.CLIENT_IP.get();
+        private final TermDictionary.Decoder terms = new TermDictionary.Decoder();
+        private final Map<ShardClient, ShardIndex> streams = new LinkedHashMap<>();
+        // Documents that failed here, without reaching a shard
+        private final FileEngineProto.IndexStreamReply.Builder local = FileEngineProto.IndexStreamReply.newBuilder();
+        private String clientId;
+        // The shard stream to wait on before taking the caller's next document
+        private ShardIndex blocked;
+        // Set when the stream was ended early; the reply is then an ERROR with this message
+        private String rejected;
+        // No more documents are taken from the caller
+        private boolean closed;
+        private boolean replied;
+        // Shard streams still to report
+        private int pending;
+
+        IndexStreamRelay(ServerCallStreamObserver<FileEngineProto.IndexStreamReply> caller) {
+            this.caller = caller;
+        }
+
+        @Override
+        public synchronized void onNext(FileEngineProto.IndexRequest request) {
+            if (closed) {
+                return;
+            }
+            if (clientId == null) {
+                if (!authenticate(request.getClientId(), request.getApiKey(), request.getSessionToken())) {
+                    closed = true;
+                    replied = true;
+                    caller.onNext(FileEngineProto.IndexStreamReply.newBuilder()
+                            .setStatus("ERROR")
+                            .setMessage("Invalid API Key")
+                            .build());
+                    caller.onCompleted();
+                    return;
+                }
+                clientId = request.getClientId();
+            }
+
+            String docPath = request.getFilePath();
+            Map<String, Integer> wordFreqs;
+            try {
+                // Decoded even if the document then fails, so the dictionary stays in step with the caller's
+                wordFreqs = terms.decode(request);
+            } catch (IllegalArgumentException e) {
+                reject("Malformed term encoding at " + docPath + ": " + e.getMessage());
+                return;
+            }
+            if (docPath.isEmpty()) {
+                fail(docPath, "Missing file_path");
+            } else if (!request.getClientId().isEmpty() && !request.getClientId().equals(clientId)) {
+                fail(docPath, "client_id does not match the stream's client");
+            } else {
+                ShardIndex stream = streams.computeIfAbsent(ring.nodeFor(docPath), ShardIndex::new);
+                if (stream.send(docPath, wordFreqs, request.getContentHash()) && !stream.call.isReady()) {
+                    blocked = stream;
+                    return;
+                }
+            }
+            caller.request(1);
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            // The caller gets no summary, so the shards shouldn't apply their partial batches either
+            closed = true;
+            replied = true;
+            for (ShardIndex stream : streams.values()) {
+                stream.call.cancel("Caller aborted the stream", null);
+            }
+            logger.warning("IndexStream from client " + clientId + " aborted at the coordinator: " + t.getMessage());
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            finish();
+        }
+
+        // Stop taking documents; the shards apply what they were sent, as a shard does when it rejects a stream
+        private void reject(String message) {
+            closed = true;
+            rejected = message;
+            logger.warning("IndexStream from client " + clientId + " from IP " + callerIp + " rejected: " + message);
+            finish();
+        }
+
+        // Caller holds the lock
+        private void finish() {
+            for (ShardIndex stream : streams.values()) {
+                if (!stream.finished) {
+                    stream.call.onCompleted();
+                }
+            }
+            replyIfDone();
+        }
+
+        // Caller holds the lock
+        private void replyIfDone() {
+            if (!closed || replied || pending > 0) {
+                return;
+            }
+            replied = true;
+            FileEngineProto.IndexStreamReply.Builder summary = local.clone();
+            List<String> shardErrors = new ArrayList<>();
+            for (ShardIndex stream : streams.values()) {
+                FileEngineProto.IndexStreamReply reply = stream.reply != null
+                        ? stream.reply : FileEngineProto.IndexStreamReply.getDefaultInstance();
+                // Whatever the shard neither indexed nor reported failing is lost: sent after it ended its stream
+                long lost = Math.max(0, stream.sent - reply.getIndexedCount() - reply.getFailedCount());
+                summary.setIndexedCount(summary.getIndexedCount() + reply.getIndexedCount())
+                        .setFailedCount(summary.getFailedCount() + reply.getFailedCount() + lost);
+                for (FileEngineProto.IndexFailure failure : reply.getFailuresList()) {
+                    if (summary.getFailuresCount() >= MAX_REPORTED_FAILURES) {
+                        break;
+                    }
+                    summary.addFailures(failure);
+                }
+                if (stream.error != null) {
+                    shardErrors.add("shard " + stream.shard.address() + ": " + stream.error);
+                }
+            }
+            long failed = summary.getFailedCount();
+            String message = "Indexed " + summary.getIndexedCount() + " documents, " + failed + " failed"
+                    + (shardErrors.isEmpty() ? "" : "; " + String.join("; ", shardErrors));
+            if (rejected != null) {
+                summary.setStatus("ERROR").setMessage(rejected + " (" + message + ")");
+            } else {
+                summary.setStatus(failed == 0 ? "SUCCESS" : "PARTIAL").setMessage(message);
+            }
+            logger.info("IndexStream from client " + clientId + " via coordinator: " + summary.getMessage());
+            caller.onNext(summary.build());
+            caller.onCompleted();
+        }
+
+        private void fail(String docPath, String message) {
+            local.setFailedCount(local.getFailedCount() + 1);
+            if (local.getFailuresCount() < MAX_REPORTED_FAILURES) {
+                local.addFailures(FileEngineProto.IndexFailure.newBuilder()
+                        .setFilePath(docPath)
+                        .setMessage(message)
+                        .build());
+            }
+        }
+
+        private final class ShardIndex implements ClientResponseObserver<FileEngineProto.IndexRequest, FileEngineProto.IndexStreamReply> {
+            private final ShardClient shard;
+            private final TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+            private ClientCallStreamObserver<FileEngineProto.IndexRequest> call;
+            private FileEngineProto.IndexStreamReply reply;
+            // Why the shard's stream ended early, if it did
+            private String error;
+            private long sent;
+            private boolean finished;
+
+            // Caller holds the relay's lock
+            ShardIndex(ShardClient shard) {
+                this.shard = shard;
+                pending++;
+                shard.async().indexStream(this);
+            }
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<FileEngineProto.IndexRequest> call) {
+                this.call = call;
+                call.setOnReadyHandler(() -> {
+                    synchronized (IndexStreamRelay.this) {
+                        if (blocked == this && call.isReady()) {
+                            blocked = null;
+                            caller.request(1);
+                        }
+                    }
+                });
+            }
+
+            /**
+             * Forward one document; caller holds the relay's lock.
+             * @return False if the shard's stream has already ended, in which case the document is counted as failed.
+             */
+            boolean send(String docPath, Map<String, Integer> wordFreqs, String contentHash) {
+                if (finished) {
+                    fail(docPath, "Shard " + shard.address() + " ended the stream: " + error);
+                    return false;
+                }
+                FileEngineProto.IndexRequest.Builder forwarded = FileEngineProto.IndexRequest.newBuilder()
+                        .setClientId(clientId)
+                        .setFilePath(docPath)
+                        .setContentHash(contentHash)
+                        .putAllWordFrequencies(wordFreqs);
+                call.onNext(encoder.encode(forwarded).build());
+                sent++;
+                return true;
+            }
+
+            @Override
+            public void onNext(FileEngineProto.IndexStreamReply reply) {
+                synchronized (IndexStreamRelay.this) {
+                    this.reply = reply;
+                    if ("ERROR".equals(reply.getStatus())) {
+                        error = reply.getMessage();
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                synchronized (IndexStreamRelay.this) {
+                    if (!replied) {
+                        logger.warning("Shard " + shard.address() + " index stream failed: " + Status.fromThrowable(t));
+                    }
+                    error = "unavailable: " + Status.fromThrowable(t).getCode();
+                    ended();
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                synchronized (IndexStreamRelay.this) {
+                    if (!closed && error == null) {
+                        error = "closed early";
+                    }
+                    ended();
+                }
+            }
+
+            // Caller holds the relay's lock
+            private void ended() {
+                finished = true;
+                pending--;
+                if (blocked == this) {
+                    // Its documents fail here from now on, so there is nothing to wait for
+                    blocked = null;
+                    if (!closed) {
+                        caller.request(1);
+                    }
+                }
+                replyIfDone();
+            }
+        }
+    }
+
+    private boolean authenticate(String clientId, String apiKey, String sessionToken) {
+        if (clientManager.authenticate(clientId, apiKey, sessionToken)) {
+            return true;
+        }
+        // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+        System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + ClientIPInterceptor.CLIENT_IP.get());
+        return false;
+    }
+
+    /**
+     * Run a coordinator. Shards come from SHARDS ("host:port,host:port"), each started with the same
+     * CLUSTER_KEY as the coordinator; for local testing, LOCAL_SHARDS=N instead starts N in-process
+     * FileServers on SHARD_BASE_PORT, SHARD_BASE_PORT+1, ... with CLUSTER_KEY or a random key.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = Integer.parseInt(System.getenv().getOrDefault("SERVER_PORT", "8080").trim());
+        long shardTimeoutMillis = Long.parseLong(System.getenv().getOrDefault("SHARD_TIMEOUT_MS", "2000").trim());
+
+        List<String> shardAddresses = new ArrayList<>();
+        String clusterKey = System.getenv("CLUSTER_KEY");
+        String shardsEnv = System.getenv("SHARDS");
+        if (shardsEnv != null && !shardsEnv.isBlank()) {
+            if (clusterKey == null || clusterKey.isBlank()) {
+                System.err.println("SHARDS requires CLUSTER_KEY, the key the shards were started with");
+                System.exit(1);
+            }
+            for (String address : shardsEnv.split(",")) {
+                shardAddresses.add(address.trim());
+            }
+        } else {
+            int localShards = Integer.parseInt(System.getenv().getOrDefault("LOCAL_SHARDS", "3").trim());
+            int basePort = Integer.parseInt(System.getenv().getOrDefault("SHARD_BASE_PORT", "8081").trim());
+            if (clusterKey == null || clusterKey.isBlank()) {
+                // Only this process talks to its own shards, so any key will do
+                byte[] random = new byte[32];
+                new SecureRandom().nextBytes(random);
+                clusterKey = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+            }
+            for (int i = 0; i < localShards; i++) {
+                FileServer shard = new FileServer();
+                shard.setClusterKey(clusterKey);
+                shard.start(basePort + i);
+                shardAddresses.add("localhost:" + (basePort + i));
+            }
+        }
+
+        CoordinatorServer coordinator = new CoordinatorServer(shardAddresses, shardTimeoutMillis, clusterKey);
+        String clientId = System.getenv("TEST_CLIENT_ID");
+        if (clientId != null && !clientId.isBlank()) {
+            String apiKey = coordinator.clientManager.registerClient(clientId.trim());
+            System.out.println("Registered Client ID: " + clientId.trim());
+            System.out.println("API Key: " + apiKey);
+        }
+        System.out.println("Coordinator listening on port: " + port + ", shards: " + shardAddresses);
+
+        coordinator.start(port, ServerThreading.fromEnv());
+        coordinator.blockUntilShutdown();
+    }
+}
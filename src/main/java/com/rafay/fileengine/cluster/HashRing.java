@@ -0,0 +1,67 @@
+// src/main/java/com/rafay/fileengine/cluster/HashRing.java
+package com.rafay.fileengine.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring mapping keys (document paths) to nodes.
+ * Each node is placed at many virtual points so load stays even, and adding a node
+ * only moves the keys that fall between its points and their predecessors.
+ */
+public class HashRing<T> {
+    private static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final NavigableMap<Long, T> ring = new TreeMap<>();
+    private final List<T> nodes;
+
+    /**
+     * @param nodes The nodes, keyed by a stable name (e.g. "host:port") used to place them on the ring.
+     */
+    public HashRing(Map<String, T> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(Map<String, T> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        for (Map.Entry<String, T> node : nodes.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node.getKey() + "#" + i), node.getValue());
+            }
+        }
+        this.nodes = List.copyOf(nodes.values());
+    }
+
+    /**
+     * @return The node that owns {@code key}: the first virtual point at or after the key's hash.
+     */
+    public T nodeFor(String key) {
+        Map.Entry<Long, T> owner = ring.ceilingEntry(hash(key));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    public Collection<T> nodes() {
+        return nodes;
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer to spread similar paths
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
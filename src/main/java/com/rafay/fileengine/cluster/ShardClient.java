@@ -0,0 +1,79 @@
+// src/main/java/com/rafay/fileengine/cluster/ShardClient.java
+package com.rafay.fileengine.cluster;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+import com.rafay.fileengine.server.ClusterKeyInterceptor;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.stub.MetadataUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The coordinator's connection to one shard, a FileServer started with the cluster key.
+ * The coordinator authenticates its callers itself; every call it forwards carries the cluster key
+ * (see {@link ClusterKeyInterceptor}) instead of the caller's credentials, which the shard never sees,
+ * and keeps the caller's client id, so a shard partitioned by tenant keeps each caller's documents in
+ * the caller's partition.
+ */
+class ShardClient {
+    private final String address;
+    private final ManagedChannel channel;
+    private final IndexServiceGrpc.IndexServiceBlockingStub blockingStub;
+    private final IndexServiceGrpc.IndexServiceFutureStub futureStub;
+    private final IndexServiceGrpc.IndexServiceStub asyncStub;
+
+    /**
+     * @param clusterKey The key the shard was started with.
+     */
+    ShardClient(String host, int port, String clusterKey) {
+        this.address = host + ":" + port;
+        this.channel = ManagedChannelBuilder.forAddress(host, port)
+                .usePlaintext()
+                .build();
+        Metadata headers = new Metadata();
+        headers.put(ClusterKeyInterceptor.HEADER, clusterKey);
+        this.blockingStub = IndexServiceGrpc.newBlockingStub(channel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+        this.futureStub = IndexServiceGrpc.newFutureStub(channel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+        this.asyncStub = IndexServiceGrpc.newStub(channel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    String address() {
+        return address;
+    }
+
+    IndexServiceGrpc.IndexServiceBlockingStub blocking(long timeoutMillis) {
+        return blockingStub.withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    IndexServiceGrpc.IndexServiceFutureStub future(long timeoutMillis) {
+        return futureStub.withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // For streaming calls, which run as long as the caller keeps its stream open; the caller's deadline still applies
+    IndexServiceGrpc.IndexServiceStub async() {
+        return asyncStub;
+    }
+
+    // The request without the caller's credentials; the cluster key stands in for them
+    FileEngineProto.IndexRequest withCredentials(FileEngineProto.IndexRequest request) {
+        return request.toBuilder().clearApiKey().clearSessionToken().build();
+    }
+
+    FileEngineProto.IndexDeltaRequest withCredentials(FileEngineProto.IndexDeltaRequest request) {
+        return request.toBuilder().clearApiKey().clearSessionToken().build();
+    }
+
+    FileEngineProto.SearchRequest withCredentials(FileEngineProto.SearchRequest request) {
+        return request.toBuilder().clearApiKey().clearSessionToken().build();
+    }
+
+    void shutdown() throws InterruptedException {
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
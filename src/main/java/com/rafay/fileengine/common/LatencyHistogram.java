@@ -0,0 +1,113 @@
+// src/main/java/com/rafay/fileengine/common/LatencyHistogram.java
+package com.rafay.fileengine.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram with a fixed relative error, in the style of HdrHistogram.
+ * <p>
+ * Values (nanoseconds) fall into log-linear buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} equal sub-buckets, so a recorded value is off by at most 1/{@value #SUB_BUCKETS}
+ * (about 3%) whatever its magnitude, from nanoseconds up to {@link #MAX_VALUE}. The bucket index is
+ * a couple of shifts, and recording is one atomic increment plus the running sum, so
+ * {@link #record} allocates nothing and never blocks; reading percentiles takes a {@link #snapshot}.
+ * Counts are cumulative since creation.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // About 68 seconds; longer values are recorded as this
+    public static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(bucket(value));
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Lost a race with another larger value; re-check against it
+        }
+    }
+
+    /**
+     * Copy the counts. Concurrent records may or may not be included, but each one is either wholly in or out of a bucket.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.get(), max.get());
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above, the top SUB_BITS + 1 bits pick one
+    private static int bucket(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    // Largest value that falls into a bucket
+    private static long highestValue(int bucket) {
+        int shift = Math.max(0, (bucket >>> SUB_BITS) - 1);
+        long lowest = (long) (bucket - (shift << SUB_BITS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Point-in-time copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        // In nanoseconds, or 0 if nothing was recorded
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @param percentile 0 to 100.
+         * @return The smallest recorded value, to within the bucket error, that at least {@code percentile}
+         *         percent of the values are less than or equal to; 0 if nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -4,11 +4,15 @@ package com.rafay.fileengine.common;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonArray;
+import com.google.gson.reflect.TypeToken;
+import com.rafay.fileengine.index.ScoredDocument;
 
+import java.util.List;
 import java.util.Map;
 
 public class MessageUtils {
     private static final Gson gson = new Gson();
+    private static final TypeToken<Map<String, Integer>> WORD_FREQS_TYPE = new TypeToken<>() {};
 
     // Create an INDEX request
     public static String createIndexRequest(String clientId, String filePath, Map<String, Integer> wordFreqs) {
@@ -22,8 +26,16 @@ public class MessageUtils {
 
     // Create a SEARCH request
     public static String createSearchRequest(String... terms) {
+        return createSearchRequest(0, terms);
+    }
+
+    // Create a top-k SEARCH request; limit 0 returns every match unranked
+    public static String createSearchRequest(int limit, String... terms) {
         JsonObject json = new JsonObject();
         json.addProperty("type", "SEARCH");
+        if (limit > 0) {
+            json.addProperty("limit", limit);
+        }
         JsonArray query = new JsonArray();
         for (String term : terms) {
             query.add(term);
@@ -53,7 +65,8 @@ public class MessageUtils {
     // Get words map from an INDEX message
     public static Map<String, Integer> getWordFrequencies(String message) {
         JsonObject json = gson.fromJson(message, JsonObject.class);
-        return gson.fromJson(json.get("words"), Map.class);
+        // Decode with a typed token so the counts come back as Integers, not Doubles
+        return gson.fromJson(json.get("words"), WORD_FREQS_TYPE);
     }
 
     // Get query terms from a SEARCH message
@@ -67,6 +80,12 @@ public class MessageUtils {
         return terms;
     }
 
+    // Get the top-k limit from a SEARCH message (0 if absent)
+    public static int getLimit(String message) {
+        JsonObject json = gson.fromJson(message, JsonObject.class);
+        return json.has("limit") ? json.get("limit").getAsInt() : 0;
+    }
+
     // Create an INDEX_REPLY
     public static String createIndexReply(String status, String message) {
         JsonObject json = new JsonObject();
@@ -76,6 +95,14 @@ public class MessageUtils {
         return gson.toJson(json);
     }
 
+    // Create an ERROR reply for messages the server could not handle
+    public static String createErrorReply(String message) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "ERROR");
+        json.addProperty("message", message);
+        return gson.toJson(json);
+    }
+
     // Create a SEARCH_REPLY
     public static String createSearchReply(Map<String, Integer> results) {
         JsonObject json = new JsonObject();
@@ -87,4 +114,19 @@ public class MessageUtils {
         json.add("results", resultsJson);
         return gson.toJson(json);
     }
+
+    // Create a SEARCH_REPLY for a top-k search; results and scores keep the ranked order
+    public static String createRankedSearchReply(List<ScoredDocument> hits) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "SEARCH_REPLY");
+        JsonObject resultsJson = new JsonObject();
+        JsonObject scoresJson = new JsonObject();
+        for (ScoredDocument hit : hits) {
+            resultsJson.addProperty(hit.documentPath(), hit.totalFrequency());
+            scoresJson.addProperty(hit.documentPath(), hit.score());
+        }
+        json.add("results", resultsJson);
+        json.add("scores", scoresJson);
+        return gson.toJson(json);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+// src/main/java/com/rafay/fileengine/common/TermDictionary.java
+package com.rafay.fileengine.common;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The term dictionary behind the dictionary-encoded form of an {@code IndexRequest}: instead of a
+ * {@code word_frequencies} map that repeats the text of every term in every document, a request carries
+ * packed term ids and counts, plus the text of only the terms the receiver has not seen yet.
+ * <p>
+ * There is no separate negotiation step. Both ends start empty and grow their dictionary from the same
+ * {@code new_terms}, in the order the requests are sent, so ids agree as long as the requests arrive in
+ * order and are all decoded: true within one IndexStream, which is what the {@link Encoder} is kept for.
+ * A request decoded on its own ({@link #decode(FileEngineProto.IndexRequest)}) may only use the ids its
+ * own {@code new_terms} define.
+ * <p>
+ * Neither side holds more than {@value #MAX_TERMS} terms; past that the encoder sends further new terms
+ * in {@code word_frequencies}, which the decoder also reads.
+ */
+public final class TermDictionary {
+    // Largest dictionary either side keeps for one stream, which bounds the server's memory per stream
+    public static final int MAX_TERMS = 1 << 18;
+
+    private TermDictionary() {
+    }
+
+    /**
+     * The word frequencies of a request decoded without a shared dictionary (a unary call or a ZeroMQ
+     * frame), whichever form it was sent in.
+     * @throws IllegalArgumentException if the dictionary-encoded fields are inconsistent.
+     */
+    public static Map<String, Integer> decode(FileEngineProto.IndexRequest request) {
+        if (request.getTermIdsCount() == 0 && request.getNewTermsCount() == 0) {
+            return request.getWordFrequenciesMap();
+        }
+        return new Decoder().decode(request);
+    }
+
+    /**
+     * Sending end: replaces a request's word frequencies with term ids, assigning ids to terms it has not sent before.
+     * Not thread-safe; one per stream.
+     */
+    public static final class Encoder {
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        /**
+         * Move {@code request}'s word_frequencies into the dictionary-encoded fields.
+         * @return The same builder.
+         */
+        public FileEngineProto.IndexRequest.Builder encode(FileEngineProto.IndexRequest.Builder request) {
+            Map<String, Integer> wordFreqs = request.getWordFrequenciesMap();
+            if (wordFreqs.isEmpty()) {
+                return request;
+            }
+            Map<String, Integer> overflow = null;
+            for (Map.Entry<String, Integer> entry : wordFreqs.entrySet()) {
+                if (entry.getValue() <= 0) {
+                    // The server drops these anyway; a negative count has no unsigned encoding
+                    continue;
+                }
+                Integer id = ids.get(entry.getKey());
+                if (id == null) {
+                    if (ids.size() >= MAX_TERMS) {
+                        if (overflow == null) {
+                            overflow = new HashMap<>();
+                        }
+                        overflow.put(entry.getKey(), entry.getValue());
+                        continue;
+                    }
+                    id = ids.size();
+                    ids.put(entry.getKey(), id);
+                    request.addNewTerms(entry.getKey());
+                }
+                request.addTermIds(id).addTermCounts(entry.getValue());
+            }
+            request.clearWordFrequencies();
+            if (overflow != null) {
+                request.putAllWordFrequencies(overflow);
+            }
+            return request;
+        }
+
+        // Terms assigned an id so far
+        public int size() {
+            return ids.size();
+        }
+    }
+
+    /**
+     * Receiving end: resolves term ids to the dictionary's own String for each term, so a term seen before
+     * costs no String allocation, however many documents contain it.
+     * Terms are lowercased as they enter the dictionary, which is the index's normalization, so the index
+     * keeps using the same instance. Not thread-safe; one per stream.
+     */
+    public static final class Decoder {
+        private final List<String> terms = new ArrayList<>();
+
+        /**
+         * Add the request's new terms to the dictionary and return its word frequencies.
+         * Case variants of a term are summed, as the index would.
+         * @throws IllegalArgumentException if the request is malformed; the dictionary is then no longer in step
+         *                                  with the sender's and must not be used again.
+         */
+        public Map<String, Integer> decode(FileEngineProto.IndexRequest request) {
+            int n = request.getTermIdsCount();
+            if (request.getTermCountsCount() != n) {
+                throw new IllegalArgumentException("term_ids and term_counts differ in length: "
+                        + n + " and " + request.getTermCountsCount());
+            }
+            if (terms.size() + request.getNewTermsCount() > MAX_TERMS) {
+                throw new IllegalArgumentException("Term dictionary is full (" + MAX_TERMS + " terms)");
+            }
+            for (String term : request.getNewTermsList()) {
+                terms.add(term.toLowerCase());
+            }
+            Map<String, Integer> wordFreqs = new HashMap<>((n + request.getWordFrequenciesCount()) * 2);
+            wordFreqs.putAll(request.getWordFrequenciesMap());
+            for (int i = 0; i < n; i++) {
+                int id = request.getTermIds(i);
+                if (id < 0 || id >= terms.size()) {
+                    throw new IllegalArgumentException("Unknown term id " + Integer.toUnsignedString(id));
+                }
+                int count = request.getTermCounts(i);
+                if (count <= 0) {
+                    throw new IllegalArgumentException("Term count out of range: " + Integer.toUnsignedString(count));
+                }
+                wordFreqs.merge(terms.get(id), count, Integer::sum);
+            }
+            return wordFreqs;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+// src/main/java/com/rafay/fileengine/common/ZmqCodec.java
+package com.rafay.fileengine.common;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.rafay.fileengine.index.ScoredDocument;
+import com.rafay.fileengine.proto.FileEngineProto;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frame codec for the ZeroMQ transport.
+ * <p>
+ * Binary frames are a {@link #BINARY_MARKER} byte followed by a serialized {@code ZmqMessage};
+ * JSON frames (the original protocol, see {@link MessageUtils}) start with '{'. The first byte
+ * tells the server which format a client speaks, and replies are encoded in the same format.
+ * Either way a frame is decoded exactly once, straight from the received bytes, into the typed
+ * protobuf messages the server works with.
+ */
+public final class ZmqCodec {
+    public static final byte BINARY_MARKER = 0x01;
+
+    public enum Format { JSON, BINARY }
+
+    private ZmqCodec() {
+    }
+
+    public static Format formatOf(byte[] frame) {
+        return frame.length > 0 && frame[0] == BINARY_MARKER ? Format.BINARY : Format.JSON;
+    }
+
+    /**
+     * Decode a request or reply frame in either format.
+     * @throws IllegalArgumentException if the frame is malformed.
+     */
+    public static FileEngineProto.ZmqMessage decode(byte[] frame) {
+        if (formatOf(frame) == Format.BINARY) {
+            try {
+                return FileEngineProto.ZmqMessage.parser().parseFrom(frame, 1, frame.length - 1);
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalArgumentException("Malformed binary message: " + e.getMessage(), e);
+            }
+        }
+        return decodeJson(frame);
+    }
+
+    /**
+     * Encode a message into a frame ready to hand to the socket.
+     * Binary frames are serialized directly into an exactly-sized array, marker included.
+     */
+    public static byte[] encode(FileEngineProto.ZmqMessage message, Format format) {
+        if (format == Format.BINARY) {
+            int size = message.getSerializedSize();
+            byte[] frame = new byte[size + 1];
+            frame[0] = BINARY_MARKER;
+            CodedOutputStream out = CodedOutputStream.newInstance(frame, 1, size);
+            try {
+                message.writeTo(out);
+                out.checkNoSpaceLeft();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return frame;
+        }
+        return encodeJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // One parse of the JSON frame; fields are then read from the parsed tree
+    private static FileEngineProto.ZmqMessage decodeJson(byte[] frame) {
+        JsonObject json;
+        try {
+            json = JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(frame), StandardCharsets.UTF_8))
+                    .getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed JSON message", e);
+        }
+        try {
+            return fromJson(json);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // A field missing or of the wrong JSON type
+            throw new IllegalArgumentException("Malformed JSON message: " + e.getMessage(), e);
+        }
+    }
+
+    private static FileEngineProto.ZmqMessage fromJson(JsonObject json) {
+        String type = json.has("type") ? json.get("type").getAsString() : "";
+        FileEngineProto.ZmqMessage.Builder message = FileEngineProto.ZmqMessage.newBuilder();
+        switch (type) {
+            case "INDEX" -> {
+                FileEngineProto.IndexRequest.Builder request = FileEngineProto.IndexRequest.newBuilder()
+                        .setClientId(stringOrEmpty(json, "client_id"))
+                        .setFilePath(stringOrEmpty(json, "file_path"));
+                if (json.has("words")) {
+                    for (Map.Entry<String, JsonElement> word : json.getAsJsonObject("words").entrySet()) {
+                        request.putWordFrequencies(word.getKey(), word.getValue().getAsInt());
+                    }
+                }
+                message.setIndexRequest(request);
+            }
+            case "SEARCH" -> {
+                FileEngineProto.SearchRequest.Builder request = FileEngineProto.SearchRequest.newBuilder();
+                for (JsonElement term : json.getAsJsonArray("query")) {
+                    request.addQueryTerms(term.getAsString());
+                }
+                if (json.has("limit")) {
+                    request.setLimit(json.get("limit").getAsInt());
+                }
+                message.setSearchRequest(request);
+            }
+            case "INDEX_REPLY" -> message.setIndexReply(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus(stringOrEmpty(json, "status"))
+                    .setMessage(stringOrEmpty(json, "message")));
+            case "SEARCH_REPLY" -> {
+                FileEngineProto.SearchReply.Builder reply = FileEngineProto.SearchReply.newBuilder();
+                JsonObject scores = json.has("scores") ? json.getAsJsonObject("scores") : null;
+                for (Map.Entry<String, JsonElement> result : json.getAsJsonObject("results").entrySet()) {
+                    FileEngineProto.SearchResult.Builder hit = FileEngineProto.SearchResult.newBuilder()
+                            .setDocumentPath(result.getKey())
+                            .setTotalFrequency(result.getValue().getAsInt());
+                    if (scores != null && scores.has(result.getKey())) {
+                        hit.setScore(scores.get(result.getKey()).getAsDouble());
+                    }
+                    reply.addResults(hit);
+                }
+                message.setSearchReply(reply);
+            }
+            case "ERROR" -> message.setError(stringOrEmpty(json, "message"));
+            default -> throw new IllegalArgumentException("Unknown message type: " + type);
+        }
+        return message.build();
+    }
+
+    // Produce the original JSON shapes, so JSON clients see no difference
+    private static String encodeJson(FileEngineProto.ZmqMessage message) {
+        return switch (message.getPayloadCase()) {
+            case INDEX_REQUEST -> {
+                FileEngineProto.IndexRequest request = message.getIndexRequest();
+                yield MessageUtils.createIndexRequest(request.getClientId(), request.getFilePath(), TermDictionary.decode(request));
+            }
+            case SEARCH_REQUEST -> {
+                FileEngineProto.SearchRequest request = message.getSearchRequest();
+                yield MessageUtils.createSearchRequest(request.getLimit(), request.getQueryTermsList().toArray(new String[0]));
+            }
+            case INDEX_REPLY -> MessageUtils.createIndexReply(message.getIndexReply().getStatus(), message.getIndexReply().getMessage());
+            case SEARCH_REPLY -> {
+                FileEngineProto.SearchReply reply = message.getSearchReply();
+                boolean ranked = reply.getResultsList().stream().anyMatch(hit -> hit.getScore() != 0);
+                if (ranked) {
+                    List<ScoredDocument> hits = new ArrayList<>(reply.getResultsCount());
+                    for (FileEngineProto.SearchResult hit : reply.getResultsList()) {
+                        hits.add(new ScoredDocument(hit.getDocumentPath(), hit.getScore(), hit.getTotalFrequency()));
+                    }
+                    yield MessageUtils.createRankedSearchReply(hits);
+                }
+                Map<String, Integer> results = new LinkedHashMap<>();
+                for (FileEngineProto.SearchResult hit : reply.getResultsList()) {
+                    results.put(hit.getDocumentPath(), hit.getTotalFrequency());
+                }
+                yield MessageUtils.createSearchReply(results);
+            }
+            case ERROR -> MessageUtils.createErrorReply(message.getError());
+            case STATS_REQUEST, STATS_REPLY -> throw new IllegalArgumentException("Stats messages are only supported in the binary format");
+            case PAYLOAD_NOT_SET -> throw new IllegalArgumentException("Empty message");
+        };
+    }
+
+    private static String stringOrEmpty(JsonObject json, String field) {
+        return json.has(field) ? json.get(field).getAsString() : "";
+    }
+}
@@ -0,0 +1,204 @@
+// src/main/java/com/rafay/fileengine/index/BooleanQuery.java
+package com.rafay.fileengine.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A boolean query tree: term, prefix and wildcard leaves combined with AND, OR and NOT groups, nested arbitrarily.
+ * <p>
+ * A document's total frequency is the sum of the frequencies of the (non-negated) terms it matched,
+ * and its BM25 score sums over the same terms. A query that is just an OR of terms behaves
+ * exactly like the term-list searches of {@link InvertedIndex}.
+ */
+public sealed interface BooleanQuery {
+
+    /**
+     * Matches documents containing {@code term} (case-insensitive).
+     */
+    record Term(String term) implements BooleanQuery {
+        public Term {
+            term = term.toLowerCase();
+        }
+    }
+
+    /**
+     * Matches documents matching every clause. Clauses are intersected rarest first.
+     */
+    record And(List<BooleanQuery> clauses) implements BooleanQuery {
+        public And {
+            clauses = requireClauses(clauses);
+        }
+    }
+
+    /**
+     * Matches documents matching at least one clause.
+     */
+    record Or(List<BooleanQuery> clauses) implements BooleanQuery {
+        public Or {
+            clauses = requireClauses(clauses);
+        }
+    }
+
+    /**
+     * Matches documents not matching the clause. Cheap as a clause of an {@link And}, where it only filters
+     * the other clauses' matches; anywhere else it has to walk every indexed document.
+     */
+    record Not(BooleanQuery clause) implements BooleanQuery {
+        public Not {
+            if (clause == null) {
+                throw new IllegalArgumentException("NOT needs a clause");
+            }
+        }
+    }
+
+    /**
+     * Matches documents containing any term that starts with {@code prefix}, e.g. {@code distrib*}.
+     * Expands to at most {@link InvertedIndex#MAX_TERM_EXPANSIONS} terms.
+     */
+    record Prefix(String prefix) implements BooleanQuery {
+        public Prefix {
+            prefix = prefix.toLowerCase();
+        }
+    }
+
+    /**
+     * Matches documents containing any term matching {@code pattern}, where {@code *} stands for any
+     * run of characters and {@code ?} for exactly one. The literal text before the first wildcard
+     * narrows the terms that are looked at, so leading wildcards scan the whole vocabulary.
+     * Expands to at most {@link InvertedIndex#MAX_TERM_EXPANSIONS} terms.
+     */
+    record Wildcard(String pattern) implements BooleanQuery {
+        public Wildcard {
+            pattern = pattern.toLowerCase();
+        }
+
+        String literalPrefix() {
+            int end = 0;
+            while (end < pattern.length() && pattern.charAt(end) != '*' && pattern.charAt(end) != '?') {
+                end++;
+            }
+            return pattern.substring(0, end);
+        }
+
+        boolean matches(String term) {
+            // Greedy glob match, backtracking to the last '*'
+            int p = 0;
+            int t = 0;
+            int star = -1;
+            int starMatch = 0;
+            while (t < term.length()) {
+                if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == term.charAt(t))) {
+                    p++;
+                    t++;
+                } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                    star = p++;
+                    starMatch = t;
+                } else if (star >= 0) {
+                    p = star + 1;
+                    t = ++starMatch;
+                } else {
+                    return false;
+                }
+            }
+            while (p < pattern.length() && pattern.charAt(p) == '*') {
+                p++;
+            }
+            return p == pattern.length();
+        }
+    }
+
+    static BooleanQuery term(String term) {
+        return new Term(term);
+    }
+
+    static BooleanQuery and(BooleanQuery... clauses) {
+        return new And(List.of(clauses));
+    }
+
+    static BooleanQuery or(BooleanQuery... clauses) {
+        return new Or(List.of(clauses));
+    }
+
+    static BooleanQuery not(BooleanQuery clause) {
+        return new Not(clause);
+    }
+
+    /**
+     * OR of the given terms, i.e. the query a plain term list stands for.
+     */
+    static BooleanQuery anyOf(Collection<String> terms) {
+        List<BooleanQuery> clauses = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            clauses.add(new Term(term));
+        }
+        return new Or(clauses);
+    }
+
+    /**
+     * @return Every literal term in the tree, negated or not, in first-seen order (prefixes and wildcards are not expanded).
+     */
+    default Set<String> terms() {
+        Set<String> terms = new LinkedHashSet<>();
+        collectTerms(this, terms);
+        return terms;
+    }
+
+    /**
+     * @return The terms if this is an OR of plain terms (or a single term), null otherwise.
+     */
+    default List<String> flatTerms() {
+        if (this instanceof Term leaf) {
+            return List.of(leaf.term());
+        }
+        if (!(this instanceof Or or)) {
+            return null;
+        }
+        List<String> terms = new ArrayList<>(or.clauses().size());
+        for (BooleanQuery clause : or.clauses()) {
+            if (!(clause instanceof Term leaf)) {
+                return null;
+            }
+            terms.add(leaf.term());
+        }
+        return terms;
+    }
+
+    /**
+     * @return true if the matches only depend on the postings of {@link #terms()}; false if the query has
+     * a NOT, which depends on the set of indexed documents, or a prefix or wildcard, which depend on the vocabulary.
+     */
+    default boolean dependsOnlyOnTerms() {
+        return switch (this) {
+            case Term leaf -> true;
+            case And and -> and.clauses().stream().allMatch(BooleanQuery::dependsOnlyOnTerms);
+            case Or or -> or.clauses().stream().allMatch(BooleanQuery::dependsOnlyOnTerms);
+            case Not not -> false;
+            case Prefix prefix -> false;
+            case Wildcard wildcard -> false;
+        };
+    }
+
+    private static void collectTerms(BooleanQuery query, Set<String> terms) {
+        switch (query) {
+            case Term leaf -> terms.add(leaf.term());
+            case And and -> and.clauses().forEach(clause -> collectTerms(clause, terms));
+            case Or or -> or.clauses().forEach(clause -> collectTerms(clause, terms));
+            case Not not -> collectTerms(not.clause(), terms);
+            case Prefix prefix -> {
+            }
+            case Wildcard wildcard -> {
+            }
+        }
+    }
+
+    private static List<BooleanQuery> requireClauses(List<BooleanQuery> clauses) {
+        if (clauses == null || clauses.isEmpty()) {
+            throw new IllegalArgumentException("AND/OR need at least one clause");
+        }
+        return List.copyOf(clauses);
+    }
+}
@@ -0,0 +1,104 @@
+// src/main/java/com/rafay/fileengine/index/BufferArena.java
+package com.rafay.fileengine.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bump allocator that packs the many small byte ranges of one {@link Segment} into a few large buffers
+ * from an {@link IndexStorage}. An off-heap segment then costs a handful of direct buffers rather than
+ * one per term, each of which would carry its own native allocation and cleaner.
+ * <p>
+ * Ranges are never freed individually: the buffers are released together when the segment is dropped
+ * and the GC collects their handles. Chunks are sized from the caller's estimate of the total, and past
+ * it grow with what was already allocated, so the unused tail stays a small fraction of the segment.
+ * A range can be named by an address, its chunk index and offset packed into a long, so that tables
+ * of ranges can themselves live in the arena.
+ */
+final class BufferArena {
+    private static final int MIN_CHUNK = 4 << 10;
+    private static final int MAX_CHUNK = 64 << 20;
+
+    private final IndexStorage storage;
+    private final long expected;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    // Bytes reserved in each chunk, which is all a segment file needs to store of it
+    private int[] limits = new int[0];
+    private ByteBuffer chunk;
+    private int used;
+    private long allocated;
+    private long reserved;
+
+    /**
+     * @param expected Estimated number of bytes the segment will need.
+     */
+    BufferArena(IndexStorage storage, long expected) {
+        this.storage = storage;
+        this.expected = expected;
+    }
+
+    /**
+     * Reserve {@code length} contiguous bytes.
+     * @return Their offset in {@link #current()}.
+     */
+    int reserve(int length) {
+        if (chunk == null || chunk.capacity() - used < length) {
+            long wanted = Math.max(expected - allocated, allocated / 8);
+            int size = (int) Math.max(length, Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, wanted)));
+            chunk = storage.allocate(size);
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = chunk;
+            limits = Arrays.copyOf(limits, chunks.length);
+            allocated += size;
+            used = 0;
+        }
+        int offset = used;
+        used += length;
+        limits[limits.length - 1] = used;
+        reserved += length;
+        return offset;
+    }
+
+    // The buffer the last reservation was made in
+    ByteBuffer current() {
+        return chunk;
+    }
+
+    /**
+     * Copy bytes into a new reservation.
+     * @return Their offset in {@link #current()}.
+     */
+    int put(byte[] bytes, int length) {
+        int offset = reserve(length);
+        chunk.put(offset, bytes, 0, length);
+        return offset;
+    }
+
+    // The address of an offset in the current buffer
+    long address(int offset) {
+        return (long) (chunks.length - 1) << 32 | offset;
+    }
+
+    // Every buffer allocated so far, which addresses index by chunk
+    ByteBuffer[] chunks() {
+        return chunks;
+    }
+
+    // Bytes reserved so far in each of chunks()
+    int[] limits() {
+        return limits.clone();
+    }
+
+    // Total bytes reserved
+    long reserved() {
+        return reserved;
+    }
+
+    static int chunk(long address) {
+        return (int) (address >>> 32);
+    }
+
+    static int offset(long address) {
+        return (int) address;
+    }
+}
@@ -0,0 +1,289 @@
+// src/main/java/com/rafay/fileengine/index/IndexSnapshot.java
+package com.rafay.fileengine.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable on-disk image of an {@link InvertedIndex}'s segments, tagged with the last WAL sequence number they contain.
+ * <p>
+ * Layout (big-endian): a header, then each segment as a header entry, one entry per document, its term
+ * set and one postings entry per term, then a trailer. Every entry is prefixed with its byte length, and
+ * postings, terms and forward lists are stored in their in-memory compressed form (see
+ * {@link PostingsList#writeTo}, {@link SortedTermBlocks#writeTo}), so loading is a sequential bulk copy out
+ * of a memory-mapped file; the varints are only decoded when queries read them.
+ * <pre>
+ * header:   long MAGIC, int VERSION, long walSeq, int segmentCount
+ * segment:  int entryLen, int docCount, int termCount
+ * doc:      int entryLen, int docId, int pathLen (-1 = deleted), byte[] path, int length,
+ *           int hashLen, byte[] contentHash, int forwardLen, byte[] forward
+ * terms:    int entryLen, term set
+ * postings: int entryLen, postings (in term ordinal order)
+ * trailer:  long MAGIC
+ * </pre>
+ * Versions 1 to 3 held a single term dictionary and doc id slots instead of segments:
+ * {@code int termCount, int docSlots} in the header, then term entries, then doc entries. They still load,
+ * into one segment. Version 3 stored {@code int termId, int termLen, byte[] term, postings} per term and
+ * {@code int pathLen, byte[] path, int length, int idsLen, byte[] termIds, int hashLen, byte[] contentHash}
+ * per doc; versions 1 and 2 stored postings as raw int arrays and documents' terms as int ordinals,
+ * and version 1 had no content hash.
+ */
+final class IndexSnapshot {
+    private static final long MAGIC = 0x4446455F534E4150L; // "DFE_SNAP"
+    private static final int VERSION = 4;
+    private static final int MIN_VERSION = 1;
+    // Files larger than this are read through several mappings
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Write a segment set to {@code file} and fsync it. Segment sets are immutable, so this needs no lock.
+     */
+    static void write(SegmentSet segments, long walSeq, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20));
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(walSeq);
+            out.writeInt(segments.size());
+            for (int s = 0; s < segments.size(); s++) {
+                Segment segment = segments.segment(s);
+                SortedTermBlocks terms = segment.terms();
+                out.writeInt(8);
+                out.writeInt(segment.size());
+                out.writeInt(terms.size());
+
+                for (int local = 0; local < segment.size(); local++) {
+                    if (segments.isDeleted(s, local)) {
+                        out.writeInt(8);
+                        out.writeInt(segment.docId(local));
+                        out.writeInt(-1);
+                        continue;
+                    }
+                    byte[] path = segment.path(local).getBytes(StandardCharsets.UTF_8);
+                    byte[] contentHash = segment.contentHash(local).getBytes(StandardCharsets.UTF_8);
+                    byte[] forward = segment.encodedForward(local);
+                    out.writeInt(8 + path.length + 8 + contentHash.length + 4 + forward.length);
+                    out.writeInt(segment.docId(local));
+                    out.writeInt(path.length);
+                    out.write(path);
+                    out.writeInt(segment.length(local));
+                    out.writeInt(contentHash.length);
+                    out.write(contentHash);
+                    out.writeInt(forward.length);
+                    out.write(forward);
+                }
+
+                out.writeInt(terms.serializedSize());
+                terms.writeTo(out);
+                for (int ordinal = 0; ordinal < terms.size(); ordinal++) {
+                    PostingsList list = segment.postings(ordinal);
+                    out.writeInt(list.serializedSize());
+                    list.writeTo(out);
+                }
+            }
+            out.writeLong(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Load a snapshot into an empty index, reading it through short-lived memory-mapped windows and copying
+     * its entries into the index's own storage; nothing stays mapped once this returns.
+     * @return The WAL sequence number the snapshot covers.
+     */
+    static long load(Path file, InvertedIndex index) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedReader in = new MappedReader(channel);
+            ByteBuffer header = in.next(8 + 4 + 8);
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not an index snapshot: " + file);
+            }
+            int version = header.getInt();
+            if (version < MIN_VERSION || version > VERSION) {
+                throw new IOException("Unsupported index snapshot version " + version + ": " + file);
+            }
+            long walSeq = header.getLong();
+            SegmentSet segments = version >= 4 ? readSegments(in, index.storage()) : readLegacy(in, version, index.storage());
+            if (in.next(8).getLong() != MAGIC) {
+                throw new IOException("Truncated index snapshot: " + file);
+            }
+            index.restore(segments);
+            return walSeq;
+        }
+    }
+
+    // Data is copied from the mapping straight into each segment's arena, without staging it on the heap
+    private static SegmentSet readSegments(MappedReader in, IndexStorage storage) throws IOException {
+        SegmentSet segments = SegmentSet.EMPTY;
+        int segmentCount = in.next(4).getInt();
+        for (int s = 0; s < segmentCount; s++) {
+            ByteBuffer header = in.next(in.next(4).getInt());
+            int docCount = header.getInt();
+            int termCount = header.getInt();
+
+            int[] docIds = new int[docCount];
+            String[] paths = new String[docCount];
+            int[] lengths = new int[docCount];
+            String[] contentHashes = new String[docCount];
+            // Views of each document's forward list in the mapping, copied into the arena together
+            ByteBuffer[] forward = new ByteBuffer[docCount];
+            for (int local = 0; local < docCount; local++) {
+                ByteBuffer entry = in.next(in.next(4).getInt());
+                docIds[local] = entry.getInt();
+                int pathLength = entry.getInt();
+                if (pathLength < 0) {
+                    // Deleted: withSegment() marks documents without a path as such
+                    forward[local] = ByteBuffer.wrap(Segment.NO_TERMS);
+                    continue;
+                }
+                paths[local] = readString(entry, pathLength);
+                lengths[local] = entry.getInt();
+                contentHashes[local] = readString(entry, entry.getInt());
+                int forwardLength = entry.getInt();
+                forward[local] = entry.slice(entry.position(), forwardLength);
+            }
+            BufferArena arena = new BufferArena(storage, 0);
+            int[] forwardOffsets = new int[docCount + 1];
+            ByteBuffer forwardData = Segment.packForward(forward, forwardOffsets, arena);
+
+            SortedTermBlocks terms = SortedTermBlocks.readFrom(in.next(in.next(4).getInt()), arena);
+            if (terms.size() != termCount) {
+                throw new IOException("Corrupt index snapshot: segment term count mismatch");
+            }
+            long[] postings = new long[termCount];
+            for (int ordinal = 0; ordinal < termCount; ordinal++) {
+                postings[ordinal] = PostingsList.readFrom(in.next(in.next(4).getInt()), arena);
+            }
+            segments = segments.withSegment(new Segment(docIds, paths, lengths, contentHashes, forwardData, forwardOffsets,
+                    terms, postings, arena));
+        }
+        return segments;
+    }
+
+    /**
+     * Load a pre-segment snapshot into a single segment: scatter the postings into per-document counts,
+     * then build the segment the way a refresh would. Doc ids carry over.
+     */
+    private static SegmentSet readLegacy(MappedReader in, int version, IndexStorage storage) throws IOException {
+        ByteBuffer header = in.next(4 + 4);
+        int termCount = header.getInt();
+        int docSlots = header.getInt();
+
+        List<Map<String, Integer>> counts = new ArrayList<>(docSlots);
+        for (int d = 0; d < docSlots; d++) {
+            counts.add(null);
+        }
+        for (int t = 0; t < termCount; t++) {
+            ByteBuffer entry = in.next(in.next(4).getInt());
+            if (version >= 3) {
+                entry.getInt(); // term id
+                String term = readString(entry, entry.getInt());
+                BufferArena scratch = new BufferArena(IndexStorage.HEAP, entry.remaining());
+                long address = PostingsList.readFrom(entry, scratch);
+                PostingsList.Cursor postings = new PostingsList(scratch.chunks(), address).cursor();
+                for (int doc = postings.doc(); doc != PostingsList.NO_MORE_DOCS; postings.next(), doc = postings.doc()) {
+                    addCount(counts, doc, term, postings.freq());
+                }
+            } else {
+                String term = readString(entry, entry.getInt());
+                entry.getInt(); // max freq
+                entry.getInt(); // min doc length
+                int n = entry.getInt();
+                int[] docIds = new int[n];
+                int[] freqs = new int[n];
+                entry.asIntBuffer().get(docIds).get(freqs);
+                for (int i = 0; i < n; i++) {
+                    addCount(counts, docIds[i], term, freqs[i]);
+                }
+            }
+        }
+
+        WriteBuffer buffer = new WriteBuffer();
+        for (int d = 0; d < docSlots; d++) {
+            ByteBuffer entry = in.next(in.next(4).getInt());
+            int pathLength = entry.getInt();
+            if (pathLength < 0) {
+                continue;
+            }
+            String path = readString(entry, pathLength);
+            int length = entry.getInt();
+            // Skip the document's term list; the postings already said which terms it has
+            int termsLength = entry.getInt();
+            entry.position(entry.position() + (version >= 3 ? termsLength : 4 * termsLength));
+            String contentHash = version >= 2 ? readString(entry, entry.getInt()) : "";
+            Map<String, Integer> docCounts = counts.get(d);
+            buffer.add(d, path, docCounts != null ? docCounts : new HashMap<>(), length, contentHash);
+            counts.set(d, null);
+        }
+        Segment segment = buffer.freeze(storage);
+        return segment != null ? SegmentSet.EMPTY.withSegment(segment) : SegmentSet.EMPTY;
+    }
+
+    private static void addCount(List<Map<String, Integer>> counts, int doc, String term, int freq) {
+        Map<String, Integer> docCounts = counts.get(doc);
+        if (docCounts == null) {
+            docCounts = new HashMap<>();
+            counts.set(doc, docCounts);
+        }
+        docCounts.put(term, freq);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Sequential reader over a file mapped in windows of at most MAP_WINDOW bytes
+    private static final class MappedReader {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            remap(0);
+        }
+
+        // Return a buffer positioned at the next 'length' bytes and consume them
+        ByteBuffer next(int length) throws IOException {
+            if (length < 0) {
+                throw new IOException("Corrupt index snapshot entry length " + length);
+            }
+            if (window.remaining() < length) {
+                long position = windowStart + window.position();
+                if (position + length > size) {
+                    throw new IOException("Truncated index snapshot");
+                }
+                remap(position);
+            }
+            ByteBuffer slice = window.slice(window.position(), length);
+            window.position(window.position() + length);
+            return slice;
+        }
+
+        private void remap(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+// src/main/java/com/rafay/fileengine/index/IndexStorage.java
+package com.rafay.fileengine.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where an {@link InvertedIndex} keeps the bulk of its segments: postings, vocabularies and forward lists.
+ * <p>
+ * {@link #HEAP} stores them in byte arrays. {@link #OFF_HEAP} stores them in direct buffers outside the
+ * Java heap, so a large index adds almost nothing for the garbage collector to trace or copy; what stays
+ * on the heap is per-segment and per-document bookkeeping (doc ids, paths, content hashes) and one small
+ * handle per term. Searches read both kinds through the same {@link ByteBuffer} code path. Off-heap
+ * memory is capped by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size, so set it
+ * explicitly when moving a large index off the heap.
+ */
+public enum IndexStorage {
+    HEAP,
+    OFF_HEAP;
+
+    // A zeroed buffer of 'size' bytes, positioned at 0
+    ByteBuffer allocate(int size) {
+        return this == OFF_HEAP ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+}
@@ -0,0 +1,200 @@
+// src/main/java/com/rafay/fileengine/index/IndexStore.java
+package com.rafay.fileengine.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Durable home for an {@link InvertedIndex}: a write-ahead log plus periodic snapshots in one directory.
+ * <p>
+ * On open, the newest snapshot is bulk-copied into the index, then only the WAL records written
+ * after it are replayed, so restart time tracks the WAL tail rather than the corpus size.
+ * Every mutation made through {@link #index()} is logged and fsynced (with group commit)
+ * before the index call returns.
+ */
+public final class IndexStore implements Closeable {
+    private static final Logger logger = Logger.getLogger(IndexStore.class.getName());
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final Path dir;
+    private final InvertedIndex index;
+    private final WriteAheadLog wal;
+    // Null when the checkpoints run on an executor shared with other stores
+    private final ScheduledExecutorService checkpointer;
+    private final ScheduledFuture<?> checkpoints;
+    private long checkpointSeq;
+
+    private IndexStore(Path dir, InvertedIndex index, WriteAheadLog wal, long checkpointSeq, Duration checkpointInterval,
+                       ScheduledExecutorService sharedCheckpointer) {
+        this.dir = dir;
+        this.index = index;
+        this.wal = wal;
+        this.checkpointSeq = checkpointSeq;
+        this.checkpointer = sharedCheckpointer != null ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "index-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = checkpointInterval.toMillis();
+        this.checkpoints = (sharedCheckpointer != null ? sharedCheckpointer : checkpointer)
+                .scheduleWithFixedDelay(this::checkpointQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Recover the index stored in {@code dir} (creating the directory if needed) and start logging to it.
+     * @param dir The data directory.
+     * @param checkpointInterval How often to write a new snapshot when there have been changes.
+     */
+    public static IndexStore open(Path dir, Duration checkpointInterval) throws IOException {
+        return open(dir, checkpointInterval, IndexStorage.HEAP);
+    }
+
+    /**
+     * Recover the index stored in {@code dir} into the given storage and start logging to it.
+     * Snapshots are the same in either storage, so a directory can be reopened with the other one.
+     */
+    public static IndexStore open(Path dir, Duration checkpointInterval, IndexStorage storage) throws IOException {
+        return open(dir, checkpointInterval, storage, null);
+    }
+
+    /**
+     * Recover the index stored in {@code dir}, checkpointing it on {@code checkpointer} rather than on a thread of
+     * its own, for processes that keep many stores open. The executor is not shut down when the store is closed.
+     */
+    public static IndexStore open(Path dir, Duration checkpointInterval, IndexStorage storage,
+                                  ScheduledExecutorService checkpointer) throws IOException {
+        Files.createDirectories(dir);
+        InvertedIndex index = new InvertedIndex(storage);
+
+        long start = System.nanoTime();
+        long snapshotSeq = 0;
+        List<Path> snapshots = listSnapshots(dir);
+        if (!snapshots.isEmpty()) {
+            Path latest = snapshots.get(snapshots.size() - 1);
+            snapshotSeq = IndexSnapshot.load(latest, index);
+            logger.info("Loaded snapshot " + latest.getFileName() + " (" + index.documentCount() + " documents) in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+
+        long replayStart = System.nanoTime();
+        // Publish the replayed records once, as one segment, rather than after every record
+        index.refreshOnWrite(false);
+        long lastSeq = WriteAheadLog.replay(dir, snapshotSeq, index);
+        index.refreshOnWrite(true);
+        logger.info("Replayed " + (lastSeq - snapshotSeq) + " write-ahead log records in "
+                + (System.nanoTime() - replayStart) / 1_000_000 + " ms");
+
+        WriteAheadLog wal = new WriteAheadLog(dir, lastSeq);
+        index.attachLog(wal);
+        return new IndexStore(dir, index, wal, snapshotSeq, checkpointInterval, checkpointer);
+    }
+
+    public InvertedIndex index() {
+        return index;
+    }
+
+    /**
+     * Write a snapshot of the current index and drop the WAL segments and snapshots it supersedes.
+     * The snapshot is written from an immutable segment set, so writers and searches keep running.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (wal.appendedSeq() == checkpointSeq) {
+            return;
+        }
+        writeCheckpoint();
+    }
+
+    /**
+     * Attach segment files built by a {@link SegmentBuilder} (see {@link InvertedIndex#attachSegments}) and
+     * checkpoint, so the attached documents are durable once this returns. The snapshot copies them, so the
+     * files are not needed after a restart.
+     * @return The number of documents attached.
+     */
+    public synchronized int attachSegments(List<Path> files) throws IOException {
+        int count = index.attachSegments(files);
+        // Attaching logs nothing, so checkpoint even if the WAL hasn't moved
+        writeCheckpoint();
+        return count;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        long start = System.nanoTime();
+        Path tmp = dir.resolve(SNAPSHOT_PREFIX + "tmp");
+        InvertedIndex.Checkpoint checkpoint = index.checkpoint();
+        long seq = checkpoint.walSeq();
+        IndexSnapshot.write(checkpoint.segments(), seq, tmp);
+        Path snapshot = dir.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, seq, SNAPSHOT_SUFFIX));
+        Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        for (Path old : listSnapshots(dir)) {
+            if (!old.equals(snapshot)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        wal.deleteSegmentsThrough(seq);
+        checkpointSeq = seq;
+        logger.info("Checkpointed index at WAL sequence " + seq + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Stop checkpointing, write a final snapshot and close the log.
+     */
+    @Override
+    public void close() throws IOException {
+        checkpoints.cancel(false);
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+            try {
+                checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+        wal.close();
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Index checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    // Make the snapshot rename durable; not supported on every platform, and not fatal there
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.fine("Directory fsync not supported: " + e.getMessage());
+        }
+    }
+
+    private static List<Path> listSnapshots(Path dir) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+            }).sorted().forEach(snapshots::add);
+        }
+        return snapshots;
+    }
+}
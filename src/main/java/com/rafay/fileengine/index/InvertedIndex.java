@@ -0,0 +1,1150 @@
+// src/main/java/com/rafay/fileengine/index/InvertedIndex.java
+package com.rafay.fileengine.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Term -> postings inverted index shared by the gRPC and ZeroMQ servers.
+ * A search only visits the postings of the queried terms, so its cost depends
+ * on how many documents contain those terms rather than on the corpus size.
+ * <p>
+ * The index is a list of immutable {@link Segment}s plus a small mutable {@link WriteBuffer}.
+ * Searches pin the current {@link SegmentSet} with a single volatile read and run against it
+ * without taking any lock, so ingest never blocks them. Writes go to the buffer; before a write
+ * returns, the buffer is frozen into a new segment and a new segment set is published. Writers
+ * that arrive while a refresh is running are published together by the next one, so refreshes
+ * batch themselves under load. Re-indexing or removing a document marks its old version deleted
+ * in the next set (a tombstone) instead of editing the segment holding it, and a background thread
+ * merges small segments into larger ones, dropping deleted documents ({@link TieredMergePolicy}).
+ * <p>
+ * Every indexed document version gets a new, increasing doc id, and segments cover disjoint,
+ * increasing doc id ranges, so postings and pages stay in doc id order across segments. That
+ * ordering is what lets {@link #topK} run WAND: documents whose summed per-term score upper bounds
+ * cannot beat the current k-th best score are skipped without being scored.
+ * <p>
+ * Segment data lives on or off the Java heap depending on the {@link IndexStorage} the index was created with,
+ * except for segments attached from {@link SegmentFile}s, which stay in their memory-mapped files until merged.
+ */
+public class InvertedIndex {
+    private static final Logger logger = Logger.getLogger(InvertedIndex.class.getName());
+    // BM25 parameters (the usual Robertson/Lucene defaults)
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+    private static final int VERSION_STRIPES = 1 << 12;
+    // Most terms a single prefix or wildcard may expand to; each one costs a postings cursor
+    public static final int MAX_TERM_EXPANSIONS = 1024;
+    // Segment count past which writers stop to help merge, so ingest can't outrun the merge thread
+    private static final int MAX_SEGMENTS = 4 * TieredMergePolicy.MERGE_FACTOR;
+
+    private final IndexStorage storage;
+    // What searches read; replaced, never modified, and only by the holder of refreshLock
+    private volatile SegmentSet segments = SegmentSet.EMPTY;
+    // Generation of the newest write buffer whose contents are in 'segments'
+    private volatile long publishedGeneration;
+
+    // Orders WAL appends with buffer updates; searches never take it
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // One publisher at a time: refreshes and merge commits
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    // Writer state, guarded by writeLock
+    // Document path -> doc id of its live version
+    private final Map<String, Integer> docIds = new HashMap<>();
+    private WriteBuffer buffer = new WriteBuffer();
+    private long bufferGeneration = 1;
+    // The buffer being frozen by a refresh, until the refresh publishes it
+    private WriteBuffer flushing;
+    // Doc ids outside the buffer superseded since the last refresh
+    private int[] tombstones = new int[16];
+    private int tombstoneCount;
+    private int nextDocId;
+    // Off while recovery replays the log, so it builds one segment instead of one per record
+    private boolean refreshOnWrite = true;
+    // Mutations are appended here before they're applied; null when running purely in memory
+    private WriteAheadLog wal;
+
+    private final ThreadPoolExecutor merger = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "index-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+    // Held for a whole merge, so merges never overlap; commits also take refreshLock
+    private final ReentrantLock mergeLock = new ReentrantLock();
+
+    // Change counters for result caches. Bumped after each publish, read without any lock.
+    // Terms share VERSION_STRIPES counters by hash, so a change can spuriously invalidate another term, never miss one.
+    private final AtomicLongArray termVersions = new AtomicLongArray(VERSION_STRIPES);
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * A published segment set and the last WAL sequence number it contains.
+     */
+    record Checkpoint(SegmentSet segments, long walSeq) {
+    }
+
+    // Writes taken out of the writer state by a refresh
+    private record FrozenWrites(WriteBuffer buffer, int[] tombstones, long generation) {
+    }
+
+    // An index that keeps its segments on the heap
+    public InvertedIndex() {
+        this(IndexStorage.HEAP);
+    }
+
+    public InvertedIndex(IndexStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Index a document, replacing whatever was previously indexed under the same path.
+     * @param docPath The path of the document.
+     * @param wordFreqs The document's word frequencies as counted by the client.
+     */
+    public void indexDocument(String docPath, Map<String, Integer> wordFreqs) {
+        indexDocument(docPath, wordFreqs, "");
+    }
+
+    /**
+     * Index a document and remember the hash of its content, so it can later be updated with {@link #applyDelta}.
+     * @param contentHash The client's hash of the document content, or "" if unknown.
+     * @throws java.io.UncheckedIOException if the write-ahead log can't be written; the document is then not indexed.
+     */
+    public void indexDocument(String docPath, Map<String, Integer> wordFreqs, String contentHash) {
+        Map<String, Integer> normalized = normalize(wordFreqs);
+        long seq = -1;
+        long generation;
+        writeLock.lock();
+        try {
+            // Logged under the write lock so WAL order matches apply order
+            if (wal != null) {
+                seq = wal.appendIndex(docPath, normalized, contentHash);
+            }
+            applyDocument(docPath, normalized, contentHash);
+            generation = pendingGeneration();
+        } finally {
+            writeLock.unlock();
+        }
+        awaitVisible(generation);
+        awaitDurable(seq);
+    }
+
+    /**
+     * Index a batch of documents under a single write lock acquisition; they become searchable together.
+     * If a path appears more than once, the last occurrence wins, as with repeated {@link #indexDocument} calls.
+     * @param docs Document path -> word frequencies, applied in iteration order.
+     */
+    public void indexDocuments(Map<String, Map<String, Integer>> docs) {
+        indexDocuments(docs, Map.of());
+    }
+
+    /**
+     * Index a batch of documents, remembering the content hashes given for them.
+     * @param contentHashes Document path -> content hash; paths without one get "".
+     */
+    public void indexDocuments(Map<String, Map<String, Integer>> docs, Map<String, String> contentHashes) {
+        // Normalize outside the lock so other writers are only held up by the buffer updates
+        List<Map.Entry<String, Map<String, Integer>>> normalizedDocs = new ArrayList<>(docs.size());
+        for (Map.Entry<String, Map<String, Integer>> doc : docs.entrySet()) {
+            normalizedDocs.add(Map.entry(doc.getKey(), normalize(doc.getValue())));
+        }
+        long seq = -1;
+        long generation;
+        writeLock.lock();
+        try {
+            // Log the whole batch first, so a log failure part way through leaves none of it applied
+            if (wal != null) {
+                for (Map.Entry<String, Map<String, Integer>> doc : normalizedDocs) {
+                    seq = wal.appendIndex(doc.getKey(), doc.getValue(), contentHashes.getOrDefault(doc.getKey(), ""));
+                }
+            }
+            for (Map.Entry<String, Map<String, Integer>> doc : normalizedDocs) {
+                applyDocument(doc.getKey(), doc.getValue(), contentHashes.getOrDefault(doc.getKey(), ""));
+            }
+            generation = pendingGeneration();
+        } finally {
+            writeLock.unlock();
+        }
+        awaitVisible(generation);
+        // One wait covers the whole batch: the WAL syncs records in order
+        awaitDurable(seq);
+    }
+
+    // Buffer a new version of a document, tombstoning the published one it replaces; caller holds the write lock
+    private void applyDocument(String docPath, Map<String, Integer> normalized, String contentHash) {
+        int length = 0;
+        for (int freq : normalized.values()) {
+            length += freq;
+        }
+        int docId = nextDocId++;
+        Integer previous = docIds.put(docPath, docId);
+        if (previous != null && !buffer.remove(docPath)) {
+            tombstone(previous);
+        }
+        buffer.add(docId, docPath, normalized, length, contentHash);
+    }
+
+    /**
+     * Update an indexed document by adding per-term count deltas, instead of re-sending all of its terms.
+     * The index holds the document's current counts, so the client only sends what changed.
+     * <p>
+     * The deltas are only applied if the document is currently indexed with {@code baseHash},
+     * i.e. they were computed against exactly the version the index holds, and no count would go negative.
+     * Otherwise nothing changes and the caller should re-index the whole document.
+     * @param docPath The path of the document.
+     * @param baseHash The content hash the deltas were computed against.
+     * @param contentHash The hash of the new content.
+     * @param termDeltas Term -> new count minus old count.
+     * @return true if the deltas were applied, false if the document is missing or stale.
+     */
+    public boolean applyDelta(String docPath, String baseHash, String contentHash, Map<String, Integer> termDeltas) {
+        Map<String, Integer> normalized = new HashMap<>(termDeltas.size() * 2);
+        for (Map.Entry<String, Integer> entry : termDeltas.entrySet()) {
+            normalized.merge(entry.getKey().toLowerCase(), entry.getValue(), Integer::sum);
+        }
+        normalized.values().removeIf(delta -> delta == 0);
+        long seq = -1;
+        long generation;
+        writeLock.lock();
+        try {
+            Integer docId = docIds.get(docPath);
+            if (docId == null || baseHash.isEmpty()) {
+                return false;
+            }
+            WriteBuffer.Entry current = liveVersion(docPath, docId);
+            if (!current.contentHash().equals(baseHash)) {
+                return false;
+            }
+            Map<String, Integer> updated = new HashMap<>(current.counts());
+            for (Map.Entry<String, Integer> entry : normalized.entrySet()) {
+                int freq = updated.getOrDefault(entry.getKey(), 0) + entry.getValue();
+                if (freq < 0) {
+                    return false;
+                }
+                if (freq == 0) {
+                    updated.remove(entry.getKey());
+                } else {
+                    updated.put(entry.getKey(), freq);
+                }
+            }
+            if (wal != null) {
+                seq = wal.appendDelta(docPath, baseHash, contentHash, normalized);
+            }
+            applyDocument(docPath, updated, contentHash);
+            generation = pendingGeneration();
+        } finally {
+            writeLock.unlock();
+        }
+        awaitVisible(generation);
+        awaitDurable(seq);
+        return true;
+    }
+
+    /**
+     * Remove a document and all of its postings.
+     * @param docPath The path of the document.
+     * @return true if the document was indexed, false otherwise.
+     */
+    public boolean removeDocument(String docPath) {
+        long seq;
+        long generation;
+        writeLock.lock();
+        try {
+            Integer docId = docIds.remove(docPath);
+            if (docId == null) {
+                return false;
+            }
+            seq = wal != null ? wal.appendRemove(docPath) : -1;
+            if (!buffer.remove(docPath)) {
+                tombstone(docId);
+            }
+            generation = pendingGeneration();
+        } finally {
+            writeLock.unlock();
+        }
+        awaitVisible(generation);
+        awaitDurable(seq);
+        return true;
+    }
+
+    /**
+     * Sum the frequencies of the query terms in every document that contains at least one of them.
+     * @param queryTerms The search terms (case-insensitive).
+     * @return A map of document path -> total frequency of the query terms.
+     */
+    public Map<String, Integer> search(Collection<String> queryTerms) {
+        if (queryTerms.isEmpty()) {
+            return new HashMap<>();
+        }
+        return matches(BooleanQuery.anyOf(queryTerms));
+    }
+
+    /**
+     * Find every document matching a boolean query, with the summed frequencies of the terms it matched.
+     * @return A map of document path -> total frequency of the matched (non-negated) query terms.
+     * @throws IllegalArgumentException if a prefix or wildcard expands to more than {@link #MAX_TERM_EXPANSIONS} terms.
+     */
+    public Map<String, Integer> search(BooleanQuery query) {
+        return matches(query);
+    }
+
+    private Map<String, Integer> matches(BooleanQuery query) {
+        SearchContext context = new SearchContext(segments);
+        SegmentSet set = context.segments;
+        Map<String, Integer> results = new HashMap<>();
+        for (int s = 0; s < set.size(); s++) {
+            Segment segment = set.segment(s);
+            QueryIterator matches = context.iterator(query, s);
+            for (int doc = matches.doc(); doc != QueryIterator.NO_MORE_DOCS; matches.next(), doc = matches.doc()) {
+                if (!set.isDeleted(s, doc)) {
+                    results.put(segment.path(doc), matches.freq());
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Unranked search in doc-id order, resumable from the last doc id of a previous page.
+     * Each term's postings are galloped forward to the resume point, so fetching a page
+     * costs about the page size rather than re-running the whole query. A document re-indexed
+     * between two pages gets a new doc id, so it can show up again on a later page.
+     * @param queryTerms The search terms (case-insensitive), with the same summing semantics as {@link #search}.
+     * @param afterDocId Only documents with a greater doc id are returned; -1 starts from the beginning.
+     * @param pageSize The maximum number of results.
+     * @return The page, whose {@link SearchPage#nextDocId()} is -1 once there are no more results.
+     */
+    public SearchPage searchPage(Collection<String> queryTerms, int afterDocId, int pageSize) {
+        if (queryTerms.isEmpty()) {
+            return new SearchPage(new ArrayList<>(), -1);
+        }
+        return page(BooleanQuery.anyOf(queryTerms), afterDocId, pageSize);
+    }
+
+    /**
+     * {@link #searchPage(Collection, int, int)} for a boolean query.
+     * @throws IllegalArgumentException if a prefix or wildcard expands to more than {@link #MAX_TERM_EXPANSIONS} terms.
+     */
+    public SearchPage searchPage(BooleanQuery query, int afterDocId, int pageSize) {
+        return page(query, afterDocId, pageSize);
+    }
+
+    private SearchPage page(BooleanQuery query, int afterDocId, int pageSize) {
+        SearchContext context = new SearchContext(segments);
+        SegmentSet set = context.segments;
+        List<ScoredDocument> hits = new ArrayList<>(Math.min(pageSize, 1024));
+        int lastDocId = -1;
+        for (int s = 0; s < set.size(); s++) {
+            Segment segment = set.segment(s);
+            if (segment.maxDocId() <= afterDocId) {
+                continue;
+            }
+            QueryIterator matches = context.iterator(query, s);
+            matches.advance(segment.firstAfter(afterDocId));
+            for (int doc = matches.doc(); doc != QueryIterator.NO_MORE_DOCS; matches.next(), doc = matches.doc()) {
+                if (set.isDeleted(s, doc)) {
+                    continue;
+                }
+                if (hits.size() == pageSize) {
+                    return new SearchPage(hits, lastDocId);
+                }
+                hits.add(new ScoredDocument(segment.path(doc), 0, matches.freq()));
+                lastDocId = segment.docId(doc);
+            }
+        }
+        return new SearchPage(hits, -1);
+    }
+
+    /**
+     * Rank the documents matching a boolean query by the BM25 score of the terms they matched and return the best {@code k}.
+     * A plain OR of terms runs WAND as {@link #topK(Collection, int)} does; other queries score every match,
+     * which conjunctions keep cheap by only producing documents that contain all their terms.
+     * @throws IllegalArgumentException if a prefix or wildcard expands to more than {@link #MAX_TERM_EXPANSIONS} terms.
+     */
+    public List<ScoredDocument> topK(BooleanQuery query, int k) {
+        List<String> flat = query.flatTerms();
+        if (flat != null) {
+            return topK(flat, k);
+        }
+        if (k <= 0) {
+            return List.of();
+        }
+        SearchContext context = new SearchContext(segments);
+        SegmentSet set = context.segments;
+        if (context.docCount == 0) {
+            return List.of();
+        }
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(Math.min(k, 1024), Comparator.comparingDouble(c -> c.score));
+        for (int s = 0; s < set.size(); s++) {
+            Segment segment = set.segment(s);
+            QueryIterator matches = context.iterator(query, s);
+            for (int doc = matches.doc(); doc != QueryIterator.NO_MORE_DOCS; matches.next(), doc = matches.doc()) {
+                if (set.isDeleted(s, doc)) {
+                    continue;
+                }
+                double norm = K1 * (1 - B + B * segment.length(doc) / context.avgDocLength);
+                double score = matches.score(norm);
+                if (heap.size() < k) {
+                    heap.add(new Candidate(segment.path(doc), score, matches.freq()));
+                } else if (score > heap.peek().score) {
+                    heap.poll();
+                    heap.add(new Candidate(segment.path(doc), score, matches.freq()));
+                }
+            }
+        }
+        return ranked(heap);
+    }
+
+    /**
+     * Rank documents by BM25 and return the best {@code k}.
+     * Uses WAND so that scoring work grows with k rather than with the number of matches.
+     * @param queryTerms The search terms (case-insensitive, duplicates ignored).
+     * @param k The maximum number of results.
+     * @return Up to k documents, best score first.
+     */
+    public List<ScoredDocument> topK(Collection<String> queryTerms, int k) {
+        if (k <= 0) {
+            return List.of();
+        }
+        SearchContext context = new SearchContext(segments);
+        SegmentSet set = context.segments;
+        if (context.docCount == 0) {
+            return List.of();
+        }
+        Set<String> uniqueTerms = new LinkedHashSet<>();
+        for (String queryTerm : queryTerms) {
+            uniqueTerms.add(queryTerm.toLowerCase());
+        }
+
+        // Min-heap on score holding the current top k; the threshold carries over from segment to segment
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(Math.min(k, 1024), Comparator.comparingDouble(c -> c.score));
+        double threshold = 0;
+        for (int s = 0; s < set.size(); s++) {
+            Segment segment = set.segment(s);
+            List<TermCursor> cursorList = new ArrayList<>();
+            for (String term : uniqueTerms) {
+                PostingsList[] lists = context.postings(term);
+                if (lists[s] != null) {
+                    cursorList.add(new TermCursor(lists[s], context.idf(lists), context.avgDocLength));
+                }
+            }
+            TermCursor[] cursors = cursorList.toArray(new TermCursor[0]);
+
+            int active = cursors.length;
+            while (active > 0) {
+                sortByDoc(cursors, active);
+                while (active > 0 && cursors[active - 1].exhausted()) {
+                    active--;
+                }
+                if (active == 0) {
+                    break;
+                }
+
+                // Pivot: first cursor at which the summed upper bounds could beat the threshold
+                double bound = 0;
+                int pivot = -1;
+                for (int i = 0; i < active; i++) {
+                    bound += cursors[i].upperBound;
+                    if (bound > threshold) {
+                        pivot = i;
+                        break;
+                    }
+                }
+                if (pivot < 0) {
+                    break;
+                }
+                int pivotDoc = cursors[pivot].doc();
+
+                if (cursors[0].doc() == pivotDoc) {
+                    boolean deleted = set.isDeleted(s, pivotDoc);
+                    double norm = K1 * (1 - B + B * segment.length(pivotDoc) / context.avgDocLength);
+                    double score = 0;
+                    int totalFreq = 0;
+                    for (int i = 0; i < active && cursors[i].doc() == pivotDoc; i++) {
+                        int freq = cursors[i].freq();
+                        score += cursors[i].idf * freq * (K1 + 1) / (freq + norm);
+                        totalFreq += freq;
+                        cursors[i].next();
+                    }
+                    if (deleted) {
+                        continue;
+                    }
+                    if (heap.size() < k) {
+                        heap.add(new Candidate(segment.path(pivotDoc), score, totalFreq));
+                    } else if (score > threshold) {
+                        heap.poll();
+                        heap.add(new Candidate(segment.path(pivotDoc), score, totalFreq));
+                    }
+                    if (heap.size() == k) {
+                        threshold = heap.peek().score;
+                    }
+                } else {
+                    // Nothing before the pivot doc can make the top k; skip the lagging cursors to it
+                    for (int i = 0; i < pivot && cursors[i].doc() < pivotDoc; i++) {
+                        cursors[i].advanceTo(pivotDoc);
+                    }
+                }
+            }
+        }
+        return ranked(heap);
+    }
+
+    // Drain a min-heap of candidates, best first
+    private static List<ScoredDocument> ranked(PriorityQueue<Candidate> heap) {
+        List<ScoredDocument> results = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            Candidate candidate = heap.poll();
+            results.add(new ScoredDocument(candidate.path, candidate.score, candidate.totalFrequency));
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    /**
+     * A number that changes whenever the postings of any of {@code terms} change.
+     * Read it <em>before</em> running a query: a result computed afterwards is at least as new
+     * as the value, so a cached result tagged with it is valid exactly while it stays the same.
+     * Enough for unranked results, which only depend on the query terms' postings.
+     * @param terms Lowercased terms.
+     */
+    public long termsVersion(Collection<String> terms) {
+        long sum = 0;
+        for (String term : terms) {
+            // Counters only grow, so the sum changes whenever any of them does
+            sum += termVersions.get(versionStripe(term));
+        }
+        return sum;
+    }
+
+    /**
+     * A number that changes with every mutation of the index. BM25 scores depend on corpus-wide
+     * statistics, so ranked results have to be checked against this as well as {@link #termsVersion}.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    private static int versionStripe(String term) {
+        int h = term.hashCode();
+        return (h ^ (h >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    public int documentCount() {
+        return segments.docCount();
+    }
+
+    // Walks every segment's vocabulary once per published segment set, so it's meant for diagnostics rather than per-request use
+    public int termCount() {
+        return segments.termCount();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    // Superseded or removed document versions whose segments haven't been merged yet
+    public int deletedDocumentCount() {
+        return segments.deletedCount();
+    }
+
+    // Bytes of postings, vocabularies and forward lists across all segments, in this index's storage
+    public long dataBytes() {
+        return segments.dataBytes();
+    }
+
+    // Writers queued to publish their writes, i.e. waiting on a refresh
+    public int waitingWriters() {
+        return refreshLock.getQueueLength();
+    }
+
+    public boolean isMerging() {
+        return mergeLock.isLocked();
+    }
+
+    public IndexStorage storage() {
+        return storage;
+    }
+
+    // Start logging mutations; called once recovery has replayed the existing log
+    void attachLog(WriteAheadLog wal) {
+        writeLock.lock();
+        try {
+            this.wal = wal;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Turn publishing on every write on or off. Turning it on publishes whatever was written meanwhile.
+     */
+    void refreshOnWrite(boolean enabled) {
+        writeLock.lock();
+        try {
+            refreshOnWrite = enabled;
+        } finally {
+            writeLock.unlock();
+        }
+        if (enabled) {
+            refresh();
+        }
+    }
+
+    // Publish every write made so far
+    void refresh() {
+        refreshLock.lock();
+        try {
+            FrozenWrites frozen;
+            writeLock.lock();
+            try {
+                frozen = freezeWrites();
+            } finally {
+                writeLock.unlock();
+            }
+            publish(frozen);
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Rotate the WAL and publish exactly the writes logged before the rotation, for a snapshot.
+     * Writers are only held up while the log rotates, not while the snapshot is written.
+     */
+    Checkpoint checkpoint() throws IOException {
+        refreshLock.lock();
+        try {
+            FrozenWrites frozen;
+            long seq;
+            writeLock.lock();
+            try {
+                // Writers log and buffer under the write lock, so seq splits the log exactly where the buffer is cut
+                seq = wal.rotate();
+                frozen = freezeWrites();
+            } finally {
+                writeLock.unlock();
+            }
+            return new Checkpoint(publish(frozen), seq);
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    SegmentSet segments() {
+        return segments;
+    }
+
+    /**
+     * Publish every write, then merge all segments into one without deleted documents.
+     * Afterwards document frequencies, and so scores, are exact again.
+     */
+    void forceMerge() {
+        refresh();
+        mergeLock.lock();
+        try {
+            while (segments.size() > 1 || segments.size() == 1 && segments.deletedCount(0) > 0) {
+                merge(0, segments.size());
+            }
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    // Replace the (empty) index contents with a loaded snapshot
+    void restore(SegmentSet loaded) {
+        refreshLock.lock();
+        writeLock.lock();
+        try {
+            docIds.clear();
+            for (int s = 0; s < loaded.size(); s++) {
+                Segment segment = loaded.segment(s);
+                for (int local = 0; local < segment.size(); local++) {
+                    if (!loaded.isDeleted(s, local)) {
+                        docIds.put(segment.path(local), segment.docId(local));
+                    }
+                }
+            }
+            nextDocId = loaded.size() > 0 ? loaded.segment(loaded.size() - 1).maxDocId() + 1 : 0;
+            segments = loaded;
+            version.incrementAndGet();
+            for (int i = 0; i < termVersions.length(); i++) {
+                termVersions.incrementAndGet(i);
+            }
+        } finally {
+            writeLock.unlock();
+            refreshLock.unlock();
+        }
+        scheduleMerge();
+    }
+
+    /**
+     * Add the documents of segment files written by a {@link SegmentBuilder}, memory-mapping them rather than
+     * loading their postings, so attaching costs time in the number of documents, not the size of their data.
+     * A document whose path is already indexed replaces the indexed version, as would re-indexing it; across the
+     * files, later ones win. The files must not be modified while the index uses them.
+     * <p>
+     * Attached documents are not written to the WAL. With an {@link IndexStore}, use
+     * {@link IndexStore#attachSegments}, which checkpoints them.
+     * @return The number of documents attached.
+     */
+    public int attachSegments(List<Path> files) throws IOException {
+        // Map and validate every file before changing anything
+        List<Segment> attached = new ArrayList<>(files.size());
+        for (Path file : files) {
+            attached.add(SegmentFile.map(file));
+        }
+        int count = 0;
+        refreshLock.lock();
+        writeLock.lock();
+        try {
+            // Buffered writes have lower doc ids than the attached segments, so they must be published first
+            publish(freezeWrites());
+            SegmentSet next = segments;
+            int[] replaced = new int[16];
+            int replacedCount = 0;
+            for (Segment segment : attached) {
+                // Each file keeps its doc id order but moves past every id in use
+                Segment shifted = segment.shifted(nextDocId - segment.minDocId());
+                nextDocId = shifted.maxDocId() + 1;
+                for (int local = 0; local < shifted.size(); local++) {
+                    if (shifted.dropped(local)) {
+                        continue;
+                    }
+                    Integer previous = docIds.put(shifted.path(local), shifted.docId(local));
+                    if (previous != null) {
+                        if (replacedCount == replaced.length) {
+                            replaced = Arrays.copyOf(replaced, replacedCount * 2);
+                        }
+                        replaced[replacedCount++] = previous;
+                    }
+                    count++;
+                }
+                next = next.withSegment(shifted);
+            }
+            segments = next.withDeletes(replaced, replacedCount);
+            version.incrementAndGet();
+            for (int i = 0; i < termVersions.length(); i++) {
+                termVersions.incrementAndGet(i);
+            }
+        } finally {
+            writeLock.unlock();
+            refreshLock.unlock();
+        }
+        scheduleMerge();
+        logger.info("Attached " + count + " documents from " + files.size() + " segment files");
+        return count;
+    }
+
+    // Block until a logged mutation is on disk, so callers only acknowledge durable writes
+    private void awaitDurable(long seq) {
+        if (seq >= 0) {
+            wal.awaitDurable(seq);
+        }
+    }
+
+    // The buffer generation a write has to wait for, or -1 if it needn't wait; caller holds the write lock
+    private long pendingGeneration() {
+        return refreshOnWrite ? bufferGeneration : -1;
+    }
+
+    /**
+     * Block until a buffer generation is searchable. Only one thread refreshes at a time; the others
+     * queue on the lock and usually find their writes already published by the refresh they waited on.
+     * If segments pile up faster than the merge thread folds them, the writer merges too before returning.
+     */
+    private void awaitVisible(long generation) {
+        if (generation < 0 || publishedGeneration >= generation) {
+            return;
+        }
+        refreshLock.lock();
+        try {
+            if (publishedGeneration < generation) {
+                FrozenWrites frozen;
+                writeLock.lock();
+                try {
+                    frozen = freezeWrites();
+                } finally {
+                    writeLock.unlock();
+                }
+                publish(frozen);
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+        if (segments.size() > MAX_SEGMENTS) {
+            mergeLock.lock();
+            try {
+                int[] range;
+                while (segments.size() > MAX_SEGMENTS && (range = TieredMergePolicy.findMerge(segments)) != null) {
+                    merge(range[0], range[1]);
+                }
+            } finally {
+                mergeLock.unlock();
+            }
+        }
+    }
+
+    // Hand the buffer and tombstones to a refresh and start new ones; caller holds both locks
+    private FrozenWrites freezeWrites() {
+        FrozenWrites frozen = new FrozenWrites(buffer, Arrays.copyOf(tombstones, tombstoneCount), bufferGeneration);
+        flushing = buffer;
+        buffer = new WriteBuffer();
+        bufferGeneration++;
+        tombstoneCount = 0;
+        return frozen;
+    }
+
+    /**
+     * Build the frozen buffer's segment, apply the tombstones and publish the new segment set.
+     * Runs without the write lock, except for the final swap, so writers keep filling the next buffer.
+     * Caller holds the refresh lock.
+     */
+    private SegmentSet publish(FrozenWrites frozen) {
+        Segment segment = frozen.buffer().freeze(storage);
+        SegmentSet current = segments;
+        Set<String> changed = new HashSet<>(frozen.buffer().terms());
+        for (int docId : frozen.tombstones()) {
+            int s = current.find(docId);
+            int local = s >= 0 ? current.segment(s).local(docId) : -1;
+            if (local >= 0) {
+                changed.addAll(current.segment(s).counts(local).keySet());
+            }
+        }
+        SegmentSet next = current.withDeletes(frozen.tombstones(), frozen.tombstones().length);
+        if (segment != null) {
+            next = next.withSegment(segment);
+        }
+        writeLock.lock();
+        try {
+            segments = next;
+            flushing = null;
+        } finally {
+            writeLock.unlock();
+        }
+        // Versions move only once the change is searchable, and before its writers return
+        if (next != current) {
+            for (String term : changed) {
+                termVersions.incrementAndGet(versionStripe(term));
+            }
+            version.incrementAndGet();
+        }
+        publishedGeneration = frozen.generation();
+        scheduleMerge();
+        return next;
+    }
+
+    // Remember a superseded doc id for the next refresh; caller holds the write lock
+    private void tombstone(int docId) {
+        if (tombstoneCount == tombstones.length) {
+            tombstones = Arrays.copyOf(tombstones, tombstoneCount * 2);
+        }
+        tombstones[tombstoneCount++] = docId;
+    }
+
+    // The live version of a document, wherever it is; caller holds the write lock
+    private WriteBuffer.Entry liveVersion(String docPath, int docId) {
+        WriteBuffer.Entry entry = buffer.get(docPath);
+        if (entry == null && flushing != null) {
+            entry = flushing.get(docPath);
+        }
+        if (entry != null && entry.docId() == docId) {
+            return entry;
+        }
+        // Refreshes publish under the write lock, so the id is in the current set
+        SegmentSet current = segments;
+        Segment segment = current.segment(current.find(docId));
+        int local = segment.local(docId);
+        return new WriteBuffer.Entry(docId, docPath, segment.counts(local), segment.length(local), segment.contentHash(local));
+    }
+
+    private void scheduleMerge() {
+        if (TieredMergePolicy.findMerge(segments) != null && mergeScheduled.compareAndSet(false, true)) {
+            merger.execute(this::mergeSegments);
+        }
+    }
+
+    // Merge until the policy is satisfied; runs on the merge thread
+    private void mergeSegments() {
+        try {
+            while (true) {
+                mergeLock.lock();
+                try {
+                    int[] range = TieredMergePolicy.findMerge(segments);
+                    if (range == null) {
+                        break;
+                    }
+                    merge(range[0], range[1]);
+                } finally {
+                    mergeLock.unlock();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Segment merge failed", e);
+        } finally {
+            mergeScheduled.set(false);
+        }
+    }
+
+    // Caller holds mergeLock
+    private void merge(int from, int to) {
+        SegmentSet start = segments;
+        Segment first = start.segment(from);
+        // The slow part, with no lock held
+        Segment merged = SegmentMerger.merge(start, from, to, storage);
+        refreshLock.lock();
+        try {
+            // Refreshes since 'start' only appended segments or deleted documents, so the sources are still adjacent
+            SegmentSet current = segments;
+            int at = 0;
+            while (current.segment(at) != first) {
+                at++;
+            }
+            int[] late = new int[16];
+            int lateCount = 0;
+            for (int i = 0; i < to - from; i++) {
+                if (current.deletedCount(at + i) == start.deletedCount(from + i)) {
+                    continue;
+                }
+                Segment source = current.segment(at + i);
+                for (int local = 0; local < source.size(); local++) {
+                    if (current.isDeleted(at + i, local) && !start.isDeleted(from + i, local)) {
+                        if (lateCount == late.length) {
+                            late = Arrays.copyOf(late, lateCount * 2);
+                        }
+                        late[lateCount++] = source.docId(local);
+                    }
+                }
+            }
+            // Searches of the old set keep reading the sources until they finish; the GC reclaims them after
+            segments = current.withMerge(at, at + to - from, merged, late, lateCount);
+            // Document frequencies no longer count the purged documents, so ranked results may change
+            version.incrementAndGet();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    // Insertion sort by current doc id; queries have few terms and the order barely changes between steps
+    private static void sortByDoc(TermCursor[] cursors, int count) {
+        for (int i = 1; i < count; i++) {
+            TermCursor cursor = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].doc() > cursor.doc()) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
+
+    // Lowercase terms so they match the lowercased query terms; drop non-positive counts
+    static Map<String, Integer> normalize(Map<String, Integer> wordFreqs) {
+        Map<String, Integer> normalized = new HashMap<>(wordFreqs.size() * 2);
+        for (Map.Entry<String, Integer> entry : wordFreqs.entrySet()) {
+            int freq = entry.getValue();
+            if (freq > 0) {
+                normalized.merge(entry.getKey().toLowerCase(), freq, Integer::sum);
+            }
+        }
+        return normalized;
+    }
+
+    private record Candidate(String path, double score, int totalFrequency) {
+    }
+
+    // Iterator over one term's postings, carrying the term's idf and BM25 upper bound
+    private static final class TermCursor {
+        final PostingsList.Cursor postings;
+        final double idf;
+        final double upperBound;
+
+        TermCursor(PostingsList list, double idf, double avgDocLength) {
+            this.postings = list.cursor();
+            this.idf = idf;
+            // BM25 grows with frequency and shrinks with length, so the extremes bound every posting
+            int maxFreq = list.maxFreq();
+            double minNorm = K1 * (1 - B + B * list.minDocLength() / avgDocLength);
+            this.upperBound = idf * maxFreq * (K1 + 1) / (maxFreq + minNorm);
+        }
+
+        int doc() {
+            return postings.doc();
+        }
+
+        int freq() {
+            return postings.freq();
+        }
+
+        boolean exhausted() {
+            return postings.doc() == PostingsList.NO_MORE_DOCS;
+        }
+
+        void next() {
+            postings.next();
+        }
+
+        void advanceTo(int target) {
+            postings.advance(target);
+        }
+    }
+
+    /**
+     * Per-search state: the pinned segment set, its corpus statistics, and every term's postings
+     * across the segments, looked up once and shared by the per-segment iterators.
+     */
+    private static final class SearchContext {
+        final SegmentSet segments;
+        final int docCount;
+        final double avgDocLength;
+        private final Map<String, PostingsList[]> postings = new HashMap<>();
+        private final Map<BooleanQuery, List<String>> expansions = new HashMap<>();
+
+        SearchContext(SegmentSet segments) {
+            this.segments = segments;
+            this.docCount = segments.docCount();
+            this.avgDocLength = docCount > 0 ? (double) segments.totalDocLength() / docCount : 1;
+        }
+
+        // The term's postings in each segment, null where it doesn't occur
+        PostingsList[] postings(String term) {
+            return postings.computeIfAbsent(term, t -> {
+                PostingsList[] lists = new PostingsList[segments.size()];
+                for (int s = 0; s < lists.length; s++) {
+                    lists[s] = segments.segment(s).postings(t);
+                }
+                return lists;
+            });
+        }
+
+        /**
+         * BM25 idf from the document frequency summed over the segments. Deleted documents count until
+         * a merge purges them, as in Lucene; the clamp keeps the idf positive in the meantime.
+         */
+        double idf(PostingsList[] lists) {
+            int df = 0;
+            for (PostingsList list : lists) {
+                if (list != null) {
+                    df += list.size();
+                }
+            }
+            return Math.log(1 + (Math.max(docCount - df, 0) + 0.5) / (df + 0.5));
+        }
+
+        // Build the match iterator for a query node over segment s
+        QueryIterator iterator(BooleanQuery query, int s) {
+            return switch (query) {
+                case BooleanQuery.Term leaf -> termIterator(leaf.term(), s);
+                case BooleanQuery.And and -> {
+                    // Negated clauses only filter the others' matches; nested ANDs are flattened into this one
+                    List<QueryIterator> required = new ArrayList<>();
+                    List<QueryIterator> excluded = new ArrayList<>();
+                    List<BooleanQuery> pending = new ArrayList<>(and.clauses());
+                    for (int i = 0; i < pending.size(); i++) {
+                        switch (pending.get(i)) {
+                            case BooleanQuery.Not not -> excluded.add(iterator(not.clause(), s));
+                            case BooleanQuery.And nested -> pending.addAll(nested.clauses());
+                            case BooleanQuery clause -> required.add(iterator(clause, s));
+                        }
+                    }
+                    if (required.isEmpty()) {
+                        required.add(new QueryIterator.AllDocuments(segments.segment(s).size()));
+                    }
+                    yield new QueryIterator.And(required, excluded);
+                }
+                case BooleanQuery.Or or -> {
+                    List<QueryIterator> clauses = new ArrayList<>(or.clauses().size());
+                    for (BooleanQuery clause : or.clauses()) {
+                        clauses.add(iterator(clause, s));
+                    }
+                    yield new QueryIterator.Or(clauses);
+                }
+                case BooleanQuery.Not not -> new QueryIterator.And(List.of(new QueryIterator.AllDocuments(segments.segment(s).size())),
+                        List.of(iterator(not.clause(), s)));
+                case BooleanQuery.Prefix prefix -> expansion(expand(prefix, prefix.prefix(), term -> true, prefix.prefix() + "*"), s);
+                case BooleanQuery.Wildcard wildcard ->
+                        expansion(expand(wildcard, wildcard.literalPrefix(), wildcard::matches, wildcard.pattern()), s);
+            };
+        }
+
+        private QueryIterator termIterator(String term, int s) {
+            PostingsList[] lists = postings(term);
+            return lists[s] != null ? new QueryIterator.TermIterator(lists[s], idf(lists)) : new QueryIterator.Empty();
+        }
+
+        // OR of the expanded terms that occur in segment s
+        private QueryIterator expansion(List<String> terms, int s) {
+            List<QueryIterator> clauses = new ArrayList<>();
+            for (String term : terms) {
+                PostingsList[] lists = postings(term);
+                if (lists[s] != null) {
+                    clauses.add(new QueryIterator.TermIterator(lists[s], idf(lists)));
+                }
+            }
+            return clauses.isEmpty() ? new QueryIterator.Empty() : new QueryIterator.Or(clauses);
+        }
+
+        /**
+         * The terms starting with prefix that pass filter, across all segments. Computed once per node,
+         * on the first segment, so an over-broad pattern fails before any results are produced.
+         */
+        private List<String> expand(BooleanQuery node, String prefix, Predicate<String> filter, String pattern) {
+            List<String> cached = expansions.get(node);
+            if (cached != null) {
+                return cached;
+            }
+            Map<String, PostingsList[]> found = new HashMap<>();
+            for (int s = 0; s < segments.size(); s++) {
+                Segment segment = segments.segment(s);
+                SortedTermBlocks.Cursor terms = segment.terms().from(prefix);
+                while (terms.hasNext()) {
+                    int ordinal = terms.index();
+                    String term = terms.next();
+                    if (!term.startsWith(prefix)) {
+                        break;
+                    }
+                    if (!filter.test(term)) {
+                        continue;
+                    }
+                    PostingsList[] lists = found.get(term);
+                    if (lists == null) {
+                        if (found.size() == MAX_TERM_EXPANSIONS) {
+                            throw new IllegalArgumentException("'" + pattern + "' matches more than " + MAX_TERM_EXPANSIONS + " terms");
+                        }
+                        lists = new PostingsList[segments.size()];
+                        found.put(term, lists);
+                    }
+                    lists[s] = segment.postings(ordinal);
+                }
+            }
+            // Every segment was enumerated, so these lists are complete
+            postings.putAll(found);
+            List<String> terms = new ArrayList<>(found.keySet());
+            expansions.put(node, terms);
+            return terms;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+// src/main/java/com/rafay/fileengine/index/PostingsList.java
+package com.rafay.fileengine.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Postings of a single term: (doc id, frequency) pairs in doc id order, block-compressed.
+ * Also tracks the largest frequency and the shortest document seen, which bound the
+ * best BM25 score any posting in the list can reach.
+ * <p>
+ * Postings are kept in sealed blocks of up to {@value #BLOCK_SIZE}. A block's first and last doc id,
+ * count and offset are kept uncompressed (so cursors can skip whole blocks), and its bytes hold the
+ * doc id gaps and the frequencies as varints, which is one or two bytes per posting on typical
+ * corpora instead of eight. A list is built once by a {@link Builder}, appending in doc id order,
+ * and is immutable after that: it belongs to a {@link Segment}, and changes to the index make new
+ * segments rather than editing old ones.
+ * <p>
+ * A built list lives entirely in its segment's {@link BufferArena}, header and block table included,
+ * so a segment keeps no per-term objects; this class is only a short-lived view of one list, made
+ * when a query or merge looks it up. Reads go through a {@link Cursor}, which decodes a block at a
+ * time into int arrays. In the arena a list is laid out as
+ * {@code int size, int maxFreq, int minDocLength, int blocks, int end, then per block
+ * int first, int last, int count, int offset, then the block bytes}, where offsets and end are
+ * positions in the arena buffer.
+ */
+final class PostingsList {
+    static final int BLOCK_SIZE = 128;
+    // Snapshots written before postings became append-only (version 3) can hold blocks up to this size
+    private static final int MAX_BLOCK = 2 * BLOCK_SIZE;
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+    private static final int HEADER = 20;
+    private static final int BLOCK_META = 16;
+
+    private final ByteBuffer data;
+    // Position of the block table in data
+    private final int table;
+    private final int size;
+    private final int blocks;
+
+    /**
+     * View the list at {@code address}, as returned by {@link Builder#build} or {@link #readFrom}.
+     */
+    PostingsList(ByteBuffer[] chunks, long address) {
+        this.data = chunks[BufferArena.chunk(address)];
+        int at = BufferArena.offset(address);
+        this.size = data.getInt(at);
+        this.blocks = data.getInt(at + 12);
+        this.table = at + HEADER;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int maxFreq() {
+        return data.getInt(table - HEADER + 4);
+    }
+
+    int minDocLength() {
+        return data.getInt(table - HEADER + 8);
+    }
+
+    Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    /**
+     * Write the list as
+     * {@code int maxFreq, int minDocLength, int size, int blocks, then per block int first, int last, int count, int len, byte[len]}.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(maxFreq());
+        out.writeInt(minDocLength());
+        out.writeInt(size);
+        out.writeInt(blocks);
+        byte[] block = new byte[0];
+        for (int b = 0; b < blocks; b++) {
+            int length = blockLength(b);
+            if (block.length < length) {
+                block = new byte[length];
+            }
+            data.get(meta(b, 3), block, 0, length);
+            out.writeInt(meta(b, 0));
+            out.writeInt(meta(b, 1));
+            out.writeInt(meta(b, 2));
+            out.writeInt(length);
+            out.write(block, 0, length);
+        }
+    }
+
+    // Number of bytes writeTo() produces
+    int serializedSize() {
+        return 16 + 16 * blocks + (blocks > 0 ? end() - meta(0, 3) : 0);
+    }
+
+    /**
+     * Copy a list written by {@link #writeTo} into the arena.
+     * @return Its address there.
+     */
+    static long readFrom(ByteBuffer in, BufferArena arena) {
+        int maxFreq = in.getInt();
+        int minDocLength = in.getInt();
+        int size = in.getInt();
+        int count = in.getInt();
+        // Measure the blocks first, so the whole list goes into one reservation
+        int start = in.position();
+        int bytes = 0;
+        for (int b = 0; b < count; b++) {
+            in.position(in.position() + 12);
+            int length = in.getInt();
+            bytes += length;
+            in.position(in.position() + length);
+        }
+        int at = arena.reserve(HEADER + BLOCK_META * count + bytes);
+        ByteBuffer out = arena.current();
+        int p = at + HEADER + BLOCK_META * count;
+        in.position(start);
+        for (int b = 0; b < count; b++) {
+            int m = at + HEADER + BLOCK_META * b;
+            out.putInt(m, in.getInt());
+            out.putInt(m + 4, in.getInt());
+            out.putInt(m + 8, in.getInt());
+            out.putInt(m + 12, p);
+            int length = in.getInt();
+            out.put(p, in, in.position(), length);
+            in.position(in.position() + length);
+            p += length;
+        }
+        putHeader(out, at, size, maxFreq, minDocLength, count, p);
+        return arena.address(at);
+    }
+
+    static int writeVarInt(byte[] out, int p, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[p++] = (byte) value;
+        return p;
+    }
+
+    private static void putHeader(ByteBuffer out, int at, int size, int maxFreq, int minDocLength, int blocks, int end) {
+        out.putInt(at, size);
+        out.putInt(at + 4, maxFreq);
+        out.putInt(at + 8, minDocLength);
+        out.putInt(at + 12, blocks);
+        out.putInt(at + 16, end);
+    }
+
+    // Field k of block b's table entry: first doc id, last doc id, count, offset
+    private int meta(int b, int k) {
+        return data.getInt(table + BLOCK_META * b + 4 * k);
+    }
+
+    private int end() {
+        return data.getInt(table - HEADER + 16);
+    }
+
+    private int blockLength(int b) {
+        return (b + 1 < blocks ? meta(b + 1, 3) : end()) - meta(b, 3);
+    }
+
+    // First block whose last doc id is >= docId, searching from block 'from'; blocks if none
+    private int findBlock(int docId, int from) {
+        int lo = from;
+        int hi = blocks - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (meta(mid, 1) < docId) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    // Decode block 'index' into the arrays; returns its count
+    private int decode(int index, int[] docs, int[] freqs) {
+        ByteBuffer data = this.data;
+        int count = meta(index, 2);
+        int doc = meta(index, 0);
+        int p = meta(index, 3);
+        docs[0] = doc;
+        for (int i = 1; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(p++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += value;
+            docs[i] = doc;
+        }
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(p++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            freqs[i] = value;
+        }
+        return count;
+    }
+
+    /**
+     * Collects a list's postings on the heap, sealing them into blocks as they arrive, until
+     * {@link #build} copies the list into a segment's arena.
+     */
+    static final class Builder {
+        private static final int[] NO_INTS = new int[0];
+
+        // Sealed blocks' (first doc id, last doc id, count, offset in bytes)
+        private int[] meta = NO_INTS;
+        private int sealed;
+        private byte[] bytes = new byte[0];
+        private int end;
+        // Open tail as interleaved (doc id, freq) pairs; all its doc ids come after the sealed blocks'
+        private int[] tail = NO_INTS;
+        private int tailSize;
+        private int size;
+        private int maxFreq;
+        private int minDocLength = Integer.MAX_VALUE;
+
+        /**
+         * Append the posting for a document whose id is greater than every id already in the list.
+         */
+        void add(int docId, int freq, int docLength) {
+            maxFreq = Math.max(maxFreq, freq);
+            minDocLength = Math.min(minDocLength, docLength);
+            if (2 * tailSize == tail.length) {
+                tail = Arrays.copyOf(tail, Math.max(2, tail.length * 2));
+            }
+            tail[2 * tailSize] = docId;
+            tail[2 * tailSize + 1] = freq;
+            tailSize++;
+            size++;
+            if (tailSize == BLOCK_SIZE) {
+                sealTail();
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Upper bound on the bytes build() reserves
+        int builtSize() {
+            return HEADER + BLOCK_META * (sealed + 1) + end + 10 * tailSize;
+        }
+
+        /**
+         * Seal the tail and copy the list into the arena.
+         * @return Its address there.
+         */
+        long build(BufferArena arena) {
+            if (tailSize > 0) {
+                sealTail();
+            }
+            int at = arena.reserve(HEADER + BLOCK_META * sealed + end);
+            ByteBuffer out = arena.current();
+            int base = at + HEADER + BLOCK_META * sealed;
+            for (int b = 0; b < sealed; b++) {
+                int m = at + HEADER + BLOCK_META * b;
+                out.putInt(m, meta[4 * b]);
+                out.putInt(m + 4, meta[4 * b + 1]);
+                out.putInt(m + 8, meta[4 * b + 2]);
+                out.putInt(m + 12, base + meta[4 * b + 3]);
+            }
+            out.put(base, bytes, 0, end);
+            putHeader(out, at, size, maxFreq, minDocLength, sealed, base + end);
+            return arena.address(at);
+        }
+
+        private void sealTail() {
+            if (sealed == meta.length / 4) {
+                meta = Arrays.copyOf(meta, 4 * Math.max(4, sealed * 2));
+            }
+            if (end + 10 * tailSize > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, end + 10 * tailSize));
+            }
+            meta[4 * sealed] = tail[0];
+            meta[4 * sealed + 1] = tail[2 * (tailSize - 1)];
+            meta[4 * sealed + 2] = tailSize;
+            meta[4 * sealed + 3] = end;
+            // Doc id gaps (after the first, which is kept in meta) then frequencies, as varints
+            int p = end;
+            for (int i = 1; i < tailSize; i++) {
+                p = writeVarInt(bytes, p, tail[2 * i] - tail[2 * (i - 1)]);
+            }
+            for (int i = 0; i < tailSize; i++) {
+                p = writeVarInt(bytes, p, tail[2 * i + 1]);
+            }
+            end = p;
+            sealed++;
+            tailSize = 0;
+        }
+    }
+
+    /**
+     * Forward iterator over a list's postings that decodes one block at a time.
+     */
+    static final class Cursor {
+        private final PostingsList list;
+        private final int[] docs;
+        private final int[] freqs;
+        // Index of the decoded block; list.blocks or above means exhausted
+        private int block = -1;
+        private int count;
+        private int pos;
+
+        private Cursor(PostingsList list) {
+            this.list = list;
+            // No block is larger than the list, which for most terms is tiny
+            this.docs = new int[Math.max(1, Math.min(MAX_BLOCK, list.size))];
+            this.freqs = new int[docs.length];
+            load(0);
+        }
+
+        /**
+         * @return The current doc id, or {@link #NO_MORE_DOCS} once exhausted.
+         */
+        int doc() {
+            return pos < count ? docs[pos] : NO_MORE_DOCS;
+        }
+
+        int freq() {
+            return freqs[pos];
+        }
+
+        void next() {
+            if (++pos >= count && block < list.blocks) {
+                load(block + 1);
+            }
+        }
+
+        /**
+         * Move to the first posting whose doc id is >= {@code target}. Whole blocks are skipped
+         * by their last doc id without decoding; within a block, gallops before binary searching.
+         */
+        void advance(int target) {
+            if (doc() >= target) {
+                return;
+            }
+            if (docs[count - 1] < target) {
+                load(list.findBlock(target, block + 1));
+                if (doc() >= target) {
+                    return;
+                }
+            }
+            int lo = pos;
+            int step = 1;
+            int hi = pos + step;
+            while (hi < count && docs[hi] < target) {
+                lo = hi;
+                step <<= 1;
+                hi = pos + step;
+            }
+            int found = Arrays.binarySearch(docs, lo + 1, Math.min(hi, count - 1) + 1, target);
+            pos = found >= 0 ? found : -(found + 1);
+        }
+
+        private void load(int index) {
+            block = index;
+            pos = 0;
+            count = index < list.blocks ? list.decode(index, docs, freqs) : 0;
+        }
+    }
+}
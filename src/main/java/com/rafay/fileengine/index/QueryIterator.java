@@ -0,0 +1,324 @@
+// src/main/java/com/rafay/fileengine/index/QueryIterator.java
+package com.rafay.fileengine.index;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Doc-id-ordered iterator over the matches of a {@link BooleanQuery} node.
+ * <p>
+ * Conjunctions are driven by their rarest clause: every other clause is only asked to
+ * {@link #advance} to the lead's candidate, which term postings do by skipping whole blocks
+ * and galloping inside one, so AND-ing a rare term with a very common one costs about
+ * as much as walking the rare term alone. Iterates the local doc numbers of one {@link Segment},
+ * deleted documents included; callers skip those.
+ */
+abstract class QueryIterator {
+    static final int NO_MORE_DOCS = PostingsList.NO_MORE_DOCS;
+
+    /**
+     * @return The current match, or {@link #NO_MORE_DOCS} once exhausted.
+     */
+    abstract int doc();
+
+    // Move past the current match
+    abstract void next();
+
+    // Move to the first match >= target; no-op if already there
+    abstract void advance(int target);
+
+    // Upper bound on the number of matches, used to order conjunctions
+    abstract long cost();
+
+    // Summed frequency of the matched terms at the current match
+    abstract int freq();
+
+    // Summed BM25 contribution of the matched terms at the current match, given the document's length norm
+    abstract double score(double norm);
+
+    static final class TermIterator extends QueryIterator {
+        private final PostingsList.Cursor postings;
+        private final long size;
+        private final double idf;
+
+        TermIterator(PostingsList list, double idf) {
+            this.postings = list.cursor();
+            this.size = list.size();
+            this.idf = idf;
+        }
+
+        @Override
+        int doc() {
+            return postings.doc();
+        }
+
+        @Override
+        void next() {
+            postings.next();
+        }
+
+        @Override
+        void advance(int target) {
+            postings.advance(target);
+        }
+
+        @Override
+        long cost() {
+            return size;
+        }
+
+        @Override
+        int freq() {
+            return postings.freq();
+        }
+
+        @Override
+        double score(double norm) {
+            int freq = postings.freq();
+            return idf * freq * (InvertedIndex.K1 + 1) / (freq + norm);
+        }
+    }
+
+    // A term with no postings
+    static final class Empty extends QueryIterator {
+        @Override
+        int doc() {
+            return NO_MORE_DOCS;
+        }
+
+        @Override
+        void next() {
+        }
+
+        @Override
+        void advance(int target) {
+        }
+
+        @Override
+        long cost() {
+            return 0;
+        }
+
+        @Override
+        int freq() {
+            return 0;
+        }
+
+        @Override
+        double score(double norm) {
+            return 0;
+        }
+    }
+
+    // Every document of a segment; the universe a negation is taken against
+    static final class AllDocuments extends QueryIterator {
+        private final int size;
+        private int doc = -1;
+
+        AllDocuments(int size) {
+            this.size = size;
+            advance(0);
+        }
+
+        @Override
+        int doc() {
+            return doc;
+        }
+
+        @Override
+        void next() {
+            advance(doc + 1);
+        }
+
+        @Override
+        void advance(int target) {
+            if (doc >= target) {
+                return;
+            }
+            doc = target < size ? target : NO_MORE_DOCS;
+        }
+
+        @Override
+        long cost() {
+            return size;
+        }
+
+        @Override
+        int freq() {
+            return 0;
+        }
+
+        @Override
+        double score(double norm) {
+            return 0;
+        }
+    }
+
+    /**
+     * Documents matching every required clause and none of the excluded ones.
+     */
+    static final class And extends QueryIterator {
+        private final QueryIterator[] required;
+        private final QueryIterator[] excluded;
+        private int doc = -1;
+
+        And(List<QueryIterator> required, List<QueryIterator> excluded) {
+            this.required = required.toArray(new QueryIterator[0]);
+            // Rarest first: the first clause proposes candidates, the rest only confirm them
+            Arrays.sort(this.required, Comparator.comparingLong(QueryIterator::cost));
+            this.excluded = excluded.toArray(new QueryIterator[0]);
+            align(0);
+        }
+
+        @Override
+        int doc() {
+            return doc;
+        }
+
+        @Override
+        void next() {
+            align(doc + 1);
+        }
+
+        @Override
+        void advance(int target) {
+            if (doc < target) {
+                align(target);
+            }
+        }
+
+        @Override
+        long cost() {
+            return required[0].cost();
+        }
+
+        @Override
+        int freq() {
+            int freq = 0;
+            for (QueryIterator clause : required) {
+                freq += clause.freq();
+            }
+            return freq;
+        }
+
+        @Override
+        double score(double norm) {
+            double score = 0;
+            for (QueryIterator clause : required) {
+                score += clause.score(norm);
+            }
+            return score;
+        }
+
+        // Leapfrog to the first document >= target that every required clause agrees on
+        private void align(int target) {
+            int candidate = target;
+            QueryIterator lead = required[0];
+            candidates:
+            while (true) {
+                lead.advance(candidate);
+                candidate = lead.doc();
+                if (candidate == NO_MORE_DOCS) {
+                    doc = NO_MORE_DOCS;
+                    return;
+                }
+                for (int i = 1; i < required.length; i++) {
+                    required[i].advance(candidate);
+                    if (required[i].doc() != candidate) {
+                        // Overshot: that clause's next match is the earliest possible candidate
+                        candidate = required[i].doc();
+                        continue candidates;
+                    }
+                }
+                for (QueryIterator clause : excluded) {
+                    clause.advance(candidate);
+                    if (clause.doc() == candidate) {
+                        candidate++;
+                        continue candidates;
+                    }
+                }
+                doc = candidate;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Documents matching at least one clause.
+     */
+    static final class Or extends QueryIterator {
+        private final QueryIterator[] clauses;
+        private int doc;
+
+        Or(List<QueryIterator> clauses) {
+            this.clauses = clauses.toArray(new QueryIterator[0]);
+            doc = minDoc();
+        }
+
+        @Override
+        int doc() {
+            return doc;
+        }
+
+        @Override
+        void next() {
+            for (QueryIterator clause : clauses) {
+                if (clause.doc() == doc) {
+                    clause.next();
+                }
+            }
+            doc = minDoc();
+        }
+
+        @Override
+        void advance(int target) {
+            if (doc >= target) {
+                return;
+            }
+            for (QueryIterator clause : clauses) {
+                clause.advance(target);
+            }
+            doc = minDoc();
+        }
+
+        @Override
+        long cost() {
+            long cost = 0;
+            for (QueryIterator clause : clauses) {
+                cost += clause.cost();
+            }
+            return cost;
+        }
+
+        @Override
+        int freq() {
+            int freq = 0;
+            for (QueryIterator clause : clauses) {
+                if (clause.doc() == doc) {
+                    freq += clause.freq();
+                }
+            }
+            return freq;
+        }
+
+        @Override
+        double score(double norm) {
+            double score = 0;
+            for (QueryIterator clause : clauses) {
+                if (clause.doc() == doc) {
+                    score += clause.score(norm);
+                }
+            }
+            return score;
+        }
+
+        private int minDoc() {
+            int min = NO_MORE_DOCS;
+            for (QueryIterator clause : clauses) {
+                min = Math.min(min, clause.doc());
+            }
+            return min;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+// src/main/java/com/rafay/fileengine/index/ScoredDocument.java
+package com.rafay.fileengine.index;
+
+/**
+ * One search hit.
+ * @param documentPath The path the document was indexed under.
+ * @param score The document's BM25 score for the query, or 0 for unranked results.
+ * @param totalFrequency Sum of the query terms' frequencies in the document.
+ */
+public record ScoredDocument(String documentPath, double score, int totalFrequency) {
+}
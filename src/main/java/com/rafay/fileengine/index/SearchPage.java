@@ -0,0 +1,16 @@
+// src/main/java/com/rafay/fileengine/index/SearchPage.java
+package com.rafay.fileengine.index;
+
+import java.util.List;
+
+/**
+ * One page of an unranked search, in doc-id order.
+ * @param hits The matches on this page (score is 0 for unranked results).
+ * @param nextDocId Pass as {@code afterDocId} to fetch the next page, or -1 if this was the last page.
+ */
+public record SearchPage(List<ScoredDocument> hits, int nextDocId) {
+
+    public boolean hasMore() {
+        return nextDocId >= 0;
+    }
+}
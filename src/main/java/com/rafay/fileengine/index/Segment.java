@@ -0,0 +1,293 @@
+// src/main/java/com/rafay/fileengine/index/Segment.java
+package com.rafay.fileengine.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable slice of an {@link InvertedIndex}: the documents of one flushed {@link WriteBuffer},
+ * or of several merged segments.
+ * <p>
+ * Documents are numbered locally from 0 in the order of their global doc ids, and the segment's
+ * postings use those local numbers. The vocabulary is a {@link SortedTermBlocks} whose ordinals
+ * index the postings, so a term lookup is a binary search over block heads plus a block scan.
+ * Each document also keeps its (term ordinal, frequency) pairs, which deltas and merges need.
+ * Postings, vocabulary and forward lists live in buffers from the segment's {@link BufferArena},
+ * on or off the heap depending on the index's {@link IndexStorage}; so does the table of the
+ * postings' addresses, so the heap holds nothing per term.
+ * Deletions are not recorded here but in the {@link SegmentSet} holding the segment, so
+ * deleting never touches a segment that searches may be reading.
+ */
+final class Segment {
+    static final byte[] NO_TERMS = {0};
+
+    // Per local doc; a null path marks a document superseded before the segment was built
+    private final int[] docIds;
+    private final String[] paths;
+    private final int[] lengths;
+    private final String[] contentHashes;
+    // Per local doc at forwardOffsets[local]: varint count, then (varint ordinal gap, varint frequency) pairs by ordinal
+    private final ByteBuffer forward;
+    // One more than there are docs; the last is the end of the last forward list
+    private final int[] forwardOffsets;
+    private final SortedTermBlocks terms;
+    // Address of each ordinal's postings in the arena's chunks, as longs at postingsAt in postingsTable
+    private final ByteBuffer[] chunks;
+    // Bytes in use in each chunk
+    private final int[] limits;
+    private final ByteBuffer postingsTable;
+    private final int postingsAt;
+    private final long dataBytes;
+
+    /**
+     * @param postings Each ordinal's postings address in {@code arena}, which the rest of the data came from too.
+     */
+    Segment(int[] docIds, String[] paths, int[] lengths, String[] contentHashes, ByteBuffer forward, int[] forwardOffsets,
+            SortedTermBlocks terms, long[] postings, BufferArena arena) {
+        this.docIds = docIds;
+        this.paths = paths;
+        this.lengths = lengths;
+        this.contentHashes = contentHashes;
+        this.forward = forward;
+        this.forwardOffsets = forwardOffsets;
+        this.terms = terms;
+        this.postingsAt = arena.reserve(8 * postings.length);
+        this.postingsTable = arena.current();
+        for (int ordinal = 0; ordinal < postings.length; ordinal++) {
+            postingsTable.putLong(postingsAt + 8 * ordinal, postings[ordinal]);
+        }
+        this.chunks = arena.chunks();
+        this.limits = arena.limits();
+        this.dataBytes = arena.reserved();
+    }
+
+    /**
+     * A segment over data already laid out in arena chunks, such as the mapped chunks of a {@link SegmentFile}.
+     * @param limits Bytes in use in each chunk.
+     * @param postingsChunk The chunk holding the table of postings addresses, which starts at {@code postingsAt}.
+     */
+    Segment(int[] docIds, String[] paths, int[] lengths, String[] contentHashes, ByteBuffer forward, int[] forwardOffsets,
+            SortedTermBlocks terms, ByteBuffer[] chunks, int[] limits, int postingsChunk, int postingsAt) {
+        this.docIds = docIds;
+        this.paths = paths;
+        this.lengths = lengths;
+        this.contentHashes = contentHashes;
+        this.forward = forward;
+        this.forwardOffsets = forwardOffsets;
+        this.terms = terms;
+        this.chunks = chunks;
+        this.limits = limits;
+        this.postingsTable = chunks[postingsChunk];
+        this.postingsAt = postingsAt;
+        long bytes = 0;
+        for (int limit : limits) {
+            bytes += limit;
+        }
+        this.dataBytes = bytes;
+    }
+
+    /**
+     * @return This segment with {@code shift} added to every doc id, sharing all of its data.
+     */
+    Segment shifted(int shift) {
+        int[] shiftedIds = new int[docIds.length];
+        for (int local = 0; local < docIds.length; local++) {
+            shiftedIds[local] = docIds[local] + shift;
+        }
+        return new Segment(shiftedIds, paths, lengths, contentHashes, forward, forwardOffsets, terms, chunks, limits,
+                chunkOf(postingsTable), postingsAt);
+    }
+
+    /**
+     * Copy encoded forward lists into one arena reservation.
+     * @param lists Each document's forward list, as the bytes remaining in its buffer.
+     * @param offsets Receives each list's offset in the returned buffer, then the end of the last one.
+     * @return The buffer holding the lists.
+     */
+    static ByteBuffer packForward(ByteBuffer[] lists, int[] offsets, BufferArena arena) {
+        int total = 0;
+        for (ByteBuffer list : lists) {
+            total += list.remaining();
+        }
+        int p = arena.reserve(total);
+        ByteBuffer data = arena.current();
+        for (int local = 0; local < lists.length; local++) {
+            offsets[local] = p;
+            data.put(p, lists[local], lists[local].position(), lists[local].remaining());
+            p += lists[local].remaining();
+        }
+        offsets[lists.length] = p;
+        return data;
+    }
+
+    // Number of local docs, including dropped ones
+    int size() {
+        return docIds.length;
+    }
+
+    // Bytes of postings, vocabulary and forward lists, wherever the storage keeps them
+    long dataBytes() {
+        return dataBytes;
+    }
+
+    int docId(int local) {
+        return docIds[local];
+    }
+
+    int minDocId() {
+        return docIds[0];
+    }
+
+    int maxDocId() {
+        return docIds[docIds.length - 1];
+    }
+
+    /**
+     * @return The local number of a global doc id, or -1 if the segment doesn't hold it.
+     */
+    int local(int docId) {
+        int local = Arrays.binarySearch(docIds, docId);
+        return local >= 0 ? local : -1;
+    }
+
+    /**
+     * @return The first local doc whose global id is greater than {@code docId}.
+     */
+    int firstAfter(int docId) {
+        int local = Arrays.binarySearch(docIds, docId);
+        return local >= 0 ? local + 1 : -(local + 1);
+    }
+
+    String path(int local) {
+        return paths[local];
+    }
+
+    boolean dropped(int local) {
+        return paths[local] == null;
+    }
+
+    int length(int local) {
+        return lengths[local];
+    }
+
+    String contentHash(int local) {
+        return contentHashes[local];
+    }
+
+    SortedTermBlocks terms() {
+        return terms;
+    }
+
+    PostingsList postings(int ordinal) {
+        return new PostingsList(chunks, postingsTable.getLong(postingsAt + 8 * ordinal));
+    }
+
+    // The term's postings, or null if no document here contains it
+    PostingsList postings(String term) {
+        int ordinal = terms.find(term);
+        return ordinal >= 0 ? postings(ordinal) : null;
+    }
+
+    // The buffers holding the segment's data; the remaining accessors locate its parts in them for a SegmentFile
+    ByteBuffer[] chunks() {
+        return chunks;
+    }
+
+    int chunkLimit(int chunk) {
+        return limits[chunk];
+    }
+
+    // The index of a buffer in chunks(), or -1 if it isn't one
+    int chunkOf(ByteBuffer buffer) {
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] == buffer) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    ByteBuffer forwardData() {
+        return forward;
+    }
+
+    int forwardOffset(int local) {
+        return forwardOffsets[local];
+    }
+
+    ByteBuffer postingsTable() {
+        return postingsTable;
+    }
+
+    int postingsAt() {
+        return postingsAt;
+    }
+
+    byte[] encodedForward(int local) {
+        byte[] bytes = new byte[forwardLength(local)];
+        forward.get(forwardOffsets[local], bytes);
+        return bytes;
+    }
+
+    int forwardLength(int local) {
+        return forwardOffsets[local + 1] - forwardOffsets[local];
+    }
+
+    /**
+     * @return The document's (term ordinal, frequency) pairs, interleaved and in ordinal order.
+     */
+    int[] forward(int local) {
+        ByteBuffer data = forward;
+        int[] pos = {forwardOffsets[local]};
+        int[] pairs = new int[2 * readVarInt(data, pos)];
+        int ordinal = 0;
+        for (int i = 0; i < pairs.length; i += 2) {
+            ordinal += readVarInt(data, pos);
+            pairs[i] = ordinal;
+            pairs[i + 1] = readVarInt(data, pos);
+        }
+        return pairs;
+    }
+
+    // The document's term -> frequency map
+    Map<String, Integer> counts(int local) {
+        int[] pairs = forward(local);
+        Map<String, Integer> counts = new HashMap<>(pairs.length);
+        for (int i = 0; i < pairs.length; i += 2) {
+            counts.put(terms.get(pairs[i]), pairs[i + 1]);
+        }
+        return counts;
+    }
+
+    /**
+     * Encode interleaved (ordinal, frequency) pairs sorted by ordinal as a forward list.
+     */
+    static byte[] encodeForward(int[] pairs, int count) {
+        if (count == 0) {
+            return NO_TERMS;
+        }
+        byte[] out = new byte[5 + 10 * count];
+        int p = PostingsList.writeVarInt(out, 0, count);
+        int previous = 0;
+        for (int i = 0; i < 2 * count; i += 2) {
+            p = PostingsList.writeVarInt(out, p, pairs[i] - previous);
+            p = PostingsList.writeVarInt(out, p, pairs[i + 1]);
+            previous = pairs[i];
+        }
+        return Arrays.copyOf(out, p);
+    }
+
+    private static int readVarInt(ByteBuffer data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
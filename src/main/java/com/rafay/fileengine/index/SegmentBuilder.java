@@ -0,0 +1,279 @@
+// src/main/java/com/rafay/fileengine/index/SegmentBuilder.java
+package com.rafay.fileengine.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Builds {@link SegmentFile}s offline from a stream of documents, for initial loads and for rebuilding an
+ * index from its sources, without going through a server. The files are attached to a running index with
+ * {@link InvertedIndex#attachSegments}.
+ * <p>
+ * Documents are cut into runs of about {@code runBytes} of input. Each run is indexed on one of
+ * {@code threads} workers into a segment (postings sorted by term, as a refresh would build them) and
+ * spilled to a run file, so the heap holds at most the run being filled and one run per worker. When
+ * input ends, the runs are memory-mapped and merged in order into output segments of about
+ * {@code segmentBytes}, several at a time: a k-way merge of the runs' sorted vocabularies, like a
+ * background merge in the index, reading the runs through the page cache. A run that needs no merge is
+ * just renamed. While merging, the heap holds one output segment per worker, so heap use is about
+ * {@code threads * max(3 * runBytes, segmentBytes)} whatever the input size.
+ * <p>
+ * Doc ids follow input order and each output file covers an increasing range of them. If a path is
+ * added more than once, the last version wins, as with repeated {@link InvertedIndex#indexDocument} calls.
+ * Not thread-safe: documents are added from one thread, and the parallelism is internal.
+ */
+public final class SegmentBuilder implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(SegmentBuilder.class.getName());
+    private static final String RUN_PREFIX = "run-";
+    public static final String SEGMENT_PREFIX = "segment-";
+    public static final String SEGMENT_SUFFIX = ".seg";
+    // Rough heap cost of a buffered document and of each of its terms, on top of the text
+    private static final int DOC_OVERHEAD = 96;
+    private static final int TERM_OVERHEAD = 48;
+
+    private final Path outputDir;
+    private final Path runDir;
+    private final long runBytes;
+    private final long segmentBytes;
+    private final ExecutorService workers;
+    // One permit per worker, plus one for the run being filled: bounds the runs in memory
+    private final Semaphore runsInMemory;
+    private final List<Future<Path>> runs = new ArrayList<>();
+    private final AtomicInteger documents = new AtomicInteger();
+    private List<Document> batch = new ArrayList<>();
+    private long batchBytes;
+    private int nextDocId;
+    private boolean finished;
+
+    private record Document(int docId, String path, Map<String, Integer> wordFreqs, String contentHash) {
+    }
+
+    /**
+     * @param outputDir Where the segment files go; created if needed. Run files are spilled under it too.
+     * @param threads Workers that index runs and then merge them.
+     * @param runBytes Approximate heap taken by one run's documents before it is indexed and spilled.
+     * @param segmentBytes Approximate size of each output segment; runs are merged up to it.
+     */
+    public SegmentBuilder(Path outputDir, int threads, long runBytes, long segmentBytes) throws IOException {
+        if (threads < 1 || runBytes < 1 || segmentBytes < 1) {
+            throw new IllegalArgumentException("threads, runBytes and segmentBytes must be at least 1");
+        }
+        this.outputDir = outputDir;
+        this.runBytes = runBytes;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(outputDir);
+        this.runDir = Files.createTempDirectory(outputDir, "runs-");
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "segment-builder-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.runsInMemory = new Semaphore(threads);
+    }
+
+    /**
+     * Add a document. Blocks while every worker is busy and a full run is waiting for one.
+     * @param wordFreqs The document's word frequencies; normalized as the index would.
+     * @param contentHash The hash of the document's content, or "".
+     */
+    public void add(String path, Map<String, Integer> wordFreqs, String contentHash) throws InterruptedException {
+        if (finished) {
+            throw new IllegalStateException("Builder already finished");
+        }
+        batch.add(new Document(nextDocId++, path, wordFreqs, contentHash));
+        long bytes = DOC_OVERHEAD + 2L * path.length() + (long) TERM_OVERHEAD * wordFreqs.size();
+        for (String term : wordFreqs.keySet()) {
+            bytes += 2L * term.length();
+        }
+        batchBytes += bytes;
+        if (batchBytes >= runBytes) {
+            spill();
+        }
+    }
+
+    // Documents added so far
+    public int documentCount() {
+        return nextDocId;
+    }
+
+    /**
+     * Index the remaining documents, merge the runs and write the output segments.
+     * @return The segment files written, in doc id order.
+     */
+    public List<Path> finish() throws IOException, InterruptedException {
+        if (finished) {
+            throw new IllegalStateException("Builder already finished");
+        }
+        finished = true;
+        if (!batch.isEmpty()) {
+            spill();
+        }
+        try {
+            List<Path> runFiles = new ArrayList<>(runs.size());
+            for (Future<Path> run : runs) {
+                runFiles.add(await(run));
+            }
+            logger.info("Indexed " + documents.get() + " documents into " + runFiles.size() + " runs");
+            return merge(runFiles);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Stop the workers and delete the run files. Output segments already written are kept.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        workers.shutdownNow();
+        if (Files.exists(runDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(runDir)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(runDir);
+        }
+    }
+
+    // Hand the current batch to a worker, waiting for one to free up
+    private void spill() throws InterruptedException {
+        List<Document> docs = batch;
+        int run = runs.size();
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        runsInMemory.acquire();
+        runs.add(workers.submit(() -> {
+            try {
+                return writeRun(run, docs);
+            } finally {
+                runsInMemory.release();
+            }
+        }));
+    }
+
+    private Path writeRun(int run, List<Document> docs) throws IOException {
+        WriteBuffer buffer = new WriteBuffer();
+        for (Document doc : docs) {
+            Map<String, Integer> normalized = InvertedIndex.normalize(doc.wordFreqs());
+            int length = 0;
+            for (int freq : normalized.values()) {
+                length += freq;
+            }
+            // A path repeated within the run keeps its last version; the buffer drops the earlier one
+            buffer.add(doc.docId(), doc.path(), normalized, length, doc.contentHash());
+        }
+        Path file = runDir.resolve(String.format("%s%06d%s", RUN_PREFIX, run, SEGMENT_SUFFIX));
+        SegmentFile.write(buffer.freeze(IndexStorage.HEAP), file);
+        documents.addAndGet(docs.size());
+        return file;
+    }
+
+    // Merge consecutive runs into output segments, leaving out superseded versions
+    private List<Path> merge(List<Path> runFiles) throws IOException, InterruptedException {
+        SegmentSet set = SegmentSet.EMPTY;
+        for (Path file : runFiles) {
+            set = set.withSegment(SegmentFile.map(file));
+        }
+        set = withoutSuperseded(set);
+
+        List<Future<Path>> outputs = new ArrayList<>();
+        int from = 0;
+        while (from < set.size()) {
+            int to = from;
+            long bytes = 0;
+            while (to < set.size() && (to == from || bytes + set.segment(to).dataBytes() <= segmentBytes)) {
+                bytes += set.segment(to).dataBytes();
+                to++;
+            }
+            SegmentSet runs = set;
+            int first = from;
+            int end = to;
+            Path output = outputDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, outputs.size(), SEGMENT_SUFFIX));
+            outputs.add(workers.submit(() -> writeSegment(runs, first, end, runFiles, output)));
+            from = to;
+        }
+        List<Path> written = new ArrayList<>(outputs.size());
+        for (Future<Path> output : outputs) {
+            Path file = await(output);
+            if (file != null) {
+                written.add(file);
+            }
+        }
+        logger.info("Wrote " + written.size() + " segments holding " + set.docCount() + " documents to " + outputDir);
+        return written;
+    }
+
+    // Delete every version of a path that a later run (in doc id order) has a newer version of
+    private static SegmentSet withoutSuperseded(SegmentSet set) {
+        Map<String, Integer> latest = new HashMap<>();
+        int[] superseded = new int[16];
+        int supersededCount = 0;
+        for (int s = 0; s < set.size(); s++) {
+            Segment run = set.segment(s);
+            for (int local = 0; local < run.size(); local++) {
+                if (run.dropped(local)) {
+                    continue;
+                }
+                Integer previous = latest.put(run.path(local), run.docId(local));
+                if (previous != null) {
+                    if (supersededCount == superseded.length) {
+                        superseded = Arrays.copyOf(superseded, supersededCount * 2);
+                    }
+                    superseded[supersededCount++] = previous;
+                }
+            }
+        }
+        return set.withDeletes(superseded, supersededCount);
+    }
+
+    // Merge runs [from, to) into one output segment; null if none of their documents survived
+    private static Path writeSegment(SegmentSet runs, int from, int to, List<Path> runFiles, Path output) throws IOException {
+        if (to - from == 1 && runs.deletedCount(from) == 0) {
+            Files.move(runFiles.get(from), output, StandardCopyOption.REPLACE_EXISTING);
+            return output;
+        }
+        Segment merged = SegmentMerger.merge(runs, from, to, IndexStorage.HEAP);
+        if (merged == null) {
+            return null;
+        }
+        SegmentFile.write(merged, output);
+        return output;
+    }
+
+    private static Path await(Future<Path> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+// src/main/java/com/rafay/fileengine/index/SegmentFile.java
+package com.rafay.fileengine.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One immutable {@link Segment} in a file of its own, laid out so that it can be used straight from a
+ * memory mapping. Written by {@link SegmentBuilder} and attached to a running index with
+ * {@link InvertedIndex#attachSegments}.
+ * <p>
+ * Unlike an {@link IndexSnapshot}, which stores postings and vocabularies in a portable form that loading
+ * copies into the index's storage, a segment file holds the segment's {@link BufferArena} chunks byte for
+ * byte: the postings, vocabulary, forward lists and postings address table, with the offsets in them
+ * unchanged. Mapping the file therefore yields the segment's data as is. Only the per-document
+ * bookkeeping (doc ids, paths, lengths, hashes, forward list offsets) and the vocabulary's block offsets
+ * are read onto the heap, so opening a file costs time in its document count, not its size, and its
+ * postings are paged in by the OS as queries touch them.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header:    long MAGIC, int VERSION, int docCount, int termCount, int chunkCount, long directoryOffset
+ * chunks:    each chunk's bytes in use, back to back
+ * directory: int[chunkCount] chunk lengths,
+ *            per doc: int docId, int pathLen (-1 = dropped), byte[] path, int length, int hashLen, byte[] contentHash,
+ *            int forwardChunk, int[docCount + 1] forward offsets,
+ *            int termsChunk (-1 = no terms), int blocks, int[blocks + 1] block offsets,
+ *            int postingsChunk, int postingsAt
+ * trailer:   long MAGIC
+ * </pre>
+ * Offsets are positions within a chunk, as in the arena.
+ */
+final class SegmentFile {
+    private static final long MAGIC = 0x4446455F5345474DL; // "DFE_SEGM"
+    private static final int VERSION = 1;
+    private static final int HEADER = 8 + 4 + 4 + 4 + 4 + 8;
+
+    private SegmentFile() {
+    }
+
+    /**
+     * Write a segment to {@code file} and fsync it. Documents the segment dropped are written as such.
+     */
+    static void write(Segment segment, Path file) throws IOException {
+        ByteBuffer[] chunks = segment.chunks();
+        SortedTermBlocks terms = segment.terms();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER);
+            for (int c = 0; c < chunks.length; c++) {
+                ByteBuffer data = chunks[c].slice(0, segment.chunkLimit(c));
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            long directoryOffset = channel.position();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (int c = 0; c < chunks.length; c++) {
+                out.writeInt(segment.chunkLimit(c));
+            }
+            for (int local = 0; local < segment.size(); local++) {
+                out.writeInt(segment.docId(local));
+                if (segment.dropped(local)) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                byte[] path = segment.path(local).getBytes(StandardCharsets.UTF_8);
+                byte[] contentHash = segment.contentHash(local).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeInt(segment.length(local));
+                out.writeInt(contentHash.length);
+                out.write(contentHash);
+            }
+            out.writeInt(segment.chunkOf(segment.forwardData()));
+            for (int local = 0; local <= segment.size(); local++) {
+                out.writeInt(segment.forwardOffset(local));
+            }
+            int[] blockOffsets = terms.blockOffsets();
+            out.writeInt(terms.size() > 0 ? segment.chunkOf(terms.data()) : -1);
+            out.writeInt(blockOffsets.length - 1);
+            for (int offset : blockOffsets) {
+                out.writeInt(offset);
+            }
+            out.writeInt(segment.chunkOf(segment.postingsTable()));
+            out.writeInt(segment.postingsAt());
+            out.writeLong(MAGIC);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putLong(MAGIC).putInt(VERSION).putInt(segment.size()).putInt(terms.size()).putInt(chunks.length)
+                    .putLong(directoryOffset).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Memory-map a segment file. The mapping stays valid after the file is renamed or deleted.
+     * @return The segment, with the doc ids it was written with.
+     */
+    static Segment map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER + 8) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            if (channel.read(header, 0) < HEADER || header.flip().getLong() != MAGIC) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported segment file version " + version + ": " + file);
+            }
+            int docCount = header.getInt();
+            int termCount = header.getInt();
+            int chunkCount = header.getInt();
+            long directoryOffset = header.getLong();
+            if (docCount <= 0 || termCount < 0 || chunkCount <= 0 || directoryOffset < HEADER || directoryOffset > size) {
+                throw new IOException("Corrupt segment file header: " + file);
+            }
+
+            channel.position(directoryOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            try {
+                ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+                int[] limits = new int[chunkCount];
+                long position = HEADER;
+                for (int c = 0; c < chunkCount; c++) {
+                    limits[c] = in.readInt();
+                    if (limits[c] < 0 || position + limits[c] > directoryOffset) {
+                        throw new IOException("Corrupt segment file chunk table: " + file);
+                    }
+                    chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position, limits[c]);
+                    position += limits[c];
+                }
+
+                int[] docIds = new int[docCount];
+                String[] paths = new String[docCount];
+                int[] lengths = new int[docCount];
+                String[] contentHashes = new String[docCount];
+                for (int local = 0; local < docCount; local++) {
+                    docIds[local] = in.readInt();
+                    if (local > 0 && docIds[local] <= docIds[local - 1]) {
+                        throw new IOException("Corrupt segment file: doc ids out of order in " + file);
+                    }
+                    int pathLength = in.readInt();
+                    if (pathLength < 0) {
+                        continue;
+                    }
+                    paths[local] = readString(in, pathLength);
+                    lengths[local] = in.readInt();
+                    contentHashes[local] = readString(in, in.readInt());
+                }
+                ByteBuffer forward = chunks[checkChunk(in.readInt(), chunkCount, file)];
+                int[] forwardOffsets = new int[docCount + 1];
+                for (int local = 0; local <= docCount; local++) {
+                    forwardOffsets[local] = in.readInt();
+                }
+                int termsChunk = in.readInt();
+                int[] blockOffsets = new int[in.readInt() + 1];
+                for (int b = 0; b < blockOffsets.length; b++) {
+                    blockOffsets[b] = in.readInt();
+                }
+                SortedTermBlocks terms = termCount > 0
+                        ? SortedTermBlocks.wrap(chunks[checkChunk(termsChunk, chunkCount, file)], blockOffsets, termCount)
+                        : SortedTermBlocks.wrap(null, blockOffsets, 0);
+                int postingsChunk = checkChunk(in.readInt(), chunkCount, file);
+                int postingsAt = in.readInt();
+                if (in.readLong() != MAGIC) {
+                    throw new IOException("Corrupt segment file trailer: " + file);
+                }
+                return new Segment(docIds, paths, lengths, contentHashes, forward, forwardOffsets, terms, chunks, limits,
+                        postingsChunk, postingsAt);
+            } catch (EOFException e) {
+                throw new IOException("Truncated segment file: " + file, e);
+            }
+        }
+    }
+
+    private static int checkChunk(int chunk, int chunkCount, Path file) throws IOException {
+        if (chunk < 0 || chunk >= chunkCount) {
+            throw new IOException("Corrupt segment file chunk reference " + chunk + ": " + file);
+        }
+        return chunk;
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Corrupt segment file string length " + length);
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,162 @@
+// src/main/java/com/rafay/fileengine/index/SegmentMerger.java
+package com.rafay.fileengine.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Merges adjacent segments of a {@link SegmentSet} into one, leaving out deleted documents.
+ * <p>
+ * The sources' vocabularies are already sorted, so the merged one is a k-way merge of their
+ * term cursors; each merged term's postings are the sources' postings renumbered and
+ * concatenated, which keeps them in doc id order. Works on an immutable set, so it runs
+ * in the background while searches and writes carry on. The merged segment's data is written
+ * straight into its {@link BufferArena}, one term at a time, so an off-heap merge needs little heap.
+ */
+final class SegmentMerger {
+
+    private SegmentMerger() {
+    }
+
+    /**
+     * @return A segment holding the live documents of segments {@code [from, to)}, or null if there are none.
+     */
+    static Segment merge(SegmentSet set, int from, int to, IndexStorage storage) {
+        int sources = to - from;
+        // Number the surviving documents
+        int[][] newLocal = new int[sources][];
+        int count = 0;
+        long sourceBytes = 0;
+        long sourceDocs = 0;
+        for (int i = 0; i < sources; i++) {
+            Segment source = set.segment(from + i);
+            newLocal[i] = new int[source.size()];
+            for (int local = 0; local < source.size(); local++) {
+                newLocal[i][local] = set.isDeleted(from + i, local) ? -1 : count++;
+            }
+            sourceBytes += source.dataBytes();
+            sourceDocs += source.size();
+        }
+        if (count == 0) {
+            return null;
+        }
+        // Deleted documents' data is left behind, so expect the live share of the sources' bytes
+        BufferArena arena = new BufferArena(storage, sourceBytes * count / sourceDocs);
+        int[] docIds = new int[count];
+        String[] paths = new String[count];
+        int[] lengths = new int[count];
+        String[] contentHashes = new String[count];
+        for (int i = 0; i < sources; i++) {
+            Segment source = set.segment(from + i);
+            for (int local = 0; local < source.size(); local++) {
+                int target = newLocal[i][local];
+                if (target >= 0) {
+                    docIds[target] = source.docId(local);
+                    paths[target] = source.path(local);
+                    lengths[target] = source.length(local);
+                    contentHashes[target] = source.contentHash(local);
+                }
+            }
+        }
+
+        // Merge the vocabularies, dropping terms only deleted documents had
+        int[][] newOrdinal = new int[sources][];
+        SortedTermBlocks.Cursor[] cursors = new SortedTermBlocks.Cursor[sources];
+        for (int i = 0; i < sources; i++) {
+            SortedTermBlocks terms = set.segment(from + i).terms();
+            newOrdinal[i] = new int[terms.size()];
+            cursors[i] = terms.iterator();
+        }
+        byte[][] terms = new byte[64][];
+        long[] postings = new long[64];
+        int termCount = 0;
+        while (true) {
+            SortedTermBlocks.Cursor min = null;
+            for (SortedTermBlocks.Cursor cursor : cursors) {
+                if (cursor.hasNextTerm() && (min == null || cursor.compareTo(min) < 0)) {
+                    min = cursor;
+                }
+            }
+            if (min == null) {
+                break;
+            }
+            byte[] term = Arrays.copyOf(min.peek(), min.peekLength());
+            PostingsList.Builder merged = new PostingsList.Builder();
+            for (int i = 0; i < sources; i++) {
+                if (cursors[i] == min || cursors[i].hasNextTerm() && cursors[i].compareTo(min) == 0) {
+                    int ordinal = cursors[i].index();
+                    append(set.segment(from + i).postings(ordinal), newLocal[i], lengths, merged);
+                    // Only read for surviving documents, which never map a term that ends up dropped
+                    newOrdinal[i][ordinal] = termCount;
+                }
+            }
+            for (SortedTermBlocks.Cursor cursor : cursors) {
+                if (cursor != min && cursor.hasNextTerm() && cursor.compareTo(min) == 0) {
+                    cursor.advance();
+                }
+            }
+            min.advance();
+            if (merged.size() == 0) {
+                continue;
+            }
+            if (termCount == terms.length) {
+                terms = Arrays.copyOf(terms, termCount * 2);
+                postings = Arrays.copyOf(postings, termCount * 2);
+            }
+            terms[termCount] = term;
+            postings[termCount] = merged.build(arena);
+            termCount++;
+        }
+
+        // Renumber the forward lists; ordinals map monotonically, so they stay sorted. Gaps between
+        // them change, and so does their encoded size: measure them all first, then write them.
+        int[] forwardOffsets = new int[count + 1];
+        for (int i = 0; i < sources; i++) {
+            Segment source = set.segment(from + i);
+            for (int local = 0; local < source.size(); local++) {
+                int target = newLocal[i][local];
+                if (target >= 0) {
+                    forwardOffsets[target + 1] = renumberedForward(source, local, newOrdinal[i]).length;
+                }
+            }
+        }
+        for (int target = 0; target < count; target++) {
+            forwardOffsets[target + 1] += forwardOffsets[target];
+        }
+        int base = arena.reserve(forwardOffsets[count]);
+        ByteBuffer forward = arena.current();
+        for (int i = 0; i < sources; i++) {
+            Segment source = set.segment(from + i);
+            for (int local = 0; local < source.size(); local++) {
+                int target = newLocal[i][local];
+                if (target >= 0) {
+                    forwardOffsets[target] += base;
+                    forward.put(forwardOffsets[target], renumberedForward(source, local, newOrdinal[i]));
+                }
+            }
+        }
+        forwardOffsets[count] += base;
+        return new Segment(docIds, paths, lengths, contentHashes, forward, forwardOffsets,
+                SortedTermBlocks.build(terms, termCount, arena), Arrays.copyOf(postings, termCount), arena);
+    }
+
+    // A surviving document's forward list, with the merged segment's ordinals
+    private static byte[] renumberedForward(Segment source, int local, int[] newOrdinal) {
+        int[] pairs = source.forward(local);
+        for (int j = 0; j < pairs.length; j += 2) {
+            pairs[j] = newOrdinal[pairs[j]];
+        }
+        return Segment.encodeForward(pairs, pairs.length / 2);
+    }
+
+    // Append a source list's postings of surviving documents, renumbered
+    private static void append(PostingsList source, int[] newLocal, int[] lengths, PostingsList.Builder into) {
+        PostingsList.Cursor cursor = source.cursor();
+        for (int doc = cursor.doc(); doc != PostingsList.NO_MORE_DOCS; cursor.next(), doc = cursor.doc()) {
+            int target = newLocal[doc];
+            if (target >= 0) {
+                into.add(target, cursor.freq(), lengths[target]);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+// src/main/java/com/rafay/fileengine/index/SegmentSet.java
+package com.rafay.fileengine.index;
+
+import java.util.Arrays;
+
+/**
+ * Immutable point-in-time view of an {@link InvertedIndex}: its segments in doc id order,
+ * plus which of their documents have been deleted since the segment was built.
+ * <p>
+ * Searches read whichever set is current when they start and keep using it, so they need
+ * no lock and never see a half-applied write. Every change produces a new set that shares
+ * the unchanged segments and deletion bitsets with the old one; a deletion copies only the
+ * bitset of the segment it falls in.
+ */
+final class SegmentSet {
+    static final SegmentSet EMPTY = new SegmentSet(new Segment[0], new long[0][], new int[0], 0, 0);
+
+    private final Segment[] segments;
+    // Per segment: bitset of deleted local docs (null if none) and its cardinality
+    private final long[][] deleted;
+    private final int[] deletedCounts;
+    private final int docCount;
+    private final long totalDocLength;
+    // Computed on first use; a racing recomputation just stores the same value
+    private int termCount = -1;
+
+    private SegmentSet(Segment[] segments, long[][] deleted, int[] deletedCounts, int docCount, long totalDocLength) {
+        this.segments = segments;
+        this.deleted = deleted;
+        this.deletedCounts = deletedCounts;
+        this.docCount = docCount;
+        this.totalDocLength = totalDocLength;
+    }
+
+    int size() {
+        return segments.length;
+    }
+
+    Segment segment(int s) {
+        return segments[s];
+    }
+
+    boolean isDeleted(int s, int local) {
+        return isDeleted(deleted, s, local);
+    }
+
+    int deletedCount(int s) {
+        return deletedCounts[s];
+    }
+
+    // Live documents across all segments
+    int docCount() {
+        return docCount;
+    }
+
+    long totalDocLength() {
+        return totalDocLength;
+    }
+
+    // Deleted documents not yet merged away, across all segments
+    int deletedCount() {
+        int count = 0;
+        for (int deletedCount : deletedCounts) {
+            count += deletedCount;
+        }
+        return count;
+    }
+
+    // Bytes of segment data, deleted documents' included
+    long dataBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.dataBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The index of the segment whose doc id range covers {@code docId}, or -1.
+     */
+    int find(int docId) {
+        int lo = 0;
+        int hi = segments.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segments[mid].maxDocId() < docId) {
+                lo = mid + 1;
+            } else if (segments[mid].minDocId() > docId) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of distinct terms across the segments, deleted documents' included.
+     */
+    int termCount() {
+        if (termCount < 0) {
+            termCount = countTerms();
+        }
+        return termCount;
+    }
+
+    private int countTerms() {
+        SortedTermBlocks.Cursor[] cursors = new SortedTermBlocks.Cursor[segments.length];
+        for (int s = 0; s < segments.length; s++) {
+            cursors[s] = segments[s].terms().iterator();
+        }
+        int count = 0;
+        while (true) {
+            SortedTermBlocks.Cursor min = null;
+            for (SortedTermBlocks.Cursor cursor : cursors) {
+                if (cursor.hasNextTerm() && (min == null || cursor.compareTo(min) < 0)) {
+                    min = cursor;
+                }
+            }
+            if (min == null) {
+                return count;
+            }
+            count++;
+            for (SortedTermBlocks.Cursor cursor : cursors) {
+                if (cursor != min && cursor.hasNextTerm() && cursor.compareTo(min) == 0) {
+                    cursor.advance();
+                }
+            }
+            min.advance();
+        }
+    }
+
+    /**
+     * @return This set plus a newly built segment, whose ids all come after the existing ones.
+     * Documents the segment dropped start out deleted.
+     */
+    SegmentSet withSegment(Segment segment) {
+        long[] bits = null;
+        int dropped = 0;
+        int live = 0;
+        long length = 0;
+        for (int local = 0; local < segment.size(); local++) {
+            if (segment.dropped(local)) {
+                if (bits == null) {
+                    bits = new long[(segment.size() + 63) >>> 6];
+                }
+                bits[local >>> 6] |= 1L << local;
+                dropped++;
+            } else {
+                live++;
+                length += segment.length(local);
+            }
+        }
+        int n = segments.length;
+        Segment[] newSegments = Arrays.copyOf(segments, n + 1);
+        long[][] newDeleted = Arrays.copyOf(deleted, n + 1);
+        int[] newCounts = Arrays.copyOf(deletedCounts, n + 1);
+        newSegments[n] = segment;
+        newDeleted[n] = bits;
+        newCounts[n] = dropped;
+        return new SegmentSet(newSegments, newDeleted, newCounts, docCount + live, totalDocLength + length);
+    }
+
+    /**
+     * @return This set with the given documents deleted. Ids that are not live here are ignored.
+     */
+    SegmentSet withDeletes(int[] docIds, int count) {
+        if (count == 0) {
+            return this;
+        }
+        long[][] newDeleted = deleted.clone();
+        int[] newCounts = deletedCounts.clone();
+        // Segments whose bitset has already been copied for this call
+        boolean[] copied = new boolean[segments.length];
+        int newDocCount = docCount;
+        long newTotalLength = totalDocLength;
+        for (int i = 0; i < count; i++) {
+            int s = find(docIds[i]);
+            int local = s >= 0 ? segments[s].local(docIds[i]) : -1;
+            if (local < 0 || isDeleted(newDeleted, s, local)) {
+                continue;
+            }
+            if (!copied[s]) {
+                newDeleted[s] = newDeleted[s] != null ? newDeleted[s].clone() : new long[(segments[s].size() + 63) >>> 6];
+                copied[s] = true;
+            }
+            newDeleted[s][local >>> 6] |= 1L << local;
+            newCounts[s]++;
+            newDocCount--;
+            newTotalLength -= segments[s].length(local);
+        }
+        return new SegmentSet(segments, newDeleted, newCounts, newDocCount, newTotalLength);
+    }
+
+    /**
+     * Replace segments {@code [from, to)} by the result of merging them.
+     * @param merged The merged segment, holding exactly the documents that were live in the sources
+     *               when the merge started; null if there were none.
+     * @param lateDeletes Ids of documents deleted from the sources while the merge ran, to delete in {@code merged}.
+     */
+    SegmentSet withMerge(int from, int to, Segment merged, int[] lateDeletes, int lateCount) {
+        int keep = merged != null ? 1 : 0;
+        int n = segments.length - (to - from) + keep;
+        Segment[] newSegments = new Segment[n];
+        long[][] newDeleted = new long[n][];
+        int[] newCounts = new int[n];
+        System.arraycopy(segments, 0, newSegments, 0, from);
+        System.arraycopy(deleted, 0, newDeleted, 0, from);
+        System.arraycopy(deletedCounts, 0, newCounts, 0, from);
+        System.arraycopy(segments, to, newSegments, from + keep, segments.length - to);
+        System.arraycopy(deleted, to, newDeleted, from + keep, segments.length - to);
+        System.arraycopy(deletedCounts, to, newCounts, from + keep, segments.length - to);
+        if (merged != null) {
+            newSegments[from] = merged;
+            for (int i = 0; i < lateCount; i++) {
+                int local = merged.local(lateDeletes[i]);
+                if (newDeleted[from] == null) {
+                    newDeleted[from] = new long[(merged.size() + 63) >>> 6];
+                }
+                newDeleted[from][local >>> 6] |= 1L << local;
+                newCounts[from]++;
+            }
+        }
+        // The live documents are the same, just stored differently
+        return new SegmentSet(newSegments, newDeleted, newCounts, docCount, totalDocLength);
+    }
+
+    private static boolean isDeleted(long[][] deleted, int s, int local) {
+        long[] bits = deleted[s];
+        return bits != null && (bits[local >>> 6] & 1L << local) != 0;
+    }
+}
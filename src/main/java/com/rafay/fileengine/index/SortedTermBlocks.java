@@ -0,0 +1,315 @@
+// src/main/java/com/rafay/fileengine/index/SortedTermBlocks.java
+package com.rafay.fileengine.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, sorted and front-coded set of terms: a {@link Segment}'s vocabulary. A term's ordinal is
+ * its rank in the set, which is what the segment's postings and forward lists are indexed by.
+ * <p>
+ * Terms are sorted by their UTF-8 bytes and cut into blocks of {@value #BLOCK_SIZE}. Within a block each
+ * term is stored as the length of the prefix it shares with the previous term plus the remaining
+ * bytes, so a sorted vocabulary costs a few bytes per term instead of a String object each. Only the
+ * offset of each block is kept uncompressed. Exact and prefix lookups binary-search the blocks'
+ * first terms, then decode forward from there, so they cost a block plus the number of matches,
+ * however large the vocabulary. The encoded terms live in the segment's {@link BufferArena}.
+ */
+final class SortedTermBlocks {
+    static final int BLOCK_SIZE = 16;
+    private static final SortedTermBlocks EMPTY = new SortedTermBlocks(ByteBuffer.allocate(0), new int[1], 0);
+
+    // Per term: varint shared prefix length (0 for a block's first term), varint suffix length, suffix bytes
+    private final ByteBuffer data;
+    // Offsets in data: of each block, then the end of the last one
+    private final int[] blockOffsets;
+    private final int size;
+
+    private SortedTermBlocks(ByteBuffer data, int[] blockOffsets, int size) {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.size = size;
+    }
+
+    /**
+     * @param sortedTerms UTF-8 terms in unsigned byte order, without duplicates.
+     */
+    static SortedTermBlocks build(byte[][] sortedTerms, int count, BufferArena arena) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockOffsets = new int[blocks + 1];
+        byte[] data = new byte[64];
+        int p = 0;
+        byte[] previous = new byte[0];
+        for (int i = 0; i < count; i++) {
+            byte[] term = sortedTerms[i];
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockOffsets[i / BLOCK_SIZE] = p;
+            } else {
+                int max = Math.min(previous.length, term.length);
+                while (shared < max && previous[shared] == term[shared]) {
+                    shared++;
+                }
+            }
+            int suffix = term.length - shared;
+            if (p + 10 + suffix > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, p + 10 + suffix));
+            }
+            p = PostingsList.writeVarInt(data, p, shared);
+            p = PostingsList.writeVarInt(data, p, suffix);
+            System.arraycopy(term, shared, data, p, suffix);
+            p += suffix;
+            previous = term;
+        }
+        int base = arena.put(data, p);
+        for (int b = 0; b < blocks; b++) {
+            blockOffsets[b] += base;
+        }
+        blockOffsets[blocks] = base + p;
+        return new SortedTermBlocks(arena.current(), blockOffsets, count);
+    }
+
+    /**
+     * A set over terms already encoded in {@code data}, such as a mapped {@link SegmentFile}.
+     * @param blockOffsets Offsets in data of each block, then the end of the last one.
+     */
+    static SortedTermBlocks wrap(ByteBuffer data, int[] blockOffsets, int size) {
+        return size == 0 ? EMPTY : new SortedTermBlocks(data, blockOffsets, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The buffer holding the encoded terms, and where each block starts in it
+    ByteBuffer data() {
+        return data;
+    }
+
+    int[] blockOffsets() {
+        return blockOffsets;
+    }
+
+    // Bytes of encoded terms
+    int dataLength() {
+        return blockOffsets[blockOffsets.length - 1] - blockOffsets[0];
+    }
+
+    /**
+     * @return The ordinal of {@code term}, or -1 if it is not in the set.
+     */
+    int find(String term) {
+        byte[] target = term.getBytes(StandardCharsets.UTF_8);
+        Cursor cursor = seek(target);
+        if (cursor.hasNextTerm() && Arrays.equals(cursor.peek(), 0, cursor.length, target, 0, target.length)) {
+            return cursor.index;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The term with the given ordinal.
+     */
+    String get(int ordinal) {
+        Cursor cursor = new Cursor(ordinal / BLOCK_SIZE);
+        while (cursor.index < ordinal) {
+            cursor.advance();
+        }
+        return cursor.next();
+    }
+
+    /**
+     * Iterate over the terms in byte order, starting at the first one that is >= {@code from}.
+     */
+    Cursor from(String from) {
+        return seek(from.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Iterate over every term in byte order
+    Cursor iterator() {
+        return new Cursor(0);
+    }
+
+    /**
+     * Write the set as {@code int size, int dataLen, byte[dataLen], int blocks, int[blocks] blockOffsets}.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        int base = blockOffsets[0];
+        byte[] bytes = new byte[dataLength()];
+        data.get(base, bytes);
+        out.writeInt(size);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt(blockOffsets.length - 1);
+        for (int b = 0; b < blockOffsets.length - 1; b++) {
+            out.writeInt(blockOffsets[b] - base);
+        }
+    }
+
+    // Number of bytes writeTo() produces
+    int serializedSize() {
+        return 12 + dataLength() + 4 * (blockOffsets.length - 1);
+    }
+
+    /**
+     * Read a set written by {@link #writeTo}, copying its terms into the arena.
+     */
+    static SortedTermBlocks readFrom(ByteBuffer in, BufferArena arena) {
+        int size = in.getInt();
+        int length = in.getInt();
+        if (size == 0) {
+            in.getInt(); // no blocks
+            return EMPTY;
+        }
+        int base = arena.reserve(length);
+        ByteBuffer data = arena.current();
+        data.put(base, in, in.position(), length);
+        in.position(in.position() + length);
+        int blocks = in.getInt();
+        int[] blockOffsets = new int[blocks + 1];
+        for (int b = 0; b < blocks; b++) {
+            blockOffsets[b] = base + in.getInt();
+        }
+        blockOffsets[blocks] = base + length;
+        return new SortedTermBlocks(data, blockOffsets, size);
+    }
+
+    private Cursor seek(byte[] target) {
+        // Last block whose first term is <= target; earlier blocks hold only smaller terms
+        int lo = 0;
+        int hi = blockOffsets.length - 2;
+        int block = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareFirstTerm(mid, target) <= 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        Cursor cursor = new Cursor(block);
+        while (cursor.hasNextTerm() && Arrays.compareUnsigned(cursor.peek(), 0, cursor.length, target, 0, target.length) < 0) {
+            cursor.advance();
+        }
+        return cursor;
+    }
+
+    private int compareFirstTerm(int block, byte[] target) {
+        int p = blockOffsets[block];
+        p++; // shared prefix length, always 0
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(p++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        int common = Math.min(length, target.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.compareUnsigned(data.get(p + i), target[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, target.length);
+    }
+
+    /**
+     * Decodes terms sequentially. {@link #peek} exposes the next term's bytes without building a String,
+     * and {@link #index} is its ordinal.
+     */
+    final class Cursor implements Iterator<String> {
+        private int index;
+        private int position;
+        private byte[] term = new byte[64];
+        private int length;
+        private boolean decoded;
+
+        Cursor(int block) {
+            this.index = block * BLOCK_SIZE;
+            this.position = blockOffsets[block];
+        }
+
+        boolean hasNextTerm() {
+            return index < size;
+        }
+
+        // Ordinal of the next term
+        int index() {
+            return index;
+        }
+
+        // Decode the next term without consuming it; its bytes are the first peekLength() of the returned array
+        byte[] peek() {
+            if (!decoded) {
+                int shared = readVarInt();
+                int suffix = readVarInt();
+                if (shared + suffix > term.length) {
+                    term = Arrays.copyOf(term, Math.max(term.length * 2, shared + suffix));
+                }
+                data.get(position, term, shared, suffix);
+                position += suffix;
+                length = shared + suffix;
+                decoded = true;
+            }
+            return term;
+        }
+
+        int peekLength() {
+            peek();
+            return length;
+        }
+
+        // Order by next term; an exhausted cursor sorts last
+        int compareTo(Cursor other) {
+            if (!hasNextTerm() || !other.hasNextTerm()) {
+                return Boolean.compare(!hasNextTerm(), !other.hasNextTerm());
+            }
+            return Arrays.compareUnsigned(peek(), 0, length, other.peek(), 0, other.length);
+        }
+
+        void advance() {
+            peek();
+            decoded = false;
+            index++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNextTerm();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNextTerm()) {
+                throw new NoSuchElementException();
+            }
+            peek();
+            String next = new String(term, 0, length, StandardCharsets.UTF_8);
+            advance();
+            return next;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
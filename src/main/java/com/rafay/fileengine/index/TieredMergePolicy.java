@@ -0,0 +1,58 @@
+// src/main/java/com/rafay/fileengine/index/TieredMergePolicy.java
+package com.rafay.fileengine.index;
+
+/**
+ * Decides which segments of a {@link SegmentSet} to merge next.
+ * <p>
+ * Segments fall into tiers by the order of magnitude of their live size. Whenever {@value #MERGE_FACTOR}
+ * adjacent segments are all at or below some tier they are merged into one segment of about the next
+ * tier, lowest tier first, so the number of segments stays logarithmic in the corpus size and each
+ * document is rewritten about once per tier. Counting lower tiers in lets segments that shrank through
+ * deletions, or small ones stranded between big ones, join their neighbours' merge. A segment more
+ * than a third of whose documents have been deleted is rewritten on its own, which is what
+ * eventually reclaims deleted documents' postings. Only adjacent segments are merged,
+ * so segments keep covering disjoint, increasing doc id ranges.
+ */
+final class TieredMergePolicy {
+    static final int MERGE_FACTOR = 10;
+
+    private TieredMergePolicy() {
+    }
+
+    /**
+     * @return The range {@code [from, to)} of segments to merge next, or null if none needs merging.
+     */
+    static int[] findMerge(SegmentSet segments) {
+        int n = segments.size();
+        int[] tiers = new int[n];
+        int maxTier = 0;
+        for (int s = 0; s < n; s++) {
+            tiers[s] = tier(segments, s);
+            maxTier = Math.max(maxTier, tiers[s]);
+        }
+        for (int tier = 0; tier <= maxTier; tier++) {
+            int run = 0;
+            for (int s = 0; s < n; s++) {
+                run = tiers[s] <= tier ? run + 1 : 0;
+                if (run == MERGE_FACTOR) {
+                    return new int[]{s + 1 - MERGE_FACTOR, s + 1};
+                }
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            if (3L * segments.deletedCount(s) > segments.segment(s).size()) {
+                return new int[]{s, s + 1};
+            }
+        }
+        return null;
+    }
+
+    private static int tier(SegmentSet segments, int s) {
+        int live = segments.segment(s).size() - segments.deletedCount(s);
+        int tier = 0;
+        for (long bound = MERGE_FACTOR; live >= bound; bound *= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+}
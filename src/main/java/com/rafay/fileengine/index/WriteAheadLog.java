@@ -0,0 +1,430 @@
+// src/main/java/com/rafay/fileengine/index/WriteAheadLog.java
+package com.rafay.fileengine.index;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of index mutations with group commit.
+ * <p>
+ * Appends only encode into an in-memory buffer and return a sequence number. A single
+ * sync thread writes whatever has accumulated and fsyncs it in one go, so concurrent
+ * writers waiting in {@link #awaitDurable} share the cost of each fsync.
+ * <p>
+ * The log is split into segment files named after the first sequence number they may
+ * contain ({@code wal-<seq>.log}); a checkpoint rotates to a new segment so the older
+ * ones can be deleted once the snapshot covering them is on disk.
+ * Each record is {@code [int length][int crc32][long seq][byte op][path][payload]}, where op is
+ * a full index (counts, content hash), a remove, or a delta (base hash, content hash, count deltas).
+ * <p>
+ * Once a sync fails the log refuses further appends, since records after the failed batch could
+ * not be replayed past it; callers log before applying, so a refused mutation is never applied.
+ */
+final class WriteAheadLog implements Closeable {
+    private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte OP_INDEX = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_DELTA = 3;
+
+    private final Path dir;
+    private final SegmentOpener opener;
+    // Held while writing to / switching the segment channel
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private final Thread syncer;
+    private FileChannel channel;
+    private OutputStream channelOut;
+
+    // Guarded by 'this'
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private ByteArrayOutputStream flushing = new ByteArrayOutputStream(1 << 16);
+    private long appendedSeq;
+    private long durableSeq;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Open a new segment for appends. Sequence numbers continue after {@code lastSeq}.
+     */
+    WriteAheadLog(Path dir, long lastSeq) throws IOException {
+        this(dir, lastSeq, file -> FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    // Open segments through opener, e.g. to fail their syncs in tests
+    WriteAheadLog(Path dir, long lastSeq, SegmentOpener opener) throws IOException {
+        this.dir = dir;
+        this.opener = opener;
+        this.appendedSeq = lastSeq;
+        this.durableSeq = lastSeq;
+        openSegment(lastSeq + 1);
+        this.syncer = new Thread(this::syncLoop, "wal-sync");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    long appendIndex(String docPath, Map<String, Integer> wordFreqs, String contentHash) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128 + wordFreqs.size() * 16);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeUTF(docPath);
+            writeCounts(out, wordFreqs);
+            // Trailing field: records written before content hashes existed simply end here
+            out.writeUTF(contentHash);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return append(OP_INDEX, payload.toByteArray());
+    }
+
+    long appendDelta(String docPath, String baseHash, String contentHash, Map<String, Integer> termDeltas) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128 + termDeltas.size() * 16);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeUTF(docPath);
+            out.writeUTF(baseHash);
+            out.writeUTF(contentHash);
+            writeCounts(out, termDeltas);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return append(OP_DELTA, payload.toByteArray());
+    }
+
+    long appendRemove(String docPath) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeUTF(docPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return append(OP_REMOVE, payload.toByteArray());
+    }
+
+    /**
+     * @throws UncheckedIOException if an earlier sync failed; the record is not logged.
+     */
+    private synchronized long append(byte op, byte[] body) {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+        long seq = ++appendedSeq;
+        CRC32 crc = new CRC32();
+        byte[] header = new byte[9];
+        for (int i = 0; i < 8; i++) {
+            header[i] = (byte) (seq >>> (56 - 8 * i));
+        }
+        header[8] = op;
+        crc.update(header);
+        crc.update(body);
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            out.writeInt(header.length + body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(header);
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        notifyAll();
+        return seq;
+    }
+
+    /**
+     * Block until every record up to {@code seq} has been fsynced.
+     * @throws UncheckedIOException if the log can no longer be written.
+     */
+    synchronized void awaitDurable(long seq) {
+        boolean interrupted = false;
+        while (durableSeq < seq && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durableSeq < seq) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+    }
+
+    synchronized long appendedSeq() {
+        return appendedSeq;
+    }
+
+    /**
+     * Sync everything appended so far and start a new segment.
+     * The caller must prevent concurrent appends (the index holds its lock) so that
+     * the returned sequence number exactly splits old segments from the new one.
+     * @return The last sequence number in the old segments.
+     */
+    long rotate() throws IOException {
+        ioLock.lock();
+        try {
+            long seq = syncPending();
+            channel.close();
+            openSegment(seq + 1);
+            return seq;
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Delete segments that only contain records up to {@code seq}, i.e. every segment before the current one.
+     */
+    void deleteSegmentsThrough(long seq) throws IOException {
+        List<Path> segments = listSegments(dir);
+        for (int i = 0; i < segments.size(); i++) {
+            // A segment's records end just before the next segment's start
+            long nextStart = i + 1 < segments.size() ? segmentStart(segments.get(i + 1)) : Long.MAX_VALUE;
+            if (nextStart <= seq + 1) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ioLock.lock();
+        try {
+            syncPending();
+            channel.close();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            ioLock.lock();
+            try {
+                syncPending();
+            } catch (IOException e) {
+                logger.severe("Write-ahead log sync failed: " + e.getMessage());
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            } finally {
+                ioLock.unlock();
+            }
+        }
+    }
+
+    // Write and fsync the pending buffer; caller holds ioLock
+    private long syncPending() throws IOException {
+        long target;
+        ByteArrayOutputStream batch;
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            target = appendedSeq;
+            batch = pending;
+            pending = flushing;
+            flushing = batch;
+        }
+        if (batch.size() > 0) {
+            batch.writeTo(channelOut);
+            channel.force(false);
+            batch.reset();
+        }
+        synchronized (this) {
+            durableSeq = Math.max(durableSeq, target);
+            notifyAll();
+        }
+        return target;
+    }
+
+    private void openSegment(long startSeq) throws IOException {
+        Path file = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, startSeq, SEGMENT_SUFFIX));
+        channel = opener.open(file);
+        channelOut = Channels.newOutputStream(channel);
+    }
+
+    // Opens a segment file for appending
+    interface SegmentOpener {
+        FileChannel open(Path file) throws IOException;
+    }
+
+    /**
+     * Apply every record with a sequence number greater than {@code afterSeq} to the index.
+     * A torn record at the end of the newest segment (a crash mid-write) is truncated away;
+     * damage anywhere else is reported as an error.
+     * @return The last sequence number seen, or {@code afterSeq} if there were none.
+     */
+    static long replay(Path dir, long afterSeq, InvertedIndex index) throws IOException {
+        List<Path> segments = listSegments(dir);
+        long lastSeq = afterSeq;
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            boolean newest = i == segments.size() - 1;
+            long validBytes = 0;
+            try (InputStream raw = Files.newInputStream(segment);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte[] record;
+                    int expectedCrc;
+                    try {
+                        expectedCrc = in.readInt();
+                        if (length < 9) {
+                            throw new IOException("Bad record length " + length);
+                        }
+                        record = in.readNBytes(length);
+                        if (record.length < length) {
+                            throw new EOFException();
+                        }
+                    } catch (IOException e) {
+                        if (!newest) {
+                            throw new IOException("Corrupt write-ahead log segment " + segment, e);
+                        }
+                        truncateTornTail(segment, validBytes);
+                        break;
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(record);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        if (!newest) {
+                            throw new IOException("Checksum mismatch in write-ahead log segment " + segment);
+                        }
+                        truncateTornTail(segment, validBytes);
+                        break;
+                    }
+                    validBytes += 8 + length;
+                    long seq = applyRecord(record, afterSeq, index);
+                    lastSeq = Math.max(lastSeq, seq);
+                }
+            }
+        }
+        return lastSeq;
+    }
+
+    private static long applyRecord(byte[] record, long afterSeq, InvertedIndex index) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        long seq = in.readLong();
+        if (seq <= afterSeq) {
+            // Already contained in the snapshot
+            return seq;
+        }
+        byte op = in.readByte();
+        String docPath = in.readUTF();
+        if (op == OP_INDEX) {
+            Map<String, Integer> wordFreqs = readCounts(in);
+            String contentHash = in.available() > 0 ? in.readUTF() : "";
+            index.indexDocument(docPath, wordFreqs, contentHash);
+        } else if (op == OP_REMOVE) {
+            index.removeDocument(docPath);
+        } else if (op == OP_DELTA) {
+            String baseHash = in.readUTF();
+            String contentHash = in.readUTF();
+            if (!index.applyDelta(docPath, baseHash, contentHash, readCounts(in))) {
+                // Deltas are only logged once validated, so this means the log doesn't match the snapshot
+                throw new IOException("Write-ahead log delta for " + docPath + " does not apply at sequence " + seq);
+            }
+        } else {
+            throw new IOException("Unknown write-ahead log op " + op);
+        }
+        return seq;
+    }
+
+    private static void writeCounts(DataOutputStream out, Map<String, Integer> counts) throws IOException {
+        out.writeInt(counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    private static Map<String, Integer> readCounts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, Integer> counts = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            counts.put(in.readUTF(), in.readInt());
+        }
+        return counts;
+    }
+
+    private static void truncateTornTail(Path segment, long validBytes) throws IOException {
+        logger.warning("Truncating torn write-ahead log tail of " + segment + " at byte " + validBytes);
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ch.truncate(validBytes);
+            ch.force(true);
+        }
+    }
+
+    static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(WriteAheadLog::isSegment).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentStart(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,141 @@
+// src/main/java/com/rafay/fileengine/index/WriteBuffer.java
+package com.rafay.fileengine.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The small mutable part of an {@link InvertedIndex}: documents written since the last refresh,
+ * which searches don't see until the buffer is frozen into a {@link Segment} and published.
+ * <p>
+ * Documents are numbered locally in arrival order, which is also global doc id order, so their
+ * postings are plain appends. A path written twice before a refresh keeps only its last version;
+ * the earlier one stays in the postings but is dropped from the segment's documents.
+ * Only used under the index's write lock, or by the refresh that owns it once frozen.
+ */
+final class WriteBuffer {
+    private final Map<String, PostingsList.Builder> postings = new HashMap<>();
+    private final List<Entry> documents = new ArrayList<>();
+    // Path -> local number of its live version
+    private final Map<String, Integer> live = new HashMap<>();
+
+    /**
+     * A buffered document version.
+     * @param counts Normalized term -> frequency.
+     */
+    record Entry(int docId, String path, Map<String, Integer> counts, int length, String contentHash) {
+    }
+
+    void add(int docId, String path, Map<String, Integer> counts, int length, String contentHash) {
+        int local = documents.size();
+        documents.add(new Entry(docId, path, counts, length, contentHash));
+        live.put(path, local);
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new PostingsList.Builder()).add(local, entry.getValue(), length);
+        }
+    }
+
+    // The live buffered version of a path, or null
+    Entry get(String path) {
+        Integer local = live.get(path);
+        return local != null ? documents.get(local) : null;
+    }
+
+    /**
+     * Drop the live buffered version of a path.
+     * @return true if there was one.
+     */
+    boolean remove(String path) {
+        return live.remove(path) != null;
+    }
+
+    boolean isEmpty() {
+        return documents.isEmpty();
+    }
+
+    // Every term with buffered postings, live or not
+    Set<String> terms() {
+        return postings.keySet();
+    }
+
+    /**
+     * Build the segment holding the buffered documents, or null if nothing was buffered.
+     * @param storage Where the segment keeps its postings, vocabulary and forward lists.
+     */
+    Segment freeze(IndexStorage storage) {
+        int n = documents.size();
+        if (n == 0) {
+            return null;
+        }
+        List<Map.Entry<byte[], String>> byBytes = new ArrayList<>(postings.size());
+        for (String term : postings.keySet()) {
+            byBytes.add(Map.entry(term.getBytes(StandardCharsets.UTF_8), term));
+        }
+        byBytes.sort((a, b) -> Arrays.compareUnsigned(a.getKey(), b.getKey()));
+        byte[][] sortedTerms = new byte[byBytes.size()][];
+        Map<String, Integer> ordinals = new HashMap<>(sortedTerms.length * 2);
+        long termBytes = 0;
+        for (int ordinal = 0; ordinal < sortedTerms.length; ordinal++) {
+            sortedTerms[ordinal] = byBytes.get(ordinal).getKey();
+            ordinals.put(byBytes.get(ordinal).getValue(), ordinal);
+            termBytes += 2 + sortedTerms[ordinal].length;
+        }
+
+        int[] docIds = new int[n];
+        String[] paths = new String[n];
+        int[] lengths = new int[n];
+        String[] contentHashes = new String[n];
+        ByteBuffer[] forward = new ByteBuffer[n];
+        long forwardBytes = 0;
+        for (int local = 0; local < n; local++) {
+            Entry doc = documents.get(local);
+            docIds[local] = doc.docId();
+            Integer liveLocal = live.get(doc.path());
+            if (liveLocal != null && liveLocal == local) {
+                paths[local] = doc.path();
+                lengths[local] = doc.length();
+                contentHashes[local] = doc.contentHash();
+                forward[local] = ByteBuffer.wrap(encodeForward(doc.counts(), ordinals));
+            } else {
+                forward[local] = ByteBuffer.wrap(Segment.NO_TERMS);
+            }
+            forwardBytes += forward[local].remaining();
+        }
+
+        long postingBytes = 8L * sortedTerms.length;
+        for (PostingsList.Builder list : postings.values()) {
+            postingBytes += list.builtSize();
+        }
+        BufferArena arena = new BufferArena(storage, termBytes + forwardBytes + postingBytes);
+        long[] lists = new long[sortedTerms.length];
+        for (int ordinal = 0; ordinal < lists.length; ordinal++) {
+            lists[ordinal] = postings.get(byBytes.get(ordinal).getValue()).build(arena);
+        }
+        int[] forwardOffsets = new int[n + 1];
+        ByteBuffer forwardData = Segment.packForward(forward, forwardOffsets, arena);
+        return new Segment(docIds, paths, lengths, contentHashes, forwardData, forwardOffsets,
+                SortedTermBlocks.build(sortedTerms, sortedTerms.length, arena), lists, arena);
+    }
+
+    private static byte[] encodeForward(Map<String, Integer> counts, Map<String, Integer> ordinals) {
+        // (ordinal, frequency) packed into longs, so sorting by ordinal keeps each frequency with its term
+        long[] packed = new long[counts.size()];
+        int n = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            packed[n++] = (long) ordinals.get(entry.getKey()) << 32 | entry.getValue();
+        }
+        Arrays.sort(packed);
+        int[] pairs = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            pairs[2 * i] = (int) (packed[i] >>> 32);
+            pairs[2 * i + 1] = (int) packed[i];
+        }
+        return Segment.encodeForward(pairs, n);
+    }
+}
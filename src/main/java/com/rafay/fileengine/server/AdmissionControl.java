@@ -0,0 +1,399 @@
+// src/main/java/com/rafay/fileengine/server/AdmissionControl.java
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which requests a server takes on, so one client's flood or one huge query cannot starve
+ * everyone else. Shared by the gRPC front-end (through {@link #interceptor}) and the ZeroMQ workers,
+ * and meant to be shared between them when both serve one index.
+ * <ul>
+ *   <li>Token buckets per client id and per IP address cap each one's request rate, with a burst allowance.</li>
+ *   <li>Searches whose query has more terms and clauses than the cost limit are rejected before parsing.</li>
+ *   <li>At most so many searches and so many index requests run at once. On gRPC a request beyond that is
+ *       turned away at once: waiting would hold one of the server's executor threads, and a pool full of
+ *       waiters would stall calls that need no slot as well. A ZeroMQ worker, which only serves one
+ *       request at a time anyway, waits for a slot up to the queueing budget and then turns it away.</li>
+ *   <li>A call whose deadline has already passed is rejected instead of started.</li>
+ * </ul>
+ * Turning work away early keeps the server's queue short, so requests that are admitted see the
+ * same latency under overload as without it.
+ * <p>
+ * Buckets use the generic cell rate algorithm: one timestamp per key, updated with a CAS, so
+ * checking one is lock-free and allocation-free once the key has been seen.
+ */
+public final class AdmissionControl {
+    // Bucket maps are swept of idle keys once they hold this many
+    private static final int MAX_TRACKED_KEYS = 100_000;
+
+    /**
+     * @param clientRate Requests per second per client id; 0 for no limit.
+     * @param clientBurst Requests a client id may send at once after being idle.
+     * @param ipRate Requests per second per IP address (gRPC only); 0 for no limit.
+     * @param ipBurst Requests an IP address may send at once after being idle.
+     * @param maxQueryCost Most query terms plus query tree nodes in one search; 0 for no limit.
+     * @param maxSearches Searches running at once; 0 for no limit.
+     * @param maxIndexes Index requests (and IndexStream calls) running at once; 0 for no limit.
+     * @param maxQueueMillis Longest a ZeroMQ request waits for a worker and then for a slot.
+     */
+    public record Limits(double clientRate, int clientBurst, double ipRate, int ipBurst, int maxQueryCost,
+                         int maxSearches, int maxIndexes, long maxQueueMillis) {
+        public static final Limits NONE = new Limits(0, 0, 0, 0, 0, 0, 0, Long.MAX_VALUE / 1_000_000);
+
+        /**
+         * Read from ADMISSION_CLIENT_RATE and ADMISSION_CLIENT_BURST, ADMISSION_IP_RATE and ADMISSION_IP_BURST
+         * (rates off unless set), ADMISSION_MAX_QUERY_COST (default 1000), ADMISSION_MAX_SEARCHES (default two per
+         * processor), ADMISSION_MAX_INDEXES (default one per processor) and ADMISSION_MAX_QUEUE_MS (default 500).
+         */
+        public static Limits fromEnv() {
+            int processors = Runtime.getRuntime().availableProcessors();
+            double clientRate = Double.parseDouble(System.getenv().getOrDefault("ADMISSION_CLIENT_RATE", "0").trim());
+            double ipRate = Double.parseDouble(System.getenv().getOrDefault("ADMISSION_IP_RATE", "0").trim());
+            return new Limits(
+                    clientRate,
+                    Integer.parseInt(System.getenv().getOrDefault("ADMISSION_CLIENT_BURST",
+                            String.valueOf((int) Math.max(1, clientRate))).trim()),
+                    ipRate,
+                    Integer.parseInt(System.getenv().getOrDefault("ADMISSION_IP_BURST",
+                            String.valueOf((int) Math.max(1, ipRate))).trim()),
+                    Integer.parseInt(System.getenv().getOrDefault("ADMISSION_MAX_QUERY_COST", "1000").trim()),
+                    Integer.parseInt(System.getenv().getOrDefault("ADMISSION_MAX_SEARCHES", String.valueOf(2 * processors)).trim()),
+                    Integer.parseInt(System.getenv().getOrDefault("ADMISSION_MAX_INDEXES", String.valueOf(processors)).trim()),
+                    Long.parseLong(System.getenv().getOrDefault("ADMISSION_MAX_QUEUE_MS", "500").trim()));
+        }
+    }
+
+    // Which concurrency limit a request counts against
+    public enum Work { SEARCH, INDEX }
+
+    private final Limits limits;
+    private final Buckets clients;
+    private final Buckets ips;
+    private final Semaphore searches;
+    private final Semaphore indexes;
+    // Permits hold no state of their own, so each limit hands out the same one
+    private final Permit searchPermit;
+    private final Permit indexPermit;
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder tooLarge = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+    private final LongAdder deadlineExceeded = new LongAdder();
+
+    public AdmissionControl(Limits limits) {
+        this.limits = limits;
+        this.clients = limits.clientRate() > 0 ? new Buckets(limits.clientRate(), limits.clientBurst()) : null;
+        this.ips = limits.ipRate() > 0 ? new Buckets(limits.ipRate(), limits.ipBurst()) : null;
+        this.searches = limits.maxSearches() > 0 ? new Semaphore(limits.maxSearches()) : null;
+        this.indexes = limits.maxIndexes() > 0 ? new Semaphore(limits.maxIndexes()) : null;
+        this.searchPermit = new Permit(searches);
+        this.indexPermit = new Permit(indexes);
+    }
+
+    public Limits limits() {
+        return limits;
+    }
+
+    /**
+     * Take a token from the client's bucket.
+     * @return False, counted as rate limited, if the client is over its rate.
+     */
+    public boolean admitClient(String clientId) {
+        return admit(clients, clientId);
+    }
+
+    /**
+     * Take a token from the IP address's bucket.
+     * @return False, counted as rate limited, if the address is over its rate.
+     */
+    public boolean admitIp(String ip) {
+        return admit(ips, ip);
+    }
+
+    private boolean admit(Buckets buckets, String key) {
+        if (buckets == null || key == null || buckets.tryTake(key)) {
+            return true;
+        }
+        rateLimited.increment();
+        return false;
+    }
+
+    /**
+     * @return False, counted as too large, if the query costs more than the limit.
+     */
+    public boolean admitQuery(FileEngineProto.SearchRequest request) {
+        if (limits.maxQueryCost() <= 0) {
+            return true;
+        }
+        int budget = limits.maxQueryCost() - request.getQueryTermsCount();
+        if (budget >= 0 && (!request.hasQuery() || countNodes(request.getQuery(), budget) >= 0)) {
+            return true;
+        }
+        tooLarge.increment();
+        return false;
+    }
+
+    // What is left of the budget after the tree's nodes, or -1 as soon as it runs out
+    private static int countNodes(FileEngineProto.Query query, int budget) {
+        if (--budget < 0) {
+            return -1;
+        }
+        for (FileEngineProto.Query clause : query.getClausesList()) {
+            budget = countNodes(clause, budget);
+            if (budget < 0) {
+                return -1;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Take a slot to run {@code work} if one is free, without waiting.
+     * @return The slot, to {@link Permit#release} when the work is done, or null, counted as overloaded, if none is free.
+     */
+    public Permit tryAcquire(Work work) {
+        Permit permit = work == Work.SEARCH ? searchPermit : indexPermit;
+        if (permit.slots == null || permit.slots.tryAcquire()) {
+            return permit;
+        }
+        overloaded.increment();
+        return null;
+    }
+
+    /**
+     * Wait for a slot to run {@code work}, for up to the queueing budget or {@code maxWaitNanos}, whichever is less.
+     * Only for threads that may block, like the ZeroMQ workers; use {@link #tryAcquire} on a gRPC executor.
+     * @return The slot, to {@link Permit#release} when the work is done, or null if none freed up in time. That is
+     *         counted as a deadline exceeded if {@code maxWaitNanos} was the shorter wait, otherwise as overloaded.
+     */
+    public Permit acquire(Work work, long maxWaitNanos) throws InterruptedException {
+        Permit permit = work == Work.SEARCH ? searchPermit : indexPermit;
+        if (permit.slots == null) {
+            return permit;
+        }
+        long budget = TimeUnit.MILLISECONDS.toNanos(limits.maxQueueMillis());
+        // A free slot is taken without waiting, even if the deadline has just passed
+        if (!permit.slots.tryAcquire() && !permit.slots.tryAcquire(Math.max(0, Math.min(maxWaitNanos, budget)), TimeUnit.NANOSECONDS)) {
+            (maxWaitNanos < budget ? deadlineExceeded : overloaded).increment();
+            return null;
+        }
+        return permit;
+    }
+
+    // Count a request shed because its deadline or queueing budget ran out
+    public void deadlineExceeded() {
+        deadlineExceeded.increment();
+    }
+
+    public FileEngineProto.AdmissionStats toStats() {
+        return FileEngineProto.AdmissionStats.newBuilder()
+                .setRateLimited(rateLimited.sum())
+                .setTooLarge(tooLarge.sum())
+                .setOverloaded(overloaded.sum())
+                .setDeadlineExceeded(deadlineExceeded.sum())
+                .setSearchesRunning(searches != null ? limits.maxSearches() - searches.availablePermits() : 0)
+                .setIndexesRunning(indexes != null ? limits.maxIndexes() - indexes.availablePermits() : 0)
+                .build();
+    }
+
+    /**
+     * A gRPC interceptor applying these limits; install it inside {@link ClientIPInterceptor}, which it reads the
+     * address from. The deadline and IP bucket are checked when a call starts. The client bucket, query cost and
+     * concurrency slot are checked when its first message arrives, before the handler does any work on it, so
+     * a client over its rate never takes up a slot. The slot is only taken if one is free, since this runs on a
+     * gRPC executor thread. Rejected calls end with RESOURCE_EXHAUSTED, INVALID_ARGUMENT or DEADLINE_EXCEEDED.
+     */
+    public ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                Deadline deadline = Context.current().getDeadline();
+                if (deadline != null && deadline.isExpired()) {
+                    deadlineExceeded();
+                    return reject(call, Status.DEADLINE_EXCEEDED.withDescription("Deadline expired before the call started"));
+                }
+                String ip = ClientIPInterceptor.CLIENT_IP.get();
+                if (!admitIp(ip)) {
+                    return reject(call, Status.RESOURCE_EXHAUSTED.withDescription("Rate limit exceeded for " + ip));
+                }
+                Work work = switch (call.getMethodDescriptor().getBareMethodName()) {
+                    case "ComputeSearch", "SearchStream" -> Work.SEARCH;
+                    case "ComputeIndex", "ComputeIndexDelta", "IndexStream" -> Work.INDEX;
+                    default -> null;
+                };
+                AdmittedCall<ReqT, RespT> admitted = new AdmittedCall<>(call);
+                return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(next.startCall(admitted, headers)) {
+                    private boolean checked;
+                    private boolean rejected;
+
+                    @Override
+                    public void onMessage(ReqT message) {
+                        if (!checked) {
+                            checked = true;
+                            Status status = admit(message, ip, work, admitted);
+                            if (status != null) {
+                                rejected = true;
+                                admitted.close(status, new Metadata());
+                                return;
+                            }
+                        }
+                        if (!rejected) {
+                            super.onMessage(message);
+                        }
+                    }
+
+                    @Override
+                    public void onHalfClose() {
+                        // The handler never saw a request, so it must not be told the stream ended
+                        if (!rejected) {
+                            super.onHalfClose();
+                        }
+                    }
+
+                    @Override
+                    public void onCancel() {
+                        admitted.releasePermit();
+                        super.onCancel();
+                    }
+                };
+            }
+        };
+    }
+
+    // Admission checks on a call's first message, taking its slot if it has a kind of work; null to admit it
+    private Status admit(Object message, String ip, Work work, AdmittedCall<?, ?> call) {
+        String clientId = switch (message) {
+            case FileEngineProto.SearchRequest search -> search.getClientId();
+            case FileEngineProto.IndexRequest index -> index.getClientId();
+            case FileEngineProto.IndexDeltaRequest delta -> delta.getClientId();
+            case FileEngineProto.RegisterRequest register -> register.getClientId();
+            case FileEngineProto.StatsRequest stats -> stats.getClientId();
+            default -> null;
+        };
+        if (!admitClient(clientId)) {
+            return Status.RESOURCE_EXHAUSTED.withDescription("Rate limit exceeded for client " + clientId);
+        }
+        if (message instanceof FileEngineProto.SearchRequest search && !admitQuery(search)) {
+            // LOG FOR RESOURCE EXHAUSTION DETECTION (Rule 100103)
+            System.out.println("resource exhaustion: massive query detected from client " + clientId + " from IP " + ip);
+            return Status.INVALID_ARGUMENT.withDescription("Query exceeds the cost limit of " + limits.maxQueryCost());
+        }
+        if (work == null) {
+            return null;
+        }
+        Permit permit = tryAcquire(work);
+        if (permit == null) {
+            return Status.RESOURCE_EXHAUSTED.withDescription("Server busy, try again later");
+        }
+        call.permit = permit;
+        return null;
+    }
+
+    private static <ReqT, RespT> ServerCall.Listener<ReqT> reject(ServerCall<ReqT, RespT> call, Status status) {
+        call.close(status, new Metadata());
+        return new ServerCall.Listener<>() {
+        };
+    }
+
+    /**
+     * A concurrency slot; release it exactly once per {@link #tryAcquire} or {@link #acquire} that returned it.
+     */
+    public static final class Permit {
+        private final Semaphore slots;
+
+        private Permit(Semaphore slots) {
+            this.slots = slots;
+        }
+
+        public void release() {
+            if (slots != null) {
+                slots.release();
+            }
+        }
+    }
+
+    // Gives the call's slot, once it has one, back when it is closed or cancelled, whichever happens first
+    private static final class AdmittedCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        // A class literal has no type arguments, so the updater is of the raw type
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<AdmittedCall> RELEASED =
+                AtomicIntegerFieldUpdater.newUpdater(AdmittedCall.class, "released");
+
+        // Set on the first message, before the handler sees it and so before it can close the call
+        volatile Permit permit;
+        private volatile int released;
+
+        AdmittedCall(ServerCall<ReqT, RespT> call) {
+            super(call);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            releasePermit();
+            super.close(status, trailers);
+        }
+
+        void releasePermit() {
+            Permit held = permit;
+            if (held != null && RELEASED.compareAndSet(this, 0, 1)) {
+                held.release();
+            }
+        }
+    }
+
+    // Token buckets by key, each kept as its theoretical arrival time: the time at which it would be empty
+    private static final class Buckets {
+        private final ConcurrentHashMap<String, AtomicLong> emptyAt = new ConcurrentHashMap<>();
+        // Nanoseconds one token takes to refill, and how far ahead of now emptyAt may run
+        private final long interval;
+        private final long tolerance;
+
+        Buckets(double rate, int burst) {
+            this.interval = (long) (1e9 / rate);
+            this.tolerance = interval * Math.max(1, burst);
+        }
+
+        boolean tryTake(String key) {
+            AtomicLong bucket = emptyAt.get(key);
+            if (bucket == null) {
+                if (emptyAt.size() >= MAX_TRACKED_KEYS) {
+                    sweep();
+                }
+                bucket = emptyAt.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+            }
+            long now = System.nanoTime();
+            while (true) {
+                long current = bucket.get();
+                long next = Math.max(current, now) + interval;
+                if (next - now > tolerance) {
+                    return false;
+                }
+                if (bucket.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        // Drop full buckets; a key seen again starts full anyway
+        private void sweep() {
+            long now = System.nanoTime();
+            emptyAt.values().removeIf(bucket -> bucket.get() <= now);
+        }
+    }
+}
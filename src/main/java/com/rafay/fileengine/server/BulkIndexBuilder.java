@@ -0,0 +1,149 @@
+// src/main/java/com/rafay/fileengine/server/BulkIndexBuilder.java
+package com.rafay.fileengine.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.rafay.fileengine.client.DirectoryIndexer;
+import com.rafay.fileengine.client.ScannedFile;
+import com.rafay.fileengine.index.SegmentBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Offline bulk loader: builds segment files from a directory tree or a dump of word counts, for a
+ * FileServer to attach at startup or while running (SEGMENT_DIR), instead of sending every document
+ * through ComputeIndex. See {@link SegmentBuilder} for how the build runs and what it costs.
+ * <pre>
+ * java -cp file-engine.jar com.rafay.fileengine.server.BulkIndexBuilder --input=PATH --output=DIR
+ *      [--threads=N] [--run-mb=64] [--segment-mb=512]
+ * </pre>
+ * <ul>
+ *   <li>{@code --input}: a directory, whose files are read and tokenized as by {@code FileClient.indexDirectory}
+ *       and indexed under their paths; or a file of newline-delimited JSON, {@code -} for stdin, one document per
+ *       line: {@code {"path": "...", "wordFrequencies": {"term": 3, ...}, "contentHash": "..."}} (contentHash optional).
+ *       Malformed lines are skipped and counted.</li>
+ *   <li>{@code --output}: where the {@code segment-NNNNNN.seg} files are written.</li>
+ *   <li>{@code --threads}: indexing and merge workers; defaults to one per core.</li>
+ *   <li>{@code --run-mb}: input held per run before it is indexed and spilled.</li>
+ *   <li>{@code --segment-mb}: approximate size of each output segment.</li>
+ * </ul>
+ * Build into a scratch directory and move the finished files into SEGMENT_DIR, so a running server never
+ * sees a half-written one.
+ */
+public final class BulkIndexBuilder {
+    private static final Logger logger = Logger.getLogger(BulkIndexBuilder.class.getName());
+
+    private BulkIndexBuilder() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                usage("Unrecognized argument: " + arg);
+                return;
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        String input = options.remove("input");
+        String output = options.remove("output");
+        if (input == null || output == null) {
+            usage("--input and --output are required");
+            return;
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long runBytes = Long.parseLong(options.getOrDefault("run-mb", "64")) << 20;
+        long segmentBytes = Long.parseLong(options.getOrDefault("segment-mb", "512")) << 20;
+        options.keySet().removeAll(List.of("threads", "run-mb", "segment-mb"));
+        if (!options.isEmpty()) {
+            usage("Unknown options: " + options.keySet());
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Path> segments;
+        try (SegmentBuilder builder = new SegmentBuilder(Paths.get(output), threads, runBytes, segmentBytes)) {
+            long skipped = "-".equals(input) || !Files.isDirectory(Paths.get(input))
+                    ? readDump(input, builder)
+                    : readDirectory(Paths.get(input), builder);
+            if (skipped > 0) {
+                System.out.println("WARNING: skipped " + skipped + (Files.isDirectory(Paths.get(input))
+                        ? " unreadable files" : " malformed lines"));
+            }
+            segments = builder.finish();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Built %d segments from %d documents in %.1f s (%.0f documents/s)%n",
+                    segments.size(), builder.documentCount(), seconds, builder.documentCount() / seconds);
+        }
+        for (Path segment : segments) {
+            System.out.println(segment);
+        }
+    }
+
+    // Crawl the tree with one tokenizer per core; returns the number of unreadable files
+    private static long readDirectory(Path root, SegmentBuilder builder) throws InterruptedException {
+        try (DirectoryIndexer files = DirectoryIndexer.crawl(root)) {
+            while (files.hasNext()) {
+                ScannedFile file = files.next();
+                builder.add(file.path(), file.wordFrequencies(), file.contentHash());
+            }
+            return files.failedFiles();
+        }
+    }
+
+    // Read a newline-delimited JSON dump; returns the number of malformed lines
+    private static long readDump(String input, SegmentBuilder builder) throws IOException, InterruptedException {
+        long malformed = 0;
+        long lineNumber = 0;
+        try (BufferedReader reader = "-".equals(input)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                    if (!record.has("path") || !record.has("wordFrequencies")) {
+                        throw new JsonParseException("path and wordFrequencies are required");
+                    }
+                    String path = record.get("path").getAsString();
+                    Map<String, Integer> wordFreqs = new HashMap<>();
+                    for (Map.Entry<String, JsonElement> entry : record.getAsJsonObject("wordFrequencies").entrySet()) {
+                        wordFreqs.put(entry.getKey(), entry.getValue().getAsInt());
+                    }
+                    String contentHash = record.has("contentHash") ? record.get("contentHash").getAsString() : "";
+                    builder.add(path, wordFreqs, contentHash);
+                } catch (JsonParseException | IllegalStateException | ClassCastException | NumberFormatException
+                         | UnsupportedOperationException e) {
+                    if (malformed++ < 10) {
+                        logger.warning("Skipped malformed line " + lineNumber + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return malformed;
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: BulkIndexBuilder --input=DIR|FILE|- --output=DIR [--threads=N] [--run-mb=64] [--segment-mb=512]");
+        System.exit(2);
+    }
+}
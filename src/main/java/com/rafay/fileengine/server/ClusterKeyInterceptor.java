@@ -0,0 +1,63 @@
+package com.rafay.fileengine.server;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Recognizes calls from a coordinator. A coordinator authenticates its clients itself and forwards their
+ * requests with the cluster's shared key in the {@code x-cluster-key} header instead of per-client
+ * credentials; the {@code client_id} they carry names the tenant the call acts for.
+ * <p>
+ * Calls without the header pass through untouched. A call with a key that doesn't match (or to a server
+ * that has none) is closed with UNAUTHENTICATED before it reaches the service. Keys are compared in
+ * constant time.
+ */
+public class ClusterKeyInterceptor implements ServerInterceptor {
+    public static final Metadata.Key<String> HEADER = Metadata.Key.of("x-cluster-key", Metadata.ASCII_STRING_MARSHALLER);
+    // Set on calls that presented the cluster key
+    private static final Context.Key<Boolean> FROM_COORDINATOR = Context.key("from-coordinator");
+
+    // Null when no coordinator may call this server
+    private final byte[] key;
+
+    /**
+     * @param key The cluster's shared key, or null to refuse every call that presents one.
+     */
+    public ClusterKeyInterceptor(String key) {
+        this.key = key != null ? key.getBytes(StandardCharsets.US_ASCII) : null;
+    }
+
+    // Whether the current call came from a coordinator holding the cluster key
+    public static boolean fromCoordinator() {
+        return Boolean.TRUE.equals(FROM_COORDINATOR.get());
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call,
+            Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        String presented = headers.get(HEADER);
+        if (presented == null) {
+            return next.startCall(call, headers);
+        }
+        if (key == null || !MessageDigest.isEqual(key, presented.getBytes(StandardCharsets.US_ASCII))) {
+            // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+            System.out.println("authentication failed: invalid cluster key from IP " + ClientIPInterceptor.CLIENT_IP.get());
+
+            call.close(Status.UNAUTHENTICATED.withDescription("Invalid cluster key"), new Metadata());
+            return new ServerCall.Listener<>() {
+            };
+        }
+        Context ctx = Context.current().withValue(FROM_COORDINATOR, true);
+        return Contexts.interceptCall(ctx, call, headers, next);
+    }
+}
@@ -1,33 +1,116 @@
 package com.rafay.fileengine.server;
 
 import com.rafay.fileengine.auth.ClientManager;
+import com.rafay.fileengine.common.TermDictionary;
+import com.rafay.fileengine.index.BooleanQuery;
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.IndexStore;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.index.ScoredDocument;
+import com.rafay.fileengine.index.SegmentBuilder;
+import com.rafay.fileengine.index.SearchPage;
 import com.rafay.fileengine.proto.FileEngineProto;
 import com.rafay.fileengine.proto.IndexServiceGrpc;
 import io.grpc.Context;
 import io.grpc.Contexts;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
 import io.grpc.ServerInterceptors;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class FileServer extends IndexServiceGrpc.IndexServiceImplBase {
 
-    private final ClientManager clientManager = new ClientManager();
+    private final ClientManager clientManager = ClientManager.fromEnv();
     private static final Logger logger = Logger.getLogger(FileServer.class.getName());
-    private final ConcurrentHashMap<String, Map<String, Integer>> globalIndex = new ConcurrentHashMap<>();
+    // Documents applied to the index per write-lock acquisition on IndexStream
+    private static final int INDEX_STREAM_BATCH_SIZE = 256;
+    // Per-document failures listed in an IndexStreamReply; the rest are only counted
+    private static final int MAX_REPORTED_FAILURES = 1000;
+    // Results per SearchReply on SearchStream
+    private static final int SEARCH_STREAM_CHUNK_SIZE = 500;
+    // Reply to clients that try to register with a shard directly
+    private static final String SHARD_MESSAGE = "This server is a cluster shard; register with the coordinator";
+    // Default memory cap of the ComputeSearch result cache
+    static final long DEFAULT_QUERY_CACHE_BYTES = 64L << 20;
+    private final TenantIndexes tenants;
+    private final QueryCache queryCache;
+    private final ServerMetrics metrics;
+    private AdmissionControl admission = new AdmissionControl(AdmissionControl.Limits.NONE);
+    // Shared with the cluster's coordinator when this server is one of its shards; null otherwise
+    private String clusterKey = blankToNull(System.getenv("CLUSTER_KEY"));
     private Server server;
 
+    public FileServer() {
+        this(new InvertedIndex());
+    }
+
+    // Share an index with another front-end (e.g. a ZeroMQFileServer in the same JVM)
+    public FileServer(InvertedIndex index) {
+        this(index, DEFAULT_QUERY_CACHE_BYTES);
+    }
+
+    /**
+     * @param queryCacheBytes Memory cap of the search result cache; 0 disables it.
+     */
+    public FileServer(InvertedIndex index, long queryCacheBytes) {
+        this(index, queryCacheBytes, new ServerMetrics());
+    }
+
+    // Report into shared metrics, e.g. those of a ZeroMQFileServer on the same index
+    public FileServer(InvertedIndex index, long queryCacheBytes, ServerMetrics metrics) {
+        this(new TenantIndexes(index), queryCacheBytes, metrics);
+    }
+
+    /**
+     * @param tenants The index partitions requests are routed to by client id.
+     */
+    public FileServer(TenantIndexes tenants, long queryCacheBytes, ServerMetrics metrics) {
+        this.tenants = tenants;
+        this.queryCache = new QueryCache(tenants.shared().index(), queryCacheBytes);
+        this.metrics = metrics;
+    }
+
     public void start(int port) throws IOException {
+        start(port, ServerThreading.DEFAULT);
+    }
+
+    /**
+     * @param threading The handler executor and Netty event loops to run on.
+     */
+    public void start(int port, ServerThreading threading) throws IOException {
+        start(port, threading, new AdmissionControl(AdmissionControl.Limits.NONE));
+    }
+
+    /**
+     * @param admission Rate, query size and concurrency limits, e.g. shared with a ZeroMQFileServer on the same index.
+     */
+    public void start(int port, ServerThreading threading, AdmissionControl admission) throws IOException {
+        this.admission = admission;
         // Add the Interceptor here so we can capture the attacker's IP address
-        server = ServerBuilder.forPort(port)
-                .addService(ServerInterceptors.intercept(this, new ClientIPInterceptor()))
-                .build()
-                .start();
+        server = threading.start(port, ServerInterceptors.intercept(this, new ClusterKeyInterceptor(clusterKey),
+                admission.interceptor(), new ClientIPInterceptor(), metrics.interceptor(IndexServiceGrpc.getServiceDescriptor())));
         logger.info("Server started, listening on " + port);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Shutting down gRPC server since JVM is shutting down");
@@ -36,6 +119,29 @@ public class FileServer extends IndexServiceGrpc.IndexServiceImplBase {
         }));
     }
 
+    /**
+     * Make this server a shard of a cluster, before {@link #start}: it then serves only calls from a coordinator
+     * holding {@code clusterKey} (see {@link ClusterKeyInterceptor}), which authenticates clients itself, and
+     * turns away clients that try to register or authenticate with it directly. Defaults to CLUSTER_KEY.
+     * @param clusterKey The key shared with the coordinator, or null to serve clients directly.
+     */
+    public void setClusterKey(String clusterKey) {
+        this.clusterKey = blankToNull(clusterKey);
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    // Whether a call may act for clientId: a coordinator's call for whichever tenant it names, or, unless this
+    // server is a shard, a client presenting its own credentials
+    private boolean authenticate(String clientId, String apiKey, String sessionToken) {
+        if (ClusterKeyInterceptor.fromCoordinator()) {
+            return true;
+        }
+        return clusterKey == null && clientManager.authenticate(clientId, apiKey, sessionToken);
+    }
+
     public void stop() {
         if (server != null) {
             server.shutdown();
@@ -55,7 +161,7 @@ public class FileServer extends IndexServiceGrpc.IndexServiceImplBase {
         // Get the attacker's IP address
         String clientIp = ClientIPInterceptor.CLIENT_IP.get();
 
-        if (!clientManager.validateApiKey(clientId, providedApiKey)) {
+        if (!authenticate(clientId, providedApiKey, request.getSessionToken())) {
             // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
             System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + clientIp);
 
@@ -69,9 +175,44 @@ public class FileServer extends IndexServiceGrpc.IndexServiceImplBase {
         }
 
         String docPath = request.getFilePath();
-        Map<String, Integer> wordFreqs = request.getWordFrequenciesMap();
-        globalIndex.put(docPath, wordFreqs);
-        logger.info("Indexed: " + docPath + " from client " + clientId);
+        Map<String, Integer> wordFreqs;
+        try {
+            wordFreqs = TermDictionary.decode(request);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Malformed term encoding: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        try {
+            TenantIndexes.Partition partition = tenants.forWrite(clientId);
+            if (partition.overQuota()) {
+                responseObserver.onNext(quotaExceeded(partition));
+                responseObserver.onCompleted();
+                return;
+            }
+            partition.index().indexDocument(docPath, wordFreqs, request.getContentHash());
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage(e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        } catch (UncheckedIOException e) {
+            logger.severe("Failed to persist " + docPath + ": " + e.getMessage());
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Failed to persist document")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        if (ServerMetrics.sampleLog()) {
+            logger.info("Indexed: " + docPath + " from client " + clientId + " (1 in " + ServerMetrics.LOG_SAMPLE_RATE + " logged)");
+        }
 
         FileEngineProto.IndexReply reply = FileEngineProto.IndexReply.newBuilder()
                 .setStatus("SUCCESS")
@@ -81,6 +222,86 @@ public class FileServer extends IndexServiceGrpc.IndexServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void computeIndexDelta(FileEngineProto.IndexDeltaRequest request, StreamObserver<FileEngineProto.IndexReply> responseObserver) {
+        String clientId = request.getClientId();
+        String clientIp = ClientIPInterceptor.CLIENT_IP.get();
+
+        if (!authenticate(clientId, request.getApiKey(), request.getSessionToken())) {
+            // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+            System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + clientIp);
+
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        String docPath = request.getFilePath();
+        // A tenant that hasn't written yet has no copy to apply deltas to
+        TenantIndexes.Partition partition;
+        try {
+            partition = tenants.forSearch(clientId, false);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage(e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        if (partition != null && partition.overQuota()) {
+            responseObserver.onNext(quotaExceeded(partition));
+            responseObserver.onCompleted();
+            return;
+        }
+        boolean applied;
+        try {
+            applied = partition != null
+                    && partition.index().applyDelta(docPath, request.getBaseHash(), request.getContentHash(), request.getTermDeltasMap());
+        } catch (IllegalStateException e) {
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage(e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        } catch (UncheckedIOException e) {
+            logger.severe("Failed to persist delta for " + docPath + ": " + e.getMessage());
+            responseObserver.onNext(FileEngineProto.IndexReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Failed to persist document")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        FileEngineProto.IndexReply.Builder reply = FileEngineProto.IndexReply.newBuilder();
+        if (applied) {
+            if (ServerMetrics.sampleLog()) {
+                logger.info("Applied " + request.getTermDeltasCount() + " term deltas to " + docPath + " from client " + clientId
+                        + " (1 in " + ServerMetrics.LOG_SAMPLE_RATE + " logged)");
+            }
+            reply.setStatus("SUCCESS").setMessage("Document updated successfully");
+        } else {
+            reply.setStatus("STALE").setMessage("Indexed copy does not match base_hash; resend the whole document");
+        }
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<FileEngineProto.IndexRequest> indexStream(StreamObserver<FileEngineProto.IndexStreamReply> responseObserver) {
+        ServerCallStreamObserver<FileEngineProto.IndexStreamReply> serverCall =
+                (ServerCallStreamObserver<FileEngineProto.IndexStreamReply>) responseObserver;
+        // Manual flow control: keep at most one batch of messages requested, so a slow apply backs up to the client
+        serverCall.disableAutoRequest();
+        serverCall.request(INDEX_STREAM_BATCH_SIZE);
+        return new IndexStreamObserver(serverCall, ClientIPInterceptor.CLIENT_IP.get());
+    }
+
     @Override
     public void computeSearch(FileEngineProto.SearchRequest request, StreamObserver<FileEngineProto.SearchReply> responseObserver) {
         String clientId = request.getClientId();
@@ -93,7 +314,7 @@ public class FileServer extends IndexServiceGrpc.IndexServiceImplBase {
             System.out.println("resource exhaustion: massive query detected from client " + clientId + " from IP " + clientIp);
         }
 
-        if (!clientManager.validateApiKey(clientId, providedApiKey)) {
+        if (!authenticate(clientId, providedApiKey, request.getSessionToken())) {
             // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
             System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + clientIp);
 
@@ -105,54 +326,638 @@ public class FileServer extends IndexServiceGrpc.IndexServiceImplBase {
             return;
         }
 
+        SlowQueryEvent event = new SlowQueryEvent();
+        event.begin();
+        BooleanQuery query;
+        try {
+            query = SearchQueries.of(request);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage("Invalid query: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        TenantIndexes.Partition partition;
+        try {
+            partition = tenants.forSearch(clientId, request.getShared());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage(e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        // A tenant with no partition yet has no documents to match
+        FileEngineProto.SearchReply reply = partition != null
+                ? runSearch(request, query, partition)
+                : FileEngineProto.SearchReply.getDefaultInstance();
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "grpc/ComputeSearch";
+            event.clientId = clientId;
+            event.query = SlowQueryEvent.describe(query);
+            event.limit = request.getLimit();
+            event.pageSize = request.getPageSize();
+            event.results = reply.getResultsCount();
+            event.commit();
+        }
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+    }
+
+    // Answer a parsed ComputeSearch against a partition in whichever mode it asked for
+    private FileEngineProto.SearchReply runSearch(FileEngineProto.SearchRequest request, BooleanQuery query,
+                                                  TenantIndexes.Partition partition) {
+        InvertedIndex index = partition.index();
+        if (request.getLimit() > 0 || request.getPageSize() <= 0) {
+            // Whole-result modes repeat well, so they go through the cache; pages are cheap to resume anyway
+            return queryCache.get(partition.tenant(), index, query, request.getLimit(), () -> search(index, query, request.getLimit()));
+        }
+
         FileEngineProto.SearchReply.Builder replyBuilder = FileEngineProto.SearchReply.newBuilder();
-        for (Map.Entry<String, Map<String, Integer>> docEntry : globalIndex.entrySet()) {
-            int totalFreq = 0;
-            for (String queryTerm : request.getQueryTermsList()) {
-                totalFreq += docEntry.getValue().getOrDefault(queryTerm.toLowerCase(), 0);
-            }
-            if (totalFreq > 0) {
-                FileEngineProto.SearchResult result = FileEngineProto.SearchResult.newBuilder()
-                        .setDocumentPath(docEntry.getKey())
-                        .setTotalFrequency(totalFreq)
+        // Paged mode: resume from the token's doc id instead of re-running the query
+        int afterDocId = -1;
+        if (!request.getPageToken().isEmpty()) {
+            try {
+                afterDocId = PageToken.decode(request.getPageToken(), query);
+            } catch (IllegalArgumentException e) {
+                return FileEngineProto.SearchReply.newBuilder()
+                        .setErrorMessage("Invalid page token: " + e.getMessage())
                         .build();
-                replyBuilder.addResults(result);
             }
         }
-        responseObserver.onNext(replyBuilder.build());
+        SearchPage page;
+        try {
+            page = index.searchPage(query, afterDocId, request.getPageSize());
+        } catch (IllegalArgumentException e) {
+            return FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage("Invalid query: " + e.getMessage())
+                    .build();
+        }
+        for (ScoredDocument hit : page.hits()) {
+            replyBuilder.addResults(toResult(hit));
+        }
+        if (page.hasMore()) {
+            replyBuilder.setNextPageToken(PageToken.encode(page.nextDocId(), query));
+        }
+        return replyBuilder.build();
+    }
+
+    // Run a top-k (limit > 0) or unranked search against the index
+    // Errors are returned as replies, so a rejected expansion is cached like any result (prefix queries are invalidated by any write)
+    static FileEngineProto.SearchReply search(InvertedIndex index, BooleanQuery query, int limit) {
+        FileEngineProto.SearchReply.Builder replyBuilder = FileEngineProto.SearchReply.newBuilder();
+        try {
+            if (limit > 0) {
+                // Top-k mode: BM25-ranked, best first
+                for (ScoredDocument hit : index.topK(query, limit)) {
+                    replyBuilder.addResults(toResult(hit));
+                }
+            } else {
+                for (Map.Entry<String, Integer> match : index.search(query).entrySet()) {
+                    FileEngineProto.SearchResult result = FileEngineProto.SearchResult.newBuilder()
+                            .setDocumentPath(match.getKey())
+                            .setTotalFrequency(match.getValue())
+                            .build();
+                    replyBuilder.addResults(result);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return FileEngineProto.SearchReply.newBuilder().setErrorMessage("Invalid query: " + e.getMessage()).build();
+        }
+        return replyBuilder.build();
+    }
+
+    public QueryCache queryCache() {
+        return queryCache;
+    }
+
+    // Registered clients and their sessions, e.g. to authenticate a ZeroMQFileServer in the same JVM
+    public ClientManager clientManager() {
+        return clientManager;
+    }
+
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public void getStats(FileEngineProto.StatsRequest request, StreamObserver<FileEngineProto.StatsReply> responseObserver) {
+        String clientId = request.getClientId();
+        String clientIp = ClientIPInterceptor.CLIENT_IP.get();
+
+        if (!authenticate(clientId, request.getApiKey(), request.getSessionToken())) {
+            // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+            System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + clientIp);
+
+            responseObserver.onNext(FileEngineProto.StatsReply.newBuilder()
+                    .setErrorMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        responseObserver.onNext(metrics.toStats()
+                .setIndex(ServerMetrics.indexStats(tenants.forStats(clientId)))
+                .setQueryCache(ServerMetrics.queryCacheStats(queryCache))
+                .setAdmission(admission.toStats())
+                .setTenants(tenants.tenantCount())
+                .build());
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void searchStream(FileEngineProto.SearchRequest request, StreamObserver<FileEngineProto.SearchReply> responseObserver) {
+        String clientId = request.getClientId();
+        String clientIp = ClientIPInterceptor.CLIENT_IP.get();
+
+        if (!authenticate(clientId, request.getApiKey(), request.getSessionToken())) {
+            // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+            System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + clientIp);
+
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage("Invalid API Key")
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        BooleanQuery query;
+        try {
+            query = SearchQueries.of(request);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage("Invalid query: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        TenantIndexes.Partition partition;
+        try {
+            partition = tenants.forSearch(clientId, request.getShared());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .setErrorMessage(e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        if (partition == null) {
+            responseObserver.onCompleted();
+            return;
+        }
+        ServerCallStreamObserver<FileEngineProto.SearchReply> serverCall =
+                (ServerCallStreamObserver<FileEngineProto.SearchReply>) responseObserver;
+        SearchStreamProducer producer = new SearchStreamProducer(serverCall, partition.index(), query, request.getLimit());
+        serverCall.setOnCancelHandler(producer::cancel);
+        // gRPC calls this whenever the transport drains; the producer stops as soon as isReady() turns false
+        serverCall.setOnReadyHandler(producer);
+        producer.run();
+    }
+
+    // Emits one search as a series of SearchReply chunks, only while the call is ready for more
+    private class SearchStreamProducer implements Runnable {
+        private final ServerCallStreamObserver<FileEngineProto.SearchReply> serverCall;
+        private final InvertedIndex index;
+        private final BooleanQuery query;
+        private final int limit;
+        // Ranked searches are bounded by their limit, so they're computed once (on the first run) and sliced
+        private List<ScoredDocument> ranked;
+        private int rankedOffset;
+        private int afterDocId = -1;
+        private boolean done;
+
+        SearchStreamProducer(ServerCallStreamObserver<FileEngineProto.SearchReply> serverCall, InvertedIndex index,
+                             BooleanQuery query, int limit) {
+            this.serverCall = serverCall;
+            this.index = index;
+            this.query = query;
+            this.limit = limit;
+        }
+
+        @Override
+        public void run() {
+            try {
+                produce();
+            } catch (IllegalArgumentException e) {
+                // A prefix or wildcard expanded past the cap
+                done = true;
+                serverCall.onNext(FileEngineProto.SearchReply.newBuilder()
+                        .setErrorMessage("Invalid query: " + e.getMessage())
+                        .build());
+                serverCall.onCompleted();
+            }
+        }
+
+        private void produce() {
+            if (limit > 0 && ranked == null) {
+                ranked = index.topK(query, limit);
+            }
+            while (!done && serverCall.isReady()) {
+                FileEngineProto.SearchReply.Builder chunk = FileEngineProto.SearchReply.newBuilder();
+                boolean last;
+                if (ranked != null) {
+                    int end = Math.min(rankedOffset + SEARCH_STREAM_CHUNK_SIZE, ranked.size());
+                    for (ScoredDocument hit : ranked.subList(rankedOffset, end)) {
+                        chunk.addResults(toResult(hit));
+                    }
+                    rankedOffset = end;
+                    last = end == ranked.size();
+                } else {
+                    // Each chunk is a fresh page, so no index lock is held between chunks
+                    SearchPage page = index.searchPage(query, afterDocId, SEARCH_STREAM_CHUNK_SIZE);
+                    for (ScoredDocument hit : page.hits()) {
+                        chunk.addResults(toResult(hit));
+                    }
+                    afterDocId = page.nextDocId();
+                    last = !page.hasMore();
+                }
+                if (chunk.getResultsCount() > 0) {
+                    serverCall.onNext(chunk.build());
+                }
+                if (last) {
+                    done = true;
+                    serverCall.onCompleted();
+                }
+            }
+        }
+
+        void cancel() {
+            done = true;
+        }
+    }
+
+    private static FileEngineProto.SearchResult toResult(ScoredDocument hit) {
+        FileEngineProto.SearchResult.Builder result = FileEngineProto.SearchResult.newBuilder()
+                .setDocumentPath(hit.documentPath())
+                .setTotalFrequency(hit.totalFrequency());
+        if (hit.score() != 0) {
+            result.setScore(hit.score());
+        }
+        return result.build();
+    }
+
     @Override
     public void registerClient(FileEngineProto.RegisterRequest request, StreamObserver<FileEngineProto.RegisterReply> responseObserver) {
+        if (clusterKey != null) {
+            responseObserver.onNext(FileEngineProto.RegisterReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage(SHARD_MESSAGE)
+                    .build());
+        } else {
+            responseObserver.onNext(registerClient(clientManager, request));
+        }
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Answer a RegisterClient against {@code clientManager}; shared with the coordinator.
+     * An id that is already registered is only registered again, with a new key, if the request carries its current key.
+     */
+    public static FileEngineProto.RegisterReply registerClient(ClientManager clientManager, FileEngineProto.RegisterRequest request) {
         String clientId = request.getClientId();
         // Get the attacker's IP address
         String clientIp = ClientIPInterceptor.CLIENT_IP.get();
-        
+
         // LOG FOR API ABUSE DETECTION (Rule 100102)
         System.out.println("rate limit exceeded: registration spam detected for " + clientId + " from IP " + clientIp);
 
-        String apiKey = clientManager.registerClient(clientId);
-        FileEngineProto.RegisterReply reply = FileEngineProto.RegisterReply.newBuilder()
+        if (clientId.isEmpty()) {
+            return FileEngineProto.RegisterReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Missing client_id")
+                    .build();
+        }
+        String apiKey = clientManager.registerClient(clientId, request.getApiKey());
+        if (apiKey == null) {
+            // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+            System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + clientIp);
+
+            return FileEngineProto.RegisterReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Client id already registered; send its current api_key to register it again")
+                    .build();
+        }
+        ClientManager.SessionToken session = clientManager.openSession(clientId, apiKey);
+        return FileEngineProto.RegisterReply.newBuilder()
                 .setApiKey(apiKey)
+                .setSessionToken(session.token())
+                .setSessionExpiresMillis(session.expiresAtMillis())
                 .setStatus("SUCCESS")
                 .setMessage("Client registered successfully")
                 .build();
+    }
 
-        responseObserver.onNext(reply);
+    @Override
+    public void openSession(FileEngineProto.SessionRequest request, StreamObserver<FileEngineProto.SessionReply> responseObserver) {
+        if (clusterKey != null) {
+            responseObserver.onNext(FileEngineProto.SessionReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage(SHARD_MESSAGE)
+                    .build());
+        } else {
+            responseObserver.onNext(openSession(clientManager, request));
+        }
         responseObserver.onCompleted();
     }
 
+    /**
+     * Answer an OpenSession against {@code clientManager}; shared with the coordinator.
+     */
+    public static FileEngineProto.SessionReply openSession(ClientManager clientManager, FileEngineProto.SessionRequest request) {
+        String clientId = request.getClientId();
+        ClientManager.SessionToken session = clientManager.openSession(clientId, request.getApiKey());
+        if (session == null) {
+            // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+            System.out.println("authentication failed: invalid api key for client " + clientId + " from IP " + ClientIPInterceptor.CLIENT_IP.get());
+
+            return FileEngineProto.SessionReply.newBuilder()
+                    .setStatus("ERROR")
+                    .setMessage("Invalid API Key")
+                    .build();
+        }
+        return FileEngineProto.SessionReply.newBuilder()
+                .setStatus("SUCCESS")
+                .setMessage("Session opened")
+                .setSessionToken(session.token())
+                .setSessionExpiresMillis(session.expiresAtMillis())
+                .build();
+    }
+
+    private static FileEngineProto.IndexReply quotaExceeded(TenantIndexes.Partition partition) {
+        return FileEngineProto.IndexReply.newBuilder()
+                .setStatus("ERROR")
+                .setMessage("Tenant quota exceeded: " + partition.index().dataBytes() + " of " + partition.quotaBytes() + " bytes used")
+                .build();
+    }
+
+    // Receives one IndexStream: authenticates on the first message, then applies documents in batches
+    private class IndexStreamObserver implements StreamObserver<FileEngineProto.IndexRequest> {
+        private final ServerCallStreamObserver<FileEngineProto.IndexStreamReply> serverCall;
+        private final String clientIp;
+        private final Map<String, Map<String, Integer>> batch = new LinkedHashMap<>();
+        private final Map<String, String> contentHashes = new HashMap<>();
+        // The stream's term dictionary, for dictionary-encoded documents
+        private final TermDictionary.Decoder terms = new TermDictionary.Decoder();
+        private final FileEngineProto.IndexStreamReply.Builder summary = FileEngineProto.IndexStreamReply.newBuilder();
+        private String clientId;
+        private TenantIndexes.Partition partition;
+        private boolean closed;
+
+        IndexStreamObserver(ServerCallStreamObserver<FileEngineProto.IndexStreamReply> serverCall, String clientIp) {
+            this.serverCall = serverCall;
+            this.clientIp = clientIp;
+        }
+
+        @Override
+        public void onNext(FileEngineProto.IndexRequest request) {
+            if (closed) {
+                return;
+            }
+            if (clientId == null) {
+                if (!authenticate(request.getClientId(), request.getApiKey(), request.getSessionToken())) {
+                    // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+                    System.out.println("authentication failed: invalid api key for client " + request.getClientId() + " from IP " + clientIp);
+
+                    closed = true;
+                    serverCall.onNext(FileEngineProto.IndexStreamReply.newBuilder()
+                            .setStatus("ERROR")
+                            .setMessage("Invalid API Key")
+                            .build());
+                    serverCall.onCompleted();
+                    return;
+                }
+                clientId = request.getClientId();
+                try {
+                    partition = tenants.forWrite(clientId);
+                } catch (IllegalStateException | IllegalArgumentException | UncheckedIOException e) {
+                    reject(e.getMessage());
+                    return;
+                }
+            }
+
+            String docPath = request.getFilePath();
+            Map<String, Integer> wordFreqs;
+            try {
+                // Decoded even if the document then fails, so the dictionary stays in step with the client's
+                wordFreqs = terms.decode(request);
+            } catch (IllegalArgumentException e) {
+                // Later ids can't be trusted once the dictionaries disagree, so end the stream
+                reject("Malformed term encoding at " + docPath + ": " + e.getMessage());
+                return;
+            }
+            if (docPath.isEmpty()) {
+                fail(docPath, "Missing file_path");
+            } else if (!request.getClientId().isEmpty() && !request.getClientId().equals(clientId)) {
+                fail(docPath, "client_id does not match the stream's client");
+            } else {
+                batch.put(docPath, wordFreqs);
+                if (request.getContentHash().isEmpty()) {
+                    contentHashes.remove(docPath);
+                } else {
+                    contentHashes.put(docPath, request.getContentHash());
+                }
+                summary.setIndexedCount(summary.getIndexedCount() + 1);
+                if (batch.size() >= INDEX_STREAM_BATCH_SIZE) {
+                    String refused = flush();
+                    if (refused != null) {
+                        reject(refused);
+                        return;
+                    }
+                }
+            }
+            serverCall.request(1);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // Client cancelled or the transport failed; it gets no summary, so don't apply the partial batch
+            closed = true;
+            logger.warning("IndexStream from client " + clientId + " aborted after " + summary.getIndexedCount()
+                    + " received documents: " + t.getMessage());
+        }
+
+        @Override
+        public void onCompleted() {
+            if (closed) {
+                return;
+            }
+            String refused = flush();
+            if (refused != null) {
+                reject(refused);
+                return;
+            }
+            closed = true;
+            long failed = summary.getFailedCount();
+            summary.setStatus(failed == 0 ? "SUCCESS" : "PARTIAL")
+                    .setMessage("Indexed " + summary.getIndexedCount() + " documents, " + failed + " failed");
+            logger.info("IndexStream from client " + clientId + ": " + summary.getMessage());
+            serverCall.onNext(summary.build());
+            serverCall.onCompleted();
+        }
+
+        // Apply what was received so far, then end the stream with an ERROR summary
+        private void reject(String message) {
+            closed = true;
+            flush();
+            summary.setStatus("ERROR").setMessage(message);
+            logger.warning("IndexStream from client " + clientId + " rejected: " + message);
+            serverCall.onNext(summary.build());
+            serverCall.onCompleted();
+        }
+
+        // Apply the batch; returns why the index refused it, in which case nothing later would be applied either
+        private String flush() {
+            if (batch.isEmpty()) {
+                return null;
+            }
+            String refused = null;
+            if (partition.overQuota()) {
+                failBatch("Tenant quota exceeded");
+            } else {
+                try {
+                    partition.index().indexDocuments(batch, contentHashes);
+                } catch (UncheckedIOException e) {
+                    logger.severe("Failed to persist IndexStream batch: " + e.getMessage());
+                    failBatch("Failed to persist document");
+                } catch (IllegalStateException e) {
+                    // e.g. the write-ahead log was closed for shutdown, so the index takes no more writes
+                    logger.severe("IndexStream batch refused: " + e.getMessage());
+                    failBatch(e.getMessage());
+                    refused = e.getMessage();
+                }
+            }
+            batch.clear();
+            contentHashes.clear();
+            return refused;
+        }
+
+        private void failBatch(String message) {
+            summary.setIndexedCount(summary.getIndexedCount() - batch.size());
+            for (String docPath : batch.keySet()) {
+                fail(docPath, message);
+            }
+        }
+
+        private void fail(String docPath, String message) {
+            summary.setFailedCount(summary.getFailedCount() + 1);
+            if (summary.getFailuresCount() < MAX_REPORTED_FAILURES) {
+                summary.addFailures(FileEngineProto.IndexFailure.newBuilder()
+                        .setFilePath(docPath)
+                        .setMessage(message)
+                        .build());
+            }
+        }
+    }
+
     public static void main(String[] args) throws IOException, InterruptedException {
-        FileServer server = new FileServer();
+        // With DATA_DIR set, the index is recovered from and persisted to that directory
+        IndexStore store = openStore();
+        long queryCacheBytes = Long.parseLong(System.getenv().getOrDefault("QUERY_CACHE_MB", "64").trim()) << 20;
+        InvertedIndex index = store != null ? store.index() : new InvertedIndex(indexStorage());
+        watchSegmentDir(index, store);
+        FileServer server = new FileServer(TenantIndexes.fromEnv(index), queryCacheBytes, new ServerMetrics());
         int port = Integer.parseInt(System.getenv().getOrDefault("SERVER_PORT", "8080").trim());
-        String clientId = System.getenv().getOrDefault("TEST_CLIENT_ID", "C1");
-        String apiKey = server.clientManager.registerClient(clientId);
-        System.out.println("Registered Client ID: " + clientId);
-        System.out.println("API Key: " + apiKey);
+        // Pre-register a client for manual testing; it is then the key's holder who can register that id again
+        String clientId = System.getenv("TEST_CLIENT_ID");
+        if (clientId != null && !clientId.isBlank()) {
+            String apiKey = server.clientManager.registerClient(clientId.trim());
+            System.out.println("Registered Client ID: " + clientId.trim());
+            System.out.println("API Key: " + apiKey);
+        }
         System.out.println("Server listening on port: " + port);
 
-        server.start(port);
+        server.start(port, ServerThreading.fromEnv(), new AdmissionControl(AdmissionControl.Limits.fromEnv()));
         server.blockUntilShutdown();
+        QueryCache cache = server.queryCache();
+        logger.info("Query cache: " + cache.hitCount() + " hits, " + cache.missCount() + " misses");
+    }
+
+    // Where the index keeps its segments: INDEX_STORAGE=heap (default) or off-heap
+    static IndexStorage indexStorage() {
+        String storage = System.getenv().getOrDefault("INDEX_STORAGE", "heap").trim();
+        return IndexStorage.valueOf(storage.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    /**
+     * Attach the segment files in SEGMENT_DIR (written by {@code BulkIndexBuilder}) now, then check for new ones
+     * every SEGMENT_POLL_SECONDS (default 10). Move finished files in rather than building in place.
+     * With a store, attached files are checkpointed and moved to an {@code attached} subdirectory; in memory
+     * only, they stay where they are and are attached again on the next start.
+     */
+    static void watchSegmentDir(InvertedIndex index, IndexStore store) throws IOException {
+        String segmentDir = System.getenv("SEGMENT_DIR");
+        if (segmentDir == null || segmentDir.isBlank()) {
+            return;
+        }
+        Path dir = Paths.get(segmentDir.trim());
+        long pollSeconds = Long.parseLong(System.getenv().getOrDefault("SEGMENT_POLL_SECONDS", "10").trim());
+        Set<Path> attached = new HashSet<>();
+        // A file that fails at startup stops the server, rather than starting it without those documents
+        attachNewSegments(dir, index, store, attached);
+        ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            try {
+                attachNewSegments(dir, index, store, attached);
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Failed to attach segments from " + dir + ": " + e.getMessage());
+            }
+        }, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void attachNewSegments(Path dir, InvertedIndex index, IndexStore store, Set<Path> attached)
+            throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                SegmentBuilder.SEGMENT_PREFIX + "*" + SegmentBuilder.SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                if (!attached.contains(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        // Doc id order, which is also the order later versions of a path win in
+        Collections.sort(files);
+        long start = System.nanoTime();
+        int count;
+        if (store != null) {
+            count = store.attachSegments(files);
+            Path done = Files.createDirectories(dir.resolve("attached"));
+            for (Path file : files) {
+                Files.move(file, done.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            count = index.attachSegments(files);
+            attached.addAll(files);
+        }
+        logger.info("Attached " + count + " documents from " + files.size() + " segment files in " + dir + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // Open the persistent index store named by DATA_DIR, or return null to keep the index in memory only
+    static IndexStore openStore() throws IOException {
+        String dataDir = System.getenv("DATA_DIR");
+        if (dataDir == null || dataDir.isBlank()) {
+            return null;
+        }
+        long checkpointSeconds = Long.parseLong(System.getenv().getOrDefault("CHECKPOINT_INTERVAL_SECONDS", "300").trim());
+        IndexStore store = IndexStore.open(Paths.get(dataDir.trim()), Duration.ofSeconds(checkpointSeconds), indexStorage());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                logger.severe("Failed to close index store: " + e.getMessage());
+            }
+        }));
+        return store;
     }
 }
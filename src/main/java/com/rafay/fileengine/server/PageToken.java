@@ -0,0 +1,41 @@
+// src/main/java/com/rafay/fileengine/server/PageToken.java
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.BooleanQuery;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Opaque resume token for paged searches.
+ * Encodes the last doc id returned plus a hash of the query, so a token can't be replayed against a different query.
+ */
+final class PageToken {
+    private static final byte VERSION = 2;
+
+    private PageToken() {
+    }
+
+    static String encode(int lastDocId, BooleanQuery query) {
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        buffer.put(VERSION).putInt(lastDocId).putInt(query.hashCode());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @return The doc id to resume after.
+     * @throws IllegalArgumentException if the token is malformed or was issued for another query.
+     */
+    static int decode(String token, BooleanQuery query) {
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        if (bytes.length != 9 || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Malformed page token");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, 8);
+        int lastDocId = buffer.getInt();
+        if (buffer.getInt() != query.hashCode() || lastDocId < 0) {
+            throw new IllegalArgumentException("Page token does not match this query");
+        }
+        return lastDocId;
+    }
+}
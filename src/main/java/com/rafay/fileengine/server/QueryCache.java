@@ -0,0 +1,207 @@
+// src/main/java/com/rafay/fileengine/server/QueryCache.java
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.BooleanQuery;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of ComputeSearch and ZeroMQ search replies for repeated queries.
+ * <p>
+ * Entries are keyed on the normalized query (lowercased and sorted terms, plus the top-k limit)
+ * and tagged with the index's version counters as read before the query ran. A lookup is a hit
+ * only while those counters are unchanged, so indexing invalidates exactly the entries whose
+ * terms it touched instead of flushing the cache. Ranked entries are also tagged with the
+ * index-wide version, because BM25 scores depend on corpus statistics. So are boolean queries with a NOT,
+ * whose matches depend on which documents exist, or a prefix or wildcard, whose expansions depend on the vocabulary.
+ * <p>
+ * With tenant partitions, one cache serves every partition: keys carry the tenant and tags come from
+ * the tenant's own index, so tenants never see each other's entries but share the memory cap.
+ * <p>
+ * Eviction is LRU by estimated size, capped at {@code maxBytes}. Replies larger than an eighth of the
+ * cap are not cached, so one huge unranked result list cannot flush everything else.
+ */
+public final class QueryCache {
+    // Rough per-entry cost of the map node, key and tag objects
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final InvertedIndex index;
+    private final long maxBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by 'this'
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private record Entry(long termsVersion, long indexVersion, FileEngineProto.SearchReply reply, long weight) {
+    }
+
+    /**
+     * @param maxBytes Approximate memory cap; 0 disables caching.
+     */
+    public QueryCache(InvertedIndex index, long maxBytes) {
+        this.index = index;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the cached reply for a query, or run {@code search} and cache its reply.
+     * @param queryTerms The query terms as sent by the client.
+     * @param limit The top-k limit, or 0 for an unranked search of every match.
+     * @param search Runs the query against the index.
+     */
+    public FileEngineProto.SearchReply get(Collection<String> queryTerms, int limit, Supplier<FileEngineProto.SearchReply> search) {
+        return get("", index, queryTerms, limit, search);
+    }
+
+    private FileEngineProto.SearchReply get(String tenant, InvertedIndex index, Collection<String> queryTerms, int limit,
+                                            Supplier<FileEngineProto.SearchReply> search) {
+        if (maxBytes <= 0) {
+            return search.get();
+        }
+        List<String> terms = normalize(queryTerms, limit > 0);
+        return get(index, tenantKey(tenant).append(limit).append('\u0000').append(String.join("\u0000", terms)).toString(),
+                terms, limit > 0, search);
+    }
+
+    /**
+     * Return the cached reply for a boolean query, or run {@code search} and cache its reply.
+     * A plain OR of terms shares its entry with the equivalent term list.
+     */
+    public FileEngineProto.SearchReply get(BooleanQuery query, int limit, Supplier<FileEngineProto.SearchReply> search) {
+        return get("", index, query, limit, search);
+    }
+
+    /**
+     * Return the cached reply for a boolean query against one tenant's partition, or run {@code search} and cache its reply.
+     * @param tenant The partition's tenant; entries are only shared between calls naming the same one.
+     * @param index The partition's index, whose version counters tag the entry.
+     */
+    public FileEngineProto.SearchReply get(String tenant, InvertedIndex index, BooleanQuery query, int limit,
+                                           Supplier<FileEngineProto.SearchReply> search) {
+        List<String> flat = query.flatTerms();
+        if (flat != null) {
+            return get(tenant, index, flat, limit, search);
+        }
+        if (maxBytes <= 0) {
+            return search.get();
+        }
+        StringBuilder key = tenantKey(tenant).append(limit).append('\u0001');
+        appendKey(key, query);
+        return get(index, key.toString(), query.terms(), limit > 0 || !query.dependsOnlyOnTerms(), search);
+    }
+
+    // Length-prefixed, like query terms, so no tenant id can run into the query part of the key
+    private static StringBuilder tenantKey(String tenant) {
+        return new StringBuilder().append(tenant.length()).append(':').append(tenant);
+    }
+
+    private FileEngineProto.SearchReply get(InvertedIndex index, String key, Collection<String> terms, boolean tagIndexVersion,
+                                            Supplier<FileEngineProto.SearchReply> search) {
+        // Read the versions before searching: a result computed afterwards can only be newer than its tag
+        long termsVersion = index.termsVersion(terms);
+        long indexVersion = tagIndexVersion ? index.version() : 0;
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.termsVersion == termsVersion && entry.indexVersion == indexVersion) {
+                    hits.increment();
+                    return entry.reply;
+                }
+                remove(key);
+            }
+        }
+        misses.increment();
+
+        FileEngineProto.SearchReply reply = search.get();
+        // Wire size is a stable proxy; Java strings and message objects take roughly twice that on the heap
+        long weight = 2L * reply.getSerializedSize() + 2L * key.length() + ENTRY_OVERHEAD;
+        if (weight <= maxBytes / 8) {
+            synchronized (this) {
+                remove(key);
+                entries.put(key, new Entry(termsVersion, indexVersion, reply, weight));
+                bytes += weight;
+                Iterator<Entry> eldest = entries.values().iterator();
+                while (bytes > maxBytes && eldest.hasNext()) {
+                    bytes -= eldest.next().weight;
+                    eldest.remove();
+                }
+            }
+        }
+        return reply;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Approximate heap held by cached replies
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight;
+        }
+    }
+
+    // Prefix encoding of the query tree; terms are length-prefixed so no term text can fake structure
+    private static void appendKey(StringBuilder key, BooleanQuery query) {
+        switch (query) {
+            case BooleanQuery.Term leaf -> key.append(leaf.term().length()).append(':').append(leaf.term());
+            case BooleanQuery.And and -> appendClauses(key, '&', and.clauses());
+            case BooleanQuery.Or or -> appendClauses(key, '|', or.clauses());
+            case BooleanQuery.Not not -> {
+                key.append('!');
+                appendKey(key, not.clause());
+            }
+            case BooleanQuery.Prefix prefix -> key.append('^').append(prefix.prefix().length()).append(':').append(prefix.prefix());
+            case BooleanQuery.Wildcard wildcard -> key.append('~').append(wildcard.pattern().length()).append(':').append(wildcard.pattern());
+        }
+    }
+
+    private static void appendClauses(StringBuilder key, char operator, List<BooleanQuery> clauses) {
+        key.append(operator).append(clauses.size()).append('(');
+        for (BooleanQuery clause : clauses) {
+            appendKey(key, clause);
+        }
+        key.append(')');
+    }
+
+    // Unranked searches sum duplicate terms, so only ranked keys may drop them
+    private static List<String> normalize(Collection<String> queryTerms, boolean distinct) {
+        if (distinct) {
+            TreeSet<String> unique = new TreeSet<>();
+            for (String term : queryTerms) {
+                unique.add(term.toLowerCase());
+            }
+            return new ArrayList<>(unique);
+        }
+        List<String> sorted = new ArrayList<>(queryTerms.size());
+        for (String term : queryTerms) {
+            sorted.add(term.toLowerCase());
+        }
+        sorted.sort(null);
+        return sorted;
+    }
+}
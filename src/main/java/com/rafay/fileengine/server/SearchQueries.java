@@ -0,0 +1,66 @@
+// src/main/java/com/rafay/fileengine/server/SearchQueries.java
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.BooleanQuery;
+import com.rafay.fileengine.proto.FileEngineProto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the query of a SearchRequest into the index's {@link BooleanQuery}.
+ */
+final class SearchQueries {
+    // Wider trees are almost certainly abuse; each clause costs a postings cursor
+    static final int MAX_CLAUSES = 1024;
+
+    private SearchQueries() {
+    }
+
+    /**
+     * @return The request's boolean query if it has one, otherwise the OR of its query terms.
+     * @throws IllegalArgumentException if the query tree is malformed or too large.
+     */
+    static BooleanQuery of(FileEngineProto.SearchRequest request) {
+        if (!request.hasQuery()) {
+            return BooleanQuery.anyOf(request.getQueryTermsList());
+        }
+        int[] budget = {MAX_CLAUSES};
+        return convert(request.getQuery(), budget);
+    }
+
+    private static BooleanQuery convert(FileEngineProto.Query query, int[] budget) {
+        if (--budget[0] < 0) {
+            throw new IllegalArgumentException("query has more than " + MAX_CLAUSES + " clauses");
+        }
+        return switch (query.getOperator()) {
+            case TERM -> BooleanQuery.term(leafText(query));
+            case PREFIX -> new BooleanQuery.Prefix(leafText(query));
+            case WILDCARD -> new BooleanQuery.Wildcard(leafText(query));
+            case AND -> new BooleanQuery.And(convertClauses(query, budget));
+            case OR -> new BooleanQuery.Or(convertClauses(query, budget));
+            case NOT -> {
+                if (query.getClausesCount() != 1) {
+                    throw new IllegalArgumentException("NOT needs exactly one clause");
+                }
+                yield BooleanQuery.not(convert(query.getClauses(0), budget));
+            }
+            case UNRECOGNIZED -> throw new IllegalArgumentException("unknown operator " + query.getOperatorValue());
+        };
+    }
+
+    private static String leafText(FileEngineProto.Query query) {
+        if (query.getClausesCount() > 0) {
+            throw new IllegalArgumentException(query.getOperator() + " cannot have clauses");
+        }
+        return query.getTerm();
+    }
+
+    private static List<BooleanQuery> convertClauses(FileEngineProto.Query query, int[] budget) {
+        List<BooleanQuery> clauses = new ArrayList<>(query.getClausesCount());
+        for (FileEngineProto.Query clause : query.getClausesList()) {
+            clauses.add(convert(clause, budget));
+        }
+        return clauses;
+    }
+}
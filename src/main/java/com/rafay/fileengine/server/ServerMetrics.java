@@ -0,0 +1,214 @@
+// src/main/java/com/rafay/fileengine/server/ServerMetrics.java
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.common.LatencyHistogram;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and latency histograms of one server, reported by GetStats.
+ * <p>
+ * Each RPC or ZeroMQ message type is an {@link Operation}. Handlers look their operation up once
+ * (gRPC calls through {@link #interceptor}), so timing a request costs two clock reads and a few
+ * atomic increments, with no allocation and no lock. Everything is cumulative since the server
+ * started; rates come from comparing two GetStats replies.
+ * <p>
+ * Per-request log lines go through {@link #sampleLog}, so logging costs nothing on most requests
+ * while a steady trickle still shows what the server is doing.
+ */
+public final class ServerMetrics {
+    // One request in this many is logged
+    static final int LOG_SAMPLE_RATE = 1000;
+
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * @param name E.g. "grpc/ComputeSearch" or "zmq/search_request".
+     * @return The operation's metrics, created on first use.
+     */
+    public Operation operation(String name) {
+        Operation operation = operations.get(name);
+        return operation != null ? operation : operations.computeIfAbsent(name, Operation::new);
+    }
+
+    /**
+     * An interceptor timing every call to {@code service}, from the call starting to its status being sent.
+     * Calls that end with a non-OK status or are cancelled by the client count as errors.
+     */
+    public ServerInterceptor interceptor(ServiceDescriptor service) {
+        // Full method name -> operation, filled up front so idle RPCs are reported too
+        ConcurrentHashMap<String, Operation> byMethod = new ConcurrentHashMap<>();
+        for (MethodDescriptor<?, ?> method : service.getMethods()) {
+            byMethod.put(method.getFullMethodName(), operation("grpc/" + method.getBareMethodName()));
+        }
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                Operation operation = byMethod.get(call.getMethodDescriptor().getFullMethodName());
+                if (operation == null) {
+                    return next.startCall(call, headers);
+                }
+                TimedCall<ReqT, RespT> timed = new TimedCall<>(call, operation);
+                return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(next.startCall(timed, headers)) {
+                    @Override
+                    public void onCancel() {
+                        timed.finish(false);
+                        super.onCancel();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return Uptime and every operation's counters, sorted by name.
+     */
+    public FileEngineProto.StatsReply.Builder toStats() {
+        List<Operation> sorted = new ArrayList<>(operations.values());
+        sorted.sort(Comparator.comparing(Operation::name));
+        FileEngineProto.StatsReply.Builder reply = FileEngineProto.StatsReply.newBuilder()
+                .setUptimeMillis((System.nanoTime() - startNanos) / 1_000_000);
+        for (Operation operation : sorted) {
+            reply.addOperations(operation.toStats());
+        }
+        return reply;
+    }
+
+    public static FileEngineProto.IndexStats indexStats(InvertedIndex index) {
+        return FileEngineProto.IndexStats.newBuilder()
+                .setDocuments(index.documentCount())
+                .setTerms(index.termCount())
+                .setSegments(index.segmentCount())
+                .setDeletedDocuments(index.deletedDocumentCount())
+                .setDataBytes(index.dataBytes())
+                .setStorage(index.storage().name())
+                .setWaitingWriters(index.waitingWriters())
+                .setMerging(index.isMerging())
+                .build();
+    }
+
+    // A tenant partition's statistics, naming the tenant and its quota
+    public static FileEngineProto.IndexStats indexStats(TenantIndexes.Partition partition) {
+        return indexStats(partition.index()).toBuilder()
+                .setTenant(partition.tenant())
+                .setQuotaBytes(partition.quotaBytes())
+                .build();
+    }
+
+    public static FileEngineProto.QueryCacheStats queryCacheStats(QueryCache cache) {
+        return FileEngineProto.QueryCacheStats.newBuilder()
+                .setHits(cache.hitCount())
+                .setMisses(cache.missCount())
+                .setEntries(cache.size())
+                .setBytes(cache.bytes())
+                .build();
+    }
+
+    // Whether to write this request's log line; true for about one request in LOG_SAMPLE_RATE
+    static boolean sampleLog() {
+        return ThreadLocalRandom.current().nextInt(LOG_SAMPLE_RATE) == 0;
+    }
+
+    /**
+     * Counters and latencies of one kind of request.
+     */
+    public static final class Operation {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+
+        private Operation(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Count a request as started.
+         * @return Its start time, to pass to {@link #end}.
+         */
+        public long start() {
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        /**
+         * Count a request started at {@code startNanos} as completed.
+         * @param ok False if it failed.
+         */
+        public void end(long startNanos, boolean ok) {
+            latency.record(System.nanoTime() - startNanos);
+            if (!ok) {
+                errors.increment();
+            }
+            inFlight.decrement();
+        }
+
+        FileEngineProto.OperationStats toStats() {
+            LatencyHistogram.Snapshot snapshot = latency.snapshot();
+            return FileEngineProto.OperationStats.newBuilder()
+                    .setName(name)
+                    .setCount(snapshot.count())
+                    .setErrors(errors.sum())
+                    .setInFlight((int) inFlight.sum())
+                    .setMeanMicros(snapshot.mean() / 1000)
+                    .setP50Micros(snapshot.percentile(50) / 1000.0)
+                    .setP90Micros(snapshot.percentile(90) / 1000.0)
+                    .setP99Micros(snapshot.percentile(99) / 1000.0)
+                    .setP999Micros(snapshot.percentile(99.9) / 1000.0)
+                    .setMaxMicros(snapshot.max() / 1000.0)
+                    .build();
+        }
+    }
+
+    // Ends the operation when the call is closed, or cancelled, whichever happens first
+    private static final class TimedCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        @SuppressWarnings("rawtypes") // TimedCall.class is a raw Class
+        private static final AtomicIntegerFieldUpdater<TimedCall> FINISHED =
+                AtomicIntegerFieldUpdater.newUpdater(TimedCall.class, "finished");
+
+        private final Operation operation;
+        private final long startNanos;
+        private volatile int finished;
+
+        TimedCall(ServerCall<ReqT, RespT> call, Operation operation) {
+            super(call);
+            this.operation = operation;
+            this.startNanos = operation.start();
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            finish(status.isOk());
+            super.close(status, trailers);
+        }
+
+        void finish(boolean ok) {
+            if (FINISHED.compareAndSet(this, 0, 1)) {
+                operation.end(startNanos, ok);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// src/main/java/com/rafay/fileengine/server/ServerThreading.java
+package com.rafay.fileengine.server;
+
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Which threads a gRPC server runs on: the executor its handlers are called on, and the Netty event
+ * loops that do the socket I/O.
+ * <p>
+ * By default gRPC hands every call to an unbounded cached pool, so a burst of slow calls becomes a burst of
+ * platform threads. {@link Handlers#VIRTUAL} runs each call on its own virtual thread instead, so a
+ * handler blocked on the index write lock or a WAL fsync parks cheaply; {@link Handlers#BOUNDED} runs
+ * them on a fixed pool of {@code handlerThreads}, queuing the rest.
+ *
+ * @param handlers Where handlers run.
+ * @param handlerThreads Pool size for {@link Handlers#BOUNDED}; 0 means one per processor.
+ * @param eventLoopThreads Netty worker event loops; 0 keeps gRPC's shared default (one per processor, times two).
+ * @param maxConcurrentCallsPerConnection Further calls on a connection wait for one to finish; 0 for no limit.
+ * @param flowControlWindowBytes HTTP/2 flow control window per stream; 0 for gRPC's default (1 MiB).
+ */
+public record ServerThreading(Handlers handlers, int handlerThreads, int eventLoopThreads,
+                              int maxConcurrentCallsPerConnection, int flowControlWindowBytes) {
+    private static final Logger logger = Logger.getLogger(ServerThreading.class.getName());
+
+    // gRPC's own defaults throughout
+    public static final ServerThreading DEFAULT = new ServerThreading(Handlers.DEFAULT, 0, 0, 0, 0);
+
+    public enum Handlers {
+        // gRPC's cached thread pool
+        DEFAULT,
+        // One virtual thread per call
+        VIRTUAL,
+        // A fixed pool of handlerThreads platform threads
+        BOUNDED
+    }
+
+    /**
+     * Read from SERVER_EXECUTOR ({@code default}, {@code virtual} or {@code bounded}), SERVER_HANDLER_THREADS,
+     * SERVER_EVENT_LOOP_THREADS, SERVER_MAX_CALLS_PER_CONNECTION and SERVER_FLOW_CONTROL_WINDOW_KB.
+     */
+    public static ServerThreading fromEnv() {
+        String handlers = System.getenv().getOrDefault("SERVER_EXECUTOR", "default").trim();
+        return new ServerThreading(
+                Handlers.valueOf(handlers.toUpperCase(Locale.ROOT)),
+                Integer.parseInt(System.getenv().getOrDefault("SERVER_HANDLER_THREADS", "0").trim()),
+                Integer.parseInt(System.getenv().getOrDefault("SERVER_EVENT_LOOP_THREADS", "0").trim()),
+                Integer.parseInt(System.getenv().getOrDefault("SERVER_MAX_CALLS_PER_CONNECTION", "0").trim()),
+                Integer.parseInt(System.getenv().getOrDefault("SERVER_FLOW_CONTROL_WINDOW_KB", "0").trim()) << 10);
+    }
+
+    /**
+     * Build and start a server for {@code service} on {@code port}. Threads created here are released
+     * once the server has terminated.
+     */
+    public Server start(int port, ServerServiceDefinition service) throws IOException {
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port).addService(service);
+        ExecutorService executor = switch (handlers) {
+            case DEFAULT -> null;
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("grpc-handler-", 0).factory());
+            case BOUNDED -> Executors.newFixedThreadPool(
+                    handlerThreads > 0 ? handlerThreads : Runtime.getRuntime().availableProcessors(),
+                    daemonThreads("grpc-handler-"));
+        };
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        EventLoopGroup boss = null;
+        EventLoopGroup workers = null;
+        if (eventLoopThreads > 0) {
+            boss = new NioEventLoopGroup(1, new DefaultThreadFactory("grpc-boss", true));
+            workers = new NioEventLoopGroup(eventLoopThreads, new DefaultThreadFactory("grpc-event-loop", true));
+            builder.bossEventLoopGroup(boss)
+                    .workerEventLoopGroup(workers)
+                    .channelType(NioServerSocketChannel.class);
+        }
+        if (maxConcurrentCallsPerConnection > 0) {
+            builder.maxConcurrentCallsPerConnection(maxConcurrentCallsPerConnection);
+        }
+        if (flowControlWindowBytes > 0) {
+            builder.flowControlWindow(flowControlWindowBytes);
+        }
+        Server server = builder.build().start();
+        if (!equals(DEFAULT)) {
+            logger.info("gRPC threading on port " + port + ": " + this);
+        }
+        if (executor != null || boss != null) {
+            EventLoopGroup bossGroup = boss;
+            EventLoopGroup workerGroup = workers;
+            // gRPC never shuts down threads it was given; wait for termination without holding a platform thread
+            Thread.ofVirtual().name("grpc-threads-release").start(() -> {
+                try {
+                    server.awaitTermination();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (executor != null) {
+                    executor.shutdown();
+                }
+                if (bossGroup != null) {
+                    bossGroup.shutdownGracefully();
+                    workerGroup.shutdownGracefully();
+                }
+            });
+        }
+        return server;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
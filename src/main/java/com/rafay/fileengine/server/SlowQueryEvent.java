@@ -0,0 +1,78 @@
+// src/main/java/com/rafay/fileengine/server/SlowQueryEvent.java
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.BooleanQuery;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.List;
+
+/**
+ * Flight Recorder event for a search that took longer than the threshold (100 ms unless the recording's
+ * settings say otherwise, e.g. {@code -XX:StartFlightRecording:com.rafay.fileengine.SlowQuery#threshold=20ms}).
+ * <p>
+ * Use it as {@code begin()} ... {@code end()}, then fill in the fields and commit only if {@link #shouldCommit()}:
+ * with no recording running, or for a fast query, that is all it costs, and the query is never rendered.
+ */
+@Name("com.rafay.fileengine.SlowQuery")
+@Label("Slow Query")
+@Category("File Engine")
+@Description("A search that exceeded the threshold")
+@StackTrace(false)
+@Threshold("100 ms")
+final class SlowQueryEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Client Id")
+    String clientId;
+
+    @Label("Query")
+    String query;
+
+    @Label("Limit")
+    int limit;
+
+    @Label("Page Size")
+    int pageSize;
+
+    @Label("Results")
+    int results;
+
+    // The query in infix form, e.g. "(a OR b*) AND NOT c"
+    static String describe(BooleanQuery query) {
+        StringBuilder text = new StringBuilder();
+        describe(text, query);
+        return text.toString();
+    }
+
+    private static void describe(StringBuilder text, BooleanQuery query) {
+        switch (query) {
+            case BooleanQuery.Term leaf -> text.append(leaf.term());
+            case BooleanQuery.And and -> describeClauses(text, " AND ", and.clauses());
+            case BooleanQuery.Or or -> describeClauses(text, " OR ", or.clauses());
+            case BooleanQuery.Not not -> {
+                text.append("NOT ");
+                describe(text, not.clause());
+            }
+            case BooleanQuery.Prefix prefix -> text.append(prefix.prefix()).append('*');
+            case BooleanQuery.Wildcard wildcard -> text.append(wildcard.pattern());
+        }
+    }
+
+    private static void describeClauses(StringBuilder text, String operator, List<BooleanQuery> clauses) {
+        text.append('(');
+        for (int i = 0; i < clauses.size(); i++) {
+            if (i > 0) {
+                text.append(operator);
+            }
+            describe(text, clauses.get(i));
+        }
+        text.append(')');
+    }
+}
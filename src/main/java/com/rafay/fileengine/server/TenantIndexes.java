@@ -0,0 +1,271 @@
+// src/main/java/com/rafay/fileengine/server/TenantIndexes.java
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.IndexStore;
+import com.rafay.fileengine.index.InvertedIndex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The partitions a server's index is split into, one per tenant, and which of them a request may use.
+ * <ul>
+ *   <li>{@link Mode#SHARED} (the default): one index for everyone, as the server was constructed with.</li>
+ *   <li>{@link Mode#CLIENT}: every client id writes to and searches an {@link InvertedIndex} of its own,
+ *       created on its first write, so a search's cost depends on the caller's documents only, and
+ *       BM25 statistics are per tenant. The index the server was constructed with becomes the shared
+ *       partition: read-only to clients, who search it by setting {@code shared} on a SearchRequest,
+ *       and filled by bulk loading (SEGMENT_DIR).</li>
+ * </ul>
+ * A tenant whose partition holds {@code quotaBytes} of data or more has its writes refused until merges
+ * reclaim deleted documents or it removes some; the check runs before each write, so a batch can take it
+ * past the quota once. At most {@code maxTenants} partitions are created, since registering is open to anyone.
+ * An empty client id names no tenant: the shared partition's tenant is "", so it could otherwise write there.
+ * <p>
+ * When persistent, each tenant's partition is an {@link IndexStore} in a directory of its own, named from the
+ * hex of the tenant id, and all of them are recovered on open. Each store has its own write-ahead log thread;
+ * their checkpoints share one.
+ */
+public final class TenantIndexes implements Closeable {
+    private static final Logger logger = Logger.getLogger(TenantIndexes.class.getName());
+    private static final String TENANT_DIR_PREFIX = "t-";
+    private static final int DEFAULT_MAX_TENANTS = 256;
+
+    public enum Mode { SHARED, CLIENT }
+
+    /**
+     * One tenant's index.
+     * @param tenant The owning client id; empty for the shared partition.
+     * @param quotaBytes Data size at which writes are refused; 0 = no quota.
+     */
+    public record Partition(String tenant, InvertedIndex index, long quotaBytes) {
+        public boolean overQuota() {
+            return quotaBytes > 0 && index.dataBytes() >= quotaBytes;
+        }
+    }
+
+    private final Partition shared;
+    private final Mode mode;
+    private final long quotaBytes;
+    private final int maxTenants;
+    private final IndexStorage storage;
+    // Null when tenants are kept in memory only
+    private final Path dir;
+    private final Duration checkpointInterval;
+    private final ScheduledExecutorService checkpointer;
+    private final ConcurrentHashMap<String, Partition> tenants = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IndexStore> stores = new ConcurrentHashMap<>();
+
+    // Everyone shares one index
+    public TenantIndexes(InvertedIndex shared) {
+        this(Mode.SHARED, shared, shared.storage(), 0, 0, null, null);
+    }
+
+    /**
+     * Partition by client id, in memory only.
+     * @param storage Where tenants' indexes keep their segments.
+     * @param quotaBytes Per-tenant data cap; 0 = none.
+     * @param maxTenants Most tenant partitions to create.
+     */
+    public TenantIndexes(InvertedIndex shared, IndexStorage storage, long quotaBytes, int maxTenants) {
+        this(Mode.CLIENT, shared, storage, quotaBytes, maxTenants, null, null);
+    }
+
+    private TenantIndexes(Mode mode, InvertedIndex shared, IndexStorage storage, long quotaBytes, int maxTenants,
+                          Path dir, Duration checkpointInterval) {
+        this.mode = mode;
+        this.shared = new Partition("", shared, 0);
+        this.storage = storage;
+        this.quotaBytes = quotaBytes;
+        this.maxTenants = maxTenants;
+        this.dir = dir;
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointer = dir == null ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tenant-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Partition by client id, persisting each tenant under {@code dir}, and recover the tenants stored there.
+     * @param checkpointInterval How often each tenant's index is snapshotted when it has changed.
+     */
+    public static TenantIndexes open(InvertedIndex shared, Path dir, Duration checkpointInterval, IndexStorage storage,
+                                     long quotaBytes, int maxTenants) throws IOException {
+        Files.createDirectories(dir);
+        TenantIndexes indexes = new TenantIndexes(Mode.CLIENT, shared, storage, quotaBytes, maxTenants, dir, checkpointInterval);
+        List<Path> tenantDirs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().startsWith(TENANT_DIR_PREFIX) && Files.isDirectory(file))
+                    .sorted().forEach(tenantDirs::add);
+        }
+        for (Path tenantDir : tenantDirs) {
+            String name = tenantDir.getFileName().toString().substring(TENANT_DIR_PREFIX.length());
+            String tenant;
+            try {
+                tenant = new String(HexFormat.of().parseHex(name), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                logger.warning("Skipping " + tenantDir + ": not a tenant directory");
+                continue;
+            }
+            indexes.tenants.put(tenant, indexes.openTenant(tenant));
+        }
+        if (!tenantDirs.isEmpty()) {
+            logger.info("Recovered " + indexes.tenants.size() + " tenant partitions from " + dir);
+        }
+        return indexes;
+    }
+
+    /**
+     * Configure from the environment: TENANT_PARTITIONS ({@code off}, the default, or {@code client}),
+     * TENANT_QUOTA_MB (0, the default, for no quota) and TENANT_MAX (default 256). With DATA_DIR set,
+     * tenants are persisted under its {@code tenants} subdirectory and checkpointed every CHECKPOINT_INTERVAL_SECONDS.
+     */
+    static TenantIndexes fromEnv(InvertedIndex shared) throws IOException {
+        String mode = System.getenv().getOrDefault("TENANT_PARTITIONS", "off").trim().toLowerCase(Locale.ROOT);
+        switch (mode) {
+            case "off" -> {
+                return new TenantIndexes(shared);
+            }
+            case "client" -> {
+            }
+            default -> throw new IllegalArgumentException("TENANT_PARTITIONS must be off or client, got " + mode);
+        }
+        long quotaBytes = Long.parseLong(System.getenv().getOrDefault("TENANT_QUOTA_MB", "0").trim()) << 20;
+        int maxTenants = Integer.parseInt(System.getenv().getOrDefault("TENANT_MAX", String.valueOf(DEFAULT_MAX_TENANTS)).trim());
+        String dataDir = System.getenv("DATA_DIR");
+        if (dataDir == null || dataDir.isBlank()) {
+            return new TenantIndexes(shared, FileServer.indexStorage(), quotaBytes, maxTenants);
+        }
+        long checkpointSeconds = Long.parseLong(System.getenv().getOrDefault("CHECKPOINT_INTERVAL_SECONDS", "300").trim());
+        TenantIndexes indexes = open(shared, Paths.get(dataDir.trim()).resolve("tenants"),
+                Duration.ofSeconds(checkpointSeconds), FileServer.indexStorage(), quotaBytes, maxTenants);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                indexes.close();
+            } catch (IOException e) {
+                logger.severe("Failed to close tenant indexes: " + e.getMessage());
+            }
+        }));
+        return indexes;
+    }
+
+    /**
+     * The partition a client's writes go to, created if this is its first.
+     * @throws IllegalArgumentException if partitioning by client and {@code clientId} is empty.
+     * @throws IllegalStateException if the tenant limit has been reached.
+     * @throws UncheckedIOException if the tenant's store could not be created.
+     */
+    public Partition forWrite(String clientId) {
+        if (mode == Mode.SHARED) {
+            return shared;
+        }
+        requireTenant(clientId);
+        Partition partition = tenants.get(clientId);
+        if (partition != null) {
+            return partition;
+        }
+        return tenants.computeIfAbsent(clientId, tenant -> {
+            if (tenants.size() >= maxTenants) {
+                throw new IllegalStateException("Tenant limit reached (" + maxTenants + ")");
+            }
+            try {
+                return openTenant(tenant);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * The partition a client's searches run against, without creating one.
+     * @param sharedPartition Whether the request asked for the shared partition.
+     * @return The partition, or null if the client has not written anything yet.
+     * @throws IllegalArgumentException if partitioning by client, {@code clientId} is empty and the shared partition wasn't asked for.
+     */
+    public Partition forSearch(String clientId, boolean sharedPartition) {
+        if (mode == Mode.SHARED || sharedPartition) {
+            return shared;
+        }
+        requireTenant(clientId);
+        return tenants.get(clientId);
+    }
+
+    // The partition a client's statistics describe; the shared one until it has one of its own
+    public Partition forStats(String clientId) {
+        Partition partition = clientId.isEmpty() ? null : forSearch(clientId, false);
+        return partition != null ? partition : shared;
+    }
+
+    public Partition shared() {
+        return shared;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public int tenantCount() {
+        return tenants.size();
+    }
+
+    public Collection<Partition> tenants() {
+        return tenants.values();
+    }
+
+    /**
+     * Close the tenants' stores, each writing a final snapshot. The shared index is left to its owner.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (IndexStore store : stores.values()) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        stores.clear();
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void requireTenant(String clientId) {
+        if (clientId.isEmpty()) {
+            throw new IllegalArgumentException("client_id is required to use a tenant partition");
+        }
+    }
+
+    private Partition openTenant(String tenant) throws IOException {
+        if (dir == null) {
+            return new Partition(tenant, new InvertedIndex(storage), quotaBytes);
+        }
+        Path tenantDir = dir.resolve(TENANT_DIR_PREFIX + HexFormat.of().formatHex(tenant.getBytes(StandardCharsets.UTF_8)));
+        IndexStore store = IndexStore.open(tenantDir, checkpointInterval, storage, checkpointer);
+        stores.put(tenant, store);
+        return new Partition(tenant, store.index(), quotaBytes);
+    }
+}
@@ -1,110 +1,482 @@
 // src/main/java/com/rafay/fileengine/server/ZeroMQFileServer.java
 package com.rafay.fileengine.server;
 
-import com.rafay.fileengine.common.MessageUtils;
+import com.rafay.fileengine.auth.ClientManager;
+import com.rafay.fileengine.common.TermDictionary;
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.index.BooleanQuery;
+import com.rafay.fileengine.index.IndexStore;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
 import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+/**
+ * ZeroMQ front-end: a ROUTER socket for clients, load-balanced onto a pool of worker threads.
+ * <p>
+ * The broker thread owns both ROUTER sockets (clients on tcp, workers on inproc) and only hands a
+ * request to a worker that has said it is idle, so a slow search occupies one worker while the
+ * others keep serving. Workers share the concurrent {@link InvertedIndex}. The client's envelope
+ * (identity, plus the empty delimiter if it used REQ) is carried through untouched, so replies
+ * route back to whichever socket type the client used. Frames are decoded by {@link ZmqCodec},
+ * which accepts both the binary and the JSON format. A binary request's {@code request_id} is
+ * echoed on its reply, so pipelining clients can match replies, which may come back out of order.
+ * <p>
+ * Searches go through a {@link QueryCache}, which can be a FileServer's, so both front-ends share entries.
+ * <p>
+ * Each message type is timed in {@link ServerMetrics}, from the frame reaching a worker to the reply
+ * being encoded; a binary {@code stats_request} returns the counters.
+ * <p>
+ * Requests pass {@link AdmissionControl} once decoded: the client's token bucket, the query cost limit
+ * and the search and index concurrency limits. The broker stamps each request with the time it handed
+ * it on, and a request that waited longer than the queueing budget for a worker is answered with an
+ * error instead of being run, since its client has most likely given up on it.
+ * <p>
+ * Given a {@link ClientManager}, e.g. that of a {@link FileServer} in the same JVM, requests must carry the
+ * {@code api_key} or {@code session_token} of their {@code client_id}, checked as on gRPC; ZeroMQ has no
+ * registration message, so clients register over gRPC. Without one the {@code client_id} is taken on trust,
+ * as it always has been here, which is why partitioning {@link TenantIndexes} by client needs one: requests
+ * go to the partition of the id they carry.
+ */
 @SuppressWarnings("deprecation") // Suppresses warnings for ZMQ class usage
 public class ZeroMQFileServer {
     private static final Logger logger = Logger.getLogger(ZeroMQFileServer.class.getName());
+    private static final String WORKERS_ENDPOINT = "inproc://zmq-workers";
+    private static final byte[] READY = "READY".getBytes(ZMQ.CHARSET);
+    // How often blocked threads wake up to check for shutdown
+    private static final int POLL_INTERVAL_MS = 100;
+
     private final ZMQ.Context context = ZMQ.context(1); // Use ZMQ.context()
-    private ZMQ.Socket dealerSocket;
-    private Thread serverThread;
+    private final int workerThreads;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    // Term -> postings index partitions, by client id
+    private final TenantIndexes tenants;
+    private final ServerMetrics metrics;
+    // Checks each request's credentials; null to trust the client_id
+    private final ClientManager clientManager;
+    private final QueryCache queryCache;
+    private AdmissionControl admission = new AdmissionControl(AdmissionControl.Limits.NONE);
+    // Per request payload type; frames that fail to decode or carry a reply count under "zmq/invalid"
+    private final Map<FileEngineProto.ZmqMessage.PayloadCase, ServerMetrics.Operation> operations =
+            new EnumMap<>(FileEngineProto.ZmqMessage.PayloadCase.class);
+    private final ServerMetrics.Operation invalid;
+
+    public ZeroMQFileServer() {
+        this(new InvertedIndex());
+    }
+
+    // Share an index with another front-end (e.g. a FileServer in the same JVM)
+    public ZeroMQFileServer(InvertedIndex index) {
+        this(index, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ZeroMQFileServer(InvertedIndex index, int workerThreads) {
+        this(index, workerThreads, new ServerMetrics());
+    }
+
+    // Report into shared metrics, e.g. those of a FileServer on the same index
+    public ZeroMQFileServer(InvertedIndex index, int workerThreads, ServerMetrics metrics) {
+        this(new TenantIndexes(index), workerThreads, metrics);
+    }
+
+    // Serve a shared index without authentication
+    public ZeroMQFileServer(TenantIndexes tenants, int workerThreads, ServerMetrics metrics) {
+        this(tenants, workerThreads, metrics, null);
+    }
 
-    // Global index: document path -> word -> frequency
-    private final ConcurrentHashMap<String, Map<String, Integer>> globalIndex = new ConcurrentHashMap<>();
+    /**
+     * Serve the same partitions as a FileServer in the same JVM.
+     * @param clientManager Checks each request's credentials, e.g. {@link FileServer#clientManager()}; null to
+     *                      take the {@code client_id} on trust, which partitions by client don't allow.
+     */
+    public ZeroMQFileServer(TenantIndexes tenants, int workerThreads, ServerMetrics metrics, ClientManager clientManager) {
+        this(tenants, workerThreads, metrics, clientManager,
+                new QueryCache(tenants.shared().index(), FileServer.DEFAULT_QUERY_CACHE_BYTES));
+    }
+
+    /**
+     * @param queryCache Cache of search replies over {@code tenants}, e.g. {@link FileServer#queryCache()} to
+     *                   share entries and the memory cap with a FileServer on the same partitions.
+     */
+    public ZeroMQFileServer(TenantIndexes tenants, int workerThreads, ServerMetrics metrics, ClientManager clientManager,
+                            QueryCache queryCache) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be at least 1");
+        }
+        if (clientManager == null && tenants.mode() == TenantIndexes.Mode.CLIENT) {
+            throw new IllegalArgumentException("Partitions by client need a ClientManager to authenticate the client_id");
+        }
+        this.clientManager = clientManager;
+        this.queryCache = queryCache;
+        this.tenants = tenants;
+        this.workerThreads = workerThreads;
+        this.metrics = metrics;
+        for (FileEngineProto.ZmqMessage.PayloadCase payload : List.of(FileEngineProto.ZmqMessage.PayloadCase.INDEX_REQUEST,
+                FileEngineProto.ZmqMessage.PayloadCase.SEARCH_REQUEST, FileEngineProto.ZmqMessage.PayloadCase.STATS_REQUEST)) {
+            operations.put(payload, metrics.operation("zmq/" + payload.name().toLowerCase()));
+        }
+        this.invalid = metrics.operation("zmq/invalid");
+    }
+
+    public ServerMetrics metrics() {
+        return metrics;
+    }
 
     public void start(int port) {
-        serverThread = new Thread(() -> {
-            dealerSocket = context.socket(ZMQ.DEALER); // Use context.socket()
-            dealerSocket.bind("tcp://*:" + port);
-            logger.info("ZeroMQ Server started on port " + port);
-
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    // Receive message from a client (includes client ID)
-                    byte[] identity = dealerSocket.recv(0); // Client identity
-                    dealerSocket.recv(0); // Empty delimiter (discarded)
-                    String message = dealerSocket.recvStr(0); // Actual message
-
-                    logger.info("Received message from client");
-
-                    String messageType = MessageUtils.getMessageType(message);
-
-                    if ("INDEX".equals(messageType)) {
-                        handleIndexRequest(identity, message);
-                    } else if ("SEARCH".equals(messageType)) {
-                        handleSearchRequest(identity, message);
-                    }
-                } catch (Exception e) {
-                    if (!Thread.currentThread().isInterrupted()) {
-                        logger.severe("Error in server loop: " + e.getMessage());
+        start(port, new AdmissionControl(AdmissionControl.Limits.NONE));
+    }
+
+    /**
+     * @param admission Rate, query size and concurrency limits, e.g. shared with a FileServer on the same index.
+     */
+    public void start(int port, AdmissionControl admission) {
+        this.admission = admission;
+        running = true;
+        // The broker binds the inproc endpoint, so it must be up before workers connect
+        ZMQ.Socket frontend = context.socket(ZMQ.ROUTER);
+        frontend.setLinger(0);
+        frontend.bind("tcp://*:" + port);
+        ZMQ.Socket backend = context.socket(ZMQ.ROUTER);
+        backend.setLinger(0);
+        backend.bind(WORKERS_ENDPOINT);
+
+        Thread broker = new Thread(() -> runBroker(frontend, backend), "zmq-broker");
+        threads.add(broker);
+        broker.start();
+        for (int i = 0; i < workerThreads; i++) {
+            Thread worker = new Thread(this::runWorker, "zmq-worker-" + i);
+            threads.add(worker);
+            worker.start();
+        }
+        logger.info("ZeroMQ Server started on port " + port + " with " + workerThreads + " workers");
+    }
+
+    // Load-balancing broker: forward client requests only to workers that reported idle
+    private void runBroker(ZMQ.Socket frontend, ZMQ.Socket backend) {
+        Deque<byte[]> idleWorkers = new ArrayDeque<>();
+        ZMQ.Poller backendOnly = context.poller(1);
+        backendOnly.register(backend, ZMQ.Poller.POLLIN);
+        ZMQ.Poller both = context.poller(2);
+        both.register(backend, ZMQ.Poller.POLLIN);
+        both.register(frontend, ZMQ.Poller.POLLIN);
+
+        while (running) {
+            try {
+                // Stop reading clients while every worker is busy; requests queue in the ROUTER instead
+                ZMQ.Poller poller = idleWorkers.isEmpty() ? backendOnly : both;
+                if (poller.poll(POLL_INTERVAL_MS) <= 0) {
+                    continue;
+                }
+                if (poller.pollin(0)) {
+                    // [worker id][READY] or [worker id][client envelope...][reply]
+                    idleWorkers.add(backend.recv(0));
+                    List<byte[]> rest = receiveRest(backend);
+                    if (!(rest.size() == 1 && Arrays.equals(rest.get(0), READY))) {
+                        sendFrames(frontend, null, rest);
                     }
                 }
+                if (poller == both && poller.pollin(1) && !idleWorkers.isEmpty()) {
+                    // [client id][optional empty delimiter][request] -> prefix the chosen worker's id and the time
+                    List<byte[]> request = new ArrayList<>();
+                    request.add(ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime()).array());
+                    request.add(frontend.recv(0));
+                    request.addAll(receiveRest(frontend));
+                    sendFrames(backend, idleWorkers.poll(), request);
+                }
+            } catch (ZMQException e) {
+                if (running) {
+                    logger.severe("Error in broker loop: " + e.getMessage());
+                }
             }
-
-            dealerSocket.close();
-            context.term(); // Use context.term() to terminate
-        });
-        serverThread.start();
+        }
+        backendOnly.close();
+        both.close();
+        frontend.close();
+        backend.close();
     }
 
-    private void handleIndexRequest(byte[] identity, String message) {
-        String clientId = MessageUtils.getClientId(message);
-        String filePath = MessageUtils.getFilePath(message);
-        Map<String, Integer> wordFreqs = MessageUtils.getWordFrequencies(message);
+    private void runWorker() {
+        ZMQ.Socket worker = context.socket(ZMQ.DEALER);
+        worker.setLinger(0);
+        worker.setReceiveTimeOut(POLL_INTERVAL_MS);
+        worker.connect(WORKERS_ENDPOINT);
+        worker.send(READY, 0);
 
-        globalIndex.put(filePath, wordFreqs);
-        logger.info("Indexed: " + filePath + " from client " + clientId);
+        while (running) {
+            try {
+                byte[] stamp = worker.recv(0);
+                if (stamp == null) {
+                    continue; // Timed out; re-check running
+                }
+                // After the broker's time stamp, everything but the last frame is the client's envelope,
+                // echoed back with the reply
+                List<byte[]> frames = receiveRest(worker);
+                byte[] body = frames.remove(frames.size() - 1);
 
-        String reply = MessageUtils.createIndexReply("SUCCESS", "Document indexed successfully");
+                frames.add(handleFrame(body, ByteBuffer.wrap(stamp).getLong()));
+                // Always reply: the reply is also how the broker learns this worker is idle again
+                sendFrames(worker, null, frames);
+            } catch (ZMQException e) {
+                if (running) {
+                    logger.severe("Error in worker loop: " + e.getMessage());
+                }
+            }
+        }
+        worker.close();
+    }
 
-        dealerSocket.send(identity, ZMQ.SNDMORE);
-        dealerSocket.send(new byte[0], ZMQ.SNDMORE); // Send empty delimiter
-        dealerSocket.send(reply, 0);
+    // Decode once, dispatch on the typed message, and reply in the format the client used
+    private byte[] handleFrame(byte[] frame, long queuedNanos) {
+        // Decoding is timed too, though which operation it counts for is only known afterwards
+        long start = System.nanoTime();
+        ZmqCodec.Format format = ZmqCodec.formatOf(frame);
+        FileEngineProto.ZmqMessage request = null;
+        try {
+            request = ZmqCodec.decode(frame);
+        } catch (RuntimeException e) {
+            logger.warning("Rejected malformed message: " + e.getMessage());
+        }
+        ServerMetrics.Operation operation = request != null ? operations.getOrDefault(request.getPayloadCase(), invalid) : invalid;
+        operation.start();
+        FileEngineProto.ZmqMessage reply;
+        try {
+            reply = request == null ? errorReply("Malformed message") : admitAndHandle(request, queuedNanos);
+        } catch (RuntimeException e) {
+            logger.warning("Rejected malformed message: " + e.getMessage());
+            reply = errorReply("Malformed message");
+        }
+        if (request != null && request.getRequestId() != 0) {
+            reply = reply.toBuilder().setRequestId(request.getRequestId()).build();
+        }
+        byte[] encoded = ZmqCodec.encode(reply, format);
+        operation.end(start, reply.getPayloadCase() != FileEngineProto.ZmqMessage.PayloadCase.ERROR);
+        return encoded;
     }
 
-    private void handleSearchRequest(byte[] identity, String message) {
-        String[] queryTerms = MessageUtils.getQueryTerms(message);
+    // Apply admission control, then run the request holding a search or index slot
+    private FileEngineProto.ZmqMessage admitAndHandle(FileEngineProto.ZmqMessage request, long queuedNanos) {
+        long budgetLeft = TimeUnit.MILLISECONDS.toNanos(admission.limits().maxQueueMillis()) - (System.nanoTime() - queuedNanos);
+        if (budgetLeft < 0) {
+            admission.deadlineExceeded();
+            return errorReply("Server busy, request expired in queue");
+        }
+        AdmissionControl.Work work;
+        String clientId;
+        switch (request.getPayloadCase()) {
+            case INDEX_REQUEST -> {
+                FileEngineProto.IndexRequest index = request.getIndexRequest();
+                work = AdmissionControl.Work.INDEX;
+                clientId = index.getClientId();
+                if (!authenticate(clientId, index.getApiKey(), index.getSessionToken())) {
+                    return errorReply("Invalid API Key");
+                }
+            }
+            case SEARCH_REQUEST -> {
+                FileEngineProto.SearchRequest search = request.getSearchRequest();
+                work = AdmissionControl.Work.SEARCH;
+                clientId = search.getClientId();
+                if (!authenticate(clientId, search.getApiKey(), search.getSessionToken())) {
+                    return errorReply("Invalid API Key");
+                }
+            }
+            case STATS_REQUEST -> {
+                FileEngineProto.StatsRequest stats = request.getStatsRequest();
+                if (!authenticate(stats.getClientId(), stats.getApiKey(), stats.getSessionToken())) {
+                    return errorReply("Invalid API Key");
+                }
+                return handleStatsRequest(stats);
+            }
+            default -> {
+                return errorReply("Unexpected message: " + request.getPayloadCase());
+            }
+        }
+        if (!admission.admitClient(clientId)) {
+            return errorReply("Rate limit exceeded");
+        }
+        if (work == AdmissionControl.Work.SEARCH && !admission.admitQuery(request.getSearchRequest())) {
+            return errorReply("Query exceeds the cost limit of " + admission.limits().maxQueryCost());
+        }
+        AdmissionControl.Permit permit;
+        try {
+            permit = admission.acquire(work, budgetLeft);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permit = null;
+        }
+        if (permit == null) {
+            return errorReply("Server busy, try again later");
+        }
+        try {
+            return work == AdmissionControl.Work.INDEX
+                    ? handleIndexRequest(request.getIndexRequest())
+                    : handleSearchRequest(request.getSearchRequest());
+        } finally {
+            permit.release();
+        }
+    }
 
-        ConcurrentHashMap<String, Integer> results = new ConcurrentHashMap<>();
-        for (Map.Entry<String, Map<String, Integer>> docEntry : globalIndex.entrySet()) {
-            int totalFreq = 0;
-            for (String term : queryTerms) {
-                totalFreq += docEntry.getValue().getOrDefault(term.toLowerCase(), 0);
+    private FileEngineProto.ZmqMessage handleIndexRequest(FileEngineProto.IndexRequest request) {
+        String filePath = request.getFilePath();
+        FileEngineProto.IndexReply.Builder reply = FileEngineProto.IndexReply.newBuilder();
+        Map<String, Integer> wordFreqs;
+        try {
+            // Frames are handled by whichever worker is free, so there is no ordered stream to share a dictionary over
+            wordFreqs = TermDictionary.decode(request);
+        } catch (IllegalArgumentException e) {
+            reply.setStatus("ERROR").setMessage("Malformed term encoding: " + e.getMessage());
+            return FileEngineProto.ZmqMessage.newBuilder().setIndexReply(reply).build();
+        }
+        try {
+            TenantIndexes.Partition partition = tenants.forWrite(request.getClientId());
+            if (partition.overQuota()) {
+                reply.setStatus("ERROR").setMessage("Tenant quota exceeded: " + partition.index().dataBytes() + " of "
+                        + partition.quotaBytes() + " bytes used");
+                return FileEngineProto.ZmqMessage.newBuilder().setIndexReply(reply).build();
             }
-            if (totalFreq > 0) {
-                results.put(docEntry.getKey(), totalFreq);
+            partition.index().indexDocument(filePath, wordFreqs, request.getContentHash());
+            if (ServerMetrics.sampleLog()) {
+                logger.info("Indexed: " + filePath + " from client " + request.getClientId() + " (1 in " + ServerMetrics.LOG_SAMPLE_RATE + " logged)");
             }
+            reply.setStatus("SUCCESS").setMessage("Document indexed successfully");
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            reply.setStatus("ERROR").setMessage(e.getMessage());
+        } catch (UncheckedIOException e) {
+            logger.severe("Failed to persist " + filePath + ": " + e.getMessage());
+            reply.setStatus("ERROR").setMessage("Failed to persist document");
         }
+        return FileEngineProto.ZmqMessage.newBuilder().setIndexReply(reply).build();
+    }
+
+    private FileEngineProto.ZmqMessage handleSearchRequest(FileEngineProto.SearchRequest request) {
+        FileEngineProto.SearchReply.Builder reply = FileEngineProto.SearchReply.newBuilder();
+        SlowQueryEvent event = new SlowQueryEvent();
+        event.begin();
+        TenantIndexes.Partition partition;
+        try {
+            partition = tenants.forSearch(request.getClientId(), request.getShared());
+        } catch (IllegalArgumentException e) {
+            return errorReply(e.getMessage());
+        }
+        BooleanQuery query;
+        try {
+            query = SearchQueries.of(request);
+        } catch (IllegalArgumentException e) {
+            // Malformed query tree
+            return errorReply("Invalid query: " + e.getMessage());
+        }
+        if (partition == null) {
+            // A tenant with no partition yet has no documents to match
+            return FileEngineProto.ZmqMessage.newBuilder().setSearchReply(reply).build();
+        }
+        InvertedIndex index = partition.index();
+        FileEngineProto.SearchReply cached = queryCache.get(partition.tenant(), index, query, request.getLimit(),
+                () -> FileServer.search(index, query, request.getLimit()));
+        if (!cached.getErrorMessage().isEmpty()) {
+            // e.g. a prefix or wildcard expanding past the cap
+            return errorReply(cached.getErrorMessage());
+        }
+        reply.mergeFrom(cached);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "zmq/search_request";
+            event.clientId = request.getClientId();
+            event.query = SlowQueryEvent.describe(query);
+            event.limit = request.getLimit();
+            event.results = reply.getResultsCount();
+            event.commit();
+        }
+        return FileEngineProto.ZmqMessage.newBuilder().setSearchReply(reply).build();
+    }
+
+    // Whether a request may act for clientId; always, when there is no ClientManager to ask
+    private boolean authenticate(String clientId, String apiKey, String sessionToken) {
+        if (clientManager == null || clientManager.authenticate(clientId, apiKey, sessionToken)) {
+            return true;
+        }
+        // LOG FOR BRUTE-FORCE DETECTION (Rule 100100 & 100101)
+        System.out.println("authentication failed: invalid api key for client " + clientId + " over ZeroMQ");
+        return false;
+    }
+
+    private FileEngineProto.ZmqMessage handleStatsRequest(FileEngineProto.StatsRequest request) {
+        return FileEngineProto.ZmqMessage.newBuilder()
+                .setStatsReply(metrics.toStats()
+                        .setIndex(ServerMetrics.indexStats(tenants.forStats(request.getClientId())))
+                        .setQueryCache(ServerMetrics.queryCacheStats(queryCache))
+                        .setAdmission(admission.toStats())
+                        .setTenants(tenants.tenantCount()))
+                .build();
+    }
 
-        String reply = MessageUtils.createSearchReply(results);
+    private static FileEngineProto.ZmqMessage errorReply(String message) {
+        return FileEngineProto.ZmqMessage.newBuilder().setError(message).build();
+    }
 
-        dealerSocket.send(identity, ZMQ.SNDMORE);
-        dealerSocket.send(new byte[0], ZMQ.SNDMORE); // Send empty delimiter
-        dealerSocket.send(reply, 0);
+    // Read the remaining frames of a multipart message
+    private static List<byte[]> receiveRest(ZMQ.Socket socket) {
+        List<byte[]> frames = new ArrayList<>();
+        while (socket.hasReceiveMore()) {
+            frames.add(socket.recv(0));
+        }
+        return frames;
+    }
+
+    // Send an optional routing frame followed by the given frames as one multipart message
+    private static void sendFrames(ZMQ.Socket socket, byte[] route, List<byte[]> frames) {
+        if (route != null) {
+            socket.send(route, ZMQ.SNDMORE);
+        }
+        for (int i = 0; i < frames.size(); i++) {
+            socket.send(frames.get(i), i < frames.size() - 1 ? ZMQ.SNDMORE : 0);
+        }
     }
 
     public void stop() {
-        if (serverThread != null) {
-            serverThread.interrupt();
+        running = false;
+        for (Thread thread : threads) {
             try {
-                serverThread.join();
+                thread.join();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
         }
-        context.term(); // Terminate the context
+        threads.clear();
+        context.term(); // Terminate the context once every socket is closed
     }
 
-    public static void main(String[] args) {
-        ZeroMQFileServer server = new ZeroMQFileServer();
+    public static void main(String[] args) throws IOException {
+        // With DATA_DIR set, the index is recovered from and persisted to that directory
+        IndexStore store = FileServer.openStore();
+        InvertedIndex index = store != null ? store.index() : new InvertedIndex(FileServer.indexStorage());
+        FileServer.watchSegmentDir(index, store);
+        int workers = Integer.parseInt(System.getenv().getOrDefault("ZMQ_WORKERS",
+                String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        TenantIndexes tenants = TenantIndexes.fromEnv(index);
+        if (tenants.mode() == TenantIndexes.Mode.CLIENT) {
+            // Standalone, there is no gRPC front-end to register clients with, so nothing to check their ids against
+            System.err.println("TENANT_PARTITIONS=client needs authenticated clients; run ZeroMQ alongside a FileServer sharing its ClientManager");
+            System.exit(1);
+        }
+        long queryCacheBytes = Long.parseLong(System.getenv().getOrDefault("QUERY_CACHE_MB", "64").trim()) << 20;
+        ZeroMQFileServer server = new ZeroMQFileServer(tenants, workers, new ServerMetrics(), null,
+                new QueryCache(index, queryCacheBytes));
         int port = 9090;
-        server.start(port);
+        server.start(port, new AdmissionControl(AdmissionControl.Limits.fromEnv()));
         System.out.println("ZeroMQ File Server started on port " + port);
 
         // Keep server running
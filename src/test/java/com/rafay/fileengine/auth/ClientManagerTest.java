@@ -0,0 +1,87 @@
+package com.rafay.fileengine.auth;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientManagerTest {
+
+    @Test
+    public void apiKeyAndSessionAuthenticateOnlyTheirOwnClient() {
+        ClientManager clients = new ClientManager();
+        String key = clients.registerClient("alice");
+        assertTrue(clients.validateApiKey("alice", key));
+        assertFalse(clients.validateApiKey("bob", key));
+        assertFalse(clients.validateApiKey("alice", key.substring(1) + "A"));
+        assertFalse(clients.validateApiKey("alice", null));
+
+        ClientManager.SessionToken session = clients.openSession("alice", key);
+        assertNotNull(session);
+        assertTrue(clients.validateSession("alice", session.token()));
+        assertFalse(clients.validateSession("bob", session.token()));
+        assertFalse(clients.validateSession("alice", session.token() + "x"));
+        assertFalse(clients.validateSession("alice", "no-dot"));
+        assertNull(clients.openSession("alice", "wrong"));
+
+        assertTrue(clients.authenticate("alice", "", session.token()));
+        assertTrue(clients.authenticate("alice", key, ""));
+        // A token that is present is checked on its own, whatever key comes with it
+        assertFalse(clients.authenticate("alice", key, "bogus.token"));
+    }
+
+    @Test
+    public void sessionsExpireAfterTheirTtl() throws InterruptedException {
+        ClientManager clients = new ClientManager(Duration.ofMillis(50));
+        String key = clients.registerClient("alice");
+        ClientManager.SessionToken session = clients.openSession("alice", key);
+        assertTrue(clients.validateSession("alice", session.token()));
+        Thread.sleep(120);
+        assertFalse(clients.validateSession("alice", session.token()));
+        // The key outlives its sessions and opens new ones
+        assertTrue(clients.validateSession("alice", clients.openSession("alice", key).token()));
+    }
+
+    @Test
+    public void registeringAnExistingIdNeedsItsCurrentKey() {
+        ClientManager clients = new ClientManager();
+        String key = clients.registerClient("victim");
+        ClientManager.SessionToken session = clients.openSession("victim", key);
+
+        assertNull(clients.registerClient("victim"));
+        assertNull(clients.registerClient("victim", "guess"));
+        assertNull(clients.registerClient("victim", ""));
+        // A refused attempt leaves the owner's credentials alone
+        assertTrue(clients.validateApiKey("victim", key));
+        assertTrue(clients.validateSession("victim", session.token()));
+    }
+
+    @Test
+    public void reRegisteringWithTheKeyRevokesTheOldKeyAndItsSessions() {
+        ClientManager clients = new ClientManager();
+        String oldKey = clients.registerClient("alice");
+        ClientManager.SessionToken oldSession = clients.openSession("alice", oldKey);
+
+        String newKey = clients.registerClient("alice", oldKey);
+        assertNotNull(newKey);
+        assertNotEquals(oldKey, newKey);
+        assertFalse(clients.validateApiKey("alice", oldKey));
+        assertFalse(clients.validateSession("alice", oldSession.token()));
+        assertNull(clients.openSession("alice", oldKey));
+        assertTrue(clients.validateApiKey("alice", newKey));
+        // The old key can't be used to take the id back either
+        assertNull(clients.registerClient("alice", oldKey));
+    }
+
+    @Test
+    public void rejectsNonPositiveSessionTtl() {
+        assertThrows(IllegalArgumentException.class, () -> new ClientManager(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> new ClientManager(Duration.ofSeconds(-1)));
+    }
+}
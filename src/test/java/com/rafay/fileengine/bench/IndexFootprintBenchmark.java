@@ -0,0 +1,95 @@
+// src/test/java/com/rafay/fileengine/bench/IndexFootprintBenchmark.java
+package com.rafay.fileengine.bench;
+
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the heap used per indexed term occurrence (one term in one document) on a synthetic
+ * Zipf-distributed corpus, against a naive {@code path -> Map<String, Integer>} store as the baseline.
+ * <p>
+ * Run with a fixed heap so GC noise stays small:
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.rafay.fileengine.bench.IndexFootprintBenchmark -Dexec.args="50000 150"
+ * </pre>
+ * Arguments: number of documents (default 50000), distinct terms per document (default 150) and the
+ * index storage, {@code heap} (default) or {@code off-heap}; off-heap, the direct memory used is reported too.
+ */
+public final class IndexFootprintBenchmark {
+    private static final int VOCABULARY = 200_000;
+
+    private IndexFootprintBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int termsPerDocument = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+        IndexStorage storage = IndexStorage.valueOf((args.length > 2 ? args[2] : "heap").toUpperCase().replace('-', '_'));
+        ZipfCorpus corpus = new ZipfCorpus(VOCABULARY, 1.0);
+
+        long occurrences = 0;
+        long baseline = usedHeap();
+        Map<String, Map<String, Integer>> naive = new HashMap<>();
+        Random random = new Random(42);
+        for (int d = 0; d < documents; d++) {
+            Map<String, Integer> doc = corpus.document(random, termsPerDocument);
+            occurrences += doc.size();
+            naive.put(ZipfCorpus.path(d), doc);
+        }
+        long naiveBytes = usedHeap() - baseline;
+        naive = null;
+
+        baseline = usedHeap();
+        long directBaseline = usedDirect();
+        InvertedIndex index = new InvertedIndex(storage);
+        random = new Random(42);
+        int batch = 1000;
+        for (int start = 0; start < documents; start += batch) {
+            Map<String, Map<String, Integer>> docs = new LinkedHashMap<>();
+            for (int d = start; d < Math.min(documents, start + batch); d++) {
+                docs.put(ZipfCorpus.path(d), corpus.document(random, termsPerDocument));
+            }
+            index.indexDocuments(docs);
+        }
+        long indexBytes = usedHeap() - baseline;
+        long directBytes = usedDirect() - directBaseline;
+
+        System.out.printf("documents=%d terms=%d occurrences=%d%n", index.documentCount(), index.termCount(), occurrences);
+        System.out.printf("naive map store: %,d bytes (%.1f bytes/occurrence)%n", naiveBytes, (double) naiveBytes / occurrences);
+        System.out.printf("inverted index:  %,d bytes (%.1f bytes/occurrence)%n", indexBytes, (double) indexBytes / occurrences);
+        if (storage == IndexStorage.OFF_HEAP) {
+            System.out.printf("  off heap:      %,d bytes (%.1f bytes/occurrence)%n", directBytes, (double) directBytes / occurrences);
+        }
+        System.out.printf("reduction: %.1fx%n", (double) naiveBytes / (indexBytes + directBytes));
+        // Keep the index reachable until after the measurement
+        if (index.documentCount() != documents) {
+            throw new IllegalStateException("Indexed " + index.documentCount() + " of " + documents + " documents");
+        }
+    }
+
+    private static long usedDirect() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
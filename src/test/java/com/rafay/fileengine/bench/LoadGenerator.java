@@ -0,0 +1,438 @@
+// src/test/java/com/rafay/fileengine/bench/LoadGenerator.java
+package com.rafay.fileengine.bench;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.rafay.fileengine.client.AsyncFileClient;
+import com.rafay.fileengine.client.AsyncZeroMQFileClient;
+import com.rafay.fileengine.client.FileClient;
+import com.rafay.fileengine.client.ZeroMQFileClient;
+import com.rafay.fileengine.common.LatencyHistogram;
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.server.FileServer;
+import com.rafay.fileengine.server.ZeroMQFileServer;
+import io.grpc.StatusRuntimeException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load generator for a server on this machine, driving the real {@link FileClient} or
+ * {@link ZeroMQFileClient} over loopback with a mix of searches and index requests, and printing
+ * throughput and latency percentiles per operation as JSON.
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.rafay.fileengine.bench.LoadGenerator \
+ *     -Dexec.args="--transport=grpc --embedded --rate=2000 --duration=30"
+ * </pre>
+ * Options, as {@code --name=value}:
+ * <ul>
+ *   <li>{@code transport}: {@code grpc} (default), {@code grpc-async}, {@code zmq}, {@code zmq-async} or
+ *       {@code zmq-json}. The async transports send through one {@link AsyncFileClient} or
+ *       {@link AsyncZeroMQFileClient} from virtual threads, so concurrency can run to thousands, and with
+ *       a target rate a thread does not wait for replies at all.</li>
+ *   <li>{@code port}: the server's port on localhost; default 8080 for gRPC, 9090 for ZeroMQ.</li>
+ *   <li>{@code embedded}: start the server in this JVM, on a free port, with an index in
+ *       {@code storage} ({@code heap} or {@code off-heap}) and a {@code query-cache-mb} result cache;
+ *       handy for A/B runs of server modes.</li>
+ *   <li>{@code connections} (default 4): clients, each with its own channel or socket; for {@code grpc-async},
+ *       the client's channels. Async clients have at most {@code max-in-flight} (default 10000) requests
+ *       outstanding.</li>
+ *   <li>{@code concurrency} (default 4): threads issuing requests; thread i uses connection i mod connections.
+ *       A ZeroMQ socket serves one request at a time, so threads sharing one take turns.</li>
+ *   <li>{@code rate}: target requests per second across all threads, or 0 (default) for closed loop,
+ *       where each thread sends its next request as soon as the previous one returns.</li>
+ *   <li>{@code duration} (default 30) and {@code warmup} (default 5): seconds measured, and run before that.</li>
+ *   <li>{@code search-ratio} (default 0.9): fraction of requests that are searches; the rest re-index a document.</li>
+ *   <li>{@code documents} (default 10000) and {@code terms-per-document} (default 150): the Zipfian corpus
+ *       indexed before the run.</li>
+ *   <li>{@code query-terms} (default 2), {@code query-zipf} (default 1.0) and {@code limit} (default 10, 0 for
+ *       unranked): each search ORs that many terms, whose ranks follow a Zipf distribution with that exponent.</li>
+ *   <li>{@code seed} (default 42) and {@code output} (a file for the JSON instead of stdout).</li>
+ * </ul>
+ * With a target rate, requests are scheduled at fixed intervals whether or not earlier ones have
+ * returned (open loop), and latency is measured from when a request was due rather than when it
+ * went out. A stalled server therefore shows up in the percentiles as the queue it would have built
+ * up, instead of being hidden by the generator slowing down (coordinated omission). The time from
+ * actually sending to the reply is reported separately as {@code service_time_us}.
+ */
+public final class LoadGenerator {
+    private static final int VOCABULARY = 200_000;
+
+    private final Map<String, String> options;
+    private final String transport;
+    private final int connections;
+    private final int concurrency;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final double searchRatio;
+    private final int documents;
+    private final int termsPerDocument;
+    private final int queryTerms;
+    private final int limit;
+    private final long seed;
+    private final ZipfCorpus corpus = new ZipfCorpus(VOCABULARY, 1.0);
+    private final ZipfCorpus queries;
+    private final Operation search = new Operation();
+    private final Operation index = new Operation();
+
+    private FileServer grpcServer;
+    private ZeroMQFileServer zmqServer;
+    private final List<FileClient> grpcClients = new ArrayList<>();
+    private final List<ZeroMQFileClient> zmqClients = new ArrayList<>();
+    private AsyncFileClient asyncClient;
+    private AsyncZeroMQFileClient asyncZmqClient;
+
+    // Outcomes of one kind of request during the measured part of the run
+    private static final class Operation {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.transport = option("transport", "grpc");
+        if (!List.of("grpc", "grpc-async", "zmq", "zmq-async", "zmq-json").contains(transport)) {
+            throw new IllegalArgumentException("transport must be grpc, grpc-async, zmq, zmq-async or zmq-json, got " + transport);
+        }
+        this.connections = Integer.parseInt(option("connections", "4"));
+        this.concurrency = Integer.parseInt(option("concurrency", "4"));
+        this.rate = Double.parseDouble(option("rate", "0"));
+        this.durationNanos = (long) (Double.parseDouble(option("duration", "30")) * 1e9);
+        this.warmupNanos = (long) (Double.parseDouble(option("warmup", "5")) * 1e9);
+        this.searchRatio = Double.parseDouble(option("search-ratio", "0.9"));
+        this.documents = Integer.parseInt(option("documents", "10000"));
+        this.termsPerDocument = Integer.parseInt(option("terms-per-document", "150"));
+        this.queryTerms = Integer.parseInt(option("query-terms", "2"));
+        this.limit = Integer.parseInt(option("limit", "10"));
+        this.seed = Long.parseLong(option("seed", "42"));
+        this.queries = new ZipfCorpus(VOCABULARY, Double.parseDouble(option("query-zipf", "1.0")));
+        if (connections < 1 || concurrency < 1 || documents < 1) {
+            throw new IllegalArgumentException("connections, concurrency and documents must be at least 1");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        // Clients and servers print as they connect; keep stdout for the report
+        PrintStream out = System.out;
+        System.setOut(System.err);
+        LoadGenerator generator = new LoadGenerator(options);
+        String report;
+        try {
+            generator.start();
+            generator.preload();
+            report = generator.run();
+        } finally {
+            generator.stop();
+            System.setOut(out);
+        }
+        String output = options.get("output");
+        if (output != null) {
+            Files.writeString(Path.of(output), report);
+        } else {
+            out.println(report);
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    // Start the embedded server if asked for, and connect the clients
+    private void start() throws IOException {
+        boolean grpc = transport.startsWith("grpc");
+        int port = Integer.parseInt(option("port", grpc ? "8080" : "9090"));
+        if (options.containsKey("embedded")) {
+            port = freePort();
+            IndexStorage storage = IndexStorage.valueOf(option("storage", "heap").toUpperCase(Locale.ROOT).replace('-', '_'));
+            InvertedIndex embedded = new InvertedIndex(storage);
+            if (grpc) {
+                grpcServer = new FileServer(embedded, Long.parseLong(option("query-cache-mb", "64")) << 20);
+                grpcServer.start(port);
+            } else {
+                zmqServer = new ZeroMQFileServer(embedded);
+                zmqServer.start(port);
+            }
+        }
+        // Ids are claimed by whoever registers them first, so each run against a long-lived server takes fresh ones
+        String run = Long.toHexString(System.nanoTime());
+        if (transport.equals("grpc-async")) {
+            asyncClient = new AsyncFileClient("localhost", port, connections,
+                    Integer.parseInt(option("max-in-flight", "10000")));
+            asyncClient.registerWithServer("load-async-" + run);
+            return;
+        }
+        if (transport.equals("zmq-async")) {
+            asyncZmqClient = new AsyncZeroMQFileClient("load-async", Integer.parseInt(option("max-in-flight", "10000")), 30_000);
+            asyncZmqClient.connect("localhost", port);
+            return;
+        }
+        for (int c = 0; c < connections; c++) {
+            if (grpc) {
+                FileClient client = new FileClient("localhost", port);
+                client.registerWithServer("load-" + run + "-" + c);
+                grpcClients.add(client);
+            } else {
+                ZeroMQFileClient client = new ZeroMQFileClient("load-" + c,
+                        transport.equals("zmq-json") ? ZmqCodec.Format.JSON : ZmqCodec.Format.BINARY);
+                client.connect("localhost", port);
+                zmqClients.add(client);
+            }
+        }
+    }
+
+    // Index the corpus through the clients, in parallel, so searches have something to find
+    private void preload() throws InterruptedException {
+        Thread[] threads = new Thread[concurrency];
+        for (int t = 0; t < concurrency; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed + thread);
+                for (int d = thread; d < documents; d += concurrency) {
+                    index(thread % connections, ZipfCorpus.path(d), corpus.document(random, termsPerDocument))
+                            .exceptionally(e -> false).join();
+                }
+            }, "load-preload-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private String run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        Thread[] threads = new Thread[concurrency];
+        for (int t = 0; t < concurrency; t++) {
+            int thread = t;
+            Runnable driver = () -> drive(thread, start, measureFrom, end);
+            threads[t] = isAsync()
+                    ? Thread.ofVirtual().name("load-" + t).start(driver)
+                    : Thread.ofPlatform().name("load-" + t).start(driver);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Open loop on an async transport: let the last requests sent come back
+        while ((asyncClient != null && asyncClient.inFlight() > 0) || (asyncZmqClient != null && asyncZmqClient.inFlight() > 0)) {
+            Thread.sleep(1);
+        }
+        return report((System.nanoTime() - measureFrom) / 1e9);
+    }
+
+    private void drive(int thread, long start, long measureFrom, long end) {
+        Random random = new Random(seed * 31 + thread);
+        // Open loop: this thread's share of the rate, at fixed intervals staggered across threads
+        long interval = rate > 0 ? (long) (1e9 * concurrency / rate) : 0;
+        long due = start + (interval * thread) / concurrency;
+        int connection = thread % connections;
+        while (true) {
+            if (interval > 0) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long sent = System.nanoTime();
+            if (sent >= end) {
+                return;
+            }
+            boolean isSearch = random.nextDouble() < searchRatio;
+            CompletableFuture<Boolean> reply = isSearch
+                    ? search(connection, random)
+                    : index(connection, ZipfCorpus.path(random.nextInt(documents)), corpus.document(random, termsPerDocument));
+            // Closed loop: the request was due when it was sent
+            long intended = interval > 0 ? due : sent;
+            Operation operation = isSearch ? search : index;
+            reply.whenComplete((ok, e) -> {
+                long done = System.nanoTime();
+                if (intended >= measureFrom) {
+                    operation.latency.record(done - intended);
+                    operation.serviceTime.record(done - sent);
+                    if (ok == null || !ok) {
+                        operation.errors.increment();
+                    }
+                }
+            });
+            if (interval == 0) {
+                reply.exceptionally(e -> false).join();
+            }
+            due += interval;
+        }
+    }
+
+    // Completed before returning, except on the async transports
+    private CompletableFuture<Boolean> search(int connection, Random random) {
+        FileEngineProto.SearchRequest.Builder request = FileEngineProto.SearchRequest.newBuilder().setLimit(limit);
+        for (int i = 0; i < queryTerms; i++) {
+            request.addQueryTerms(ZipfCorpus.term(queries.sampleRank(random)));
+        }
+        if (asyncClient != null) {
+            return sendAsync(() -> asyncClient.search(request).thenApply(reply -> reply.getErrorMessage().isEmpty()));
+        }
+        if (asyncZmqClient != null) {
+            return sendAsync(() -> asyncZmqClient.search(request).thenApply(reply -> reply.getErrorMessage().isEmpty()));
+        }
+        try {
+            FileEngineProto.SearchReply reply;
+            if (transport.equals("grpc")) {
+                reply = grpcClients.get(connection).search(request);
+            } else {
+                ZeroMQFileClient client = zmqClients.get(connection);
+                synchronized (client) {
+                    reply = client.search(request);
+                }
+            }
+            return CompletableFuture.completedFuture(reply.getErrorMessage().isEmpty());
+        } catch (StatusRuntimeException e) {
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    private CompletableFuture<Boolean> index(int connection, String path, Map<String, Integer> words) {
+        FileEngineProto.IndexRequest.Builder request = FileEngineProto.IndexRequest.newBuilder()
+                .setFilePath(path)
+                .putAllWordFrequencies(words);
+        if (asyncClient != null) {
+            return sendAsync(() -> asyncClient.index(request).thenApply(reply -> "SUCCESS".equals(reply.getStatus())));
+        }
+        if (asyncZmqClient != null) {
+            return sendAsync(() -> asyncZmqClient.index(request).thenApply(reply -> "SUCCESS".equals(reply.getStatus())));
+        }
+        try {
+            FileEngineProto.IndexReply reply;
+            if (transport.equals("grpc")) {
+                reply = grpcClients.get(connection).index(request);
+            } else {
+                ZeroMQFileClient client = zmqClients.get(connection);
+                synchronized (client) {
+                    reply = client.index(request);
+                }
+            }
+            return CompletableFuture.completedFuture("SUCCESS".equals(reply.getStatus()));
+        } catch (StatusRuntimeException e) {
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    private boolean isAsync() {
+        return asyncClient != null || asyncZmqClient != null;
+    }
+
+    private interface AsyncCall {
+        CompletableFuture<Boolean> send() throws InterruptedException;
+    }
+
+    private static CompletableFuture<Boolean> sendAsync(AsyncCall call) {
+        try {
+            return call.send();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    private String report(double seconds) {
+        JsonObject config = new JsonObject();
+        config.addProperty("transport", transport);
+        config.addProperty("embedded", options.containsKey("embedded"));
+        if (options.containsKey("embedded")) {
+            config.addProperty("storage", option("storage", "heap"));
+        }
+        config.addProperty("connections", connections);
+        config.addProperty("concurrency", concurrency);
+        config.addProperty("target_rate", rate);
+        config.addProperty("search_ratio", searchRatio);
+        config.addProperty("documents", documents);
+        config.addProperty("terms_per_document", termsPerDocument);
+        config.addProperty("query_terms", queryTerms);
+        config.addProperty("query_zipf", Double.parseDouble(option("query-zipf", "1.0")));
+        config.addProperty("limit", limit);
+        config.addProperty("seed", seed);
+
+        JsonObject report = new JsonObject();
+        report.add("config", config);
+        report.addProperty("duration_s", seconds);
+        JsonObject operations = new JsonObject();
+        operations.add("search", toJson(search, seconds));
+        operations.add("index", toJson(index, seconds));
+        report.add("operations", operations);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(report);
+    }
+
+    private static JsonObject toJson(Operation operation, double seconds) {
+        LatencyHistogram.Snapshot latency = operation.latency.snapshot();
+        JsonObject json = new JsonObject();
+        json.addProperty("count", latency.count());
+        json.addProperty("errors", operation.errors.sum());
+        json.addProperty("throughput_per_s", latency.count() / seconds);
+        json.add("latency_us", percentiles(latency));
+        json.add("service_time_us", percentiles(operation.serviceTime.snapshot()));
+        return json;
+    }
+
+    private static JsonObject percentiles(LatencyHistogram.Snapshot snapshot) {
+        JsonObject json = new JsonObject();
+        json.addProperty("mean", snapshot.mean() / 1000);
+        json.addProperty("p50", snapshot.percentile(50) / 1000.0);
+        json.addProperty("p90", snapshot.percentile(90) / 1000.0);
+        json.addProperty("p99", snapshot.percentile(99) / 1000.0);
+        json.addProperty("p999", snapshot.percentile(99.9) / 1000.0);
+        json.addProperty("max", snapshot.max() / 1000.0);
+        return json;
+    }
+
+    private void stop() throws InterruptedException {
+        if (asyncClient != null) {
+            asyncClient.shutdown();
+        }
+        if (asyncZmqClient != null) {
+            asyncZmqClient.close();
+        }
+        for (FileClient client : grpcClients) {
+            client.shutdown();
+        }
+        for (ZeroMQFileClient client : zmqClients) {
+            client.close();
+        }
+        if (grpcServer != null) {
+            grpcServer.stop();
+        }
+        if (zmqServer != null) {
+            zmqServer.stop();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// src/test/java/com/rafay/fileengine/bench/ZipfCorpus.java
+package com.rafay.fileengine.bench;
+
+import com.rafay.fileengine.index.InvertedIndex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic corpus whose term frequencies follow Zipf's law, as natural language roughly does: the term of
+ * rank r ({@code "term" + r}, rank 0 being the most common) turns up with probability proportional to
+ * {@code 1 / (r + 1)^exponent}. Documents are drawn from a caller-supplied {@link Random}, so a fixed seed
+ * gives the same corpus on every run.
+ */
+public final class ZipfCorpus {
+    private final double[] cdf;
+
+    public ZipfCorpus(int vocabulary, double exponent) {
+        cdf = new double[vocabulary];
+        double sum = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < vocabulary; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    public int vocabulary() {
+        return cdf.length;
+    }
+
+    public static String term(int rank) {
+        return "term" + rank;
+    }
+
+    // A document path spread over 1000 directories
+    public static String path(int document) {
+        return "/corpus/dir" + (document % 1000) + "/file" + document + ".txt";
+    }
+
+    // A term rank drawn from the distribution
+    public int sampleRank(Random random) {
+        int rank = Arrays.binarySearch(cdf, random.nextDouble());
+        return rank >= 0 ? rank : -(rank + 1);
+    }
+
+    /**
+     * Draw terms until the document has {@code distinctTerms} of them; repeated draws raise a term's count.
+     * Terms are fresh String instances, as a parsed request would have.
+     */
+    public Map<String, Integer> document(Random random, int distinctTerms) {
+        Map<String, Integer> doc = new HashMap<>(distinctTerms * 2);
+        while (doc.size() < distinctTerms) {
+            doc.merge(term(sampleRank(random)), 1, Integer::sum);
+        }
+        return doc;
+    }
+
+    /**
+     * Index documents {@code 0 .. documents-1} in batches, then wait for background merges to settle,
+     * so measurements that follow see the segment layout a long-running server would have.
+     */
+    public void fill(InvertedIndex index, int documents, int distinctTerms, Random random) throws InterruptedException {
+        int batch = 1000;
+        for (int start = 0; start < documents; start += batch) {
+            Map<String, Map<String, Integer>> docs = new LinkedHashMap<>();
+            for (int d = start; d < Math.min(documents, start + batch); d++) {
+                docs.put(path(d), document(random, distinctTerms));
+            }
+            index.indexDocuments(docs);
+        }
+        // A merge can schedule the next one, so wait for a few quiet checks in a row
+        for (int quiet = 0; quiet < 3; quiet = index.isMerging() ? 0 : quiet + 1) {
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.rafay.fileengine.client;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+import com.rafay.fileengine.server.ServerThreading;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The pooled async client against a service on localhost that holds searches until told to answer
+public class AsyncFileClientTest {
+    private final CountDownLatch answer = new CountDownLatch(1);
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger mostRunning = new AtomicInteger();
+    private final Set<SocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private Server server;
+    private int port;
+
+    @BeforeEach
+    public void start() throws IOException {
+        // Notes which connection each call came in on
+        ServerInterceptor remotes = new ServerInterceptor() {
+            @Override
+            public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers,
+                                                             ServerCallHandler<Q, R> next) {
+                connections.add(call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR));
+                return next.startCall(call, headers);
+            }
+        };
+        port = freePort();
+        server = new ServerThreading(ServerThreading.Handlers.VIRTUAL, 0, 0, 0, 0)
+                .start(port, ServerInterceptors.intercept(new HeldSearches(), remotes));
+    }
+
+    @AfterEach
+    public void stop() throws InterruptedException {
+        answer.countDown();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void inFlightCallsAreCapped() throws Exception {
+        try (AsyncFileClient client = connect(3, 4)) {
+            List<CompletableFuture<FileEngineProto.SearchReply>> replies = new ArrayList<>();
+            Thread sender = Thread.ofVirtual().start(() -> {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        replies.add(client.search(FileEngineProto.SearchRequest.newBuilder().addQueryTerms("t" + i)));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waitFor(() -> running.get() == 4);
+            Thread.sleep(200);
+            assertEquals(4, running.get());
+            assertEquals(4, client.inFlight());
+            assertTrue(sender.isAlive());
+
+            answer.countDown();
+            sender.join(5_000);
+            assertFalse(sender.isAlive());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("/t" + i, replies.get(i).get(5, TimeUnit.SECONDS).getResults(0).getDocumentPath());
+            }
+            assertEquals(4, mostRunning.get());
+            assertEquals(0, client.inFlight());
+        }
+    }
+
+    @Test
+    public void callsAreSpreadOverEveryChannel() throws Exception {
+        answer.countDown();
+        try (AsyncFileClient client = connect(3, 100)) {
+            connections.clear();
+            for (int i = 0; i < 6; i++) {
+                client.search(FileEngineProto.SearchRequest.newBuilder().addQueryTerms("t")).get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(3, connections.size());
+        }
+    }
+
+    @Test
+    public void failedCallsFreeTheirSlot() throws Exception {
+        try (AsyncFileClient client = connect(1, 1)) {
+            for (int i = 0; i < 3; i++) {
+                CompletableFuture<FileEngineProto.IndexReply> reply =
+                        client.index(FileEngineProto.IndexRequest.newBuilder().setFilePath("/a.txt"));
+                StatusRuntimeException e = assertInstanceOf(StatusRuntimeException.class,
+                        assertThrows(ExecutionException.class, () -> reply.get(5, TimeUnit.SECONDS)).getCause());
+                assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+            }
+            assertEquals(0, client.inFlight());
+        }
+    }
+
+    @Test
+    public void closeKeepsTheInterruptFlag() {
+        AsyncFileClient client = connect(2, 10);
+        Thread.currentThread().interrupt();
+        client.close();
+        assertTrue(Thread.interrupted());
+    }
+
+    private AsyncFileClient connect(int channels, int maxInFlight) {
+        AsyncFileClient client = new AsyncFileClient("localhost", port, channels, maxInFlight);
+        client.registerWithServer("async");
+        return client;
+    }
+
+    // Registers anyone, answers searches once the test says so, and fails every index call
+    private class HeldSearches extends IndexServiceGrpc.IndexServiceImplBase {
+        @Override
+        public void registerClient(FileEngineProto.RegisterRequest request,
+                                   StreamObserver<FileEngineProto.RegisterReply> responseObserver) {
+            responseObserver.onNext(FileEngineProto.RegisterReply.newBuilder()
+                    .setStatus("SUCCESS")
+                    .setApiKey("key")
+                    .setSessionToken("token")
+                    .setSessionExpiresMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+                    .build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void computeSearch(FileEngineProto.SearchRequest request,
+                                  StreamObserver<FileEngineProto.SearchReply> responseObserver) {
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                answer.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            responseObserver.onNext(FileEngineProto.SearchReply.newBuilder()
+                    .addResults(FileEngineProto.SearchResult.newBuilder().setDocumentPath("/" + request.getQueryTerms(0)))
+                    .build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void computeIndex(FileEngineProto.IndexRequest request,
+                                 StreamObserver<FileEngineProto.IndexReply> responseObserver) {
+            responseObserver.onError(Status.UNAVAILABLE.withDescription("index is read-only").asRuntimeException());
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
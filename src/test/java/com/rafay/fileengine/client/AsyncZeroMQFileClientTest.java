@@ -0,0 +1,184 @@
+package com.rafay.fileengine.client;
+
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.zeromq.ZMQ;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The pipelined client against a ROUTER socket the test answers by hand
+@SuppressWarnings("deprecation")
+public class AsyncZeroMQFileClientTest {
+    private final ZMQ.Context context = ZMQ.context(1);
+    private ZMQ.Socket router;
+    private int port;
+
+    @BeforeEach
+    public void bind() {
+        router = context.socket(ZMQ.ROUTER);
+        router.setLinger(0);
+        router.setReceiveTimeOut(5_000);
+        port = router.bindToRandomPort("tcp://127.0.0.1");
+    }
+
+    @AfterEach
+    public void unbind() {
+        router.close();
+        context.term();
+    }
+
+    @Test
+    public void repliesAreMatchedByRequestId() throws Exception {
+        try (AsyncZeroMQFileClient client = connect(10, 5_000)) {
+            List<CompletableFuture<FileEngineProto.SearchReply>> replies = new ArrayList<>();
+            for (String term : List.of("alpha", "beta", "gamma", "delta")) {
+                replies.add(client.search(FileEngineProto.SearchRequest.newBuilder().addQueryTerms(term)));
+            }
+            List<Request> requests = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                requests.add(receive());
+            }
+            // Answer last to first, each with the term it asked for
+            for (int i = requests.size() - 1; i >= 0; i--) {
+                Request request = requests.get(i);
+                assertEquals("async", new String(request.identity));
+                assertEquals("async", request.message.getSearchRequest().getClientId());
+                reply(request, FileEngineProto.ZmqMessage.newBuilder()
+                        .setSearchReply(FileEngineProto.SearchReply.newBuilder()
+                                .addResults(FileEngineProto.SearchResult.newBuilder()
+                                        .setDocumentPath("/" + request.message.getSearchRequest().getQueryTerms(0)))));
+            }
+            List<String> paths = new ArrayList<>();
+            for (CompletableFuture<FileEngineProto.SearchReply> reply : replies) {
+                paths.add(reply.get(5, TimeUnit.SECONDS).getResults(0).getDocumentPath());
+            }
+            assertEquals(List.of("/alpha", "/beta", "/gamma", "/delta"), paths);
+            assertEquals(0, client.inFlight());
+        }
+    }
+
+    @Test
+    public void errorFramesBecomeErrorReplies() throws Exception {
+        try (AsyncZeroMQFileClient client = connect(10, 5_000)) {
+            CompletableFuture<FileEngineProto.IndexReply> reply =
+                    client.index(FileEngineProto.IndexRequest.newBuilder().setFilePath("/a.txt"));
+            reply(receive(), FileEngineProto.ZmqMessage.newBuilder().setError("Invalid session token"));
+
+            FileEngineProto.IndexReply indexReply = reply.get(5, TimeUnit.SECONDS);
+            assertEquals("ERROR", indexReply.getStatus());
+            assertEquals("Invalid session token", indexReply.getMessage());
+        }
+    }
+
+    @Test
+    public void unansweredRequestsTimeOutAndFreeTheirSlots() throws Exception {
+        try (AsyncZeroMQFileClient client = connect(2, 300)) {
+            CompletableFuture<FileEngineProto.IndexReply> first = index(client, "/1.txt");
+            CompletableFuture<FileEngineProto.IndexReply> second = index(client, "/2.txt");
+            Request late = receive();
+            receive();
+
+            // The window is full, so the third caller waits for a timeout to free a slot
+            CompletableFuture<CompletableFuture<FileEngineProto.IndexReply>> third = sendOnAnotherThread(client, "/3.txt");
+            router.setReceiveTimeOut(100);
+            assertNull(router.recv(0));
+            assertFalse(third.isDone());
+
+            assertInstanceOf(TimeoutException.class, assertThrows(ExecutionException.class,
+                    () -> first.get(5, TimeUnit.SECONDS)).getCause());
+            assertInstanceOf(TimeoutException.class, assertThrows(ExecutionException.class,
+                    () -> second.get(5, TimeUnit.SECONDS)).getCause());
+            router.setReceiveTimeOut(5_000);
+            assertEquals("/3.txt", receive().message.getIndexRequest().getFilePath());
+            assertEquals(1, client.inFlight());
+
+            // A reply after the timeout is dropped rather than completing someone else's request
+            reply(late, FileEngineProto.ZmqMessage.newBuilder()
+                    .setIndexReply(FileEngineProto.IndexReply.newBuilder().setStatus("SUCCESS")));
+            assertInstanceOf(TimeoutException.class, assertThrows(ExecutionException.class,
+                    () -> third.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS)).getCause());
+            assertEquals(0, client.inFlight());
+        }
+    }
+
+    @Test
+    public void closeFailsWaitingRequestsAndCallers() throws Exception {
+        AsyncZeroMQFileClient client = connect(1, 60_000);
+        CompletableFuture<FileEngineProto.IndexReply> sent = index(client, "/1.txt");
+        receive();
+        CompletableFuture<CompletableFuture<FileEngineProto.IndexReply>> waiting = sendOnAnotherThread(client, "/2.txt");
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        client.close();
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class,
+                () -> sent.get(5, TimeUnit.SECONDS)).getCause());
+        // The caller blocked on the window is let through, and its request fails rather than hangs
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class,
+                () -> waiting.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS)).getCause());
+        assertEquals(0, client.inFlight());
+        assertThrows(IllegalStateException.class, () -> index(client, "/3.txt"));
+    }
+
+    @Test
+    public void closeKeepsTheInterruptFlag() {
+        AsyncZeroMQFileClient client = connect(1, 5_000);
+        Thread.currentThread().interrupt();
+        client.close();
+        assertTrue(Thread.interrupted());
+    }
+
+    private AsyncZeroMQFileClient connect(int maxInFlight, long timeoutMillis) {
+        AsyncZeroMQFileClient client = new AsyncZeroMQFileClient("async", maxInFlight, timeoutMillis);
+        client.connect("127.0.0.1", port);
+        return client;
+    }
+
+    private static CompletableFuture<FileEngineProto.IndexReply> index(AsyncZeroMQFileClient client, String path)
+            throws InterruptedException {
+        return client.index(FileEngineProto.IndexRequest.newBuilder().setFilePath(path));
+    }
+
+    // Send from a thread of its own, since the call blocks while the window is full
+    private static CompletableFuture<CompletableFuture<FileEngineProto.IndexReply>> sendOnAnotherThread(
+            AsyncZeroMQFileClient client, String path) {
+        CompletableFuture<CompletableFuture<FileEngineProto.IndexReply>> sent = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                sent.complete(index(client, path));
+            } catch (Throwable t) {
+                sent.completeExceptionally(t);
+            }
+        });
+        return sent;
+    }
+
+    private record Request(byte[] identity, FileEngineProto.ZmqMessage message) {
+    }
+
+    private Request receive() {
+        byte[] identity = router.recv(0);
+        assertTrue(identity != null && router.hasReceiveMore(), "no request arrived");
+        return new Request(identity, ZmqCodec.decode(router.recv(0)));
+    }
+
+    private void reply(Request request, FileEngineProto.ZmqMessage.Builder reply) {
+        router.sendMore(request.identity);
+        router.send(ZmqCodec.encode(reply.setRequestId(request.message.getRequestId()).build(), ZmqCodec.Format.BINARY), 0);
+    }
+}
@@ -0,0 +1,150 @@
+package com.rafay.fileengine.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Tokenization, hashing and the parallel crawl
+public class DirectoryIndexerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void splitsOnAsciiSeparatorsAndLowercasesAscii() throws IOException {
+        Path file = Files.writeString(dir.resolve("a.txt"), "gRPC, ZeroMQ & grpc-Java; x2 caf\u00e9 CAF\u00c9\n\tend");
+        assertEquals(Map.of("grpc", 2, "zeromq", 1, "java", 1, "x2", 1, "caf\u00e9", 1, "caf\u00c9", 1, "end", 1),
+                DirectoryIndexer.countWords(file));
+    }
+
+    @Test
+    public void skipsOverlongWords() throws IOException {
+        String longest = "a".repeat(DirectoryIndexer.MAX_WORD_LENGTH);
+        Path file = Files.writeString(dir.resolve("a.txt"), longest + " " + longest + "b short " + "\u00e9".repeat(40));
+        assertEquals(Map.of(longest, 1, "short", 1), DirectoryIndexer.countWords(file));
+    }
+
+    @Test
+    public void matchesAReferenceTokenizerOnRandomText() throws IOException {
+        Random random = new Random(9);
+        String alphabet = "abcXYZ019 .,;-_\n\u00e9\u00df\u4e2d\ud83d\ude00";
+        for (int i = 0; i < 200; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int c = random.nextInt(2000); c > 0; c--) {
+                int at = random.nextInt(alphabet.length());
+                if (Character.isHighSurrogate(alphabet.charAt(at))) {
+                    text.append(alphabet, at, at + 2);
+                } else if (!Character.isLowSurrogate(alphabet.charAt(at))) {
+                    text.append(alphabet.charAt(at));
+                }
+                if (random.nextInt(300) == 0) {
+                    text.append("q".repeat(random.nextInt(20) + 55));
+                }
+            }
+            Path file = Files.writeString(dir.resolve("random.txt"), text);
+            assertEquals(reference(text.toString()), DirectoryIndexer.countWords(file), text.toString());
+        }
+    }
+
+    @Test
+    public void hashesAndCountsLargeFiles() throws IOException, NoSuchAlgorithmException {
+        // Past the direct-read limit, so the file is mapped
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(10);
+        while (text.length() < 3 << 20) {
+            text.append("word").append(random.nextInt(1000)).append(' ');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(dir.resolve("large.txt"), bytes);
+
+        ScannedFile scanned = DirectoryIndexer.scan(file);
+        assertEquals(bytes.length, scanned.size());
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)), scanned.contentHash());
+        assertEquals(reference(text.toString()), scanned.wordFrequencies());
+    }
+
+    @Test
+    public void crawlYieldsEveryFileNotSkipped() throws IOException {
+        Map<String, Map<String, Integer>> expected = new HashMap<>();
+        for (int i = 0; i < 150; i++) {
+            Path sub = Files.createDirectories(dir.resolve("d" + i % 7));
+            Path file = Files.writeString(sub.resolve(i + ".txt"), "file" + i + " common common");
+            if (i % 10 != 0) {
+                expected.put(file.toString(), Map.of("file" + i, 1, "common", 2));
+            }
+        }
+
+        Map<String, Map<String, Integer>> crawled = new HashMap<>();
+        try (DirectoryIndexer indexer = DirectoryIndexer.crawl(dir, 4, 8,
+                (file, attrs) -> file.getFileName().toString().matches("\\d*0\\.txt"))) {
+            while (indexer.hasNext()) {
+                ScannedFile scanned = indexer.next();
+                crawled.put(scanned.path(), scanned.wordFrequencies());
+            }
+            assertEquals(0, indexer.failedFiles());
+            assertTrue(indexer.complete());
+        }
+        assertEquals(expected, crawled);
+    }
+
+    @Test
+    public void crawlClosedEarlyIsIncomplete() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            Files.writeString(dir.resolve(i + ".txt"), "file" + i);
+        }
+        DirectoryIndexer indexer = DirectoryIndexer.crawl(dir, 1, 2, (file, attrs) -> false);
+        assertTrue(indexer.hasNext());
+        indexer.next();
+        indexer.close();
+        assertFalse(indexer.complete());
+    }
+
+    @Test
+    public void counterGrowsAndClears() {
+        TermCounter counter = new TermCounter();
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50_000; i++) {
+                String word = "w" + random.nextInt(20_000);
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                // Only 1024 distinct hashes, so equal hashes with different bytes are common
+                counter.add(bytes, bytes.length, word.hashCode() & 0x3ff);
+                expected.merge(word, 1, Integer::sum);
+            }
+            assertEquals(expected.size(), counter.size());
+            assertEquals(expected, counter.toMap());
+            counter.clear();
+            expected.clear();
+            assertEquals(0, counter.size());
+        }
+    }
+
+    // Maximal runs of ASCII letters and digits and non-ASCII characters, ASCII lowercased, at most 64 UTF-8 bytes
+    private static Map<String, Integer> reference(String text) {
+        Map<String, Integer> words = new HashMap<>();
+        for (String word : text.split("[\\x00-\\x2f\\x3a-\\x40\\x5b-\\x60\\x7b-\\x7f]+")) {
+            if (!word.isEmpty() && word.getBytes(StandardCharsets.UTF_8).length <= DirectoryIndexer.MAX_WORD_LENGTH) {
+                StringBuilder folded = new StringBuilder();
+                for (char c : word.toCharArray()) {
+                    folded.append(c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+                }
+                words.merge(folded.toString(), 1, Integer::sum);
+            }
+        }
+        return words;
+    }
+}
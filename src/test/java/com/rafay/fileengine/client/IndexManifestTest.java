@@ -0,0 +1,90 @@
+package com.rafay.fileengine.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexManifestTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void savesAndLoads() throws IOException {
+        Path file = dir.resolve("manifest.bin");
+        IndexManifest manifest = IndexManifest.load(file);
+        assertEquals(0, manifest.size());
+
+        manifest.put("/a.txt", new IndexManifest.Entry(10, 1000, "h1", Map.of("alpha", 2, "caf\u00e9", 1)));
+        manifest.put("/b.txt", new IndexManifest.Entry(0, 2000, "", Map.of()));
+        manifest.save();
+        assertFalse(Files.exists(dir.resolve("manifest.bin.tmp")));
+
+        IndexManifest loaded = IndexManifest.load(file);
+        assertEquals(2, loaded.size());
+        assertEquals(manifest.get("/a.txt"), loaded.get("/a.txt"));
+        assertEquals(manifest.get("/b.txt"), loaded.get("/b.txt"));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("manifest.bin");
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> IndexManifest.load(file));
+    }
+
+    @Test
+    public void unchangedOnlyWhenSizeAndTimeMatch() throws IOException {
+        Path doc = Files.writeString(dir.resolve("doc.txt"), "hello world");
+        Files.setLastModifiedTime(doc, FileTime.fromMillis(5000));
+        IndexManifest manifest = IndexManifest.load(dir.resolve("manifest.bin"));
+        assertFalse(manifest.isUnchanged(doc, attributes(doc)));
+
+        manifest.put(doc.toString(), new IndexManifest.Entry(11, 5000, "h1", Map.of("hello", 1, "world", 1)));
+        assertTrue(manifest.isUnchanged(doc, attributes(doc)));
+
+        Files.setLastModifiedTime(doc, FileTime.fromMillis(6000));
+        assertFalse(manifest.isUnchanged(doc, attributes(doc)));
+        Files.writeString(doc, "hello world!");
+        Files.setLastModifiedTime(doc, FileTime.fromMillis(5000));
+        assertFalse(manifest.isUnchanged(doc, attributes(doc)));
+    }
+
+    @Test
+    public void retainAllForgetsFilesNoLongerFound() throws IOException {
+        IndexManifest manifest = IndexManifest.load(dir.resolve("manifest.bin"));
+        manifest.put("/a.txt", new IndexManifest.Entry(1, 1, "h1", Map.of()));
+        manifest.put("/b.txt", new IndexManifest.Entry(1, 1, "h2", Map.of()));
+
+        manifest.retainAll(Set.of("/b.txt", "/c.txt"));
+        assertEquals(1, manifest.size());
+        assertNull(manifest.get("/a.txt"));
+        assertEquals("h2", manifest.get("/b.txt").contentHash());
+    }
+
+    @Test
+    public void deltaHoldsOnlyChangedTerms() {
+        Map<String, Integer> before = Map.of("alpha", 2, "beta", 1, "gamma", 3);
+        Map<String, Integer> after = Map.of("alpha", 2, "beta", 4, "delta", 1);
+
+        assertEquals(Map.of("beta", 3, "gamma", -3, "delta", 1), IndexManifest.delta(before, after));
+        assertTrue(IndexManifest.delta(after, after).isEmpty());
+        assertEquals(after, IndexManifest.delta(Map.of(), after));
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
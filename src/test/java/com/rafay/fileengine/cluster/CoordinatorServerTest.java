@@ -0,0 +1,409 @@
+package com.rafay.fileengine.cluster;
+
+import com.rafay.fileengine.common.TermDictionary;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+import com.rafay.fileengine.server.FileServer;
+import com.rafay.fileengine.server.ServerThreading;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A coordinator in front of three FileServer shards, all on localhost
+public class CoordinatorServerTest {
+    private static final String CLUSTER_KEY = "test-cluster-key";
+
+    private final List<InvertedIndex> shardIndexes = new ArrayList<>();
+    private final List<FileServer> shards = new ArrayList<>();
+    private final List<String> shardAddresses = new ArrayList<>();
+    private final List<Server> fakeShards = new ArrayList<>();
+    private final List<CoordinatorServer> coordinators = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    // Which shard's index each path belongs in, by the coordinator's ring
+    private HashRing<InvertedIndex> ring;
+    private IndexServiceGrpc.IndexServiceBlockingStub blockingStub;
+    private IndexServiceGrpc.IndexServiceStub asyncStub;
+    private String token;
+
+    @BeforeEach
+    public void start() throws IOException {
+        Map<String, InvertedIndex> byAddress = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            InvertedIndex index = new InvertedIndex();
+            FileServer shard = new FileServer(index, 0);
+            shard.setClusterKey(CLUSTER_KEY);
+            int port = freePort();
+            shard.start(port);
+            shardIndexes.add(index);
+            shards.add(shard);
+            shardAddresses.add("localhost:" + port);
+            byAddress.put("localhost:" + port, index);
+        }
+        ring = new HashRing<>(byAddress);
+
+        ManagedChannel channel = connect(startCoordinator(shardAddresses, 2000));
+        blockingStub = IndexServiceGrpc.newBlockingStub(channel);
+        asyncStub = IndexServiceGrpc.newStub(channel);
+        token = blockingStub.registerClient(FileEngineProto.RegisterRequest.newBuilder()
+                .setClientId("alice")
+                .build()).getSessionToken();
+    }
+
+    @AfterEach
+    public void stop() throws InterruptedException {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        for (CoordinatorServer coordinator : coordinators) {
+            coordinator.stop();
+            coordinator.blockUntilShutdown();
+        }
+        for (FileServer shard : shards) {
+            shard.stop();
+            shard.blockUntilShutdown();
+        }
+        for (Server fake : fakeShards) {
+            fake.shutdownNow().awaitTermination();
+        }
+    }
+
+    @Test
+    public void documentsLandOnTheShardTheRingNames() {
+        for (int i = 0; i < 60; i++) {
+            assertEquals("SUCCESS", blockingStub.computeIndex(document("/docs/" + i + ".txt", Map.of("grpc", 1))).getStatus());
+        }
+        for (int i = 0; i < 60; i++) {
+            String path = "/docs/" + i + ".txt";
+            for (InvertedIndex index : shardIndexes) {
+                boolean owner = index == ring.nodeFor(path);
+                assertEquals(owner, index.search(List.of("grpc")).containsKey(path), path);
+            }
+        }
+        for (InvertedIndex index : shardIndexes) {
+            assertTrue(!index.search(List.of("grpc")).isEmpty(), "a shard received nothing");
+        }
+        // Re-indexing a path goes back to the same shard rather than duplicating it
+        blockingStub.computeIndex(document("/docs/0.txt", Map.of("grpc", 7)));
+        assertEquals(60, search(0).getResultsCount());
+    }
+
+    @Test
+    public void searchMergesEveryShardsTopResults() {
+        for (int i = 0; i < 90; i++) {
+            blockingStub.computeIndex(document("/docs/" + i + ".txt", Map.of("grpc", 1 + i % 13, "filler", 1 + i % 5)));
+        }
+        FileEngineProto.SearchReply unranked = search(0);
+        assertEquals(90, unranked.getResultsCount());
+        assertEquals(0, unranked.getFailedShards());
+
+        FileEngineProto.SearchReply merged = search(7);
+        assertEquals(7, merged.getResultsCount());
+        assertEquals(0, merged.getFailedShards());
+        // Best first, and nothing a shard ranked higher was left out
+        List<FileEngineProto.SearchResult> candidates = new ArrayList<>();
+        for (String address : shardAddresses) {
+            candidates.addAll(shardSearch(address, 7).getResultsList());
+        }
+        Set<String> kept = new HashSet<>();
+        for (int i = 0; i < merged.getResultsCount(); i++) {
+            kept.add(merged.getResults(i).getDocumentPath());
+            if (i > 0) {
+                assertTrue(merged.getResults(i - 1).getScore() >= merged.getResults(i).getScore());
+            }
+        }
+        double lowestKept = merged.getResults(6).getScore();
+        for (FileEngineProto.SearchResult candidate : candidates) {
+            if (!kept.contains(candidate.getDocumentPath())) {
+                assertTrue(candidate.getScore() <= lowestKept, candidate.getDocumentPath() + " was dropped");
+            }
+        }
+    }
+
+    @Test
+    public void slowShardIsCountedAsFailed() throws IOException {
+        // A shard that answers searches only after the coordinator's deadline
+        int slowPort = freePort();
+        fakeShards.add(ServerThreading.DEFAULT.start(slowPort, new IndexServiceGrpc.IndexServiceImplBase() {
+            @Override
+            public void computeSearch(FileEngineProto.SearchRequest request, StreamObserver<FileEngineProto.SearchReply> responseObserver) {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                responseObserver.onNext(FileEngineProto.SearchReply.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+        }.bindService()));
+        List<String> addresses = new ArrayList<>(shardAddresses);
+        addresses.add("localhost:" + slowPort);
+        IndexServiceGrpc.IndexServiceBlockingStub coordinator = IndexServiceGrpc.newBlockingStub(connect(startCoordinator(addresses, 500)));
+        String session = coordinator.registerClient(FileEngineProto.RegisterRequest.newBuilder()
+                .setClientId("alice")
+                .build()).getSessionToken();
+        // Written straight to the real shards, under the cluster key, since the slow one would take a share
+        for (String address : shardAddresses) {
+            ShardClient shard = shardClient(address);
+            try {
+                shard.blocking(2000).computeIndex(FileEngineProto.IndexRequest.newBuilder()
+                        .setClientId("alice")
+                        .setFilePath("/" + address + ".txt")
+                        .putWordFrequencies("grpc", 1)
+                        .build());
+            } finally {
+                shutdown(shard);
+            }
+        }
+        FileEngineProto.SearchRequest request = FileEngineProto.SearchRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(session)
+                .addQueryTerms("grpc")
+                .build();
+        // The coordinator's first call to each shard also connects to it, which can take a deadline's worth
+        coordinator.computeSearch(request);
+
+        long start = System.nanoTime();
+        FileEngineProto.SearchReply reply = coordinator.computeSearch(request);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500), "waited for the slow shard");
+        assertEquals(1, reply.getFailedShards());
+        assertEquals(3, reply.getResultsCount());
+    }
+
+    @Test
+    public void indexStreamIsReEncodedForEachShard() throws Exception {
+        TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+        List<FileEngineProto.IndexRequest> requests = new ArrayList<>();
+        Map<String, Map<String, Integer>> expected = new HashMap<>();
+        for (int i = 0; i < 600; i++) {
+            // A small vocabulary, so most documents only carry ids the client assigned earlier in the stream
+            Map<String, Integer> counts = new HashMap<>();
+            counts.merge("term" + i % 40, 1 + i % 3, Integer::sum);
+            counts.merge("term" + (i * 7) % 40, 2, Integer::sum);
+            counts.put("common", 1);
+            requests.add(encoder.encode(document("/stream/" + i + ".txt", counts).toBuilder()).build());
+            expected.put("/stream/" + i + ".txt", counts);
+        }
+        requests.add(200, encoder.encode(document("", Map.of("orphan", 1)).toBuilder()).build());
+
+        FileEngineProto.IndexStreamReply reply = indexStream(requests);
+        assertEquals("PARTIAL", reply.getStatus());
+        assertEquals(600, reply.getIndexedCount());
+        assertEquals(1, reply.getFailedCount());
+        assertEquals("Missing file_path", reply.getFailures(0).getMessage());
+
+        // Every document reached its own shard with its counts intact
+        for (Map.Entry<String, Map<String, Integer>> document : expected.entrySet()) {
+            InvertedIndex owner = ring.nodeFor(document.getKey());
+            for (Map.Entry<String, Integer> term : document.getValue().entrySet()) {
+                assertEquals(term.getValue(), owner.search(List.of(term.getKey())).get(document.getKey()),
+                        document.getKey() + " " + term.getKey());
+            }
+        }
+        int total = 0;
+        for (InvertedIndex index : shardIndexes) {
+            total += index.search(List.of("common")).size();
+        }
+        assertEquals(600, total);
+    }
+
+    @Test
+    public void indexStreamRejectsBadCredentials() throws Exception {
+        FileEngineProto.IndexStreamReply reply = indexStream(List.of(FileEngineProto.IndexRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken("forged.token")
+                .setFilePath("/a.txt")
+                .putWordFrequencies("grpc", 1)
+                .build()));
+        assertEquals("ERROR", reply.getStatus());
+        assertEquals("Invalid API Key", reply.getMessage());
+    }
+
+    @Test
+    public void searchStreamRelaysEveryShard() throws Exception {
+        for (int i = 0; i < 1500; i++) {
+            blockingStub.computeIndex(document("/docs/" + i + ".txt", Map.of("common", 1 + i % 9)));
+        }
+
+        List<FileEngineProto.SearchReply> chunks = searchStream(0);
+        Set<String> seen = new HashSet<>();
+        int failedShards = 0;
+        for (FileEngineProto.SearchReply chunk : chunks) {
+            assertTrue(chunk.getErrorMessage().isEmpty(), chunk.getErrorMessage());
+            failedShards += chunk.getFailedShards();
+            for (FileEngineProto.SearchResult result : chunk.getResultsList()) {
+                assertTrue(seen.add(result.getDocumentPath()), "sent twice: " + result.getDocumentPath());
+            }
+        }
+        assertEquals(1500, seen.size());
+        assertEquals(0, failedShards);
+        assertTrue(chunks.size() >= 3, "one chunk per shard at least");
+
+        // Ranked: merged across shards first, then streamed best first
+        List<FileEngineProto.SearchResult> ranked = new ArrayList<>();
+        for (FileEngineProto.SearchReply chunk : searchStream(1200)) {
+            ranked.addAll(chunk.getResultsList());
+        }
+        assertEquals(1200, ranked.size());
+        for (int i = 1; i < ranked.size(); i++) {
+            assertTrue(ranked.get(i - 1).getScore() >= ranked.get(i).getScore());
+        }
+    }
+
+    @Test
+    public void shardsRefuseCallsWithoutTheClusterKey() {
+        String address = shardAddresses.get(0);
+        int colon = address.lastIndexOf(':');
+        ManagedChannel direct = ManagedChannelBuilder.forAddress("localhost", Integer.parseInt(address.substring(colon + 1)))
+                .usePlaintext()
+                .build();
+        channels.add(direct);
+        IndexServiceGrpc.IndexServiceBlockingStub noKey = IndexServiceGrpc.newBlockingStub(direct);
+
+        // Without a key, a shard serves no one: it won't register clients or take their credentials
+        assertEquals("ERROR", noKey.registerClient(FileEngineProto.RegisterRequest.newBuilder()
+                .setClientId("alice")
+                .build()).getStatus());
+        assertEquals("Invalid API Key", noKey.computeSearch(FileEngineProto.SearchRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .addQueryTerms("grpc")
+                .build()).getErrorMessage());
+
+        // A wrong key doesn't reach the service at all
+        ShardClient wrongKey = new ShardClient("localhost", Integer.parseInt(address.substring(colon + 1)), "not-the-key");
+        try {
+            StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> wrongKey.blocking(2000)
+                    .computeSearch(FileEngineProto.SearchRequest.newBuilder().setClientId("alice").addQueryTerms("grpc").build()));
+            assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+        } finally {
+            shutdown(wrongKey);
+        }
+
+        // The right one does
+        assertTrue(shardSearch(address, 0).getErrorMessage().isEmpty());
+    }
+
+    // Returns the port it listens on
+    private int startCoordinator(List<String> addresses, long shardTimeoutMillis) throws IOException {
+        CoordinatorServer coordinator = new CoordinatorServer(addresses, shardTimeoutMillis, CLUSTER_KEY);
+        int port = freePort();
+        coordinator.start(port);
+        coordinators.add(coordinator);
+        return port;
+    }
+
+    private ManagedChannel connect(int port) {
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", port).usePlaintext().build();
+        channels.add(channel);
+        return channel;
+    }
+
+    private FileEngineProto.IndexRequest document(String path, Map<String, Integer> counts) {
+        return FileEngineProto.IndexRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .setFilePath(path)
+                .putAllWordFrequencies(counts)
+                .build();
+    }
+
+    private FileEngineProto.SearchReply search(int limit) {
+        return blockingStub.computeSearch(FileEngineProto.SearchRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .addQueryTerms("grpc")
+                .setLimit(limit)
+                .build());
+    }
+
+    // Search one shard directly, as the coordinator would
+    private FileEngineProto.SearchReply shardSearch(String address, int limit) {
+        ShardClient shard = shardClient(address);
+        try {
+            return shard.blocking(2000).computeSearch(FileEngineProto.SearchRequest.newBuilder()
+                    .setClientId("alice")
+                    .addQueryTerms("grpc")
+                    .setLimit(limit)
+                    .build());
+        } finally {
+            shutdown(shard);
+        }
+    }
+
+    private static ShardClient shardClient(String address) {
+        int colon = address.lastIndexOf(':');
+        return new ShardClient(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)), CLUSTER_KEY);
+    }
+
+    private static void shutdown(ShardClient shard) {
+        try {
+            shard.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FileEngineProto.IndexStreamReply indexStream(List<FileEngineProto.IndexRequest> requests) throws Exception {
+        CompletableFuture<FileEngineProto.IndexStreamReply> summary = new CompletableFuture<>();
+        StreamObserver<FileEngineProto.IndexRequest> stream = asyncStub.indexStream(new StreamObserver<>() {
+            @Override
+            public void onNext(FileEngineProto.IndexStreamReply reply) {
+                summary.complete(reply);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                summary.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        for (FileEngineProto.IndexRequest request : requests) {
+            stream.onNext(request);
+        }
+        stream.onCompleted();
+        return summary.get(30, TimeUnit.SECONDS);
+    }
+
+    private List<FileEngineProto.SearchReply> searchStream(int limit) throws Exception {
+        List<FileEngineProto.SearchReply> chunks = new ArrayList<>();
+        IndexServiceGrpc.newBlockingStub(channels.get(0)).searchStream(FileEngineProto.SearchRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .addQueryTerms("common")
+                .setLimit(limit)
+                .build()).forEachRemaining(chunks::add);
+        return chunks;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.rafay.fileengine.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HashRingTest {
+
+    @Test
+    public void routingDependsOnlyOnTheNodeNames() {
+        Map<String, String> forward = new LinkedHashMap<>();
+        Map<String, String> backward = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            forward.put("shard-" + i + ":8080", "shard-" + i);
+            backward.put("shard-" + (4 - i) + ":8080", "shard-" + (4 - i));
+        }
+        HashRing<String> ring = new HashRing<>(forward);
+        HashRing<String> rebuilt = new HashRing<>(backward);
+        for (int i = 0; i < 10_000; i++) {
+            String path = "/docs/" + i + ".txt";
+            assertEquals(ring.nodeFor(path), ring.nodeFor(path));
+            assertEquals(ring.nodeFor(path), rebuilt.nodeFor(path));
+        }
+    }
+
+    @Test
+    public void keysSpreadEvenly() {
+        Map<String, Integer> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            nodes.put("localhost:" + (8081 + i), i);
+        }
+        HashRing<Integer> ring = new HashRing<>(nodes);
+        int[] counts = new int[4];
+        for (int i = 0; i < 40_000; i++) {
+            counts[ring.nodeFor("/corpus/file" + i)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 7_000 && count < 13_000, "uneven: " + count);
+        }
+    }
+
+    @Test
+    public void addingANodeOnlyMovesKeysToIt() {
+        Map<String, String> three = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            three.put("node" + i, "node" + i);
+        }
+        Map<String, String> four = new LinkedHashMap<>(three);
+        four.put("node3", "node3");
+        HashRing<String> before = new HashRing<>(three);
+        HashRing<String> after = new HashRing<>(four);
+
+        Map<String, Integer> moved = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            String key = "/k" + i;
+            if (!before.nodeFor(key).equals(after.nodeFor(key))) {
+                moved.merge(after.nodeFor(key), 1, Integer::sum);
+            }
+        }
+        assertEquals(1, moved.size());
+        int toNewNode = moved.get("node3");
+        assertTrue(toNewNode > 3_000 && toNewNode < 7_000, "moved: " + toNewNode);
+    }
+
+    @Test
+    public void needsANode() {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing<>(Map.of()));
+    }
+}
@@ -0,0 +1,88 @@
+package com.rafay.fileengine.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        Random random = new Random(5);
+        for (int round = 0; round < 20; round++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            long[] values = new long[random.nextInt(5000) + 1];
+            for (int i = 0; i < values.length; i++) {
+                // Log-uniform from nanoseconds to seconds
+                values[i] = (long) Math.pow(10, random.nextDouble() * 10);
+                histogram.record(values[i]);
+            }
+            Arrays.sort(values);
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            assertEquals(values.length, snapshot.count());
+            assertEquals(values[values.length - 1], snapshot.max());
+            assertEquals((double) Arrays.stream(values).sum() / values.length, snapshot.mean(), 1e-6 * snapshot.mean());
+
+            for (double percentile : new double[] {0, 1, 50, 90, 99, 99.9, 100}) {
+                long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * values.length) - 1)];
+                long estimate = snapshot.percentile(percentile);
+                assertTrue(estimate >= exact && estimate <= exact + exact / 32, percentile + ": " + estimate + " vs " + exact);
+            }
+        }
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        for (int value = 0; value < 32; value++) {
+            assertEquals(value, snapshot.percentile((value + 1) * 100.0 / 32));
+        }
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.percentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.percentile(100));
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.max());
+    }
+
+    @Test
+    public void emptyHistogramReadsZero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.count());
+        assertEquals(0, snapshot.percentile(99));
+        assertEquals(0.0, snapshot.mean());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i * 8L + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(800_000, snapshot.count());
+        assertEquals(799_999, snapshot.max());
+    }
+}
@@ -0,0 +1,106 @@
+package com.rafay.fileengine.common;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TermDictionaryTest {
+
+    @Test
+    public void streamRoundTripsAndSendsEachTermOnce() {
+        TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+        TermDictionary.Decoder decoder = new TermDictionary.Decoder();
+        Random random = new Random(3);
+        int newTerms = 0;
+        for (int d = 0; d < 500; d++) {
+            Map<String, Integer> doc = new HashMap<>();
+            for (int t = random.nextInt(30); t > 0; t--) {
+                doc.merge("term" + random.nextInt(2000), random.nextInt(5) + 1, Integer::sum);
+            }
+            FileEngineProto.IndexRequest request = encoder.encode(
+                    FileEngineProto.IndexRequest.newBuilder().setFilePath("/doc" + d).putAllWordFrequencies(doc)).build();
+            assertEquals(0, request.getWordFrequenciesCount());
+            newTerms += request.getNewTermsCount();
+            assertEquals(doc, decoder.decode(request));
+        }
+        assertEquals(encoder.size(), newTerms);
+    }
+
+    @Test
+    public void standaloneRequestsDecodeEitherForm() {
+        FileEngineProto.IndexRequest.Builder plain = FileEngineProto.IndexRequest.newBuilder().putWordFrequencies("grpc", 2);
+        assertEquals(Map.of("grpc", 2), TermDictionary.decode(plain.build()));
+
+        FileEngineProto.IndexRequest encoded = new TermDictionary.Encoder().encode(plain.putWordFrequencies("zeromq", 1)).build();
+        assertEquals(2, encoded.getNewTermsCount());
+        assertEquals(Map.of("grpc", 2, "zeromq", 1), TermDictionary.decode(encoded));
+    }
+
+    @Test
+    public void encoderDropsCountsThatAreNotPositive() {
+        FileEngineProto.IndexRequest request = new TermDictionary.Encoder().encode(FileEngineProto.IndexRequest.newBuilder()
+                .putWordFrequencies("kept", 1)
+                .putWordFrequencies("zero", 0)
+                .putWordFrequencies("negative", -4)).build();
+        assertEquals(Map.of("kept", 1), TermDictionary.decode(request));
+    }
+
+    @Test
+    public void decoderFoldsCaseVariants() {
+        FileEngineProto.IndexRequest request = FileEngineProto.IndexRequest.newBuilder()
+                .addNewTerms("GRPC").addNewTerms("grpc")
+                .addTermIds(0).addTermCounts(2)
+                .addTermIds(1).addTermCounts(3)
+                .build();
+        assertEquals(Map.of("grpc", 5), TermDictionary.decode(request));
+    }
+
+    @Test
+    public void rejectsMalformedRequests() {
+        // Counts missing for some ids
+        assertMalformed(FileEngineProto.IndexRequest.newBuilder().addNewTerms("a").addTermIds(0));
+        // Ids the dictionary doesn't hold, including one that is negative as an int
+        assertMalformed(FileEngineProto.IndexRequest.newBuilder().addNewTerms("a").addTermIds(1).addTermCounts(1));
+        assertMalformed(FileEngineProto.IndexRequest.newBuilder().addNewTerms("a").addTermIds(-1).addTermCounts(1));
+        // Counts that aren't positive
+        assertMalformed(FileEngineProto.IndexRequest.newBuilder().addNewTerms("a").addTermIds(0).addTermCounts(0));
+        assertMalformed(FileEngineProto.IndexRequest.newBuilder().addNewTerms("a").addTermIds(0).addTermCounts(-2));
+
+        // An id defined by an earlier request can't be used by a request decoded on its own
+        FileEngineProto.IndexRequest later = FileEngineProto.IndexRequest.newBuilder().addTermIds(0).addTermCounts(1).build();
+        TermDictionary.Decoder stream = new TermDictionary.Decoder();
+        stream.decode(FileEngineProto.IndexRequest.newBuilder().addNewTerms("a").addTermIds(0).addTermCounts(1).build());
+        assertEquals(Map.of("a", 1), stream.decode(later));
+        assertThrows(IllegalArgumentException.class, () -> TermDictionary.decode(later));
+    }
+
+    @Test
+    public void overflowsPastTheDictionaryLimit() {
+        Map<String, Integer> doc = new HashMap<>();
+        for (int i = 0; i < TermDictionary.MAX_TERMS + 10; i++) {
+            doc.put("t" + i, 1);
+        }
+        TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+        FileEngineProto.IndexRequest request = encoder.encode(FileEngineProto.IndexRequest.newBuilder().putAllWordFrequencies(doc)).build();
+        assertEquals(TermDictionary.MAX_TERMS, encoder.size());
+        assertEquals(10, request.getWordFrequenciesCount());
+        assertEquals(doc, new TermDictionary.Decoder().decode(request));
+
+        // A sender that doesn't overflow is refused rather than growing the receiver's dictionary
+        FileEngineProto.IndexRequest.Builder tooMany = FileEngineProto.IndexRequest.newBuilder();
+        for (int i = 0; i <= TermDictionary.MAX_TERMS; i++) {
+            tooMany.addNewTerms("t" + i);
+        }
+        assertMalformed(tooMany);
+    }
+
+    private static void assertMalformed(FileEngineProto.IndexRequest.Builder request) {
+        assertThrows(IllegalArgumentException.class, () -> TermDictionary.decode(request.build()));
+    }
+}
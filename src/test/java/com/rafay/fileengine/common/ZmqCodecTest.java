@@ -0,0 +1,111 @@
+package com.rafay.fileengine.common;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ZmqCodecTest {
+    private static final FileEngineProto.ZmqMessage INDEX = FileEngineProto.ZmqMessage.newBuilder()
+            .setRequestId(42)
+            .setIndexRequest(FileEngineProto.IndexRequest.newBuilder()
+                    .setClientId("alice")
+                    .setFilePath("/a.txt")
+                    .putWordFrequencies("grpc", 3)
+                    .putWordFrequencies("zeromq", 1))
+            .build();
+    private static final FileEngineProto.ZmqMessage SEARCH_REPLY = FileEngineProto.ZmqMessage.newBuilder()
+            .setRequestId(43)
+            .setSearchReply(FileEngineProto.SearchReply.newBuilder()
+                    .addResults(FileEngineProto.SearchResult.newBuilder().setDocumentPath("/a.txt").setTotalFrequency(3).setScore(1.5))
+                    .addResults(FileEngineProto.SearchResult.newBuilder().setDocumentPath("/b.txt").setTotalFrequency(1).setScore(0.5)))
+            .build();
+
+    @Test
+    public void binaryFramesStartWithTheMarkerAndKeepEveryField() {
+        for (FileEngineProto.ZmqMessage message : List.of(INDEX, SEARCH_REPLY, error("Invalid API Key"))) {
+            byte[] frame = ZmqCodec.encode(message, ZmqCodec.Format.BINARY);
+            assertEquals(ZmqCodec.BINARY_MARKER, frame[0]);
+            assertEquals(message.getSerializedSize() + 1, frame.length);
+            assertEquals(ZmqCodec.Format.BINARY, ZmqCodec.formatOf(frame));
+            // request_id included, which is what pipelining clients match replies on
+            assertEquals(message, ZmqCodec.decode(frame));
+        }
+    }
+
+    @Test
+    public void jsonFramesHaveNoMarkerAndKeepTheOriginalShapes() {
+        byte[] index = ZmqCodec.encode(INDEX, ZmqCodec.Format.JSON);
+        assertEquals('{', index[0]);
+        assertEquals(ZmqCodec.Format.JSON, ZmqCodec.formatOf(index));
+        String json = new String(index, StandardCharsets.UTF_8);
+        assertEquals("INDEX", MessageUtils.getMessageType(json));
+        assertEquals(Map.of("grpc", 3, "zeromq", 1), MessageUtils.getWordFrequencies(json));
+        // JSON has no request ids
+        assertEquals(INDEX.toBuilder().clearRequestId().build(), ZmqCodec.decode(index));
+
+        FileEngineProto.ZmqMessage search = FileEngineProto.ZmqMessage.newBuilder()
+                .setSearchRequest(FileEngineProto.SearchRequest.newBuilder().addQueryTerms("grpc").addQueryTerms("zeromq").setLimit(5))
+                .build();
+        assertEquals(search, ZmqCodec.decode(ZmqCodec.encode(search, ZmqCodec.Format.JSON)));
+        assertEquals(SEARCH_REPLY.toBuilder().clearRequestId().build(),
+                ZmqCodec.decode(ZmqCodec.encode(SEARCH_REPLY, ZmqCodec.Format.JSON)));
+        FileEngineProto.ZmqMessage error = error("Rate limit exceeded");
+        assertEquals(error, ZmqCodec.decode(ZmqCodec.encode(error, ZmqCodec.Format.JSON)));
+    }
+
+    @Test
+    public void encodedTermsAreSentAsWordsInJson() {
+        FileEngineProto.ZmqMessage encoded = FileEngineProto.ZmqMessage.newBuilder()
+                .setIndexRequest(new TermDictionary.Encoder().encode(INDEX.getIndexRequest().toBuilder()))
+                .build();
+        assertNotEquals(INDEX.getIndexRequest(), encoded.getIndexRequest());
+        assertEquals(INDEX.getIndexRequest(), ZmqCodec.decode(ZmqCodec.encode(encoded, ZmqCodec.Format.JSON)).getIndexRequest());
+    }
+
+    @Test
+    public void statsAreBinaryOnly() {
+        FileEngineProto.ZmqMessage stats = FileEngineProto.ZmqMessage.newBuilder()
+                .setStatsRequest(FileEngineProto.StatsRequest.newBuilder().setClientId("alice"))
+                .build();
+        assertEquals(stats, ZmqCodec.decode(ZmqCodec.encode(stats, ZmqCodec.Format.BINARY)));
+        assertThrows(IllegalArgumentException.class, () -> ZmqCodec.encode(stats, ZmqCodec.Format.JSON));
+    }
+
+    @Test
+    public void malformedFramesAreRejectedWithIllegalArgument() {
+        byte[] binary = ZmqCodec.encode(INDEX, ZmqCodec.Format.BINARY);
+        byte[] json = ZmqCodec.encode(INDEX, ZmqCodec.Format.JSON);
+        List<byte[]> malformed = List.of(
+                // Truncated part-way through a field
+                Arrays.copyOf(binary, binary.length - 3),
+                Arrays.copyOf(json, json.length - 3),
+                new byte[0],
+                utf8("not json"),
+                utf8("[1, 2]"),
+                utf8("{\"type\":\"PING\"}"),
+                // Fields missing, or of the wrong type
+                utf8("{\"type\":\"SEARCH\"}"),
+                utf8("{\"type\":\"SEARCH\",\"query\":\"grpc\"}"),
+                utf8("{\"type\":\"INDEX\",\"words\":{\"grpc\":\"many\"}}"),
+                utf8("{\"type\":\"SEARCH_REPLY\",\"results\":[]}"));
+        for (byte[] frame : malformed) {
+            assertThrows(IllegalArgumentException.class, () -> ZmqCodec.decode(frame), new String(frame, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static FileEngineProto.ZmqMessage error(String message) {
+        return FileEngineProto.ZmqMessage.newBuilder().setError(message).build();
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
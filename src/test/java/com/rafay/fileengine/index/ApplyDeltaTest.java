@@ -0,0 +1,109 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Term-count deltas against the indexed copy, and the cases that leave it untouched
+public class ApplyDeltaTest {
+    private final InvertedIndex index = new InvertedIndex();
+
+    @Test
+    public void appliesDeltasToTheIndexedCounts() {
+        index.indexDocument("/a.txt", Map.of("alpha", 2, "beta", 1), "h1");
+
+        assertTrue(index.applyDelta("/a.txt", "h1", "h2", Map.of("Alpha", 3, "beta", -1, "gamma", 1)));
+        assertEquals(Map.of("/a.txt", 5), index.search(List.of("alpha")));
+        assertTrue(index.search(List.of("beta")).isEmpty());
+        assertEquals(Map.of("/a.txt", 1), index.search(List.of("gamma")));
+        assertEquals(1, index.documentCount());
+
+        // The new hash is now the base
+        assertTrue(index.applyDelta("/a.txt", "h2", "h3", Map.of("gamma", 1)));
+        assertEquals(Map.of("/a.txt", 2), index.search(List.of("gamma")));
+    }
+
+    @Test
+    public void staleOrMissingCopiesAreLeftUntouched() {
+        index.indexDocument("/a.txt", Map.of("alpha", 2), "h1");
+        index.indexDocument("/unhashed.txt", Map.of("alpha", 1));
+
+        assertFalse(index.applyDelta("/a.txt", "h0", "h2", Map.of("alpha", 1)));
+        assertFalse(index.applyDelta("/missing.txt", "h1", "h2", Map.of("alpha", 1)));
+        // A document indexed without a hash can't be a delta's base, not even for an empty base hash
+        assertFalse(index.applyDelta("/unhashed.txt", "", "h2", Map.of("alpha", 1)));
+        // No count may go negative; the other deltas in the request aren't applied either
+        assertFalse(index.applyDelta("/a.txt", "h1", "h2", Map.of("alpha", -3, "beta", 1)));
+
+        assertEquals(Map.of("/a.txt", 2, "/unhashed.txt", 1), index.search(List.of("alpha")));
+        assertTrue(index.search(List.of("beta")).isEmpty());
+        assertTrue(index.applyDelta("/a.txt", "h1", "h2", Map.of("alpha", 1)));
+
+        index.removeDocument("/a.txt");
+        assertFalse(index.applyDelta("/a.txt", "h2", "h3", Map.of("alpha", 1)));
+    }
+
+    @Test
+    public void deltasMatchReindexingTheWholeDocument() {
+        Random random = new Random(23);
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        Map<String, String> hashes = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String path = "/doc" + random.nextInt(60) + ".txt";
+            String hash = "h" + i;
+            Map<String, Integer> current = counts.get(path);
+            if (current == null || random.nextInt(8) == 0) {
+                Map<String, Integer> doc = new HashMap<>();
+                for (int t = random.nextInt(5) + 1; t > 0; t--) {
+                    doc.merge("term" + random.nextInt(20), random.nextInt(4) + 1, Integer::sum);
+                }
+                index.indexDocument(path, doc, hash);
+                counts.put(path, doc);
+                hashes.put(path, hash);
+                continue;
+            }
+            Map<String, Integer> deltas = new HashMap<>();
+            for (int t = random.nextInt(4) + 1; t > 0; t--) {
+                deltas.merge("term" + random.nextInt(20), random.nextInt(7) - 3, Integer::sum);
+            }
+            boolean stale = random.nextInt(6) == 0;
+            String base = stale ? "old" : hashes.get(path);
+            Map<String, Integer> updated = new HashMap<>(current);
+            boolean negative = false;
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                int freq = updated.getOrDefault(delta.getKey(), 0) + delta.getValue();
+                negative |= freq < 0;
+                if (freq <= 0) {
+                    updated.remove(delta.getKey());
+                } else {
+                    updated.put(delta.getKey(), freq);
+                }
+            }
+            boolean expected = !stale && !negative;
+            assertEquals(expected, index.applyDelta(path, base, hash, deltas), path + " " + deltas);
+            if (expected) {
+                counts.put(path, updated);
+                hashes.put(path, hash);
+            }
+        }
+
+        assertEquals(counts.size(), index.documentCount());
+        for (int t = 0; t < 20; t++) {
+            String term = "term" + t;
+            Map<String, Integer> expected = new HashMap<>();
+            counts.forEach((path, doc) -> {
+                if (doc.containsKey(term)) {
+                    expected.put(path, doc.get(term));
+                }
+            });
+            assertEquals(expected, index.search(List.of(term)), term);
+        }
+    }
+}
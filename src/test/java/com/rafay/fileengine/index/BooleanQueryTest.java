@@ -0,0 +1,135 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.rafay.fileengine.index.BooleanQuery.and;
+import static com.rafay.fileengine.index.BooleanQuery.not;
+import static com.rafay.fileengine.index.BooleanQuery.or;
+import static com.rafay.fileengine.index.BooleanQuery.term;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BooleanQueryTest {
+    private final InvertedIndex index = new InvertedIndex();
+
+    @Test
+    public void andOrNot() {
+        index.indexDocument("/a.txt", Map.of("grpc", 2, "java", 1));
+        index.indexDocument("/b.txt", Map.of("grpc", 1, "zeromq", 3));
+        index.indexDocument("/c.txt", Map.of("java", 4));
+
+        assertEquals(Map.of("/a.txt", 3), index.search(and(term("grpc"), term("java"))));
+        assertEquals(Map.of("/a.txt", 3, "/b.txt", 1, "/c.txt", 4), index.search(or(term("grpc"), term("java"))));
+        // Negated terms filter without adding to the frequency
+        assertEquals(Map.of("/b.txt", 1), index.search(and(term("grpc"), not(term("java")))));
+        assertEquals(Map.of("/c.txt", 0), index.search(not(term("grpc"))));
+        assertEquals(Map.of("/b.txt", 4, "/c.txt", 4),
+                index.search(or(and(term("grpc"), term("zeromq")), and(term("java"), not(term("grpc"))))));
+        assertTrue(index.search(and(term("grpc"), term("missing"))).isEmpty());
+        assertEquals(Map.of("/a.txt", 0, "/b.txt", 0, "/c.txt", 0), index.search(not(term("missing"))));
+        // Case-insensitive like the term-list searches
+        assertEquals(index.search(List.of("GRPC", "zeromq")), index.search(or(term("GRPC"), term("zeromq"))));
+    }
+
+    @Test
+    public void emptyGroupsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new BooleanQuery.And(List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new BooleanQuery.Or(List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new BooleanQuery.Not(null));
+    }
+
+    @Test
+    public void randomNestedQueriesMatchABruteForceScan() {
+        Random random = new Random(13);
+        Map<String, Map<String, Integer>> live = new HashMap<>();
+        for (int d = 0; d < 600; d++) {
+            String path = "/doc" + random.nextInt(400) + ".txt";
+            if (random.nextInt(8) == 0) {
+                index.removeDocument(path);
+                live.remove(path);
+            } else {
+                Map<String, Integer> counts = new HashMap<>();
+                int terms = 1 + random.nextInt(8);
+                for (int t = 0; t < terms; t++) {
+                    counts.merge("w" + random.nextInt(24), 1 + random.nextInt(4), Integer::sum);
+                }
+                index.indexDocument(path, counts);
+                live.put(path, counts);
+            }
+        }
+
+        for (int q = 0; q < 3000; q++) {
+            BooleanQuery query = randomQuery(random, 4);
+            Map<String, Integer> expected = new HashMap<>();
+            for (Map.Entry<String, Map<String, Integer>> doc : live.entrySet()) {
+                if (matches(query, doc.getValue())) {
+                    expected.put(doc.getKey(), frequency(query, doc.getValue()));
+                }
+            }
+            assertEquals(expected, index.search(query), query.toString());
+
+            List<ScoredDocument> ranked = index.topK(query, 5);
+            assertEquals(Math.min(5, expected.size()), ranked.size(), query.toString());
+            List<String> flat = query.flatTerms();
+            for (ScoredDocument hit : ranked) {
+                // A plain OR of terms ranks like topK(terms), which ignores repeated terms
+                int frequency = flat != null
+                        ? flat.stream().distinct().mapToInt(t -> live.get(hit.documentPath()).getOrDefault(t, 0)).sum()
+                        : expected.get(hit.documentPath());
+                assertEquals(frequency, hit.totalFrequency(), query.toString());
+            }
+        }
+    }
+
+    private static BooleanQuery randomQuery(Random random, int depth) {
+        int kind = depth == 0 ? 0 : random.nextInt(5);
+        switch (kind) {
+            case 0, 1 -> {
+                // A few terms that are never indexed
+                return term("w" + random.nextInt(26));
+            }
+            case 4 -> {
+                return not(randomQuery(random, depth - 1));
+            }
+            default -> {
+                List<BooleanQuery> clauses = new ArrayList<>();
+                int count = 1 + random.nextInt(3);
+                for (int i = 0; i < count; i++) {
+                    clauses.add(randomQuery(random, depth - 1));
+                }
+                return kind == 2 ? new BooleanQuery.And(clauses) : new BooleanQuery.Or(clauses);
+            }
+        }
+    }
+
+    private static boolean matches(BooleanQuery query, Map<String, Integer> doc) {
+        return switch (query) {
+            case BooleanQuery.Term leaf -> doc.containsKey(leaf.term());
+            case BooleanQuery.And and -> and.clauses().stream().allMatch(clause -> matches(clause, doc));
+            case BooleanQuery.Or or -> or.clauses().stream().anyMatch(clause -> matches(clause, doc));
+            case BooleanQuery.Not not -> !matches(not.clause(), doc);
+            default -> throw new AssertionError(query);
+        };
+    }
+
+    // Summed frequency of the non-negated terms a matching document matched
+    private static int frequency(BooleanQuery query, Map<String, Integer> doc) {
+        return switch (query) {
+            case BooleanQuery.Term leaf -> doc.getOrDefault(leaf.term(), 0);
+            case BooleanQuery.And and -> and.clauses().stream().mapToInt(clause -> frequency(clause, doc)).sum();
+            case BooleanQuery.Or or -> or.clauses().stream()
+                    .filter(clause -> matches(clause, doc))
+                    .mapToInt(clause -> frequency(clause, doc))
+                    .sum();
+            case BooleanQuery.Not not -> 0;
+            default -> throw new AssertionError(query);
+        };
+    }
+}
@@ -0,0 +1,171 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Off-heap segments against heap ones, and giving their direct memory back
+public class IndexStorageTest {
+    private static final BufferPoolMXBean DIRECT = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+            .filter(pool -> pool.getName().equals("direct"))
+            .findFirst()
+            .orElseThrow();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void offHeapSegmentsReadBackTheSamePostings() {
+        InvertedIndex heap = new InvertedIndex(IndexStorage.HEAP);
+        InvertedIndex offHeap = new InvertedIndex(IndexStorage.OFF_HEAP);
+        for (InvertedIndex index : List.of(heap, offHeap)) {
+            fill(index, 3_000, 7);
+            // Deletes and replacements too, so merging has dropped documents to skip
+            for (int d = 0; d < 3_000; d += 11) {
+                index.removeDocument("/doc" + d + ".txt");
+            }
+            index.indexDocument("/doc5.txt", Map.of("common", 9, "replaced", 1));
+        }
+        for (InvertedIndex index : List.of(heap, offHeap)) {
+            index.refresh();
+        }
+        assertSameResults(heap, offHeap);
+
+        heap.forceMerge();
+        offHeap.forceMerge();
+        assertSameResults(heap, offHeap);
+        Segment onHeap = heap.segments().segment(0);
+        Segment direct = offHeap.segments().segment(0);
+        for (ByteBuffer chunk : onHeap.chunks()) {
+            assertFalse(chunk.isDirect());
+        }
+        for (ByteBuffer chunk : direct.chunks()) {
+            assertTrue(chunk.isDirect());
+        }
+        assertEquals(onHeap.size(), direct.size());
+        for (int local = 0; local < onHeap.size(); local++) {
+            assertEquals(onHeap.path(local), direct.path(local));
+            assertEquals(onHeap.counts(local), direct.counts(local));
+        }
+        SortedTermBlocks.Cursor terms = onHeap.terms().iterator();
+        int termCount = 0;
+        while (terms.hasNext()) {
+            String term = terms.next();
+            assertArrayEquals(postings(onHeap.postings(term)), postings(direct.postings(term)), term);
+            termCount++;
+        }
+        assertEquals(termCount, direct.terms().size());
+    }
+
+    @Test
+    public void mergingReleasesTheMergedSegmentsMemory() throws InterruptedException {
+        long baseline = directBytesAfterGc(Long.MAX_VALUE);
+        InvertedIndex index = new InvertedIndex(IndexStorage.OFF_HEAP);
+        fill(index, 20_000, 20);
+        index.refresh();
+        assertTrue(index.segmentCount() > 1);
+        long beforeMerge = DIRECT.getMemoryUsed() - baseline;
+
+        index.forceMerge();
+        // Only the merged segment's buffers are still reachable; the old ones go with their handles
+        long merged = capacity(index.segments().segment(0));
+        long afterMerge = directBytesAfterGc(baseline + merged + (1 << 20)) - baseline;
+        assertTrue(afterMerge < beforeMerge, afterMerge + " bytes in use after merge, " + beforeMerge + " before");
+        assertTrue(afterMerge <= merged + (1 << 20), afterMerge + " bytes in use for a segment of " + merged);
+    }
+
+    @Test
+    public void closingAStoreReleasesItsMemory() throws IOException, InterruptedException {
+        long baseline = directBytesAfterGc(Long.MAX_VALUE);
+        IndexStore store = IndexStore.open(dir, Duration.ofHours(1), IndexStorage.OFF_HEAP);
+        fill(store.index(), 20_000, 20);
+        store.index().forceMerge();
+        long used = DIRECT.getMemoryUsed() - baseline;
+        assertTrue(used > 1 << 20, "only " + used + " direct bytes in use");
+
+        store.close();
+        store = null;
+        long afterClose = directBytesAfterGc(baseline + (1 << 20)) - baseline;
+        assertTrue(afterClose <= 1 << 20, afterClose + " of " + used + " direct bytes still in use");
+
+        // The final snapshot brings everything back
+        store = IndexStore.open(dir, Duration.ofHours(1), IndexStorage.OFF_HEAP);
+        try {
+            assertEquals(20_000, store.index().documentCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    // Documents in batches, so the index ends up with several segments
+    private static void fill(InvertedIndex index, int documents, int termsPerDocument) {
+        Random random = new Random(11);
+        Map<String, Map<String, Integer>> batch = new HashMap<>();
+        for (int d = 0; d < documents; d++) {
+            Map<String, Integer> counts = new HashMap<>();
+            counts.put("common", 1 + d % 5);
+            for (int t = 0; t < termsPerDocument; t++) {
+                counts.merge("term" + random.nextInt(5_000), 1 + random.nextInt(3), Integer::sum);
+            }
+            batch.put("/doc" + d + ".txt", counts);
+            if (batch.size() == 500) {
+                index.indexDocuments(batch);
+                batch.clear();
+            }
+        }
+        index.indexDocuments(batch);
+    }
+
+    private static void assertSameResults(InvertedIndex heap, InvertedIndex offHeap) {
+        assertEquals(heap.documentCount(), offHeap.documentCount());
+        for (List<String> query : List.of(List.of("common"), List.of("term7"), List.of("term7", "term42"), List.of("replaced"))) {
+            assertEquals(heap.search(query), offHeap.search(query), query.toString());
+            assertEquals(heap.topK(query, 50), offHeap.topK(query, 50), query.toString());
+            assertEquals(heap.searchPage(query, 100, 200).hits(), offHeap.searchPage(query, 100, 200).hits(), query.toString());
+        }
+    }
+
+    private static long capacity(Segment segment) {
+        long bytes = 0;
+        for (ByteBuffer chunk : segment.chunks()) {
+            bytes += chunk.capacity();
+        }
+        return bytes;
+    }
+
+    // Direct bytes in use once collection has brought them to at most target, or after trying for a while
+    private static long directBytesAfterGc(long target) throws InterruptedException {
+        long used = DIRECT.getMemoryUsed();
+        for (int attempt = 0; attempt < 50 && (used > target || attempt < 3); attempt++) {
+            System.gc();
+            Thread.sleep(20);
+            used = DIRECT.getMemoryUsed();
+        }
+        return used;
+    }
+
+    private static int[] postings(PostingsList list) {
+        int[] pairs = new int[2 * list.size()];
+        PostingsList.Cursor cursor = list.cursor();
+        for (int i = 0; cursor.doc() != PostingsList.NO_MORE_DOCS; i += 2, cursor.next()) {
+            pairs[i] = cursor.doc();
+            pairs[i + 1] = cursor.freq();
+        }
+        return pairs;
+    }
+}
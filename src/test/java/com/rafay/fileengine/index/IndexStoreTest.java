@@ -0,0 +1,93 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexStoreTest {
+    // Long enough that only explicit checkpoints run during a test
+    private static final Duration NEVER = Duration.ofHours(1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void snapshotRoundTripsEveryStorage() throws IOException {
+        for (IndexStorage written : IndexStorage.values()) {
+            for (IndexStorage read : IndexStorage.values()) {
+                Path data = dir.resolve(written + "-" + read);
+                try (IndexStore store = IndexStore.open(data, NEVER, written)) {
+                    populate(store.index());
+                }
+                try (IndexStore store = IndexStore.open(data, NEVER, read)) {
+                    assertPopulated(store.index());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void recoversWritesAfterTheLastCheckpointFromTheLog() throws IOException {
+        IndexStore crashed = IndexStore.open(dir, NEVER);
+        crashed.index().indexDocument("/a.txt", Map.of("alpha", 2, "shared", 1), "h1");
+        crashed.checkpoint();
+        crashed.index().indexDocument("/b.txt", Map.of("beta", 1, "shared", 1), "");
+        crashed.index().applyDelta("/a.txt", "h1", "h2", Map.of("alpha", 1));
+        // No close: the later writes are only in the log
+
+        try (IndexStore store = IndexStore.open(dir, NEVER)) {
+            assertEquals(Map.of("/a.txt", 3), store.index().search(List.of("alpha")));
+            assertEquals(2, store.index().documentCount());
+            // The content hash survives, so deltas keep working after recovery
+            assertTrue(store.index().applyDelta("/a.txt", "h2", "h3", Map.of("gamma", 1)));
+        }
+    }
+
+    @Test
+    public void checkpointDropsSupersededSnapshotsAndLogSegments() throws IOException {
+        try (IndexStore store = IndexStore.open(dir, NEVER)) {
+            for (int i = 0; i < 3; i++) {
+                store.index().indexDocument("/" + i + ".txt", Map.of("term" + i, 1));
+                store.checkpoint();
+            }
+            assertEquals(1, count("snapshot-"));
+            assertEquals(1, WriteAheadLog.listSegments(dir).size());
+        }
+    }
+
+    private static void populate(InvertedIndex index) {
+        index.indexDocument("/a.txt", Map.of("alpha", 2, "shared", 1), "h1");
+        index.indexDocument("/b.txt", Map.of("beta", 1, "shared", 3), "");
+        index.indexDocument("/c.txt", Map.of("gamma", 1), "");
+        index.removeDocument("/c.txt");
+        // Re-indexed: only the newest version may come back
+        index.indexDocument("/b.txt", Map.of("beta", 5), "");
+    }
+
+    private static void assertPopulated(InvertedIndex index) {
+        assertEquals(2, index.documentCount());
+        assertEquals(Map.of("/a.txt", 2), index.search(List.of("alpha")));
+        assertEquals(Map.of("/b.txt", 5), index.search(List.of("beta")));
+        assertEquals(Map.of("/a.txt", 1), index.search(List.of("shared")));
+        assertTrue(index.search(List.of("gamma")).isEmpty());
+        List<ScoredDocument> ranked = index.topK(List.of("alpha", "beta"), 10);
+        assertEquals(2, ranked.size());
+        assertTrue(index.applyDelta("/a.txt", "h1", "h2", Map.of("alpha", 1)));
+    }
+
+    private long count(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).count();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PostingsListTest {
+    private static final int B = PostingsList.BLOCK_SIZE;
+    private static final int[] SIZES = {0, 1, 2, B - 1, B, B + 1, 2 * B, 2 * B + 1, 1000};
+
+    @Test
+    public void decodesEveryPostingInOrder() {
+        Random random = new Random(12);
+        for (IndexStorage storage : IndexStorage.values()) {
+            for (int size : SIZES) {
+                int[][] postings = postings(random, size);
+                PostingsList list = build(storage, postings);
+                assertEquals(size, list.size());
+                assertEquals(Arrays.stream(postings[1]).max().orElse(0), list.maxFreq());
+                assertPostings(postings, list.cursor());
+            }
+        }
+    }
+
+    @Test
+    public void writeToAndReadFromRoundTrip() throws IOException {
+        Random random = new Random(13);
+        for (int size : SIZES) {
+            int[][] postings = postings(random, size);
+            PostingsList list = build(IndexStorage.HEAP, postings);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                list.writeTo(out);
+            }
+            assertEquals(list.serializedSize(), bytes.size());
+
+            BufferArena arena = new BufferArena(IndexStorage.OFF_HEAP, bytes.size());
+            ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+            long address = PostingsList.readFrom(in, arena);
+            PostingsList copy = new PostingsList(arena.chunks(), address);
+            assertEquals(bytes.size(), in.position());
+            assertEquals(list.size(), copy.size());
+            assertEquals(list.maxFreq(), copy.maxFreq());
+            assertEquals(list.minDocLength(), copy.minDocLength());
+            assertPostings(postings, copy.cursor());
+        }
+    }
+
+    @Test
+    public void advanceLandsOnBlockBoundaries() {
+        Random random = new Random(14);
+        int[][] postings = postings(random, 5 * B + 7);
+        int[] docs = postings[0];
+        PostingsList list = build(IndexStorage.HEAP, postings);
+        for (int block = 0; block * B < docs.length; block++) {
+            int first = docs[block * B];
+            int last = docs[Math.min(docs.length, (block + 1) * B) - 1];
+            for (int target : new int[]{first - 1, first, first + 1, last - 1, last, last + 1}) {
+                PostingsList.Cursor cursor = list.cursor();
+                cursor.advance(target);
+                assertEquals(firstAtLeast(docs, target), cursor.doc(), "advance(" + target + ") in block " + block);
+            }
+        }
+        PostingsList.Cursor cursor = list.cursor();
+        cursor.advance(docs[docs.length - 1] + 1);
+        assertEquals(PostingsList.NO_MORE_DOCS, cursor.doc());
+        // Advancing an exhausted cursor leaves it exhausted
+        cursor.advance(docs[0]);
+        assertEquals(PostingsList.NO_MORE_DOCS, cursor.doc());
+    }
+
+    @Test
+    public void advanceMatchesALinearScan() {
+        Random random = new Random(15);
+        for (int size : SIZES) {
+            int[][] postings = postings(random, size);
+            int[] docs = postings[0];
+            PostingsList list = build(IndexStorage.HEAP, postings);
+            int limit = size == 0 ? 10 : docs[size - 1] + 10;
+            for (int run = 0; run < 50; run++) {
+                PostingsList.Cursor cursor = list.cursor();
+                int target = 0;
+                while (cursor.doc() != PostingsList.NO_MORE_DOCS) {
+                    // Mostly short hops within a block, sometimes a jump over several
+                    target += random.nextInt(4) == 0 ? random.nextInt(limit / 4 + 1) : random.nextInt(40);
+                    cursor.advance(target);
+                    int expected = firstAtLeast(docs, target);
+                    assertEquals(expected, cursor.doc());
+                    if (expected != PostingsList.NO_MORE_DOCS) {
+                        assertEquals(postings[1][Arrays.binarySearch(docs, expected)], cursor.freq());
+                    }
+                    if (random.nextBoolean()) {
+                        cursor.next();
+                        target = cursor.doc() == PostingsList.NO_MORE_DOCS ? target : cursor.doc();
+                    }
+                }
+            }
+        }
+    }
+
+    // Ascending doc ids with gaps from 1 to a few million, so varints of every length occur, and their freqs
+    private static int[][] postings(Random random, int size) {
+        int[] docs = new int[size];
+        int[] freqs = new int[size];
+        int doc = random.nextInt(5);
+        for (int i = 0; i < size; i++) {
+            docs[i] = doc;
+            freqs[i] = 1 + (random.nextInt(10) == 0 ? random.nextInt(100_000) : random.nextInt(5));
+            int shift = random.nextInt(22);
+            doc += 1 + random.nextInt(1 << shift);
+        }
+        return new int[][]{docs, freqs};
+    }
+
+    private static PostingsList build(IndexStorage storage, int[][] postings) {
+        PostingsList.Builder builder = new PostingsList.Builder();
+        for (int i = 0; i < postings[0].length; i++) {
+            builder.add(postings[0][i], postings[1][i], 10 + i % 7);
+        }
+        BufferArena arena = new BufferArena(storage, builder.builtSize());
+        long address = builder.build(arena);
+        return new PostingsList(arena.chunks(), address);
+    }
+
+    private static void assertPostings(int[][] postings, PostingsList.Cursor cursor) {
+        for (int i = 0; i < postings[0].length; i++) {
+            assertEquals(postings[0][i], cursor.doc());
+            assertEquals(postings[1][i], cursor.freq());
+            cursor.next();
+        }
+        assertEquals(PostingsList.NO_MORE_DOCS, cursor.doc());
+    }
+
+    private static int firstAtLeast(int[] docs, int target) {
+        int found = Arrays.binarySearch(docs, target);
+        int at = found >= 0 ? found : -(found + 1);
+        return at < docs.length ? docs[at] : PostingsList.NO_MORE_DOCS;
+    }
+}
@@ -0,0 +1,170 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Segment files and attaching them to a running index
+public class SegmentFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void writeAndMapRoundTrip() throws IOException {
+        for (IndexStorage storage : IndexStorage.values()) {
+            InvertedIndex index = new InvertedIndex(storage);
+            for (int d = 0; d < 300; d++) {
+                index.indexDocument("/doc" + d + ".txt", Map.of("common", 1 + d % 4, "t" + d % 37, 2, "u" + d, 1), "hash" + d);
+            }
+            index.forceMerge();
+            Segment segment = index.segments().segment(0);
+            Path file = dir.resolve(storage + ".seg");
+            SegmentFile.write(segment, file);
+
+            Segment mapped = SegmentFile.map(file);
+            assertEquals(segment.size(), mapped.size());
+            assertEquals(segment.terms().size(), mapped.terms().size());
+            for (int local = 0; local < segment.size(); local++) {
+                assertEquals(segment.docId(local), mapped.docId(local));
+                assertEquals(segment.path(local), mapped.path(local));
+                assertEquals(segment.length(local), mapped.length(local));
+                assertEquals(segment.contentHash(local), mapped.contentHash(local));
+                assertEquals(segment.counts(local), mapped.counts(local));
+            }
+            SortedTermBlocks.Cursor terms = segment.terms().iterator();
+            while (terms.hasNext()) {
+                String term = terms.next();
+                assertArrayEquals(postings(segment.postings(term)), postings(mapped.postings(term)), term);
+            }
+        }
+    }
+
+    @Test
+    public void truncatedOrForeignFilesAreRejected() throws IOException {
+        InvertedIndex index = new InvertedIndex();
+        index.indexDocument("/a.txt", Map.of("alpha", 1));
+        Path file = dir.resolve("a.seg");
+        SegmentFile.write(index.segments().segment(0), file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Path truncated = dir.resolve("truncated.seg");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 5));
+        assertThrows(IOException.class, () -> SegmentFile.map(truncated));
+        Path foreign = dir.resolve("foreign.seg");
+        Files.write(foreign, "not a segment file at all, just some text".getBytes());
+        assertThrows(IOException.class, () -> SegmentFile.map(foreign));
+    }
+
+    @Test
+    public void attachedDocumentsMovePastTheIdsInUse() throws IOException, InterruptedException {
+        InvertedIndex index = new InvertedIndex();
+        index.indexDocument("/old.txt", Map.of("alpha", 1));
+        index.indexDocument("/replaced.txt", Map.of("alpha", 2));
+
+        // Two files whose ids both start at 0; the second also replaces a document of the first
+        List<Path> first = build("first", Map.of("/x.txt", Map.of("beta", 1), "/replaced.txt", Map.of("beta", 5),
+                "/dup.txt", Map.of("beta", 2)));
+        List<Path> second = build("second", Map.of("/y.txt", Map.of("beta", 3), "/dup.txt", Map.of("beta", 7)));
+        assertEquals(0, SegmentFile.map(first.get(0)).minDocId());
+        assertEquals(0, SegmentFile.map(second.get(0)).minDocId());
+
+        assertEquals(5, index.attachSegments(List.of(first.get(0), second.get(0))));
+        assertIdsIncrease(index.segments());
+        assertEquals(Map.of("/old.txt", 1), index.search(List.of("alpha")));
+        assertEquals(Map.of("/x.txt", 1, "/replaced.txt", 5, "/dup.txt", 7, "/y.txt", 3), index.search(List.of("beta")));
+        assertEquals(5, index.documentCount());
+
+        // Writes after attaching get ids past the attached ones and replace attached documents
+        index.indexDocument("/z.txt", Map.of("beta", 4));
+        index.indexDocument("/x.txt", Map.of("gamma", 1));
+        assertIdsIncrease(index.segments());
+        assertEquals(Map.of("/replaced.txt", 5, "/dup.txt", 7, "/y.txt", 3, "/z.txt", 4), index.search(List.of("beta")));
+        index.forceMerge();
+        assertEquals(Map.of("/replaced.txt", 5, "/dup.txt", 7, "/y.txt", 3, "/z.txt", 4), index.search(List.of("beta")));
+        assertEquals(Map.of("/x.txt", 1), index.search(List.of("gamma")));
+    }
+
+    @Test
+    public void builderOutputMatchesIndexingTheSameDocuments() throws IOException, InterruptedException {
+        Map<String, Map<String, Integer>> docs = new HashMap<>();
+        InvertedIndex direct = new InvertedIndex();
+        List<Path> files;
+        // Small runs and segments, so there are several of each and the runs get merged
+        try (SegmentBuilder builder = new SegmentBuilder(dir.resolve("out"), 3, 2_000, 20_000)) {
+            for (int d = 0; d < 2000; d++) {
+                String path = "/doc" + d % 1500 + ".txt";
+                Map<String, Integer> counts = Map.of("common", 1, "t" + d % 97, 1 + d % 3, "v" + d, 1);
+                builder.add(path, counts, "h" + d);
+                direct.indexDocument(path, counts, "h" + d);
+                docs.put(path, counts);
+            }
+            files = builder.finish();
+        }
+        assertTrue(files.size() > 1);
+
+        InvertedIndex attached = new InvertedIndex();
+        assertEquals(docs.size(), attached.attachSegments(files) - superseded(files));
+        assertEquals(docs.size(), attached.documentCount());
+        for (String term : List.of("common", "t5", "t96", "v1999", "v3")) {
+            assertEquals(direct.search(List.of(term)), attached.search(List.of(term)), term);
+        }
+        // Content hashes come along, so deltas apply to attached documents
+        assertTrue(attached.applyDelta("/doc5.txt", "h1505", "next", Map.of("extra", 1)));
+    }
+
+    // Documents the builder wrote but a later version of the same path supersedes
+    private static int superseded(List<Path> files) throws IOException {
+        Map<String, Integer> versions = new HashMap<>();
+        for (Path file : files) {
+            Segment segment = SegmentFile.map(file);
+            for (int local = 0; local < segment.size(); local++) {
+                if (!segment.dropped(local)) {
+                    versions.merge(segment.path(local), 1, Integer::sum);
+                }
+            }
+        }
+        return versions.values().stream().mapToInt(count -> count - 1).sum();
+    }
+
+    private List<Path> build(String name, Map<String, Map<String, Integer>> docs) throws IOException, InterruptedException {
+        try (SegmentBuilder builder = new SegmentBuilder(dir.resolve(name), 1, 1 << 20, 1 << 20)) {
+            for (Map.Entry<String, Map<String, Integer>> doc : docs.entrySet()) {
+                builder.add(doc.getKey(), doc.getValue(), "");
+            }
+            return builder.finish();
+        }
+    }
+
+    private static void assertIdsIncrease(SegmentSet set) {
+        int previous = -1;
+        for (int s = 0; s < set.size(); s++) {
+            Segment segment = set.segment(s);
+            for (int local = 0; local < segment.size(); local++) {
+                assertTrue(segment.docId(local) > previous, "doc ids must increase across segments");
+                previous = segment.docId(local);
+            }
+        }
+    }
+
+    private static int[] postings(PostingsList list) {
+        int[] pairs = new int[2 * list.size()];
+        PostingsList.Cursor cursor = list.cursor();
+        for (int i = 0; cursor.doc() != PostingsList.NO_MORE_DOCS; i += 2, cursor.next()) {
+            pairs[i] = cursor.doc();
+            pairs[i + 1] = cursor.freq();
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,163 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SegmentMergeTest {
+    private final InvertedIndex index = new InvertedIndex();
+    private final Map<String, Map<String, Integer>> live = new HashMap<>();
+
+    @Test
+    public void forceMergePurgesDeletedDocuments() {
+        for (int d = 0; d < 50; d++) {
+            index("/doc" + d + ".txt", Map.of("common", 1, "t" + d % 5, 1 + d % 3));
+        }
+        for (int d = 0; d < 50; d += 3) {
+            remove("/doc" + d + ".txt");
+        }
+        index("/doc1.txt", Map.of("updated", 2));
+
+        index.forceMerge();
+        SegmentSet set = index.segments();
+        assertEquals(1, set.size());
+        assertEquals(0, set.deletedCount());
+        assertEquals(live.size(), set.segment(0).size());
+        assertLive();
+    }
+
+    @Test
+    public void lateDeletesApplyToTheMergedSegment() {
+        // One segment, so no background merge takes it away from under the test
+        Map<String, Map<String, Integer>> batch = new HashMap<>();
+        for (int d = 0; d < 20; d++) {
+            batch.put("/doc" + d + ".txt", Map.of("common", 1, "t" + d, 1));
+        }
+        index.indexDocuments(batch);
+        live.putAll(batch);
+        remove("/doc0.txt");
+        SegmentSet start = index.segments();
+        Segment merged = SegmentMerger.merge(start, 0, start.size(), IndexStorage.HEAP);
+
+        // While the merge ran: a delete, a re-index and a delete of a document the merge already dropped
+        remove("/doc5.txt");
+        index("/doc7.txt", Map.of("rewritten", 1));
+        remove("/doc0.txt");
+        SegmentSet current = index.segments();
+
+        int[] late = lateDeletes(start, current);
+        SegmentSet result = current.withMerge(0, start.size(), merged, late, late.length);
+        assertEquals(current.size() - start.size() + 1, result.size());
+        assertEquals(2, result.deletedCount(0));
+        assertEquals(live.keySet(), livePaths(result));
+        assertEquals(current.docCount(), result.docCount());
+    }
+
+    @Test
+    public void mergingOnlyDeletedDocumentsDropsTheSegments() {
+        index("/a.txt", Map.of("alpha", 1));
+        index("/b.txt", Map.of("beta", 1));
+        SegmentSet before = index.segments();
+        remove("/a.txt");
+        remove("/b.txt");
+        SegmentSet start = index.segments();
+        assertNull(SegmentMerger.merge(start, 0, before.size(), IndexStorage.HEAP));
+
+        index.forceMerge();
+        assertEquals(0, index.segments().size());
+        assertLive();
+    }
+
+    @Test
+    public void concurrentDeletesDuringMergesAreNotLost() throws InterruptedException {
+        Random random = new Random(15);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread merger = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    index.forceMerge();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        merger.start();
+        try {
+            for (int i = 0; i < 3000; i++) {
+                String path = "/doc" + random.nextInt(200) + ".txt";
+                if (random.nextInt(3) == 0) {
+                    remove(path);
+                } else {
+                    index(path, Map.of("common", 1, "t" + random.nextInt(20), 1 + random.nextInt(3)));
+                }
+            }
+        } finally {
+            done.set(true);
+            merger.join();
+        }
+        assertNull(failure.get());
+        assertLive();
+        index.forceMerge();
+        assertEquals(0, index.segments().deletedCount());
+        assertLive();
+    }
+
+    private void index(String path, Map<String, Integer> counts) {
+        index.indexDocument(path, counts);
+        live.put(path, counts);
+    }
+
+    private void remove(String path) {
+        index.removeDocument(path);
+        live.remove(path);
+    }
+
+    // Searches see exactly the live documents with their newest counts
+    private void assertLive() {
+        assertEquals(live.size(), index.documentCount());
+        for (String term : List.of("common", "t1", "t4", "updated", "rewritten", "alpha", "beta")) {
+            Map<String, Integer> expected = new HashMap<>();
+            live.forEach((path, counts) -> {
+                if (counts.containsKey(term)) {
+                    expected.put(path, counts.get(term));
+                }
+            });
+            assertEquals(expected, index.search(List.of(term)), term);
+        }
+        assertEquals(live.keySet(), livePaths(index.segments()));
+    }
+
+    // Ids deleted in current but not yet in start, as InvertedIndex collects them when committing a merge
+    private static int[] lateDeletes(SegmentSet start, SegmentSet current) {
+        return IntStream.range(0, start.size()).flatMap(s -> {
+            Segment source = start.segment(s);
+            return IntStream.range(0, source.size())
+                    .filter(local -> current.isDeleted(s, local) && !start.isDeleted(s, local))
+                    .map(source::docId);
+        }).toArray();
+    }
+
+    private static Set<String> livePaths(SegmentSet set) {
+        Set<String> paths = new HashSet<>();
+        for (int s = 0; s < set.size(); s++) {
+            for (int local = 0; local < set.segment(s).size(); local++) {
+                if (!set.isDeleted(s, local)) {
+                    paths.add(set.segment(s).path(local));
+                }
+            }
+        }
+        return paths;
+    }
+}
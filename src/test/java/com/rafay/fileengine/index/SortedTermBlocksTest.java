@@ -0,0 +1,121 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class SortedTermBlocksTest {
+    private static final int B = SortedTermBlocks.BLOCK_SIZE;
+
+    @Test
+    public void findGetAndIterate() {
+        Random random = new Random(14);
+        for (int size : new int[]{0, 1, B - 1, B, B + 1, 5 * B + 3, 1000}) {
+            List<String> terms = terms(random, size);
+            SortedTermBlocks set = build(terms);
+            assertEquals(size, set.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals(i, set.find(terms.get(i)));
+                assertEquals(terms.get(i), set.get(i));
+            }
+            assertEquals(-1, set.find("not-a-term"));
+            assertEquals(-1, set.find(""));
+            assertEquals(terms, drain(set.iterator()));
+        }
+    }
+
+    @Test
+    public void fromStartsAtTheFirstTermNotBelowTheTarget() {
+        Random random = new Random(15);
+        List<String> terms = terms(random, 300);
+        SortedTermBlocks set = build(terms);
+        List<String> targets = new ArrayList<>(terms);
+        for (int i = 0; i < 200; i++) {
+            // Terms themselves, strings between them, and ones past the end
+            String term = terms.get(random.nextInt(terms.size()));
+            targets.add(term.substring(0, random.nextInt(term.length() + 1)));
+            targets.add(term + "a");
+        }
+        targets.add("\uffff");
+        for (String target : targets) {
+            SortedTermBlocks.Cursor cursor = set.from(target);
+            List<String> expected = terms.stream().filter(t -> compare(t, target) >= 0).toList();
+            if (!expected.isEmpty()) {
+                assertEquals(terms.indexOf(expected.get(0)), cursor.index(), target);
+            }
+            assertEquals(expected, drain(cursor), target);
+        }
+    }
+
+    @Test
+    public void writeToAndReadFromRoundTrip() throws IOException {
+        Random random = new Random(16);
+        for (int size : new int[]{0, 1, B, 2 * B + 1, 500}) {
+            List<String> terms = terms(random, size);
+            SortedTermBlocks set = build(terms);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                set.writeTo(out);
+            }
+            assertEquals(set.serializedSize(), bytes.size());
+
+            ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+            SortedTermBlocks copy = SortedTermBlocks.readFrom(in, new BufferArena(IndexStorage.OFF_HEAP, bytes.size()));
+            assertFalse(in.hasRemaining());
+            assertEquals(terms, drain(copy.iterator()));
+            for (int i = 0; i < size; i++) {
+                assertEquals(i, copy.find(terms.get(i)));
+            }
+        }
+    }
+
+    // Sorted, distinct terms sharing prefixes, some with multi-byte characters
+    static List<String> terms(Random random, int size) {
+        String[] stems = {"dist", "distrib", "distributed", "grpc", "gr", "\u00fcber", "na\u00efve", "\u65e5\u672c", "z"};
+        TreeSet<String> terms = new TreeSet<>(SortedTermBlocksTest::compare);
+        while (terms.size() < size) {
+            StringBuilder term = new StringBuilder(stems[random.nextInt(stems.length)]);
+            int extra = random.nextInt(4);
+            for (int i = 0; i < extra; i++) {
+                term.append((char) ('a' + random.nextInt(26)));
+            }
+            terms.add(term.toString());
+        }
+        return new ArrayList<>(terms);
+    }
+
+    static SortedTermBlocks build(List<String> terms) {
+        byte[][] encoded = new byte[terms.size()][];
+        int bytes = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = terms.get(i).getBytes(StandardCharsets.UTF_8);
+            bytes += encoded[i].length + 10;
+        }
+        return SortedTermBlocks.build(encoded, encoded.length, new BufferArena(IndexStorage.HEAP, bytes + 64));
+    }
+
+    // The set's order: unsigned UTF-8 bytes
+    static int compare(String a, String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> drain(SortedTermBlocks.Cursor cursor) {
+        List<String> terms = new ArrayList<>();
+        while (cursor.hasNext()) {
+            terms.add(cursor.next());
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,118 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Prefix and wildcard queries
+public class TermExpansionTest {
+    private final InvertedIndex index = new InvertedIndex();
+
+    @Test
+    public void prefixAndWildcard() {
+        index.indexDocument("/a.txt", Map.of("distributed", 2, "grpc", 1));
+        index.indexDocument("/b.txt", Map.of("distribution", 1, "zeromq", 1));
+        index.indexDocument("/c.txt", Map.of("district", 4));
+
+        assertEquals(Map.of("/a.txt", 2, "/b.txt", 1), index.search(new BooleanQuery.Prefix("Distrib")));
+        assertEquals(Map.of("/a.txt", 2, "/b.txt", 1, "/c.txt", 4), index.search(new BooleanQuery.Prefix("dist")));
+        assertEquals(Map.of("/a.txt", 2), index.search(new BooleanQuery.Wildcard("*buted")));
+        assertEquals(Map.of("/c.txt", 4), index.search(new BooleanQuery.Wildcard("distr?ct")));
+        assertEquals(Map.of("/a.txt", 3), index.search(new BooleanQuery.And(List.of(
+                new BooleanQuery.Prefix("dist"), new BooleanQuery.Wildcard("g*")))));
+        assertTrue(index.search(new BooleanQuery.Prefix("nothing")).isEmpty());
+    }
+
+    @Test
+    public void wildcardMatchesLikeAGlob() {
+        Random random = new Random(17);
+        String alphabet = "ab*?";
+        for (int i = 0; i < 5000; i++) {
+            String pattern = random(random, alphabet, 6);
+            String term = random(random, "ab", 7);
+            Pattern regex = Pattern.compile(pattern.replace("?", ".").replace("*", ".*"));
+            assertEquals(regex.matcher(term).matches(), new BooleanQuery.Wildcard(pattern).matches(term), pattern + " ~ " + term);
+        }
+        assertEquals("dist", new BooleanQuery.Wildcard("dist*ed").literalPrefix());
+        assertEquals("", new BooleanQuery.Wildcard("?ist").literalPrefix());
+    }
+
+    @Test
+    public void expansionsMatchABruteForceScanAcrossSegments() {
+        Random random = new Random(18);
+        List<String> vocabulary = SortedTermBlocksTest.terms(random, 400);
+        Map<String, Map<String, Integer>> live = new HashMap<>();
+        for (int d = 0; d < 500; d++) {
+            String path = "/doc" + random.nextInt(300) + ".txt";
+            if (random.nextInt(10) == 0) {
+                index.removeDocument(path);
+                live.remove(path);
+                continue;
+            }
+            Map<String, Integer> counts = new HashMap<>();
+            for (int t = random.nextInt(6); t >= 0; t--) {
+                counts.merge(vocabulary.get(random.nextInt(vocabulary.size())), 1 + random.nextInt(3), Integer::sum);
+            }
+            index.indexDocument(path, counts);
+            live.put(path, counts);
+        }
+
+        for (int q = 0; q < 500; q++) {
+            String term = vocabulary.get(random.nextInt(vocabulary.size()));
+            String prefix = term.substring(0, random.nextInt(term.length() + 1));
+            assertEquals(scan(live, prefix + "*"), index.search(new BooleanQuery.Prefix(prefix)), prefix + "*");
+
+            StringBuilder pattern = new StringBuilder(term);
+            pattern.setCharAt(random.nextInt(pattern.length()), random.nextBoolean() ? '?' : '*');
+            if (random.nextBoolean()) {
+                pattern.insert(0, '*');
+            }
+            assertEquals(scan(live, pattern.toString()), index.search(new BooleanQuery.Wildcard(pattern.toString())),
+                    pattern.toString());
+        }
+    }
+
+    @Test
+    public void overBroadPatternsAreRejected() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i <= InvertedIndex.MAX_TERM_EXPANSIONS; i++) {
+            counts.put("term" + i, 1);
+        }
+        index.indexDocument("/big.txt", counts);
+        assertThrows(IllegalArgumentException.class, () -> index.search(new BooleanQuery.Prefix("term")));
+        assertThrows(IllegalArgumentException.class, () -> index.search(new BooleanQuery.Wildcard("*m?*")));
+        // Narrow enough to expand
+        assertFalse(index.search(new BooleanQuery.Prefix("term10")).isEmpty());
+    }
+
+    // Summed frequencies of the terms matching the glob, per document
+    private static Map<String, Integer> scan(Map<String, Map<String, Integer>> live, String glob) {
+        BooleanQuery.Wildcard pattern = new BooleanQuery.Wildcard(glob);
+        Map<String, Integer> results = new HashMap<>();
+        for (Map.Entry<String, Map<String, Integer>> doc : live.entrySet()) {
+            for (Map.Entry<String, Integer> term : doc.getValue().entrySet()) {
+                if (pattern.matches(term.getKey())) {
+                    results.merge(doc.getKey(), term.getValue(), Integer::sum);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static String random(Random random, String alphabet, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}
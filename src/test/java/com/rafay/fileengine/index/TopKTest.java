@@ -0,0 +1,182 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// WAND top-k against BM25 scored exhaustively
+public class TopKTest {
+    private static final int[] KS = {1, 3, 10, 50};
+
+    @Test
+    public void wandMatchesExhaustiveBm25() {
+        Random random = new Random(2);
+        Map<String, Map<String, Integer>> corpus = corpus(random, 1500);
+        InvertedIndex index = new InvertedIndex();
+        // Some in one batch, the rest one at a time, so the top k spans several segments
+        Map<String, Map<String, Integer>> batch = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<String, Map<String, Integer>> doc : corpus.entrySet()) {
+            if (i++ < 1000) {
+                batch.put(doc.getKey(), doc.getValue());
+            } else {
+                index.indexDocument(doc.getKey(), doc.getValue());
+            }
+        }
+        index.indexDocuments(batch);
+
+        for (int q = 0; q < 300; q++) {
+            List<String> query = query(random);
+            Map<String, Double> expected = bm25(corpus, query);
+            for (int k : KS) {
+                List<ScoredDocument> results = index.topK(query, k);
+                assertEquals(Math.min(k, expected.size()), results.size(), query + " k=" + k);
+                List<Double> best = new ArrayList<>(expected.values());
+                best.sort((a, b) -> Double.compare(b, a));
+                for (int r = 0; r < results.size(); r++) {
+                    ScoredDocument hit = results.get(r);
+                    // Ties may come back in any order, but each hit's score is its own and the scores are the best k
+                    assertEquals(expected.get(hit.documentPath()), hit.score(), 1e-9, query + " " + hit.documentPath());
+                    assertEquals(best.get(r), hit.score(), 1e-9, query + " rank " + r);
+                    assertEquals(frequency(corpus.get(hit.documentPath()), query), hit.totalFrequency());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void wandMatchesUnprunedRankingWithDeletesAndUpdates() {
+        Random random = new Random(3);
+        InvertedIndex index = new InvertedIndex();
+        Map<String, Map<String, Integer>> corpus = corpus(random, 800);
+        for (Map.Entry<String, Map<String, Integer>> doc : corpus.entrySet()) {
+            index.indexDocument(doc.getKey(), doc.getValue());
+        }
+        for (int d = 0; d < 200; d++) {
+            String path = "/doc" + random.nextInt(800) + ".txt";
+            if (random.nextBoolean()) {
+                index.removeDocument(path);
+            } else {
+                index.indexDocument(path, document(random));
+            }
+        }
+
+        for (int q = 0; q < 300; q++) {
+            List<String> query = query(random);
+            // With k past the number of matches the threshold never rises, so nothing is pruned
+            List<ScoredDocument> all;
+            Map<String, Integer> matches;
+            List<List<ScoredDocument>> pruned = new ArrayList<>();
+            SegmentSet before;
+            do {
+                // A background merge purging deleted documents changes the statistics; compare within one segment set
+                before = index.segments();
+                all = index.topK(query, Integer.MAX_VALUE);
+                matches = index.search(query);
+                pruned.clear();
+                for (int k : KS) {
+                    pruned.add(index.topK(query, k));
+                }
+            } while (index.segments() != before);
+
+            assertEquals(matches.size(), all.size());
+            for (int i = 0; i < KS.length; i++) {
+                List<ScoredDocument> results = pruned.get(i);
+                assertEquals(Math.min(KS[i], all.size()), results.size());
+                for (int r = 0; r < results.size(); r++) {
+                    assertEquals(all.get(r).score(), results.get(r).score(), 1e-9, query + " rank " + r);
+                    assertTrue(matches.containsKey(results.get(r).documentPath()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void emptyIndexAndUnknownTermsRankNothing() {
+        InvertedIndex index = new InvertedIndex();
+        assertTrue(index.topK(List.of("alpha"), 10).isEmpty());
+        index.indexDocument("/a.txt", Map.of("alpha", 1));
+        assertTrue(index.topK(List.of("missing"), 10).isEmpty());
+        assertTrue(index.topK(List.of("alpha"), 0).isEmpty());
+        assertEquals(1, index.topK(List.of("ALPHA", "alpha"), 10).size());
+    }
+
+    // Terms drawn from a skewed vocabulary, so some are in most documents and some in a handful
+    private static Map<String, Map<String, Integer>> corpus(Random random, int size) {
+        Map<String, Map<String, Integer>> corpus = new LinkedHashMap<>();
+        for (int d = 0; d < size; d++) {
+            corpus.put("/doc" + d + ".txt", document(random));
+        }
+        return corpus;
+    }
+
+    private static Map<String, Integer> document(Random random) {
+        Map<String, Integer> counts = new HashMap<>();
+        int terms = 1 + random.nextInt(30);
+        for (int t = 0; t < terms; t++) {
+            counts.merge(term(random), 1 + random.nextInt(3), Integer::sum);
+        }
+        return counts;
+    }
+
+    private static String term(Random random) {
+        double u = random.nextDouble();
+        return "t" + (int) (200 * u * u * u);
+    }
+
+    private static List<String> query(Random random) {
+        List<String> query = new ArrayList<>();
+        int terms = 1 + random.nextInt(4);
+        for (int t = 0; t < terms; t++) {
+            query.add(term(random));
+        }
+        return query;
+    }
+
+    // Every matching document's BM25 score, computed from the corpus directly
+    private static Map<String, Double> bm25(Map<String, Map<String, Integer>> corpus, List<String> query) {
+        long totalLength = 0;
+        Map<String, Integer> df = new HashMap<>();
+        for (Map<String, Integer> doc : corpus.values()) {
+            totalLength += doc.values().stream().mapToInt(Integer::intValue).sum();
+            for (String term : doc.keySet()) {
+                df.merge(term, 1, Integer::sum);
+            }
+        }
+        int n = corpus.size();
+        double avgLength = (double) totalLength / n;
+        List<String> unique = query.stream().distinct().toList();
+        Map<String, Double> scores = new HashMap<>();
+        for (Map.Entry<String, Map<String, Integer>> doc : corpus.entrySet()) {
+            int length = doc.getValue().values().stream().mapToInt(Integer::intValue).sum();
+            double norm = InvertedIndex.K1 * (1 - InvertedIndex.B + InvertedIndex.B * length / avgLength);
+            double score = 0;
+            boolean matched = false;
+            for (String term : unique) {
+                Integer freq = doc.getValue().get(term);
+                if (freq != null) {
+                    int f = df.get(term);
+                    double idf = Math.log(1 + (n - f + 0.5) / (f + 0.5));
+                    score += idf * freq * (InvertedIndex.K1 + 1) / (freq + norm);
+                    matched = true;
+                }
+            }
+            if (matched) {
+                scores.put(doc.getKey(), score);
+            }
+        }
+        return scores;
+    }
+
+    private static int frequency(Map<String, Integer> doc, List<String> query) {
+        return query.stream().distinct().mapToInt(term -> doc.getOrDefault(term, 0)).sum();
+    }
+}
@@ -0,0 +1,247 @@
+package com.rafay.fileengine.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void replaysEveryOperationAfterTheSnapshotSequence() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 0)) {
+            wal.appendIndex("/a.txt", Map.of("alpha", 2, "shared", 1), "h1");
+            wal.appendIndex("/b.txt", Map.of("beta", 1, "shared", 3), "");
+            wal.appendDelta("/a.txt", "h1", "h2", Map.of("alpha", -1, "gamma", 4));
+            wal.appendRemove("/b.txt");
+            wal.awaitDurable(4);
+        }
+
+        InvertedIndex index = new InvertedIndex();
+        assertEquals(4, WriteAheadLog.replay(dir, 0, index));
+        assertEquals(Map.of("/a.txt", 1), index.search(List.of("alpha")));
+        assertEquals(Map.of("/a.txt", 4), index.search(List.of("gamma")));
+        assertTrue(index.search(List.of("beta")).isEmpty());
+        assertEquals(1, index.documentCount());
+
+        // Records up to the snapshot's sequence number are skipped
+        InvertedIndex afterSnapshot = new InvertedIndex();
+        afterSnapshot.indexDocument("/a.txt", Map.of("alpha", 2, "shared", 1), "h1");
+        afterSnapshot.indexDocument("/b.txt", Map.of("beta", 1, "shared", 3), "");
+        assertEquals(4, WriteAheadLog.replay(dir, 2, afterSnapshot));
+        assertEquals(Map.of("/a.txt", 1), afterSnapshot.search(List.of("shared")));
+    }
+
+    @Test
+    public void sequenceNumbersContinueAcrossRotatedSegments() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 0)) {
+            wal.appendIndex("/a.txt", Map.of("alpha", 1), "");
+            assertEquals(1, wal.rotate());
+            wal.appendIndex("/b.txt", Map.of("beta", 1), "");
+            wal.awaitDurable(2);
+        }
+        assertEquals(2, WriteAheadLog.listSegments(dir).size());
+
+        try (WriteAheadLog wal = new WriteAheadLog(dir, WriteAheadLog.replay(dir, 0, new InvertedIndex()))) {
+            assertEquals(3, wal.appendIndex("/c.txt", Map.of("gamma", 1), ""));
+            wal.awaitDurable(3);
+            // The first segment only holds record 1
+            wal.deleteSegmentsThrough(1);
+        }
+        InvertedIndex index = new InvertedIndex();
+        assertEquals(3, WriteAheadLog.replay(dir, 1, index));
+        assertEquals(Map.of("/b.txt", 1, "/c.txt", 1), index.search(List.of("beta", "gamma")));
+    }
+
+    @Test
+    public void tornTailOfNewestSegmentIsTruncated() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 0)) {
+            wal.appendIndex("/a.txt", Map.of("alpha", 1), "");
+            wal.appendIndex("/b.txt", Map.of("beta", 1), "");
+            wal.awaitDurable(2);
+        }
+        Path segment = WriteAheadLog.listSegments(dir).get(0);
+        long intact = Files.size(segment);
+        // A crash part way through the next record: a length prefix, a checksum and a few bytes of body
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        InvertedIndex index = new InvertedIndex();
+        assertEquals(2, WriteAheadLog.replay(dir, 0, index));
+        assertEquals(2, index.documentCount());
+        assertEquals(intact, Files.size(segment));
+    }
+
+    @Test
+    public void recordWithBadChecksumAtTheTailIsTruncated() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 0)) {
+            wal.appendIndex("/a.txt", Map.of("alpha", 1), "");
+            wal.appendIndex("/b.txt", Map.of("beta", 1), "");
+            wal.awaitDurable(2);
+        }
+        Path segment = WriteAheadLog.listSegments(dir).get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        // The first record is its length and checksum ints followed by that many bytes
+        int firstRecord = 8 + ByteBuffer.wrap(bytes).getInt();
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        InvertedIndex index = new InvertedIndex();
+        assertEquals(1, WriteAheadLog.replay(dir, 0, index));
+        assertEquals(Map.of("/a.txt", 1), index.search(List.of("alpha", "beta")));
+        assertEquals(firstRecord, Files.size(segment));
+    }
+
+    @Test
+    public void damageBeforeTheNewestSegmentIsAnError() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 0)) {
+            wal.appendIndex("/a.txt", Map.of("alpha", 1), "");
+            wal.rotate();
+            wal.appendIndex("/b.txt", Map.of("beta", 1), "");
+            wal.awaitDurable(2);
+        }
+        Path oldest = WriteAheadLog.listSegments(dir).get(0);
+        byte[] bytes = Files.readAllBytes(oldest);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(oldest, bytes);
+
+        assertThrows(IOException.class, () -> WriteAheadLog.replay(dir, 0, new InvertedIndex()));
+        // Nothing is truncated away from a segment that isn't the newest
+        assertEquals(bytes.length, Files.size(oldest));
+    }
+
+    @Test
+    public void failedSyncRefusesLaterWritesBeforeApplyingThem() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(dir, 0, file -> new UnsyncableChannel(
+                FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+        InvertedIndex index = new InvertedIndex();
+        index.attachLog(wal);
+
+        // The write that hit the failed sync is reported, though it was already applied
+        assertThrows(UncheckedIOException.class, () -> index.indexDocument("/a.txt", Map.of("alpha", 1)));
+        long logged = wal.appendedSeq();
+
+        // Every write after it is refused before it reaches the index or the log
+        assertThrows(UncheckedIOException.class, () -> index.indexDocument("/b.txt", Map.of("beta", 1)));
+        assertThrows(UncheckedIOException.class, () -> index.indexDocuments(Map.of(
+                "/c.txt", Map.of("gamma", 1), "/d.txt", Map.of("delta", 1))));
+        assertThrows(UncheckedIOException.class, () -> index.removeDocument("/a.txt"));
+        assertEquals(logged, wal.appendedSeq());
+        assertTrue(index.search(BooleanQuery.term("beta")).isEmpty());
+        assertTrue(index.search(BooleanQuery.term("gamma")).isEmpty());
+        assertEquals(1, index.documentCount());
+    }
+
+    // Writes through to a real file, but every fsync fails as on a failing disk
+    private static final class UnsyncableChannel extends FileChannel {
+        private final FileChannel file;
+
+        UnsyncableChannel(FileChannel file) {
+            this.file = file;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            throw new IOException("Input/output error");
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return file.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return file.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return file.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return file.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            file.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return file.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return file.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return file.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+        }
+    }
+}
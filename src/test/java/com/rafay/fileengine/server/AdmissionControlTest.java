@@ -0,0 +1,161 @@
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Token buckets, the query cost cap and concurrency slots, without a transport
+public class AdmissionControlTest {
+
+    @Test
+    public void bucketAllowsItsBurstThenRefills() throws InterruptedException {
+        // One token every 50 ms, three at once after being idle
+        AdmissionControl admission = new AdmissionControl(new AdmissionControl.Limits(20, 3, 0, 0, 0, 0, 0, 0));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(admission.admitClient("alice"));
+        }
+        assertFalse(admission.admitClient("alice"));
+        // Each key has its own bucket
+        assertTrue(admission.admitClient("bob"));
+
+        Thread.sleep(120);
+        assertTrue(admission.admitClient("alice"));
+        assertEquals(1, admission.toStats().getRateLimited());
+    }
+
+    @Test
+    public void unsetRatesAdmitEverything() {
+        AdmissionControl admission = new AdmissionControl(AdmissionControl.Limits.NONE);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(admission.admitClient("alice"));
+            assertTrue(admission.admitIp("10.0.0.1"));
+        }
+        assertEquals(0, admission.toStats().getRateLimited());
+    }
+
+    @Test
+    public void ipAndClientBucketsAreSeparate() {
+        AdmissionControl admission = new AdmissionControl(new AdmissionControl.Limits(0, 0, 1, 1, 0, 0, 0, 0));
+        assertTrue(admission.admitIp("10.0.0.1"));
+        assertFalse(admission.admitIp("10.0.0.1"));
+        assertTrue(admission.admitIp("10.0.0.2"));
+        assertTrue(admission.admitClient("10.0.0.1"));
+        // A call without an address, e.g. in-process, isn't limited
+        assertTrue(admission.admitIp(null));
+    }
+
+    @Test
+    public void queryCostCountsTermsAndTreeNodes() {
+        AdmissionControl admission = new AdmissionControl(new AdmissionControl.Limits(0, 0, 0, 0, 5, 0, 0, 0));
+        assertTrue(admission.admitQuery(search(5, null)));
+        assertFalse(admission.admitQuery(search(6, null)));
+
+        // AND of three terms: four nodes
+        FileEngineProto.Query and = FileEngineProto.Query.newBuilder()
+                .setOperator(FileEngineProto.Query.Operator.AND)
+                .addClauses(term("a")).addClauses(term("b")).addClauses(term("c"))
+                .build();
+        assertTrue(admission.admitQuery(search(1, and)));
+        assertFalse(admission.admitQuery(search(2, and)));
+        assertFalse(admission.admitQuery(search(0, FileEngineProto.Query.newBuilder()
+                .setOperator(FileEngineProto.Query.Operator.OR)
+                .addClauses(and).addClauses(term("d"))
+                .build())));
+        assertEquals(3, admission.toStats().getTooLarge());
+
+        assertTrue(new AdmissionControl(AdmissionControl.Limits.NONE).admitQuery(search(100_000, and)));
+    }
+
+    @Test
+    public void tryAcquireNeverWaits() {
+        AdmissionControl admission = new AdmissionControl(new AdmissionControl.Limits(0, 0, 0, 0, 0, 2, 1, 10_000));
+        AdmissionControl.Permit first = admission.tryAcquire(AdmissionControl.Work.SEARCH);
+        AdmissionControl.Permit second = admission.tryAcquire(AdmissionControl.Work.SEARCH);
+        assertNotNull(first);
+        assertNotNull(second);
+
+        // Turned away at once, although the queueing budget is ten seconds
+        long start = System.nanoTime();
+        assertNull(admission.tryAcquire(AdmissionControl.Work.SEARCH));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, admission.toStats().getSearchesRunning());
+        assertEquals(1, admission.toStats().getOverloaded());
+
+        // Index requests have their own limit
+        AdmissionControl.Permit index = admission.tryAcquire(AdmissionControl.Work.INDEX);
+        assertNotNull(index);
+        assertNull(admission.tryAcquire(AdmissionControl.Work.INDEX));
+        index.release();
+
+        first.release();
+        assertNotNull(admission.tryAcquire(AdmissionControl.Work.SEARCH));
+        assertEquals(0, admission.toStats().getIndexesRunning());
+    }
+
+    @Test
+    public void unlimitedWorkAlwaysGetsASlot() {
+        AdmissionControl admission = new AdmissionControl(AdmissionControl.Limits.NONE);
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(admission.tryAcquire(AdmissionControl.Work.SEARCH));
+        }
+        assertEquals(0, admission.toStats().getSearchesRunning());
+    }
+
+    @Test
+    public void acquireWaitsUpToTheQueueingBudget() throws Exception {
+        AdmissionControl admission = new AdmissionControl(new AdmissionControl.Limits(0, 0, 0, 0, 0, 1, 0, 50));
+        AdmissionControl.Permit held = admission.acquire(AdmissionControl.Work.SEARCH, Long.MAX_VALUE);
+        assertNotNull(held);
+
+        // Nothing frees up: turned away after the budget, counted as overloaded
+        long start = System.nanoTime();
+        assertNull(admission.acquire(AdmissionControl.Work.SEARCH, Long.MAX_VALUE));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, admission.toStats().getOverloaded());
+
+        // A shorter wait of the caller's own is counted as a deadline exceeded
+        assertNull(admission.acquire(AdmissionControl.Work.SEARCH, TimeUnit.MILLISECONDS.toNanos(5)));
+        assertEquals(1, admission.toStats().getDeadlineExceeded());
+
+        // A slot released while waiting is handed over
+        AdmissionControl slow = new AdmissionControl(new AdmissionControl.Limits(0, 0, 0, 0, 0, 0, 1, 10_000));
+        AdmissionControl.Permit taken = slow.acquire(AdmissionControl.Work.INDEX, Long.MAX_VALUE);
+        CompletableFuture<AdmissionControl.Permit> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return slow.acquire(AdmissionControl.Work.INDEX, Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(20);
+        assertFalse(waiter.isDone());
+        taken.release();
+        assertNotNull(waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    private static FileEngineProto.SearchRequest search(int terms, FileEngineProto.Query query) {
+        FileEngineProto.SearchRequest.Builder request = FileEngineProto.SearchRequest.newBuilder().setClientId("alice");
+        for (int i = 0; i < terms; i++) {
+            request.addQueryTerms("t" + i);
+        }
+        if (query != null) {
+            request.setQuery(query);
+        }
+        return request.build();
+    }
+
+    private static FileEngineProto.Query term(String term) {
+        return FileEngineProto.Query.newBuilder()
+                .setOperator(FileEngineProto.Query.Operator.TERM)
+                .setTerm(term)
+                .build();
+    }
+}
@@ -0,0 +1,94 @@
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.rafay.fileengine.server.FileServerTenantTest.call;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// ComputeIndexDelta replies, calling the service directly without a transport
+public class FileServerDeltaTest {
+    private final FileServer server = new FileServer(new TenantIndexes(new InvertedIndex(), IndexStorage.HEAP, 0, 16), 0, new ServerMetrics());
+    private final String token = register("alice").getSessionToken();
+
+    @Test
+    public void appliesADeltaAgainstTheIndexedHash() {
+        assertEquals("SUCCESS", index("/a.txt", "h1", Map.of("alpha", 2)).getStatus());
+
+        assertEquals("SUCCESS", delta("/a.txt", "h1", "h2", Map.of("alpha", -1, "beta", 1)).getStatus());
+        assertEquals(1, search("beta").getResultsCount());
+        assertEquals(1, search("alpha").getResults(0).getTotalFrequency());
+    }
+
+    @Test
+    public void staleBaseAsksForTheWholeDocument() {
+        index("/a.txt", "h1", Map.of("alpha", 2));
+
+        assertEquals("STALE", delta("/a.txt", "h0", "h2", Map.of("beta", 1)).getStatus());
+        assertEquals("STALE", delta("/missing.txt", "h1", "h2", Map.of("beta", 1)).getStatus());
+        assertEquals("STALE", delta("/a.txt", "h1", "h2", Map.of("alpha", -5)).getStatus());
+        assertEquals(0, search("beta").getResultsCount());
+        assertEquals(2, search("alpha").getResults(0).getTotalFrequency());
+
+        // The client's fallback: re-index the whole document, after which deltas apply again
+        assertEquals("SUCCESS", index("/a.txt", "h2", Map.of("beta", 1)).getStatus());
+        assertEquals("SUCCESS", delta("/a.txt", "h2", "h3", Map.of("beta", 1)).getStatus());
+    }
+
+    @Test
+    public void tenantWithoutAnIndexIsStale() {
+        assertEquals("STALE", delta("/a.txt", "h1", "h2", Map.of("alpha", 1)).getStatus());
+    }
+
+    @Test
+    public void rejectsBadCredentials() {
+        FileEngineProto.IndexReply reply = call(observer -> server.computeIndexDelta(FileEngineProto.IndexDeltaRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken("forged.token")
+                .setFilePath("/a.txt")
+                .setBaseHash("h1")
+                .build(), observer));
+        assertEquals("ERROR", reply.getStatus());
+        assertEquals("Invalid API Key", reply.getMessage());
+    }
+
+    private FileEngineProto.RegisterReply register(String clientId) {
+        return call(observer -> server.registerClient(FileEngineProto.RegisterRequest.newBuilder()
+                .setClientId(clientId)
+                .build(), observer));
+    }
+
+    private FileEngineProto.IndexReply index(String path, String hash, Map<String, Integer> counts) {
+        return call(observer -> server.computeIndex(FileEngineProto.IndexRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .setFilePath(path)
+                .setContentHash(hash)
+                .putAllWordFrequencies(counts)
+                .build(), observer));
+    }
+
+    private FileEngineProto.IndexReply delta(String path, String base, String hash, Map<String, Integer> deltas) {
+        return call(observer -> server.computeIndexDelta(FileEngineProto.IndexDeltaRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .setFilePath(path)
+                .setBaseHash(base)
+                .setContentHash(hash)
+                .putAllTermDeltas(deltas)
+                .build(), observer));
+    }
+
+    private FileEngineProto.SearchReply search(String term) {
+        return call(observer -> server.computeSearch(FileEngineProto.SearchRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .addAllQueryTerms(List.of(term))
+                .build(), observer));
+    }
+}
@@ -0,0 +1,389 @@
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.common.TermDictionary;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// IndexStream and SearchStream through a FileServer on localhost
+public class FileServerStreamTest {
+    private final InvertedIndex index = new InvertedIndex();
+    private FileServer server;
+    private ManagedChannel channel;
+    private IndexServiceGrpc.IndexServiceBlockingStub blockingStub;
+    private IndexServiceGrpc.IndexServiceStub asyncStub;
+    private String token;
+
+    @BeforeEach
+    public void start() throws IOException {
+        server = new FileServer(index, 0);
+        int port = freePort();
+        server.start(port);
+        channel = ManagedChannelBuilder.forAddress("localhost", port).usePlaintext().build();
+        blockingStub = IndexServiceGrpc.newBlockingStub(channel);
+        asyncStub = IndexServiceGrpc.newStub(channel);
+        token = blockingStub.registerClient(FileEngineProto.RegisterRequest.newBuilder()
+                .setClientId("alice")
+                .build()).getSessionToken();
+    }
+
+    @AfterEach
+    public void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+        server.blockUntilShutdown();
+    }
+
+    @Test
+    public void failedDocumentsStillDefineTheirTerms() throws Exception {
+        TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+        List<FileEngineProto.IndexRequest> requests = List.of(
+                document(encoder, "alice", "", Map.of("grpc", 1)),
+                document(encoder, "bob", "/b.txt", Map.of("zeromq", 2)),
+                document(encoder, "alice", "/a.txt", Map.of("grpc", 3, "zeromq", 1)));
+        // The last document only refers to ids the failed ones defined
+        assertEquals(0, requests.get(2).getNewTermsCount());
+
+        FileEngineProto.IndexStreamReply reply = indexStream(requests);
+        assertEquals("PARTIAL", reply.getStatus());
+        assertEquals(1, reply.getIndexedCount());
+        assertEquals(2, reply.getFailedCount());
+        assertEquals("Missing file_path", reply.getFailures(0).getMessage());
+        assertEquals("client_id does not match the stream's client", reply.getFailures(1).getMessage());
+        assertEquals(Map.of("/a.txt", 3), index.search(List.of("grpc")));
+        assertEquals(Map.of("/a.txt", 1), index.search(List.of("zeromq")));
+    }
+
+    @Test
+    public void documentsAreAppliedABatchAtATime() throws Exception {
+        TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+        CompletableFuture<FileEngineProto.IndexStreamReply> summary = new CompletableFuture<>();
+        StreamObserver<FileEngineProto.IndexRequest> stream = asyncStub.indexStream(summaryOf(summary));
+        for (int i = 0; i < 255; i++) {
+            stream.onNext(document(encoder, "alice", "/doc" + i, Map.of("common", 1)));
+        }
+        Thread.sleep(300);
+        assertEquals(0, indexed());
+
+        // The 256th document completes the batch
+        stream.onNext(document(encoder, "alice", "/doc255", Map.of("common", 1)));
+        waitFor(() -> indexed() == 256);
+        for (int i = 256; i < 300; i++) {
+            stream.onNext(document(encoder, "alice", "/doc" + i, Map.of("common", 1)));
+        }
+        Thread.sleep(300);
+        assertEquals(256, indexed());
+
+        stream.onCompleted();
+        FileEngineProto.IndexStreamReply reply = summary.get(10, TimeUnit.SECONDS);
+        assertEquals("SUCCESS", reply.getStatus());
+        assertEquals(300, reply.getIndexedCount());
+        assertEquals(300, indexed());
+    }
+
+    @Test
+    public void abortedStreamsDropTheirPartialBatch() throws Exception {
+        TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+        CompletableFuture<FileEngineProto.IndexStreamReply> summary = new CompletableFuture<>();
+        StreamObserver<FileEngineProto.IndexRequest> stream = asyncStub.indexStream(summaryOf(summary));
+        for (int i = 0; i < 300; i++) {
+            stream.onNext(document(encoder, "alice", "/doc" + i, Map.of("common", 1)));
+        }
+        waitFor(() -> indexed() == 256);
+        Thread.sleep(200);
+        stream.onError(new RuntimeException("client gave up"));
+
+        // The client gets no summary, so the 44 documents it can't know the fate of are not applied
+        assertThrows(ExecutionException.class, () -> summary.get(10, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertEquals(256, indexed());
+
+        // Nothing of the aborted stream lingers for the next one
+        assertEquals("SUCCESS", indexStream(List.of(document(new TermDictionary.Encoder(), "alice", "/next", Map.of("common", 1))))
+                .getStatus());
+        assertEquals(257, indexed());
+    }
+
+    @Test
+    public void summaryListsTheFirstFailuresAndCountsTheRest() throws Exception {
+        TermDictionary.Encoder encoder = new TermDictionary.Encoder();
+        List<FileEngineProto.IndexRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            requests.add(document(encoder, "alice", "", Map.of("common", 1)));
+            if (i % 120 == 0) {
+                requests.add(document(encoder, "alice", "/doc" + i, Map.of("common", 1)));
+            }
+        }
+
+        FileEngineProto.IndexStreamReply reply = indexStream(requests);
+        assertEquals("PARTIAL", reply.getStatus());
+        assertEquals("Indexed 10 documents, 1200 failed", reply.getMessage());
+        assertEquals(10, reply.getIndexedCount());
+        assertEquals(1200, reply.getFailedCount());
+        assertEquals(1000, reply.getFailuresCount());
+        assertEquals(10, indexed());
+    }
+
+    @Test
+    public void streamsNeedCredentials() throws Exception {
+        FileEngineProto.IndexRequest forged = FileEngineProto.IndexRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken("not-a-token")
+                .setFilePath("/a.txt")
+                .putWordFrequencies("common", 1)
+                .build();
+        FileEngineProto.IndexStreamReply reply = indexStream(List.of(forged));
+        assertEquals("ERROR", reply.getStatus());
+        assertEquals("Invalid API Key", reply.getMessage());
+        assertEquals(0, indexed());
+    }
+
+    @Test
+    public void searchStreamWaitsForASlowReader() throws Exception {
+        // Long paths, so the whole result is many times the flow control window
+        Map<String, Map<String, Integer>> docs = new LinkedHashMap<>();
+        String directory = "/" + "x".repeat(200);
+        for (int i = 0; i < 40_000; i++) {
+            docs.put(directory + "/doc" + i, Map.of("common", 1));
+        }
+        index.indexDocuments(docs);
+        // The same service on a second server, counting the chunks it hands to gRPC
+        AtomicInteger sent = new AtomicInteger();
+        ServerInterceptor counter = new ServerInterceptor() {
+            @Override
+            public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers,
+                                                             ServerCallHandler<Q, R> next) {
+                return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+                    @Override
+                    public void sendMessage(R message) {
+                        sent.incrementAndGet();
+                        super.sendMessage(message);
+                    }
+                }, headers);
+            }
+        };
+        int port = freePort();
+        Server counted = ServerThreading.DEFAULT.start(port, ServerInterceptors.intercept(server, counter));
+        ManagedChannel slow = NettyChannelBuilder.forAddress("localhost", port)
+                .usePlaintext()
+                .flowControlWindow(64 << 10)
+                .build();
+        try {
+            BlockingQueue<FileEngineProto.SearchReply> chunks = new LinkedBlockingQueue<>();
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            CompletableFuture<ClientCallStreamObserver<FileEngineProto.SearchRequest>> call = new CompletableFuture<>();
+            IndexServiceGrpc.newStub(slow).searchStream(search("common").build(),
+                    new ClientResponseObserver<FileEngineProto.SearchRequest, FileEngineProto.SearchReply>() {
+                        @Override
+                        public void beforeStart(ClientCallStreamObserver<FileEngineProto.SearchRequest> requestStream) {
+                            requestStream.disableAutoRequestWithInitial(1);
+                            call.complete(requestStream);
+                        }
+
+                        @Override
+                        public void onNext(FileEngineProto.SearchReply reply) {
+                            chunks.add(reply);
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            done.completeExceptionally(t);
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            done.complete(null);
+                        }
+                    });
+            assertNotNull(chunks.poll(10, TimeUnit.SECONDS));
+            // With one chunk read, the server stops once the window and its buffer are full
+            Thread.sleep(500);
+            int paused = sent.get();
+            Thread.sleep(300);
+            assertEquals(paused, sent.get());
+            assertTrue(paused < 10, "sent " + paused + " of 80 chunks to a reader that took one");
+
+            call.get().request(Integer.MAX_VALUE);
+            done.get(10, TimeUnit.SECONDS);
+            assertEquals(80, sent.get());
+            assertEquals(79, chunks.size());
+            Set<String> paths = new HashSet<>();
+            for (FileEngineProto.SearchReply chunk : chunks) {
+                for (FileEngineProto.SearchResult result : chunk.getResultsList()) {
+                    assertTrue(paths.add(result.getDocumentPath()));
+                }
+            }
+            assertEquals(40_000 - 500, paths.size());
+        } finally {
+            slow.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            counted.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void pagesResumeWhereTheTokenLeftOff() {
+        for (int i = 0; i < 25; i++) {
+            index.indexDocument(String.format("/doc%02d", i), Map.of("common", 1));
+        }
+        List<String> paths = new ArrayList<>();
+        String pageToken = "";
+        int pages = 0;
+        do {
+            FileEngineProto.SearchReply reply = blockingStub.computeSearch(search("common")
+                    .setPageSize(10)
+                    .setPageToken(pageToken)
+                    .build());
+            assertEquals("", reply.getErrorMessage());
+            reply.getResultsList().forEach(result -> paths.add(result.getDocumentPath()));
+            pageToken = reply.getNextPageToken();
+            if (++pages == 1) {
+                // Changes between pages: a later page skips what was removed and picks up what was added
+                index.removeDocument("/doc15");
+                index.indexDocument("/doc25", Map.of("common", 1));
+            }
+        } while (!pageToken.isEmpty());
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i <= 25; i++) {
+            if (i != 15) {
+                expected.add(String.format("/doc%02d", i));
+            }
+        }
+        assertEquals(expected, paths);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void staleOrForgedPageTokensAreRefused() {
+        for (int i = 0; i < 5; i++) {
+            index.indexDocument("/doc" + i, Map.of("common", 1, "rare", 1));
+        }
+        String issued = blockingStub.computeSearch(search("common").setPageSize(2).build()).getNextPageToken();
+        assertFalse(issued.isEmpty());
+
+        assertEquals("Invalid page token: Page token does not match this query", pageError("rare", issued));
+        byte[] oldVersion = Base64.getUrlDecoder().decode(issued);
+        oldVersion[0] = 1;
+        assertEquals("Invalid page token: Malformed page token",
+                pageError("common", Base64.getUrlEncoder().withoutPadding().encodeToString(oldVersion)));
+        assertEquals("Invalid page token: Malformed page token", pageError("common", issued + "AAAA"));
+        assertTrue(pageError("common", "not a token!").startsWith("Invalid page token: "));
+        String negative = PageToken.encode(-7, SearchQueries.of(search("common").build()));
+        assertEquals("Invalid page token: Page token does not match this query", pageError("common", negative));
+    }
+
+    private FileEngineProto.SearchRequest.Builder search(String term) {
+        return FileEngineProto.SearchRequest.newBuilder()
+                .setClientId("alice")
+                .setSessionToken(token)
+                .addQueryTerms(term);
+    }
+
+    // The error of a one-result page of term resumed from pageToken
+    private String pageError(String term, String pageToken) {
+        FileEngineProto.SearchReply reply = blockingStub.computeSearch(search(term)
+                .setPageSize(1)
+                .setPageToken(pageToken)
+                .build());
+        assertEquals(0, reply.getResultsCount());
+        return reply.getErrorMessage();
+    }
+
+    // Documents in the index holding the term every test document has
+    private int indexed() {
+        return index.search(List.of("common")).size();
+    }
+
+    // A dictionary-encoded document, carrying the stream's credentials
+    private FileEngineProto.IndexRequest document(TermDictionary.Encoder encoder, String clientId, String path,
+                                                  Map<String, Integer> counts) {
+        return encoder.encode(FileEngineProto.IndexRequest.newBuilder()
+                .setClientId(clientId)
+                .setSessionToken(token)
+                .setFilePath(path)
+                .putAllWordFrequencies(counts)).build();
+    }
+
+    // Send the documents on one IndexStream and wait for its summary
+    private FileEngineProto.IndexStreamReply indexStream(List<FileEngineProto.IndexRequest> requests) throws Exception {
+        CompletableFuture<FileEngineProto.IndexStreamReply> summary = new CompletableFuture<>();
+        StreamObserver<FileEngineProto.IndexRequest> stream = asyncStub.indexStream(summaryOf(summary));
+        for (FileEngineProto.IndexRequest request : requests) {
+            stream.onNext(request);
+        }
+        stream.onCompleted();
+        return summary.get(10, TimeUnit.SECONDS);
+    }
+
+    private static StreamObserver<FileEngineProto.IndexStreamReply> summaryOf(
+            CompletableFuture<FileEngineProto.IndexStreamReply> summary) {
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(FileEngineProto.IndexStreamReply reply) {
+                summary.complete(reply);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                summary.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        };
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Registration and tenant routing, calling the service methods directly without a transport
+public class FileServerTenantTest {
+    private final InvertedIndex shared = new InvertedIndex();
+    private final FileServer server = new FileServer(new TenantIndexes(shared, IndexStorage.HEAP, 0, 16), 0, new ServerMetrics());
+
+    @Test
+    public void secondRegistrationOfAnIdCannotReachTheFirstOnesDocuments() {
+        FileEngineProto.RegisterReply owner = register("victim", "");
+        assertEquals("SUCCESS", owner.getStatus());
+        assertEquals("SUCCESS", index("victim", owner.getSessionToken(), "/secret.txt", "payroll").getStatus());
+
+        FileEngineProto.RegisterReply attacker = register("victim", "");
+        assertEquals("ERROR", attacker.getStatus());
+        assertTrue(attacker.getApiKey().isEmpty());
+        assertTrue(attacker.getSessionToken().isEmpty());
+        assertEquals("ERROR", register("victim", "not-the-key").getStatus());
+
+        // Nothing the attacker holds gets into the partition, for reading or writing
+        assertEquals("Invalid API Key", search("victim", attacker.getSessionToken(), "payroll").getErrorMessage());
+        assertEquals("Invalid API Key", search("victim", "forged.token", "payroll").getErrorMessage());
+        assertEquals("ERROR", index("victim", "forged.token", "/secret.txt", "overwritten").getStatus());
+
+        // And the owner is not locked out
+        FileEngineProto.SearchReply results = search("victim", owner.getSessionToken(), "payroll");
+        assertEquals(1, results.getResultsCount());
+        assertEquals("/secret.txt", results.getResults(0).getDocumentPath());
+    }
+
+    @Test
+    public void ownerCanReRegisterWithItsKey() {
+        FileEngineProto.RegisterReply first = register("alice", "");
+        index("alice", first.getSessionToken(), "/a.txt", "grpc");
+
+        FileEngineProto.RegisterReply second = register("alice", first.getApiKey());
+        assertEquals("SUCCESS", second.getStatus());
+        assertEquals("Invalid API Key", search("alice", first.getSessionToken(), "grpc").getErrorMessage());
+        assertEquals(1, search("alice", second.getSessionToken(), "grpc").getResultsCount());
+    }
+
+    @Test
+    public void tenantsOnlySeeTheirOwnDocuments() {
+        FileEngineProto.RegisterReply alice = register("alice", "");
+        FileEngineProto.RegisterReply bob = register("bob", "");
+        index("alice", alice.getSessionToken(), "/alice.txt", "shared");
+        index("bob", bob.getSessionToken(), "/bob.txt", "shared");
+
+        FileEngineProto.SearchReply results = search("alice", alice.getSessionToken(), "shared");
+        assertEquals(1, results.getResultsCount());
+        assertEquals("/alice.txt", results.getResults(0).getDocumentPath());
+        assertEquals(0, shared.documentCount());
+    }
+
+    @Test
+    public void shardServesOnlyItsCoordinator() {
+        FileEngineProto.RegisterReply before = register("alice", "");
+        server.setClusterKey("cluster-secret");
+
+        assertEquals("ERROR", register("mallory", "").getStatus());
+        // Credentials issued before it became a shard no longer work either
+        assertEquals("ERROR", index("alice", before.getSessionToken(), "/a.txt", "grpc").getStatus());
+        assertEquals("Invalid API Key", search("alice", before.getSessionToken(), "grpc").getErrorMessage());
+    }
+
+    @Test
+    public void registrationNeedsAClientId() {
+        assertEquals("ERROR", register("", "").getStatus());
+    }
+
+    private FileEngineProto.RegisterReply register(String clientId, String apiKey) {
+        return call(observer -> server.registerClient(FileEngineProto.RegisterRequest.newBuilder()
+                .setClientId(clientId)
+                .setApiKey(apiKey)
+                .build(), observer));
+    }
+
+    private FileEngineProto.IndexReply index(String clientId, String sessionToken, String path, String term) {
+        return call(observer -> server.computeIndex(FileEngineProto.IndexRequest.newBuilder()
+                .setClientId(clientId)
+                .setSessionToken(sessionToken)
+                .setFilePath(path)
+                .putWordFrequencies(term, 1)
+                .build(), observer));
+    }
+
+    private FileEngineProto.SearchReply search(String clientId, String sessionToken, String term) {
+        return call(observer -> server.computeSearch(FileEngineProto.SearchRequest.newBuilder()
+                .setClientId(clientId)
+                .setSessionToken(sessionToken)
+                .addQueryTerms(term)
+                .build(), observer));
+    }
+
+    // The single reply of a unary call
+    static <T> T call(Consumer<StreamObserver<T>> method) {
+        List<T> replies = new ArrayList<>();
+        boolean[] completed = new boolean[1];
+        method.accept(new StreamObserver<>() {
+            @Override
+            public void onNext(T value) {
+                replies.add(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new AssertionError("Call failed", t);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed[0] = true;
+            }
+        });
+        assertEquals(1, replies.size());
+        assertTrue(completed[0]);
+        return replies.get(0);
+    }
+}
@@ -0,0 +1,153 @@
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.BooleanQuery;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Cache hits and invalidation when the index changes
+public class QueryCacheTest {
+    // "grpc" and "zeromq" fall in different version stripes, so a write to one never touches the other's entries
+    private final InvertedIndex index = new InvertedIndex();
+    private final QueryCache cache = new QueryCache(index, 1 << 20);
+    private int searches;
+
+    @Test
+    public void repeatedQueryHits() {
+        index.indexDocument("/a.txt", Map.of("grpc", 2));
+
+        cache.get(List.of("grpc"), 0, search("/a.txt"));
+        cache.get(List.of("GRPC"), 0, search("/a.txt"));
+        cache.get(new BooleanQuery.Or(List.of(new BooleanQuery.Term("grpc"))), 0, search("/a.txt"));
+
+        assertEquals(1, searches);
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void writeToAQueryTermInvalidates() {
+        index.indexDocument("/a.txt", Map.of("grpc", 2));
+        cache.get(List.of("grpc"), 0, search("/a.txt"));
+
+        index.indexDocument("/b.txt", Map.of("grpc", 1));
+        cache.get(List.of("grpc"), 0, search("/a.txt", "/b.txt"));
+        assertEquals(2, searches);
+
+        index.removeDocument("/a.txt");
+        cache.get(List.of("grpc"), 0, search("/b.txt"));
+        assertEquals(3, searches);
+    }
+
+    @Test
+    public void unrelatedWriteKeepsUnrankedEntriesOnly() {
+        index.indexDocument("/a.txt", Map.of("grpc", 2));
+        cache.get(List.of("grpc"), 0, search("/a.txt"));
+        cache.get(List.of("grpc"), 10, search("/a.txt"));
+        assertEquals(2, searches);
+
+        // BM25 depends on the document count, so ranked entries go stale on any write
+        index.indexDocument("/b.txt", Map.of("zeromq", 1));
+        cache.get(List.of("grpc"), 0, search("/a.txt"));
+        assertEquals(2, searches);
+        cache.get(List.of("grpc"), 10, search("/a.txt"));
+        assertEquals(3, searches);
+    }
+
+    @Test
+    public void negatedAndExpandedQueriesInvalidateOnAnyWrite() {
+        index.indexDocument("/a.txt", Map.of("grpc", 2));
+        BooleanQuery not = new BooleanQuery.And(List.of(
+                new BooleanQuery.Term("grpc"), new BooleanQuery.Not(new BooleanQuery.Term("shard"))));
+        BooleanQuery prefix = new BooleanQuery.Prefix("gr");
+        cache.get(not, 0, search("/a.txt"));
+        cache.get(prefix, 0, search("/a.txt"));
+        cache.get(not, 0, search("/a.txt"));
+        cache.get(prefix, 0, search("/a.txt"));
+        assertEquals(2, searches);
+
+        // A new term can newly match the prefix, or a new document newly satisfy the NOT
+        index.indexDocument("/b.txt", Map.of("zeromq", 1));
+        cache.get(not, 0, search("/a.txt"));
+        cache.get(prefix, 0, search("/a.txt"));
+        assertEquals(4, searches);
+    }
+
+    @Test
+    public void tenantsDoNotShareEntries() {
+        InvertedIndex other = new InvertedIndex();
+        index.indexDocument("/a.txt", Map.of("grpc", 2));
+        other.indexDocument("/b.txt", Map.of("grpc", 2));
+        BooleanQuery query = new BooleanQuery.Term("grpc");
+
+        cache.get("alice", index, query, 0, search("/a.txt"));
+        FileEngineProto.SearchReply reply = cache.get("bob", other, query, 0, search("/b.txt"));
+        assertEquals("/b.txt", reply.getResults(0).getDocumentPath());
+        // An id that extends another is still its own tenant
+        cache.get("alice1", index, query, 0, search("/a.txt"));
+        assertEquals(3, searches);
+
+        cache.get("alice", index, query, 0, search("/a.txt"));
+        assertEquals(3, searches);
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void disabledAndOversizedRepliesAreNotCached() {
+        index.indexDocument("/a.txt", Map.of("grpc", 2));
+        QueryCache disabled = new QueryCache(index, 0);
+        disabled.get(List.of("grpc"), 0, search("/a.txt"));
+        disabled.get(List.of("grpc"), 0, search("/a.txt"));
+        assertEquals(2, searches);
+        assertEquals(0, disabled.size());
+
+        // A reply may take at most an eighth of the cap
+        QueryCache small = new QueryCache(index, 8 * 1024);
+        String[] paths = new String[200];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = "/docs/long/enough/path/" + i + ".txt";
+        }
+        small.get(List.of("grpc"), 0, search(paths));
+        small.get(List.of("grpc"), 0, search(paths));
+        assertEquals(4, searches);
+        assertEquals(0, small.size());
+        assertEquals(0, small.bytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWithinTheCap() {
+        QueryCache small = new QueryCache(index, 8 * 1024);
+        for (int i = 0; i < 200; i++) {
+            small.get(List.of("term" + i), 0, search("/a.txt"));
+        }
+        assertEquals(200, searches);
+        assertTrue(small.bytes() <= 8 * 1024);
+        assertTrue(small.size() < 200);
+
+        // The newest entry survived, the oldest did not
+        small.get(List.of("term199"), 0, search("/a.txt"));
+        assertEquals(200, searches);
+        small.get(List.of("term0"), 0, search("/a.txt"));
+        assertEquals(201, searches);
+    }
+
+    // A search that counts its runs and replies with the given paths
+    private Supplier<FileEngineProto.SearchReply> search(String... paths) {
+        return () -> {
+            searches++;
+            FileEngineProto.SearchReply.Builder reply = FileEngineProto.SearchReply.newBuilder();
+            for (String path : paths) {
+                reply.addResults(FileEngineProto.SearchResult.newBuilder().setDocumentPath(path).setTotalFrequency(1));
+            }
+            return reply.build();
+        };
+    }
+}
@@ -0,0 +1,96 @@
+package com.rafay.fileengine.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.rafay.fileengine.proto.FileEngineProto;
+import com.rafay.fileengine.proto.IndexServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Which threads handlers run on, and how many at once, for each ServerThreading setting
+public class ServerThreadingTest {
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger mostRunning = new AtomicInteger();
+    private final Set<Thread> handlerThreads = ConcurrentHashMap.newKeySet();
+    private Server server;
+    private ManagedChannel channel;
+
+    @AfterEach
+    public void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void virtualHandlersGetAThreadEach() throws Exception {
+        searchAtOnce(new ServerThreading(ServerThreading.Handlers.VIRTUAL, 0, 0, 0, 0), 6);
+        assertEquals(6, mostRunning.get());
+        assertTrue(handlerThreads.stream().allMatch(Thread::isVirtual));
+    }
+
+    @Test
+    public void boundedHandlersShareAFixedPool() throws Exception {
+        searchAtOnce(new ServerThreading(ServerThreading.Handlers.BOUNDED, 2, 0, 0, 0), 6);
+        assertEquals(2, mostRunning.get());
+        assertEquals(2, handlerThreads.size());
+        for (Thread thread : handlerThreads) {
+            assertFalse(thread.isVirtual());
+            assertTrue(thread.isDaemon());
+            assertTrue(thread.getName().startsWith("grpc-handler-"), thread.getName());
+        }
+    }
+
+    @Test
+    public void callsPerConnectionAreCapped() throws Exception {
+        // Own event loops too, so that configuration is exercised end to end
+        searchAtOnce(new ServerThreading(ServerThreading.Handlers.VIRTUAL, 0, 2, 1, 64 << 10), 4);
+        assertEquals(1, mostRunning.get());
+    }
+
+    // Start a server with the given threading and send it `calls` searches at once over one connection
+    private void searchAtOnce(ServerThreading threading, int calls) throws Exception {
+        int port = FileServerStreamTest.freePort();
+        server = threading.start(port, new SlowSearches().bindService());
+        channel = ManagedChannelBuilder.forAddress("localhost", port).usePlaintext().build();
+        IndexServiceGrpc.IndexServiceFutureStub stub = IndexServiceGrpc.newFutureStub(channel);
+        List<ListenableFuture<FileEngineProto.SearchReply>> replies = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            replies.add(stub.computeSearch(FileEngineProto.SearchRequest.newBuilder().addQueryTerms("t").build()));
+        }
+        for (var reply : replies) {
+            reply.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    // Holds each search long enough for the others to arrive
+    private class SlowSearches extends IndexServiceGrpc.IndexServiceImplBase {
+        @Override
+        public void computeSearch(FileEngineProto.SearchRequest request,
+                                  StreamObserver<FileEngineProto.SearchReply> responseObserver) {
+            handlerThreads.add(Thread.currentThread());
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            responseObserver.onNext(FileEngineProto.SearchReply.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TenantIndexesTest {
+    private final InvertedIndex shared = new InvertedIndex();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void sharedModeGivesEveryoneTheSameIndex() {
+        TenantIndexes tenants = new TenantIndexes(shared);
+        assertSame(shared, tenants.forWrite("alice").index());
+        assertSame(shared, tenants.forSearch("bob", false).index());
+        assertSame(shared, tenants.forWrite("").index());
+        assertEquals(0, tenants.tenantCount());
+    }
+
+    @Test
+    public void tenantsAreIsolated() {
+        TenantIndexes tenants = new TenantIndexes(shared, IndexStorage.HEAP, 0, 16);
+        assertNull(tenants.forSearch("alice", false));
+        assertSame(shared, tenants.forStats("alice").index());
+
+        TenantIndexes.Partition alice = tenants.forWrite("alice");
+        TenantIndexes.Partition bob = tenants.forWrite("bob");
+        assertNotSame(alice.index(), bob.index());
+        assertNotSame(shared, alice.index());
+        assertSame(alice, tenants.forWrite("alice"));
+        assertSame(alice, tenants.forSearch("alice", false));
+        assertSame(shared, tenants.forSearch("alice", true).index());
+        assertEquals("alice", alice.tenant());
+
+        alice.index().indexDocument("/a.txt", Map.of("secret", 1));
+        assertTrue(bob.index().search(List.of("secret")).isEmpty());
+        assertTrue(shared.search(List.of("secret")).isEmpty());
+        assertEquals(2, tenants.tenantCount());
+    }
+
+    @Test
+    public void emptyClientIdNamesNoTenant() {
+        TenantIndexes tenants = new TenantIndexes(shared, IndexStorage.HEAP, 0, 16);
+        assertThrows(IllegalArgumentException.class, () -> tenants.forWrite(""));
+        assertThrows(IllegalArgumentException.class, () -> tenants.forSearch("", false));
+        // Searching the shared partition needs no tenant
+        assertSame(shared, tenants.forSearch("", true).index());
+        assertSame(shared, tenants.forStats("").index());
+        assertEquals(0, tenants.tenantCount());
+    }
+
+    @Test
+    public void tenantLimit() {
+        TenantIndexes tenants = new TenantIndexes(shared, IndexStorage.HEAP, 0, 2);
+        tenants.forWrite("alice");
+        tenants.forWrite("bob");
+        assertThrows(IllegalStateException.class, () -> tenants.forWrite("carol"));
+        assertNull(tenants.forSearch("carol", false));
+        // Existing tenants are unaffected
+        tenants.forWrite("alice");
+        assertEquals(2, tenants.tenantCount());
+    }
+
+    @Test
+    public void quotaIsCheckedAgainstThePartitionsData() {
+        TenantIndexes tenants = new TenantIndexes(shared, IndexStorage.HEAP, 4096, 16);
+        TenantIndexes.Partition alice = tenants.forWrite("alice");
+        TenantIndexes.Partition bob = tenants.forWrite("bob");
+        assertFalse(alice.overQuota());
+        for (int i = 0; !alice.overQuota(); i++) {
+            assertTrue(i < 10_000, "quota never reached");
+            alice.index().indexDocument("/doc" + i + ".txt", Map.of("term" + i, 1, "common", 2));
+        }
+        assertTrue(alice.index().dataBytes() >= 4096);
+        assertFalse(bob.overQuota());
+        assertFalse(new TenantIndexes(shared).forWrite("alice").overQuota());
+    }
+
+    @Test
+    public void persistentTenantsAreRecovered() throws IOException {
+        String accented = "ren\u00e9e";
+        try (TenantIndexes tenants = TenantIndexes.open(shared, dir, Duration.ofHours(1), IndexStorage.HEAP, 0, 16)) {
+            tenants.forWrite("alice").index().indexDocument("/a.txt", Map.of("grpc", 1));
+            tenants.forWrite(accented).index().indexDocument("/r.txt", Map.of("zeromq", 2));
+        }
+        Files.createDirectories(dir.resolve("t-not-hex"));
+
+        try (TenantIndexes tenants = TenantIndexes.open(shared, dir, Duration.ofHours(1), IndexStorage.HEAP, 0, 16)) {
+            assertEquals(2, tenants.tenantCount());
+            assertEquals(Map.of("/a.txt", 1), tenants.forSearch("alice", false).index().search(List.of("grpc")));
+            assertEquals(Map.of("/r.txt", 2), tenants.forSearch(accented, false).index().search(List.of("zeromq")));
+            assertTrue(tenants.forSearch("alice", false).index().search(List.of("zeromq")).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.rafay.fileengine.server;
+
+import com.rafay.fileengine.auth.ClientManager;
+import com.rafay.fileengine.common.ZmqCodec;
+import com.rafay.fileengine.index.IndexStorage;
+import com.rafay.fileengine.index.InvertedIndex;
+import com.rafay.fileengine.proto.FileEngineProto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("deprecation")
+public class ZeroMQFileServerTest {
+    private final ZMQ.Context context = ZMQ.context(1);
+    private ZeroMQFileServer server;
+    private int port;
+
+    @AfterEach
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+        context.term();
+    }
+
+    @Test
+    public void partitionsByClientNeedAuthentication() {
+        TenantIndexes tenants = new TenantIndexes(new InvertedIndex(), IndexStorage.HEAP, 0, 16);
+        assertThrows(IllegalArgumentException.class, () -> new ZeroMQFileServer(tenants, 1, new ServerMetrics()));
+
+        new ZeroMQFileServer(tenants, 1, new ServerMetrics(), new ClientManager(Duration.ofMinutes(5))).stop();
+    }
+
+    @Test
+    public void repliesReachTheClientThatAsked() throws Exception {
+        InvertedIndex index = new InvertedIndex();
+        int clients = 12;
+        for (int i = 0; i < clients; i++) {
+            index.indexDocument("/doc" + i + ".txt", Map.of("term" + i, i + 1));
+        }
+        start(new ZeroMQFileServer(index, 4));
+
+        // REQ clients in both formats, and pipelining DEALER clients, all at once
+        ExecutorService threads = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                int client = i;
+                done.add(threads.submit(() -> {
+                    switch (client % 3) {
+                        case 0 -> askOverReq(client, ZmqCodec.Format.JSON);
+                        case 1 -> askOverReq(client, ZmqCodec.Format.BINARY);
+                        default -> askOverDealer(client);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void workerErrorsComeBackAsErrorReplies() throws IOException {
+        TenantIndexes tenants = new TenantIndexes(new InvertedIndex());
+        start(new ZeroMQFileServer(tenants, 2, new ServerMetrics(), new ClientManager(Duration.ofMinutes(5))));
+        ZMQ.Socket req = connect(ZMQ.REQ, null);
+
+        FileEngineProto.ZmqMessage search = FileEngineProto.ZmqMessage.newBuilder()
+                .setRequestId(7)
+                .setSearchRequest(FileEngineProto.SearchRequest.newBuilder().setClientId("mallory").addQueryTerms("x"))
+                .build();
+        FileEngineProto.ZmqMessage reply = roundTrip(req, ZmqCodec.encode(search, ZmqCodec.Format.BINARY));
+        assertEquals("Invalid API Key", reply.getError());
+        assertEquals(7, reply.getRequestId());
+
+        FileEngineProto.ZmqMessage misdirected = FileEngineProto.ZmqMessage.newBuilder()
+                .setIndexReply(FileEngineProto.IndexReply.newBuilder().setStatus("SUCCESS"))
+                .build();
+        assertEquals("Unexpected message: INDEX_REPLY",
+                roundTrip(req, ZmqCodec.encode(misdirected, ZmqCodec.Format.BINARY)).getError());
+
+        // Neither format decodes these, and the worker that got them keeps serving
+        for (int i = 0; i < 4; i++) {
+            assertEquals("Malformed message", roundTrip(req, new byte[]{ZmqCodec.BINARY_MARKER, 0x0a, 0x7f}).getError());
+            assertEquals("Malformed message", roundTrip(req, "{\"type\":\"SEARCH\"".getBytes(StandardCharsets.UTF_8)).getError());
+        }
+        req.close();
+    }
+
+    private void start(ZeroMQFileServer server) throws IOException {
+        this.server = server;
+        port = FileServerStreamTest.freePort();
+        server.start(port);
+    }
+
+    private ZMQ.Socket connect(int type, String identity) {
+        ZMQ.Socket socket = context.socket(type);
+        socket.setLinger(0);
+        socket.setReceiveTimeOut(10_000);
+        if (identity != null) {
+            socket.setIdentity(identity.getBytes(StandardCharsets.UTF_8));
+        }
+        socket.connect("tcp://localhost:" + port);
+        return socket;
+    }
+
+    // One request at a time; the reply must be in the request's format and be for this client's term
+    private void askOverReq(int client, ZmqCodec.Format format) {
+        ZMQ.Socket req = connect(ZMQ.REQ, null);
+        try {
+            for (int i = 0; i < 30; i++) {
+                byte[] frame = ZmqCodec.encode(searchFor(client, 0), format);
+                req.send(frame, 0);
+                byte[] reply = req.recv(0);
+                assertTrue(reply != null, "client " + client + " got no reply");
+                assertEquals(format, ZmqCodec.formatOf(reply));
+                assertOwnResult(client, ZmqCodec.decode(reply));
+            }
+        } finally {
+            req.close();
+        }
+    }
+
+    // Many requests sent before any reply is read, matched up again by request id
+    private void askOverDealer(int client) {
+        ZMQ.Socket dealer = connect(ZMQ.DEALER, "dealer-" + client);
+        try {
+            Map<Long, Boolean> answered = new HashMap<>();
+            for (long id = 1; id <= 30; id++) {
+                dealer.send(ZmqCodec.encode(searchFor(client, id), ZmqCodec.Format.BINARY), 0);
+                answered.put(id, false);
+            }
+            for (int i = 0; i < 30; i++) {
+                byte[] reply = dealer.recv(0);
+                assertTrue(reply != null, "client " + client + " got no reply");
+                FileEngineProto.ZmqMessage message = ZmqCodec.decode(reply);
+                assertEquals(false, answered.put(message.getRequestId(), true));
+                assertOwnResult(client, message);
+            }
+        } finally {
+            dealer.close();
+        }
+    }
+
+    private static FileEngineProto.ZmqMessage searchFor(int client, long requestId) {
+        return FileEngineProto.ZmqMessage.newBuilder()
+                .setRequestId(requestId)
+                .setSearchRequest(FileEngineProto.SearchRequest.newBuilder().addQueryTerms("term" + client))
+                .build();
+    }
+
+    private static void assertOwnResult(int client, FileEngineProto.ZmqMessage reply) {
+        FileEngineProto.SearchReply search = reply.getSearchReply();
+        assertEquals(1, search.getResultsCount(), "client " + client + ": " + reply);
+        assertEquals("/doc" + client + ".txt", search.getResults(0).getDocumentPath());
+        assertEquals(client + 1, search.getResults(0).getTotalFrequency());
+    }
+
+    private static FileEngineProto.ZmqMessage roundTrip(ZMQ.Socket req, byte[] frame) {
+        req.send(frame, 0);
+        byte[] reply = req.recv(0);
+        assertTrue(reply != null, "no reply");
+        return ZmqCodec.decode(reply);
+    }
+}